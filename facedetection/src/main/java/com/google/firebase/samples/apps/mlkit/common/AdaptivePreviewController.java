@@ -0,0 +1,311 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Moves the camera between preview operating points, sizes and frame rates ordered from the best
+ * to the cheapest, so that detection keeps up with the camera.
+ *
+ * <p>Camera frames, dropped frames and detection latencies are counted over windows of {@link
+ * #WINDOW_NANOS}. A window in which more than {@link #MAX_DROP_RATE} of the frames were dropped,
+ * or whose mean latency is over the latency budget, steps down to the next cheaper point. Stepping
+ * back up takes {@code upgradeWindows} good windows in a row, with few drops and half the budget.
+ * When a step up is followed by a step down within {@link #FAILED_UPGRADE_NANOS}, the point above
+ * was too much after all and the number of good windows needed doubles, so the camera does not
+ * keep bouncing between two points.
+ *
+ * <p>{@link #evaluate} proposes a transition, which the camera applies and confirms with {@link
+ * #onTransitionDone}. The first window after a transition is discarded, since reconfiguring the
+ * camera drops frames itself. All methods are thread safe.
+ */
+public final class AdaptivePreviewController implements FrameLoadListener {
+
+  /** Length of the windows the load is measured over. */
+  static final long WINDOW_NANOS = 1_000_000_000L;
+
+  /** Fraction of dropped frames above which a window is bad. */
+  static final float MAX_DROP_RATE = 0.25f;
+
+  /** Fraction of dropped frames under which a window is good. */
+  static final float GOOD_DROP_RATE = 0.05f;
+
+  /** A step down this soon after a step up doubles the good windows needed to step up. */
+  static final long FAILED_UPGRADE_NANOS = 10_000_000_000L;
+
+  private static final int BASE_UPGRADE_WINDOWS = 3;
+  private static final int MAX_UPGRADE_WINDOWS = 48;
+  private static final int MAX_HISTORY = 32;
+
+  /** A preview size and frame rate. */
+  public static final class OperatingPoint {
+    private final int width;
+    private final int height;
+    private final float fps;
+
+    public OperatingPoint(int width, int height, float fps) {
+      this.width = width;
+      this.height = height;
+      this.fps = fps;
+    }
+
+    public int getWidth() {
+      return width;
+    }
+
+    public int getHeight() {
+      return height;
+    }
+
+    public float getFps() {
+      return fps;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof OperatingPoint)) {
+        return false;
+      }
+      OperatingPoint other = (OperatingPoint) o;
+      return width == other.width && height == other.height && fps == other.fps;
+    }
+
+    @Override
+    public int hashCode() {
+      return (width * 31 + height) * 31 + Float.floatToIntBits(fps);
+    }
+
+    @Override
+    public String toString() {
+      return width + "x" + height + "@" + fps;
+    }
+  }
+
+  /** A move from one operating point to another. */
+  public static final class Transition {
+    private final long timestampNanos;
+    private final OperatingPoint from;
+    private final OperatingPoint to;
+    private final String reason;
+
+    Transition(long timestampNanos, OperatingPoint from, OperatingPoint to, String reason) {
+      this.timestampNanos = timestampNanos;
+      this.from = from;
+      this.to = to;
+      this.reason = reason;
+    }
+
+    /** Returns when the camera was reconfigured, in {@link System#nanoTime()} time. */
+    public long getTimestampNanos() {
+      return timestampNanos;
+    }
+
+    public OperatingPoint getFrom() {
+      return from;
+    }
+
+    public OperatingPoint getTo() {
+      return to;
+    }
+
+    /** Returns the measurements that led to the transition. */
+    public String getReason() {
+      return reason;
+    }
+
+    @Override
+    public String toString() {
+      return from + " -> " + to + " (" + reason + ")";
+    }
+  }
+
+  private final long latencyBudgetNanos;
+
+  private boolean enabled = true;
+  private List<OperatingPoint> points = Collections.emptyList();
+  private int current;
+  private int pending = -1;
+  private String pendingReason;
+
+  private long windowStartNanos = -1;
+  private boolean settling;
+  private int framesReceived;
+  private int framesDropped;
+  private int detections;
+  private long latencySumNanos;
+
+  private int goodWindows;
+  private int upgradeWindows = BASE_UPGRADE_WINDOWS;
+  private boolean upgraded;
+  private long lastUpgradeNanos;
+
+  private final ArrayList<Transition> history = new ArrayList<>();
+
+  /**
+   * @param latencyBudgetNanos mean detection latency above which the preview is made cheaper
+   */
+  public AdaptivePreviewController(long latencyBudgetNanos) {
+    this.latencyBudgetNanos = latencyBudgetNanos;
+  }
+
+  /**
+   * Sets the operating points, from the best to the cheapest, and starts from the first one. The
+   * transition history is kept. Setting the points already set, as when the camera is opened
+   * again, keeps the current point and how many good windows a step up takes; only the window
+   * being measured starts over.
+   */
+  public synchronized void setOperatingPoints(List<OperatingPoint> points) {
+    pending = -1;
+    windowStartNanos = -1;
+    goodWindows = 0;
+    if (this.points.equals(points)) {
+      return;
+    }
+    this.points = new ArrayList<>(points);
+    current = 0;
+    upgradeWindows = BASE_UPGRADE_WINDOWS;
+    upgraded = false;
+  }
+
+  public synchronized void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public synchronized boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Counts a frame received from the camera, whether it is processed or not. */
+  public synchronized void onFrameReceived() {
+    framesReceived++;
+  }
+
+  @Override
+  public synchronized void onFrameDropped() {
+    framesDropped++;
+  }
+
+  @Override
+  public synchronized void onFrameDetected(long latencyNanos) {
+    detections++;
+    latencySumNanos += latencyNanos;
+  }
+
+  /**
+   * Closes the current window if it is over and decides whether to move.
+   *
+   * @return the index of the operating point to move to, or -1 to stay
+   */
+  public synchronized int evaluate(long nowNanos) {
+    if (points.isEmpty() || pending >= 0) {
+      return -1;
+    }
+    if (windowStartNanos < 0) {
+      // The camera has just started.
+      startWindow(nowNanos, true);
+      return -1;
+    }
+    if (nowNanos - windowStartNanos < WINDOW_NANOS) {
+      return -1;
+    }
+    boolean measured = !settling && framesReceived > 0;
+    float dropRate = framesReceived == 0 ? 0f : (float) framesDropped / framesReceived;
+    long meanLatency = detections == 0 ? 0 : latencySumNanos / detections;
+    String reason =
+        "drops " + Math.round(dropRate * 100) + "%, latency " + meanLatency / 1_000_000 + " ms";
+    startWindow(nowNanos, false);
+    if (!measured || !enabled) {
+      return -1;
+    }
+    if (dropRate > MAX_DROP_RATE || meanLatency > latencyBudgetNanos) {
+      goodWindows = 0;
+      if (current + 1 < points.size()) {
+        if (upgraded && nowNanos - lastUpgradeNanos < FAILED_UPGRADE_NANOS) {
+          upgradeWindows = Math.min(MAX_UPGRADE_WINDOWS, upgradeWindows * 2);
+        }
+        return propose(current + 1, reason);
+      }
+      return -1;
+    }
+    if (dropRate < GOOD_DROP_RATE && meanLatency < latencyBudgetNanos / 2) {
+      goodWindows++;
+      if (goodWindows >= upgradeWindows && current > 0) {
+        goodWindows = 0;
+        return propose(current - 1, reason);
+      }
+    } else {
+      goodWindows = 0;
+    }
+    return -1;
+  }
+
+  /**
+   * Confirms the transition proposed by {@link #evaluate}.
+   *
+   * @param applied whether the camera now runs at the proposed point; if not, it stays at the
+   *     current one
+   */
+  public synchronized void onTransitionDone(boolean applied, long nowNanos) {
+    if (pending < 0) {
+      return;
+    }
+    if (applied) {
+      if (pending < current) {
+        upgraded = true;
+        lastUpgradeNanos = nowNanos;
+      }
+      if (history.size() == MAX_HISTORY) {
+        history.remove(0);
+      }
+      history.add(
+          new Transition(nowNanos, points.get(current), points.get(pending), pendingReason));
+      current = pending;
+    }
+    pending = -1;
+    startWindow(nowNanos, true);
+  }
+
+  /** Returns the operating point the camera runs at, or null before any was set. */
+  public synchronized OperatingPoint getCurrentPoint() {
+    return points.isEmpty() ? null : points.get(current);
+  }
+
+  /**
+   * Returns the operating point proposed by {@link #evaluate} and not yet confirmed, or null if
+   * there is none.
+   */
+  public synchronized OperatingPoint getPendingPoint() {
+    return pending < 0 ? null : points.get(pending);
+  }
+
+  /** Returns the index of the current operating point, 0 being the best. */
+  public synchronized int getCurrentIndex() {
+    return current;
+  }
+
+  public synchronized List<OperatingPoint> getOperatingPoints() {
+    return Collections.unmodifiableList(points);
+  }
+
+  /** Returns the last transitions, oldest first. */
+  public synchronized List<Transition> getHistory() {
+    return new ArrayList<>(history);
+  }
+
+  private int propose(int index, String reason) {
+    pending = index;
+    pendingReason = reason;
+    return index;
+  }
+
+  // Starts a new window, which is not measured if it only lets the camera settle.
+  private void startWindow(long nowNanos, boolean settle) {
+    settling = settle;
+    windowStartNanos = nowNanos;
+    framesReceived = 0;
+    framesDropped = 0;
+    detections = 0;
+    latencySumNanos = 0;
+  }
+}
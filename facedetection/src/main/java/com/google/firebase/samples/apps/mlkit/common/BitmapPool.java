@@ -0,0 +1,125 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps released bitmaps around so converting the next camera frame of the same size can reuse
+ * one instead of allocating a new one, which at 20 fps otherwise keeps the garbage collector busy
+ * with bitmaps of several hundred kilobytes each.
+ *
+ * <p>Bitmaps are matched by width, height and config. The pool holds at most {@code maxBytes} of
+ * released bitmaps; the least recently released ones are recycled first when it is full or when
+ * the system asks the app to trim its memory.
+ */
+public class BitmapPool {
+
+  private final long maxBytes;
+
+  // Released bitmaps, least recently released first.
+  private final List<Bitmap> free = new ArrayList<>();
+  private long pooledBytes;
+
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /** @param maxBytes upper bound for the size of the bitmaps held by the pool */
+  public BitmapPool(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Returns a mutable bitmap of the given size and config, reused from the pool if one was
+   * released. Its previous pixels are not cleared.
+   */
+  public synchronized Bitmap acquire(int width, int height, Bitmap.Config config) {
+    for (int i = free.size() - 1; i >= 0; i--) {
+      Bitmap bitmap = free.get(i);
+      if (bitmap.getWidth() == width
+          && bitmap.getHeight() == height
+          && bitmap.getConfig() == config) {
+        free.remove(i);
+        pooledBytes -= bitmap.getByteCount();
+        hits++;
+        return bitmap;
+      }
+    }
+    misses++;
+    return Bitmap.createBitmap(width, height, config);
+  }
+
+  /**
+   * Gives a bitmap back for reuse. The caller must not use it afterwards. Immutable or recycled
+   * bitmaps are ignored.
+   */
+  public synchronized void release(Bitmap bitmap) {
+    if (bitmap.isRecycled() || !bitmap.isMutable()) {
+      return;
+    }
+    for (int i = 0; i < free.size(); i++) {
+      if (free.get(i) == bitmap) {
+        return;
+      }
+    }
+    free.add(bitmap);
+    pooledBytes += bitmap.getByteCount();
+    trimToSize(maxBytes);
+  }
+
+  /** Recycles the least recently released bitmaps until the pool holds at most {@code bytes}. */
+  public synchronized void trimToSize(long bytes) {
+    while (pooledBytes > bytes && !free.isEmpty()) {
+      Bitmap bitmap = free.remove(0);
+      pooledBytes -= bitmap.getByteCount();
+      evictions++;
+      bitmap.recycle();
+    }
+  }
+
+  /**
+   * Shrinks the pool in response to {@link ComponentCallbacks2#onTrimMemory(int)}: emptied when
+   * the device runs low on memory or the UI is hidden, halved on moderate pressure.
+   */
+  public void trimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      clear();
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_MODERATE) {
+      trimToSize(maxBytes / 2);
+    }
+  }
+
+  /** Recycles every pooled bitmap. */
+  public void clear() {
+    trimToSize(0);
+  }
+
+  /** Returns the number of acquisitions served from the pool. */
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  /** Returns the number of acquisitions that had to allocate a new bitmap. */
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  /** Returns the number of pooled bitmaps recycled to keep the pool within its bounds. */
+  public synchronized long getEvictions() {
+    return evictions;
+  }
+
+  /** Returns the size of the bitmaps currently held by the pool. */
+  public synchronized long getPooledBytes() {
+    return pooledBytes;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "hits=%d misses=%d evictions=%d pooled=%dKB", hits, misses, evictions, pooledBytes / 1024);
+  }
+}
@@ -1,18 +1,10 @@
 package com.google.firebase.samples.apps.mlkit.common;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.graphics.ImageFormat;
-import android.graphics.Matrix;
-import android.graphics.Rect;
-import android.graphics.YuvImage;
 import android.hardware.Camera.CameraInfo;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
-
-import java.io.ByteArrayOutputStream;
 import java.nio.ByteBuffer;
 
 /** Utils functions for bitmap conversions. */
@@ -21,55 +13,71 @@ public class BitmapUtils {
     // Convert NV21 format byte buffer to bitmap.
     @Nullable
     public static Bitmap getBitmap(ByteBuffer data, FrameMetadata metadata) {
-        data.rewind();
-        byte[] imageInBuffer = new byte[data.limit()];
-        data.get(imageInBuffer, 0, imageInBuffer.length);
-        try {
-            YuvImage image =
-                    new YuvImage(
-                            imageInBuffer, ImageFormat.NV21, metadata.getWidth(), metadata.getHeight(), null);
-            if (image != null) {
-                ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                image.compressToJpeg(new Rect(0, 0, metadata.getWidth(), metadata.getHeight()), 80, stream);
-
-                Bitmap bmp = BitmapFactory.decodeByteArray(stream.toByteArray(), 0, stream.size());
+        return getBitmap(data, metadata, null, null, null);
+    }
 
-                stream.close();
-                return rotateBitmap(bmp, metadata.getRotation(), metadata.getCameraFacing());
-            }
+    /**
+     * Converts an NV21 byte buffer to an upright bitmap without the JPEG round trip. Rotation and
+     * the front camera mirror are applied while converting, so no second bitmap is created.
+     *
+     * @param converter converter to use, or null to convert on the calling thread
+     * @param argbBuffer scratch pixels reused across frames, or null to allocate one
+     * @param pool pool the bitmap is taken from, or null to allocate it
+     */
+    @Nullable
+    public static Bitmap getBitmap(
+            ByteBuffer data,
+            FrameMetadata metadata,
+            @Nullable Nv21Converter converter,
+            @Nullable int[] argbBuffer,
+            @Nullable BitmapPool pool) {
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+        int rotation = metadata.getRotation();
+        boolean mirror = metadata.getCameraFacing() == CameraInfo.CAMERA_FACING_FRONT;
+        if (argbBuffer == null || argbBuffer.length < width * height) {
+            argbBuffer = new int[width * height];
+        }
+        Bitmap bmp = null;
+        try {
+            int outWidth = Nv21Converter.getOutputWidth(width, height, rotation);
+            int outHeight = Nv21Converter.getOutputHeight(width, height, rotation);
+            bmp = pool != null
+                    ? pool.acquire(outWidth, outHeight, Bitmap.Config.ARGB_8888)
+                    : Bitmap.createBitmap(outWidth, outHeight, Bitmap.Config.ARGB_8888);
+            convertToArgb(data, width, height, rotation, mirror, converter, argbBuffer);
+            bmp.setPixels(argbBuffer, 0, outWidth, 0, 0, outWidth, outHeight);
+            return bmp;
         } catch (Exception e) {
             Log.e("VisionProcessorBase", "Error: " + e.getMessage());
+            if (bmp != null && pool != null) {
+                pool.release(bmp);
+            }
         }
         return null;
     }
 
-    // Rotates a bitmap if it is converted from a bytebuffer.
-    private static Bitmap rotateBitmap(Bitmap bitmap, int rotation, int facing) {
-        Matrix matrix = new Matrix();
-        int rotationDegree = 0;
-        switch (rotation) {
-            case FirebaseVisionImageMetadata.ROTATION_90:
-                rotationDegree = 90;
-                break;
-            case FirebaseVisionImageMetadata.ROTATION_180:
-                rotationDegree = 180;
-                break;
-            case FirebaseVisionImageMetadata.ROTATION_270:
-                rotationDegree = 270;
-                break;
-            default:
-                break;
+    // Converts the NV21 frame held by the buffer into argbBuffer, already upright.
+    private static void convertToArgb(
+            ByteBuffer data,
+            int width,
+            int height,
+            int rotation,
+            boolean mirror,
+            @Nullable Nv21Converter converter,
+            int[] argbBuffer) {
+        byte[] nv21;
+        if (data.hasArray() && data.arrayOffset() == 0) {
+            nv21 = data.array();
+        } else {
+            data.rewind();
+            nv21 = new byte[data.limit()];
+            data.get(nv21, 0, nv21.length);
         }
-
-        // Rotate the image back to straight.}
-        matrix.postRotate(rotationDegree);
-        if (facing == CameraInfo.CAMERA_FACING_BACK) {
-            return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (converter != null) {
+            converter.convertFrame(nv21, width, height, rotation, mirror, argbBuffer);
         } else {
-            // Mirror the image along X axis for front-facing camera image.
-            matrix.postScale(-1.0f, 1.0f);
-            return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            Nv21Converter.convert(nv21, width, height, rotation, mirror, argbBuffer);
         }
     }
 }
-
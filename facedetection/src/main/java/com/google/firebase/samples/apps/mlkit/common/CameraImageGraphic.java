@@ -3,22 +3,66 @@ package com.google.firebase.samples.apps.mlkit.common;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Rect;
+import android.support.annotation.Nullable;
 
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay.Graphic;
 
-/** Draw camera image to background. */
+/**
+ * Draw camera image to background. Graphics from a {@link CameraImageGraphicPool} are reused for
+ * the bitmaps of later frames.
+ */
 public class CameraImageGraphic extends Graphic {
 
-    private final Bitmap bitmap;
+    // The whole canvas, reused from frame to frame.
+    private final Rect destination = new Rect();
+    private Bitmap bitmap;
+    @Nullable
+    private final BitmapPool pool;
+    @Nullable
+    private final CameraImageGraphicPool graphicPool;
 
     public CameraImageGraphic(GraphicOverlay overlay, Bitmap bitmap) {
+        this(overlay, bitmap, null);
+    }
+
+    /**
+     * @param pool pool the bitmap is given back to once the graphic has been removed from the
+     *             overlay, or null if the bitmap is not pooled
+     */
+    public CameraImageGraphic(GraphicOverlay overlay, Bitmap bitmap, @Nullable BitmapPool pool) {
         super(overlay);
         this.bitmap = bitmap;
+        this.pool = pool;
+        graphicPool = null;
+    }
+
+    CameraImageGraphic(
+            GraphicOverlay overlay, BitmapPool pool, CameraImageGraphicPool graphicPool) {
+        super(overlay);
+        this.pool = pool;
+        this.graphicPool = graphicPool;
+    }
+
+    // Called by the graphic pool before the graphic is added to a scene again.
+    void setBitmap(Bitmap bitmap) {
+        this.bitmap = bitmap;
     }
 
     @Override
     public void draw(Canvas canvas) {
-        canvas.drawBitmap(bitmap, null, new Rect(0, 0, canvas.getWidth(), canvas.getHeight()), null);
+        destination.set(0, 0, canvas.getWidth(), canvas.getHeight());
+        canvas.drawBitmap(bitmap, null, destination, null);
+    }
+
+    @Override
+    protected void onRemoved() {
+        if (pool != null) {
+            pool.release(bitmap);
+        }
+        if (graphicPool != null) {
+            bitmap = null;
+            graphicPool.release(this);
+        }
     }
 }
 
@@ -0,0 +1,46 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reuses {@link CameraImageGraphic}s across frames. A graphic comes back once the overlay no
+ * longer draws it, after its bitmap has been given back to the {@link BitmapPool}.
+ */
+public class CameraImageGraphicPool {
+
+  // The scene being drawn, the latest one and the retired ones still holding a graphic.
+  private static final int MAX_FREE = 4;
+
+  private final GraphicOverlay overlay;
+  private final BitmapPool bitmapPool;
+  private final List<CameraImageGraphic> free = new ArrayList<>();
+
+  /** @param bitmapPool pool the bitmaps are given back to once no longer drawn */
+  public CameraImageGraphicPool(GraphicOverlay overlay, BitmapPool bitmapPool) {
+    this.overlay = overlay;
+    this.bitmapPool = bitmapPool;
+  }
+
+  public GraphicOverlay getOverlay() {
+    return overlay;
+  }
+
+  /** Returns a free graphic drawing {@code bitmap}, which it gives back to the bitmap pool. */
+  public synchronized CameraImageGraphic acquire(Bitmap bitmap) {
+    int size = free.size();
+    CameraImageGraphic graphic = size == 0
+        ? new CameraImageGraphic(overlay, bitmapPool, this) : free.remove(size - 1);
+    graphic.setBitmap(bitmap);
+    return graphic;
+  }
+
+  /** Takes back a graphic the overlay no longer draws. */
+  synchronized void release(CameraImageGraphic graphic) {
+    if (free.size() < MAX_FREE) {
+      free.add(graphic);
+    }
+  }
+}
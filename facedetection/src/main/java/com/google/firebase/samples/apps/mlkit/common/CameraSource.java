@@ -31,13 +31,14 @@ import android.view.WindowManager;
 
 import com.google.android.gms.common.images.Size;
 
+import java.io.File;
 import java.io.IOException;
-import java.lang.Thread.State;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.IdentityHashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Manages the camera and allows UI updates on top of it (e.g. overlaying extra Graphics or
@@ -67,6 +68,37 @@ public class CameraSource {
    */
   private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+  /**
+   * Number of preview buffers cycled between the camera and the frame processor. Frame processors
+   * that keep several frames in detection size their window from it.
+   */
+  public static final int PREVIEW_BUFFER_COUNT = FrameSource.BUFFER_COUNT;
+
+  /**
+   * Luma change per cell of the {@link MotionGate} grid, in the cells that changed most, under
+   * which a frame is not processed. Sensor noise averaged over a cell stays around one level even
+   * in the cells it changes most, while a moving mouth changes its cells by tens of levels.
+   */
+  private static final float MOTION_THRESHOLD = 3f;
+
+  /** Largest number of frames the {@link MotionGate} skips in a row, half a second at 30 fps. */
+  private static final int MOTION_REFRESH_INTERVAL = 15;
+
+  /** Mean detection latency above which the preview is made cheaper; results visibly trail. */
+  private static final long PREVIEW_LATENCY_BUDGET_NANOS = 250_000_000L;
+
+  /** Number of preview sizes, the requested one and smaller, the preview may adapt between. */
+  private static final int ADAPTIVE_PREVIEW_SIZES = 3;
+
+  /** Smallest long side of the preview sizes the preview may adapt down to. */
+  private static final int MIN_ADAPTIVE_PREVIEW_SIDE = 320;
+
+  /** Frame rates the smallest preview size may drop to, below the requested one. */
+  private static final float[] ADAPTIVE_FPS_STEPS = {15.0f, 10.0f};
+
+  /** Frames that may wait for the writer of a recording before frames are left out of it. */
+  private static final int RECORDING_STAGING_BUFFERS = 4;
+
   protected Activity activity;
 
   private Camera camera;
@@ -84,8 +116,8 @@ public class CameraSource {
   // These values may be requested by the caller.  Due to hardware limitations, we may need to
   // select close, but not exactly the same values for these.
   private final float requestedFps = 20.0f;
-  private final int requestedPreviewWidth = 480;
-  private final int requestedPreviewHeight = 360;
+  private int requestedPreviewWidth = 480;
+  private int requestedPreviewHeight = 360;
   private final boolean requestedAutoFocus = true;
 
   // These instances need to be held onto to avoid GC of their underlying resources.  Even though
@@ -99,36 +131,50 @@ public class CameraSource {
   // wasn't introduced until Honeycomb.  Since the interface cannot use a SurfaceTexture, if the
   // developer wants to display a preview we must use a SurfaceHolder.  If the developer doesn't
   // want to display a preview we use a SurfaceTexture if we are running at least Honeycomb.
-  private boolean usingSurfaceTexture;
+  // Read without the lock by updateCameraImageRequired().
+  private volatile boolean usingSurfaceTexture;
+
+  // The preview frames of the camera, fed to the processing loop while the camera runs.
+  private final CameraFrameSource cameraFrames = new CameraFrameSource();
 
   /**
-   * Dedicated thread and associated runnable for calling into the detector with frames, as the
-   * frames become available from the camera.
+   * Dedicated thread for calling into the detector with frames, as the frames become available
+   * from the camera.
    */
-  private Thread processingThread;
+  private final FrameProcessingLoop processingLoop;
 
-  private final FrameProcessingRunnable processingRunnable;
+  // Records the preview frames on their way to the processing loop while a recording runs.
+  // @GuardedBy("this")
+  @Nullable private Nv21FrameRecorder recorder;
+  // @GuardedBy("this")
+  @Nullable private Nv21FrameFile recording;
 
   private final Object processorLock = new Object();
-  // @GuardedBy("processorLock")
-  private VisionImageProcessor frameProcessor;
+
+  // @GuardedBy("processorLock") for writes. Read without the lock when the camera is opened, for
+  // the detection scale of the preview sizes only.
+  private volatile VisionImageProcessor frameProcessor;
+
+  // Skips the frame processor while the scene holds still.
+  private final MotionGate motionGate = new MotionGate(MOTION_THRESHOLD, MOTION_REFRESH_INTERVAL);
+
+  // Moves the preview to a smaller size or frame rate while the frame processor falls behind.
+  private final AdaptivePreviewController previewController =
+      new AdaptivePreviewController(PREVIEW_LATENCY_BUDGET_NANOS);
 
   /**
-   * Map to convert between a byte array, received from the camera, and its associated byte buffer.
-   * We use byte buffers internally because this is a more efficient way to call into native code
-   * later (avoids a potential copy).
-   *
-   * <p><b>Note:</b> uses IdentityHashMap here instead of HashMap because the behavior of an array's
-   * equals, hashCode and toString methods is both useless and unexpected. IdentityHashMap enforces
-   * identity ('==') check on the keys.
+   * The preview buffers of the current camera and the size of the frames on them, replaced as a
+   * whole when the camera changes or is reconfigured, so the camera callback looks frames up
+   * without a lock.
    */
-  private final Map<byte[], ByteBuffer> bytesToByteBuffer = new IdentityHashMap<>();
+  private volatile PreviewBuffers previewBuffers = PreviewBuffers.NONE;
 
   public CameraSource(Activity activity, GraphicOverlay overlay) {
     this.activity = activity;
     graphicOverlay = overlay;
     graphicOverlay.clear();
-    processingRunnable = new FrameProcessingRunnable();
+    processingLoop = new FrameProcessingLoop(new ProcessorFrameHandler());
+    processingLoop.setFrameLoadListener(previewController);
 
     if (Camera.getNumberOfCameras() == 1) {
       CameraInfo cameraInfo = new CameraInfo();
@@ -145,7 +191,6 @@ public class CameraSource {
   public void release() {
     synchronized (processorLock) {
       stop();
-      processingRunnable.release();
       cleanScreen();
 
       if (frameProcessor != null) {
@@ -162,20 +207,23 @@ public class CameraSource {
    */
   @SuppressLint("MissingPermission")
   @RequiresPermission(Manifest.permission.CAMERA)
-  public synchronized CameraSource start() throws IOException {
-    if (camera != null) {
-      return this;
-    }
+  public CameraSource start() throws IOException {
+    synchronized (this) {
+      if (camera != null) {
+        return this;
+      }
 
-    camera = createCamera();
-    dummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
-    camera.setPreviewTexture(dummySurfaceTexture);
-    usingSurfaceTexture = true;
-    camera.startPreview();
+      camera = createCamera();
+      dummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+      camera.setPreviewTexture(dummySurfaceTexture);
+      usingSurfaceTexture = true;
+      camera.startPreview();
 
-    processingThread = new Thread(processingRunnable);
-    processingRunnable.setActive(true);
-    processingThread.start();
+      processingLoop.start();
+      cameraFrames.start(processingLoop);
+    }
+    // Outside of this, as the processor lock is always taken first.
+    updateCameraImageRequired();
     return this;
   }
 
@@ -187,20 +235,22 @@ public class CameraSource {
    * @throws IOException if the supplied surface holder could not be used as the preview display
    */
   @RequiresPermission(Manifest.permission.CAMERA)
-  public synchronized CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
-    if (camera != null) {
-      return this;
-    }
-
-    camera = createCamera();
-    camera.setPreviewDisplay(surfaceHolder);
-    camera.startPreview();
+  public CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
+    synchronized (this) {
+      if (camera != null) {
+        return this;
+      }
 
-    processingThread = new Thread(processingRunnable);
-    processingRunnable.setActive(true);
-    processingThread.start();
+      camera = createCamera();
+      camera.setPreviewDisplay(surfaceHolder);
+      camera.startPreview();
+      usingSurfaceTexture = false;
 
-    usingSurfaceTexture = false;
+      processingLoop.start();
+      cameraFrames.start(processingLoop);
+    }
+    // Outside of this, as the processor lock is always taken first.
+    updateCameraImageRequired();
     return this;
   }
 
@@ -214,20 +264,16 @@ public class CameraSource {
    * resources of the underlying detector.
    */
   public synchronized void stop() {
-    processingRunnable.setActive(false);
-    if (processingThread != null) {
-      try {
-        // Wait for the thread to complete to ensure that we can't have multiple threads
-        // executing at the same time (i.e., which would happen if we called start too
-        // quickly after stop).
-        processingThread.join();
-      } catch (InterruptedException e) {
-        Log.d(TAG, "Frame processing thread interrupted on release.");
-      }
-      processingThread = null;
-    }
-
+    stopRecording();
+    cameraFrames.stop();
+    processingLoop.stop();
+
+    // Release the reference to any image buffers. Leases still held by a processor are dropped
+    // by their recycler once released, since the camera they belong to is gone.
+    PreviewBuffers buffers = previewBuffers;
+    previewBuffers = PreviewBuffers.NONE;
     if (camera != null) {
+      buffers.close();
       camera.stopPreview();
       camera.setPreviewCallbackWithBuffer(null);
       try {
@@ -242,9 +288,57 @@ public class CameraSource {
       camera.release();
       camera = null;
     }
+    motionGate.reset();
+  }
+
+  /**
+   * Starts recording the preview frames into a new file at {@code path} that keeps the last {@code
+   * frameCount} of them, see {@link Nv21FrameRecorder}; read it back with {@link Nv21FrameReader}.
+   * The frames still go to the frame processor as before. The recording stops with the camera or
+   * on {@link #stopRecording()}, whichever comes first. Once the preview controller changes the
+   * preview size, frames are left out of the recording, which keeps the size it started with.
+   *
+   * @throws IllegalStateException if the camera is not running
+   * @throws IOException if the file cannot be created
+   */
+  public synchronized void startRecording(File path, int frameCount) throws IOException {
+    if (camera == null) {
+      throw new IllegalStateException("Cannot record while the camera is stopped.");
+    }
+    stopRecording();
+    recording =
+        Nv21FrameFile.create(path, previewSize.getWidth(), previewSize.getHeight(), frameCount);
+    recorder = new Nv21FrameRecorder(recording, processingLoop, RECORDING_STAGING_BUFFERS);
+    recorder.start();
+    cameraFrames.start(recorder);
+  }
+
+  /** Stops the recording, if any, once its staged frames are written, and closes its file. */
+  public synchronized void stopRecording() {
+    if (recorder == null) {
+      return;
+    }
+    if (camera != null) {
+      cameraFrames.start(processingLoop);
+    }
+    recorder.stop();
+    Log.i(
+        TAG,
+        "Recorded " + recorder.getFramesRecorded() + " frames, left out "
+            + recorder.getFramesDropped());
+    try {
+      recording.close();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to close the recording.", e);
+    }
+    recorder = null;
+    recording = null;
+  }
 
-    // Release the reference to any image buffers, since these will no longer be in use.
-    bytesToByteBuffer.clear();
+  /** Returns the recorder of the running recording, for its counters, or null if there is none. */
+  @Nullable
+  public synchronized Nv21FrameRecorder getRecorder() {
+    return recorder;
   }
 
   /** Changes the facing of the camera. */
@@ -255,6 +349,51 @@ public class CameraSource {
     this.facing = facing;
   }
 
+  /**
+   * Sets the preview size to ask the camera for, the closest supported one is used. Takes effect
+   * on the next start. Frame processors may detect on a smaller version of the frames, see {@code
+   * VisionProcessorBase#setMaxDetectionSize}.
+   */
+  public synchronized void setRequestedPreviewSize(int width, int height) {
+    if (width <= 0 || height <= 0) {
+      throw new IllegalArgumentException("Invalid preview size: " + width + "x" + height);
+    }
+    requestedPreviewWidth = width;
+    requestedPreviewHeight = height;
+  }
+
+  /** Returns the number of preview frames handed to the frame processor since creation. */
+  public long getFramesDelivered() {
+    return processingLoop.getFramesDelivered();
+  }
+
+  /** Returns the number of preview frames dropped because a newer frame arrived first. */
+  public long getFramesReplaced() {
+    return processingLoop.getFramesReplaced();
+  }
+
+  /** Returns the number of times the processing thread was woken up while waiting for a frame. */
+  public long getFrameWakeups() {
+    return processingLoop.getWakeups();
+  }
+
+  /**
+   * Returns the gate that skips the frame processor on frames that barely differ from the last
+   * processed one. Its settings can be changed and its skip rate read at any time.
+   */
+  public MotionGate getMotionGate() {
+    return motionGate;
+  }
+
+  /**
+   * Returns the controller that adapts the preview size and frame rate to the load of the frame
+   * processor, for its current operating point and transition history. It can be disabled to
+   * keep the requested preview.
+   */
+  public AdaptivePreviewController getPreviewController() {
+    return previewController;
+  }
+
   /** Returns the preview size that is currently in use by the underlying camera. */
   public Size getPreviewSize() {
     return previewSize;
@@ -285,10 +424,23 @@ public class CameraSource {
     if (sizePair == null) {
       throw new IOException("Could not find suitable preview size.");
     }
+    previewController.setOperatingPoints(
+        createOperatingPoints(camera, sizePair.previewSize(), requestedFps, frameProcessor));
+    // The controller keeps the point the preview had adapted to when the camera is opened again
+    // with the same points, so the camera resumes there.
+    float fps = requestedFps;
+    if (previewController.getCurrentIndex() > 0) {
+      AdaptivePreviewController.OperatingPoint point = previewController.getCurrentPoint();
+      SizePair adapted = selectSizePair(camera, point.getWidth(), point.getHeight());
+      if (adapted != null) {
+        sizePair = adapted;
+        fps = point.getFps();
+      }
+    }
     Size pictureSize = sizePair.pictureSize();
     previewSize = sizePair.previewSize();
 
-    int[] previewFpsRange = selectPreviewFpsRange(camera, requestedFps);
+    int[] previewFpsRange = selectPreviewFpsRange(camera, fps);
     if (previewFpsRange == null) {
       throw new IOException("Could not find suitable preview frames per second range.");
     }
@@ -329,15 +481,162 @@ public class CameraSource {
     // one thread for acquiring images, and another thread for calling into user code.  If only
     // three buffers are used, then the camera will spew thousands of warning messages when
     // detection takes a non-trivial amount of time.
+    //
+    // Buffers only go back to the camera once every frame lease on them is released, so a
+    // processor holding frames for asynchronous detection reduces the number of free buffers.
     camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
-    camera.addCallbackBuffer(createPreviewBuffer(previewSize));
+    previewBuffers = createPreviewBuffers(camera, previewSize);
 
     return camera;
   }
 
+  /**
+   * Lists the operating points the preview adapts between, from the best to the cheapest: the
+   * selected preview size and the next smaller ones of the same aspect ratio at the requested frame
+   * rate, then the smallest of them at lower frame rates.
+   *
+   * <p>A smaller size is only a step if the processor detects fewer pixels of it than of the size
+   * above: a processor that scales frames down to its maximum detection size detects as much of
+   * a smaller preview that is still scaled to that size, which would only lower the preview
+   * quality.
+   */
+  private static List<AdaptivePreviewController.OperatingPoint> createOperatingPoints(
+      Camera camera, Size selected, float fps, @Nullable VisionImageProcessor processor) {
+    float aspectRatio = (float) selected.getWidth() / selected.getHeight();
+    int selectedArea = selected.getWidth() * selected.getHeight();
+    List<Size> sizes = new ArrayList<>();
+    for (SizePair sizePair : generateValidPreviewSizeList(camera)) {
+      Size size = sizePair.previewSize();
+      int area = size.getWidth() * size.getHeight();
+      if (area < selectedArea
+          && Math.max(size.getWidth(), size.getHeight()) >= MIN_ADAPTIVE_PREVIEW_SIDE
+          && Math.abs((float) size.getWidth() / size.getHeight() - aspectRatio)
+              < ASPECT_RATIO_TOLERANCE) {
+        sizes.add(size);
+      }
+    }
+    Collections.sort(
+        sizes,
+        new Comparator<Size>() {
+          @Override
+          public int compare(Size a, Size b) {
+            return b.getWidth() * b.getHeight() - a.getWidth() * a.getHeight();
+          }
+        });
+
+    List<AdaptivePreviewController.OperatingPoint> points = new ArrayList<>();
+    Size smallest = selected;
+    points.add(
+        new AdaptivePreviewController.OperatingPoint(
+            selected.getWidth(), selected.getHeight(), fps));
+    long detectedArea = detectedArea(selected, processor);
+    for (Size size : sizes) {
+      if (points.size() == ADAPTIVE_PREVIEW_SIZES) {
+        break;
+      }
+      long area = detectedArea(size, processor);
+      if (area >= detectedArea) {
+        continue;
+      }
+      detectedArea = area;
+      points.add(
+          new AdaptivePreviewController.OperatingPoint(size.getWidth(), size.getHeight(), fps));
+      smallest = size;
+    }
+    for (float step : ADAPTIVE_FPS_STEPS) {
+      if (step < fps) {
+        points.add(
+            new AdaptivePreviewController.OperatingPoint(
+                smallest.getWidth(), smallest.getHeight(), step));
+      }
+    }
+    return points;
+  }
+
+  // Returns the number of pixels of a preview frame of the given size the processor detects.
+  private static long detectedArea(Size size, @Nullable VisionImageProcessor processor) {
+    float scale =
+        processor == null ? 1f : processor.getDetectionScale(size.getWidth(), size.getHeight());
+    return Math.round((double) size.getWidth() * size.getHeight() * scale * scale);
+  }
+
+  /**
+   * Applies the operating point proposed by the preview controller to the running camera: the
+   * preview is stopped, its size and frame rate changed, new buffers handed to the camera and the
+   * preview restarted, without reopening the camera or touching the preview surface. Frames of the
+   * old size still held anywhere are dropped rather than processed.
+   */
+  private void applyPendingOperatingPoint() {
+    boolean applied = false;
+    synchronized (processorLock) {
+      synchronized (this) {
+        AdaptivePreviewController.OperatingPoint point = previewController.getPendingPoint();
+        if (point == null) {
+          return;
+        }
+        if (camera != null) {
+          applied = reconfigure(point);
+        }
+        previewController.onTransitionDone(applied, System.nanoTime());
+        Log.i(
+            TAG,
+            (applied ? "Preview moved to " : "Could not move preview to ")
+                + point
+                + ", "
+                + previewController.getHistory());
+      }
+      if (applied) {
+        // The results of the old size no longer line up.
+        motionGate.reset();
+        if (frameProcessor != null) {
+          frameProcessor.onFrameSizeChanged();
+        }
+        cleanScreen();
+        if (rotation % 2 == 0) {
+          graphicOverlay.setCameraInfo(previewSize.getWidth(), previewSize.getHeight(), facing);
+        } else {
+          graphicOverlay.setCameraInfo(previewSize.getHeight(), previewSize.getWidth(), facing);
+        }
+      }
+    }
+  }
+
+  // Runs with the processor lock held, so the processing thread sees the new size and buffers
+  // together.
+  private boolean reconfigure(AdaptivePreviewController.OperatingPoint point) {
+    SizePair sizePair = selectSizePair(camera, point.getWidth(), point.getHeight());
+    int[] previewFpsRange = selectPreviewFpsRange(camera, point.getFps());
+    if (sizePair == null || previewFpsRange == null) {
+      return false;
+    }
+    Size size = sizePair.previewSize();
+    Size pictureSize = sizePair.pictureSize();
+    // Buffers of the old size are no longer given back to the camera from here on.
+    previewBuffers.close();
+    camera.stopPreview();
+    try {
+      Camera.Parameters parameters = camera.getParameters();
+      if (pictureSize != null) {
+        parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
+      }
+      parameters.setPreviewSize(size.getWidth(), size.getHeight());
+      parameters.setPreviewFpsRange(
+          previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+          previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+      camera.setParameters(parameters);
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Failed to reconfigure the preview to " + point, e);
+      // The old buffers are closed, so the camera gets new ones of the size it keeps.
+      previewBuffers = createPreviewBuffers(camera, previewSize);
+      camera.startPreview();
+      return false;
+    }
+    previewSize = size;
+    previewBuffers = createPreviewBuffers(camera, size);
+    camera.startPreview();
+    return true;
+  }
+
   /**
    * Gets the id for the camera specified by the direction it is facing. Returns -1 if no such
    * camera was found.
@@ -545,14 +844,29 @@ public class CameraSource {
     parameters.setRotation(angle);
   }
 
+  /** Creates the preview buffers of {@code size} for {@code camera} and hands them to it. */
+  private PreviewBuffers createPreviewBuffers(Camera camera, Size size) {
+    CameraBufferRecycler recycler = new CameraBufferRecycler(camera);
+    FrameLease[] leases = new FrameLease[PREVIEW_BUFFER_COUNT];
+    for (int i = 0; i < leases.length; i++) {
+      leases[i] = createPreviewBuffer(size, recycler);
+    }
+    for (FrameLease lease : leases) {
+      camera.addCallbackBuffer(lease.getData().array());
+    }
+    return new PreviewBuffers(size, leases, recycler);
+  }
+
   /**
-   * Creates one buffer for the camera preview callback. The size of the buffer is based off of the
-   * camera preview size and the format of the camera image.
+   * Creates one buffer for the camera preview callback, along with the lease used to hand it to
+   * the frame processor. The size of the buffer is based off of the camera preview size and the
+   * format of the camera image.
    *
-   * @return a new preview buffer of the appropriate size for the current camera settings
+   * @return the lease on a new preview buffer of the appropriate size for the current camera
+   *     settings
    */
   @SuppressLint("InlinedApi")
-  private byte[] createPreviewBuffer(Size previewSize) {
+  private FrameLease createPreviewBuffer(Size previewSize, FrameLease.Recycler recycler) {
     int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
     long sizeInBits = (long) previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
     int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
@@ -567,167 +881,250 @@ public class CameraSource {
       throw new IllegalStateException("Failed to create valid buffer for camera source.");
     }
 
-    bytesToByteBuffer.put(byteArray, buffer);
-    return byteArray;
+    return new FrameLease(buffer, recycler);
   }
 
-  // ==============================================================================================
-  // Frame processing
-  // ==============================================================================================
+  /**
+   * Leases of the preview buffers of a camera at one preview size, indexed by buffer slot, with the
+   * recycler that gives them back to it. Used to convert between a byte array, received from the
+   * camera, and the lease of its associated byte buffer. We use byte buffers internally because
+   * this is a more efficient way to call into native code later (avoids a potential copy).
+   *
+   * <p>There are only {@link #PREVIEW_BUFFER_COUNT} slots, so the lookup compares array identity
+   * ('==') slot by slot instead of hashing.
+   */
+  private static final class PreviewBuffers {
+    static final PreviewBuffers NONE = new PreviewBuffers(null, new FrameLease[0], null);
 
-  /** Called when the camera has a new preview frame. */
-  private class CameraPreviewCallback implements Camera.PreviewCallback {
-    @Override
-    public void onPreviewFrame(byte[] data, Camera camera) {
-      processingRunnable.setNextFrame(data, camera);
+    final Size size;
+    final FrameLease[] leases;
+    @Nullable private final CameraBufferRecycler recycler;
+
+    PreviewBuffers(Size size, FrameLease[] leases, @Nullable CameraBufferRecycler recycler) {
+      this.size = size;
+      this.leases = leases;
+      this.recycler = recycler;
     }
-  }
 
-  public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
-    synchronized (processorLock) {
-      cleanScreen();
-      if (frameProcessor != null) {
-        frameProcessor.stop();
+    /** Returns the lease on the buffer backed by {@code data}, or null if there is none. */
+    @Nullable
+    FrameLease find(byte[] data) {
+      for (FrameLease lease : leases) {
+        if (lease.getData().array() == data) {
+          return lease;
+        }
+      }
+      return null;
+    }
+
+    boolean contains(FrameLease frame) {
+      for (FrameLease lease : leases) {
+        if (lease == frame) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    /** Stops giving the buffers back to the camera, see {@link CameraBufferRecycler#close()}. */
+    void close() {
+      if (recycler != null) {
+        recycler.close();
       }
-      frameProcessor = processor;
     }
   }
 
   /**
-   * This runnable controls access to the underlying receiver, calling it to process frames when
-   * available from the camera. This is designed to run detection on frames as fast as possible
-   * (i.e., without unnecessary context switching or waiting on the next frame).
-   *
-   * <p>While detection is running on a frame, new frames may be received from the camera. As these
-   * frames come in, the most recent frame is held onto as pending. As soon as detection and its
-   * associated processing is done for the previous frame, detection on the mostly recently received
-   * frame will immediately start on the same thread.
+   * Gives preview buffers back to the camera they were created for until it is closed, when the
+   * camera is released or moves to another preview size. Leases can be released from any thread,
+   * including after stop() has run; only a release racing with the close waits for the other.
    */
-  private class FrameProcessingRunnable implements Runnable {
+  private static final class CameraBufferRecycler implements FrameLease.Recycler {
+    // The value of active once closed.
+    private static final int CLOSED = Integer.MIN_VALUE;
 
-    // This lock guards all of the member variables below.
-    private final Object lock = new Object();
-    private boolean active = true;
+    private final Camera owner;
+    // Number of buffers being given back, or CLOSED.
+    private final AtomicInteger active = new AtomicInteger();
 
-    // These pending variables hold the state associated with the new frame awaiting processing.
-    private ByteBuffer pendingFrameData;
+    CameraBufferRecycler(Camera owner) {
+      this.owner = owner;
+    }
 
-    FrameProcessingRunnable() {}
+    @Override
+    public void recycle(FrameLease lease) {
+      int count;
+      do {
+        count = active.get();
+        if (count == CLOSED) {
+          return;
+        }
+      } while (!active.compareAndSet(count, count + 1));
+      try {
+        owner.addCallbackBuffer(lease.getData().array());
+      } finally {
+        active.decrementAndGet();
+      }
+    }
 
     /**
-     * Releases the underlying receiver. This is only safe to do after the associated thread has
-     * completed, which is managed in camera source's release method above.
+     * Waits for the buffers being given back and stops giving any more back, before the camera is
+     * released or reconfigured.
      */
-    @SuppressLint("Assert")
-    void release() {
-      assert (processingThread.getState() == State.TERMINATED);
+    void close() {
+      while (!active.compareAndSet(0, CLOSED)) {
+        if (active.get() == CLOSED) {
+          return;
+        }
+        Thread.yield();
+      }
     }
+  }
 
-    /** Marks the runnable as active/not active. Signals any blocked threads to continue. */
-    void setActive(boolean active) {
-      synchronized (lock) {
-        this.active = active;
-        lock.notifyAll();
-      }
+  // ==============================================================================================
+  // Frame processing
+  // ==============================================================================================
+
+  /** Called when the camera has a new preview frame. */
+  private class CameraPreviewCallback implements Camera.PreviewCallback {
+    @Override
+    public void onPreviewFrame(byte[] data, Camera camera) {
+      cameraFrames.onPreviewFrame(data);
+    }
+  }
+
+  /**
+   * The preview frames of the camera as a {@link FrameSource}. The camera itself is opened,
+   * configured and closed by this camera source; starting the frame source connects its callback
+   * to the preview callback. The frames are on the preview buffers, which go back to the camera
+   * through {@code Camera.addCallbackBuffer} once released.
+   */
+  private class CameraFrameSource implements FrameSource {
+    private volatile Callback callback;
+
+    @Override
+    public void start(Callback callback) {
+      this.callback = callback;
+    }
+
+    @Override
+    public void stop() {
+      callback = null;
     }
 
     /**
-     * Sets the frame data received from the camera. This adds the previous unused frame buffer (if
-     * present) back to the camera, and keeps a pending reference to the frame data for future use.
+     * Opens a lease on the buffer the camera filled and delivers it with the metadata of the
+     * preview it was captured with. The lease is released right away when nothing is connected.
      */
-    void setNextFrame(byte[] data, Camera camera) {
-      synchronized (lock) {
-        if (pendingFrameData != null) {
-          camera.addCallbackBuffer(pendingFrameData.array());
-          pendingFrameData = null;
-        }
+    void onPreviewFrame(byte[] data) {
+      PreviewBuffers buffers = previewBuffers;
+      FrameLease lease = buffers.find(data);
+      Size size = buffers.size;
+      if (lease == null) {
+        Log.d(
+            TAG,
+            "Skipping frame. Could not find ByteBuffer associated with the image "
+                + "data from the camera.");
+        return;
+      }
 
-        if (!bytesToByteBuffer.containsKey(data)) {
-          Log.d(
-              TAG,
-              "Skipping frame. Could not find ByteBuffer associated with the image "
-                  + "data from the camera.");
-          return;
-        }
+      previewController.onFrameReceived();
+      lease.open();
+      Callback receiver = callback;
+      if (receiver == null) {
+        lease.release();
+        return;
+      }
+      receiver.onFrame(
+          lease,
+          new FrameMetadata.Builder()
+              .setWidth(size.getWidth())
+              .setHeight(size.getHeight())
+              .setRotation(rotation)
+              .setCameraFacing(facing)
+              .setTimestampNanos(System.nanoTime())
+              .build());
+    }
+  }
 
-        pendingFrameData = bytesToByteBuffer.get(data);
+  public void setMachineLearningFrameProcessor(VisionImageProcessor processor) {
+    synchronized (processorLock) {
+      cleanScreen();
+      if (frameProcessor != null) {
+        frameProcessor.stop();
+      }
+      frameProcessor = processor;
+      processor.setFrameLoadListener(previewController);
+      // The new processor has no results to reuse.
+      motionGate.reset();
+    }
+    updateCameraImageRequired();
+  }
 
-        // Notify the processor thread if it is waiting on the next frame (see below).
-        lock.notifyAll();
+  /**
+   * Tells the frame processor whether it has to draw the camera frames itself, which is only the
+   * case when the preview goes to the dummy texture and is not displayed.
+   */
+  private void updateCameraImageRequired() {
+    synchronized (processorLock) {
+      if (frameProcessor != null) {
+        frameProcessor.setCameraImageRequired(usingSurfaceTexture);
       }
     }
+  }
+
+  /**
+   * Runs the frame processor on the frames taken by the processing loop. The camera keeps
+   * publishing frames while the processor is running on the current frame, the loop only keeps the
+   * most recent of them.
+   *
+   * <p>Frames that the {@link MotionGate} finds too close to the last processed frame are skipped
+   * without being processed, leaving the results of that frame on screen.
+   *
+   * <p>Once per window, the preview controller is asked whether the frame processor keeps up, and
+   * the preview size or frame rate change it proposes is applied on the UI thread.
+   *
+   * <p>If you find that this is using more CPU than you'd like, you should probably decrease the
+   * FPS setting above to allow for some idle time in between frames.
+   */
+  private class ProcessorFrameHandler implements FrameProcessingLoop.FrameHandler {
 
-    /**
-     * As long as the processing thread is active, this executes detection on frames continuously.
-     * The next pending frame is either immediately available or hasn't been received yet. Once it
-     * is available, we transfer the frame info to local variables and run detection on that frame.
-     * It immediately loops back for the next frame without pausing.
-     *
-     * <p>If detection takes longer than the time in between new frames from the camera, this will
-     * mean that this loop will run without ever waiting on a frame, avoiding any context switching
-     * or frame acquisition time latency.
-     *
-     * <p>If you find that this is using more CPU than you'd like, you should probably decrease the
-     * FPS setting above to allow for some idle time in between frames.
-     */
-    @SuppressLint("InlinedApi")
     @SuppressWarnings("GuardedBy")
     @Override
-    public void run() {
-      ByteBuffer data;
-
-      while (true) {
-        synchronized (lock) {
-          while (active && (pendingFrameData == null)) {
-            try {
-              // Wait for the next frame to be received from the camera, since we
-              // don't have it yet.
-              lock.wait();
-            } catch (InterruptedException e) {
-              Log.d(TAG, "Frame processing loop terminated.", e);
-              return;
-            }
-          }
+    public void handleFrame(FrameLease frame, FrameMetadata metadata) {
+      if (previewController.evaluate(System.nanoTime()) >= 0) {
+        activity.runOnUiThread(
+            new Runnable() {
+              @Override
+              public void run() {
+                applyPendingOperatingPoint();
+              }
+            });
+      }
 
-          if (!active) {
-            // Exit the loop once this camera source is stopped or released.  We check
-            // this here, immediately after the wait() above, to handle the case where
-            // setActive(false) had been called, triggering the termination of this
-            // loop.
+      try {
+        synchronized (processorLock) {
+          if (!isCurrentFrame(frame)) {
+            // Captured before the preview was reconfigured, the results would not line up.
             return;
           }
-
-          // Hold onto the frame data locally, so that we can use this for detection
-          // below.  We need to clear pendingFrameData to ensure that this buffer isn't
-          // recycled back to the camera before we are done using that data.
-          data = pendingFrameData;
-          pendingFrameData = null;
-        }
-
-        // The code below needs to run outside of synchronization, because this will allow
-        // the camera to add pending frame(s) while we are running detection on the current
-        // frame.
-
-        try {
-          synchronized (processorLock) {
-            Log.d(TAG, "Process an image");
-            frameProcessor.process(
-                data,
-                new FrameMetadata.Builder()
-                    .setWidth(previewSize.getWidth())
-                    .setHeight(previewSize.getHeight())
-                    .setRotation(rotation)
-                    .setCameraFacing(facing)
-                    .build(),
-                graphicOverlay);
+          if (!motionGate.shouldProcess(
+              frame.getData(), metadata.getWidth(), metadata.getHeight())) {
+            // The results drawn for the last processed frame still apply.
+            return;
           }
-        } catch (Throwable t) {
-          Log.e(TAG, "Exception thrown from receiver.", t);
-        } finally {
-          camera.addCallbackBuffer(data.array());
+          Log.d(TAG, "Process an image");
+          frameProcessor.process(frame, metadata, graphicOverlay);
         }
+      } catch (Throwable t) {
+        Log.e(TAG, "Exception thrown from receiver.", t);
       }
     }
+
+    // Whether the frame is on one of the buffers of the current preview size.
+    private boolean isCurrentFrame(FrameLease frame) {
+      return previewBuffers.contains(frame);
+    }
   }
 
   /** Cleans up graphicOverlay and child classes can do their cleanups as well . */
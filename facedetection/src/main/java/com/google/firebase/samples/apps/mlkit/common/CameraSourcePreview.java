@@ -35,6 +35,7 @@ public class CameraSourcePreview extends ViewGroup {
   private boolean startRequested;
   private boolean surfaceAvailable;
   private CameraSource cameraSource;
+  private boolean overlayOnly = true;
 
   private GraphicOverlay overlay;
 
@@ -67,6 +68,16 @@ public class CameraSourcePreview extends ViewGroup {
     start(cameraSource);
   }
 
+  /**
+   * Sets whether the camera preview is displayed on this view's surface, with the overlay only
+   * drawing the detection results on top of it. Otherwise the preview goes to an offscreen texture
+   * and the frame processor draws every camera frame as a bitmap on the overlay. Takes effect the
+   * next time the camera is started.
+   */
+  public void setOverlayOnly(boolean overlayOnly) {
+    this.overlayOnly = overlayOnly;
+  }
+
   public void stop() {
     if (cameraSource != null) {
       cameraSource.stop();
@@ -83,7 +94,11 @@ public class CameraSourcePreview extends ViewGroup {
   @SuppressLint("MissingPermission")
   private void startIfReady() throws IOException {
     if (startRequested && surfaceAvailable) {
-      cameraSource.start();
+      if (overlayOnly) {
+        cameraSource.start(surfaceView.getHolder());
+      } else {
+        cameraSource.start();
+      }
       if (overlay != null) {
         Size size = cameraSource.getPreviewSize();
         int min = Math.min(size.getWidth(), size.getHeight());
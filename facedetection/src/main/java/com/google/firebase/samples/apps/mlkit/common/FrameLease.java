@@ -0,0 +1,86 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted hold on one camera preview buffer. The frame source opens the lease with a
+ * single reference when the buffer is filled and hands it to its consumers. Every consumer that
+ * keeps the frame past the call it received it in (an asynchronous detector, a bitmap conversion
+ * worker, a recorder) must {@link #retain()} it and {@link #release()} it once done. The buffer is
+ * given back to its owner only after the last reference is released, so no consumer can see it
+ * overwritten with a newer frame.
+ *
+ * <p>There is one lease object per preview buffer and it is reused for every frame that buffer
+ * carries, so leasing does not allocate per frame.
+ */
+public final class FrameLease {
+
+  /** Takes the buffer back once no consumer holds the lease anymore. */
+  public interface Recycler {
+    void recycle(FrameLease lease);
+  }
+
+  private final ByteBuffer data;
+  private final Recycler recycler;
+  private final AtomicInteger refCount = new AtomicInteger();
+
+  public FrameLease(ByteBuffer data, Recycler recycler) {
+    this.data = data;
+    this.recycler = recycler;
+  }
+
+  /** Returns the frame data. Only valid while the caller holds a reference. */
+  public ByteBuffer getData() {
+    return data;
+  }
+
+  /** Returns the number of outstanding references, for diagnostics. */
+  public int getRefCount() {
+    return refCount.get();
+  }
+
+  /**
+   * Starts a new use of the buffer with a single reference owned by the frame source.
+   *
+   * @throws IllegalStateException if the buffer is still referenced from a previous frame
+   */
+  public FrameLease open() {
+    if (!refCount.compareAndSet(0, 1)) {
+      throw new IllegalStateException("Frame buffer is still leased: " + refCount.get());
+    }
+    return this;
+  }
+
+  /**
+   * Adds a reference for a consumer that keeps the frame after returning.
+   *
+   * @throws IllegalStateException if the lease has already been fully released
+   */
+  public FrameLease retain() {
+    while (true) {
+      int count = refCount.get();
+      if (count <= 0) {
+        throw new IllegalStateException("Frame buffer retained after release.");
+      }
+      if (refCount.compareAndSet(count, count + 1)) {
+        return this;
+      }
+    }
+  }
+
+  /**
+   * Drops one reference. The last release hands the buffer back to the recycler.
+   *
+   * @throws IllegalStateException if there was no reference to release
+   */
+  public void release() {
+    int count = refCount.decrementAndGet();
+    if (count == 0) {
+      recycler.recycle(this);
+    } else if (count < 0) {
+      refCount.incrementAndGet();
+      throw new IllegalStateException("Frame buffer released more often than retained.");
+    }
+  }
+}
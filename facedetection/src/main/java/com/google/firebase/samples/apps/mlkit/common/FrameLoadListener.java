@@ -0,0 +1,14 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+/**
+ * Told by a frame processor how well it keeps up with the camera, see {@link
+ * VisionImageProcessor#setFrameLoadListener}. Called from the processing threads.
+ */
+public interface FrameLoadListener {
+
+  /** A camera frame was dropped because the processor was still busy with earlier ones. */
+  void onFrameDropped();
+
+  /** The detection of a camera frame finished, {@code latencyNanos} after it was submitted. */
+  void onFrameDetected(long latencyNanos);
+}
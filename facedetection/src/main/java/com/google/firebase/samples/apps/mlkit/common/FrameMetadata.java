@@ -20,6 +20,10 @@ public class FrameMetadata {
   private final int height;
   private final int rotation;
   private final int cameraFacing;
+  private final long timestampNanos;
+  private final int regionLeft;
+  private final int regionTop;
+  private final float detectionScale;
 
   public int getWidth() {
     return width;
@@ -37,11 +41,49 @@ public class FrameMetadata {
     return cameraFacing;
   }
 
-  private FrameMetadata(int width, int height, int rotation, int facing) {
+  /** Returns when the frame was taken from the camera, in {@link System#nanoTime()} time. */
+  public long getTimestampNanos() {
+    return timestampNanos;
+  }
+
+  /**
+   * Returns the left of the region of the frame that was detected, in upright frame coordinates.
+   * Results detected on a region are relative to it; it is 0 when the whole frame was detected.
+   */
+  public int getRegionLeft() {
+    return regionLeft;
+  }
+
+  /** Returns the top of the detected region, see {@link #getRegionLeft()}. */
+  public int getRegionTop() {
+    return regionTop;
+  }
+
+  /**
+   * Returns the size of the image that was detected relative to the frame, 1 unless it was scaled
+   * down. Results are in frame coordinates once divided by it and moved by the region offset.
+   */
+  public float getDetectionScale() {
+    return detectionScale;
+  }
+
+  private FrameMetadata(
+      int width,
+      int height,
+      int rotation,
+      int facing,
+      long timestampNanos,
+      int regionLeft,
+      int regionTop,
+      float detectionScale) {
     this.width = width;
     this.height = height;
     this.rotation = rotation;
     cameraFacing = facing;
+    this.timestampNanos = timestampNanos;
+    this.regionLeft = regionLeft;
+    this.regionTop = regionTop;
+    this.detectionScale = detectionScale;
   }
 
   /** Builder of {@link FrameMetadata}. */
@@ -51,6 +93,24 @@ public class FrameMetadata {
     private int height;
     private int rotation;
     private int cameraFacing;
+    private long timestampNanos;
+    private int regionLeft;
+    private int regionTop;
+    private float detectionScale = 1f;
+
+    public Builder() {}
+
+    /** Starts from the values of {@code metadata}. */
+    public Builder(FrameMetadata metadata) {
+      width = metadata.width;
+      height = metadata.height;
+      rotation = metadata.rotation;
+      cameraFacing = metadata.cameraFacing;
+      timestampNanos = metadata.timestampNanos;
+      regionLeft = metadata.regionLeft;
+      regionTop = metadata.regionTop;
+      detectionScale = metadata.detectionScale;
+    }
 
     public Builder setWidth(int width) {
       this.width = width;
@@ -72,8 +132,32 @@ public class FrameMetadata {
       return this;
     }
 
+    public Builder setTimestampNanos(long timestampNanos) {
+      this.timestampNanos = timestampNanos;
+      return this;
+    }
+
+    public Builder setRegion(int left, int top) {
+      regionLeft = left;
+      regionTop = top;
+      return this;
+    }
+
+    public Builder setDetectionScale(float detectionScale) {
+      this.detectionScale = detectionScale;
+      return this;
+    }
+
     public FrameMetadata build() {
-      return new FrameMetadata(width, height, rotation, cameraFacing);
+      return new FrameMetadata(
+          width,
+          height,
+          rotation,
+          cameraFacing,
+          timestampNanos,
+          regionLeft,
+          regionTop,
+          detectionScale);
     }
   }
 }
@@ -0,0 +1,170 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+/**
+ * Runs a {@link FrameHandler} on the newest frame of a {@link FrameSource}, on a thread of its
+ * own. This is designed to run detection on frames as fast as possible, without unnecessary
+ * context switching or waiting on the next frame.
+ *
+ * <p>While the handler runs on a frame, new frames may arrive. The most recent one is held as
+ * pending and older pending frames are released, which gives their buffers back to the source and
+ * is reported to the {@link FrameLoadListener} as a dropped frame. As soon as the handler returns,
+ * it runs on the pending frame, if any, without pausing; otherwise the thread parks until the next
+ * frame arrives.
+ *
+ * <p>The loop has no Android dependency, so it runs the same on a plain JVM, fed by a {@link
+ * Nv21FileFrameSource}.
+ */
+public final class FrameProcessingLoop implements FrameSource.Callback {
+
+  /** Handles the frames taken by the loop. */
+  public interface FrameHandler {
+
+    /**
+     * Handles one frame on the loop thread. The loop releases its reference on the frame when this
+     * returns; handlers that keep the frame must {@link FrameLease#retain()} it. Must not throw,
+     * an exception ends the loop.
+     */
+    void handleFrame(FrameLease frame, FrameMetadata metadata);
+  }
+
+  // A frame and its metadata waiting for the loop thread.
+  private static final class PendingFrame {
+    final FrameLease frame;
+    final FrameMetadata metadata;
+
+    PendingFrame(FrameLease frame, FrameMetadata metadata) {
+      this.frame = frame;
+      this.metadata = metadata;
+    }
+  }
+
+  private final FrameHandler handler;
+
+  // Holds the newest frame awaiting processing and parks the loop thread while there is none.
+  private final LatestFrameExchanger<PendingFrame> exchanger = new LatestFrameExchanger<>();
+
+  private volatile FrameLoadListener frameLoadListener;
+
+  // @GuardedBy("this")
+  private Thread thread;
+
+  public FrameProcessingLoop(FrameHandler handler) {
+    this.handler = handler;
+  }
+
+  /** Sets the listener told about frames replaced before the loop took them, or null. */
+  public void setFrameLoadListener(FrameLoadListener listener) {
+    frameLoadListener = listener;
+  }
+
+  /** Starts the loop thread. Does nothing if it is already running. */
+  public synchronized void start() {
+    if (thread != null) {
+      return;
+    }
+    exchanger.setActive(true);
+    thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  loop();
+                } finally {
+                  onLoopExited();
+                }
+              }
+            },
+            "FrameProcessingLoop");
+    thread.start();
+  }
+
+  /**
+   * Stops the loop thread and waits for the frame it is handling, then releases the pending frame.
+   * The loop may be started again.
+   */
+  public void stop() {
+    Thread stopping;
+    synchronized (this) {
+      stopping = thread;
+      thread = null;
+    }
+    exchanger.setActive(false);
+    if (stopping != null) {
+      try {
+        // Wait for the thread to complete to ensure that we can't have multiple threads
+        // executing at the same time (i.e., which would happen if we called start too
+        // quickly after stop).
+        stopping.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    releasePending();
+  }
+
+  /**
+   * Publishes the frame as the pending frame. If the previous pending frame was never picked up,
+   * its lease is released, which returns its buffer to the source.
+   */
+  @Override
+  public void onFrame(FrameLease frame, FrameMetadata metadata) {
+    PendingFrame replaced = exchanger.offer(new PendingFrame(frame, metadata));
+    if (replaced != null) {
+      replaced.frame.release();
+      FrameLoadListener listener = frameLoadListener;
+      if (listener != null) {
+        listener.onFrameDropped();
+      }
+    }
+  }
+
+  /** Returns the number of frames handed to the handler. */
+  public long getFramesDelivered() {
+    return exchanger.getFramesDelivered();
+  }
+
+  /** Returns the number of frames dropped because a newer one arrived first. */
+  public long getFramesReplaced() {
+    return exchanger.getFramesReplaced();
+  }
+
+  /** Returns the number of times the loop thread woke up to wait for a frame. */
+  public long getWakeups() {
+    return exchanger.getWakeups();
+  }
+
+  private void loop() {
+    while (true) {
+      // Taking the frame clears the pending slot, so this buffer isn't released back to the
+      // source by onFrame before we are done using that data.
+      PendingFrame pending = exchanger.take();
+      if (pending == null) {
+        // The loop was stopped.
+        return;
+      }
+      try {
+        handler.handleFrame(pending.frame, pending.metadata);
+      } finally {
+        // Drops the reference the frame was delivered with. The buffer goes back to the source
+        // now, or later once the handler releases the references it retained.
+        pending.frame.release();
+      }
+    }
+  }
+
+  // Forgets the thread if it ended without stop(), after a handler threw, so start() runs a new
+  // one.
+  private synchronized void onLoopExited() {
+    if (thread == Thread.currentThread()) {
+      thread = null;
+    }
+  }
+
+  private void releasePending() {
+    PendingFrame leftover = exchanger.clear();
+    if (leftover != null) {
+      leftover.frame.release();
+    }
+  }
+}
@@ -0,0 +1,43 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.io.IOException;
+
+/**
+ * Produces NV21 frames, such as the camera preview ({@link CameraSource}) or a recorded sequence
+ * ({@link Nv21FileFrameSource}).
+ *
+ * <p>Frames come on a fixed set of buffers, the way the camera fills the buffers handed to {@code
+ * Camera.addCallbackBuffer}. Each frame is delivered as a {@link FrameLease} opened with one
+ * reference, which the callback owns. The buffer goes back to the source once that reference and
+ * any taken with {@link FrameLease#retain()} are released; until then the source does not write
+ * to it, and when all its buffers are held it drops frames or waits, as the source documents.
+ */
+public interface FrameSource {
+
+  /**
+   * Number of buffers a source cycles between itself and its consumer. The camera preview and the
+   * replays share it, so frames are dropped and replaced on the JVM as on the device.
+   */
+  int BUFFER_COUNT = 6;
+
+  /** Receives the frames of a source. */
+  interface Callback {
+
+    /**
+     * Called on a thread of the source with a new frame and its metadata. The callback owns the
+     * reference the lease was opened with and must release it, now or later, to give the buffer
+     * back. Must not block for long: the source cannot deliver while this runs.
+     */
+    void onFrame(FrameLease frame, FrameMetadata metadata);
+  }
+
+  /**
+   * Starts delivering frames to {@code callback}.
+   *
+   * @throws IOException if the frames cannot be read
+   */
+  void start(Callback callback) throws IOException;
+
+  /** Stops delivering frames. Frames already delivered stay valid until released. */
+  void stop();
+}
@@ -15,11 +15,18 @@ package com.google.firebase.samples.apps.mlkit.common;
 
 import android.content.Context;
 import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.View;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A view which renders a series of custom graphics to be overlayed on top of an associated preview
@@ -38,16 +45,107 @@ import java.util.List;
  *       supplied value from the preview scale to the view scale.
  *   <li>{@link Graphic#translateX(float)} and {@link Graphic#translateY(float)} adjust the
  *       coordinate from the preview's coordinate system to the view coordinate system.
+ *   <li>{@link Graphic#mapPoints(float[], int, int)} does the same for a whole array of points,
+ *       and {@link Graphic#getTransformMatrix()} gives the mapping as a canvas matrix.
  * </ol>
+ *
+ * <p>What is drawn is an immutable {@link Scene}. A producer builds the complete set of graphics
+ * for a frame off the UI thread and {@link #publish(Scene) publishes} it with a single atomic
+ * swap; {@link #onDraw(Canvas)} draws the latest published scene without taking a lock, so a half
+ * built frame is never drawn and drawing never waits for detection results or the other way
+ * round.
+ *
+ * <p>Redraws are paced by the display: every change only marks the overlay as changed, and a
+ * {@link Choreographer} frame callback invalidates the view at most once per vsync, however many
+ * results arrived since the last frame.
  */
 public class GraphicOverlay extends View {
+  // Serializes producers changing the scene through clear/add/remove. Never taken by onDraw.
   private final Object lock = new Object();
-  private int previewWidth;
+  private volatile CameraInfo cameraInfo = new CameraInfo(0, 0, CameraSource.CAMERA_FACING_BACK);
+  // Only used on the UI thread, while drawing. Recomputed once per drawn frame.
   private float widthScaleFactor = 1.0f;
-  private int previewHeight;
   private float heightScaleFactor = 1.0f;
-  private int facing = CameraSource.CAMERA_FACING_BACK;
-  private final List<Graphic> graphics = new ArrayList<>();
+  private final OverlayTransform transform = new OverlayTransform();
+  private final Matrix transformMatrix = new Matrix();
+  private final float[] transformValues = new float[9];
+
+  private final AtomicReference<Scene> scene = new AtomicReference<>(Scene.EMPTY);
+  // Scenes replaced by a newer one, whose graphics are released by the UI thread once it is
+  // certain not to draw them anymore: when it draws, or at the next vsync while the view is not
+  // shown and does not draw.
+  private final ConcurrentLinkedQueue<Scene> retiredScenes = new ConcurrentLinkedQueue<>();
+  // Only used on the UI thread, while releasing retired scenes.
+  private final List<Scene> drainedScenes = new ArrayList<>();
+
+  private final Choreographer choreographer;
+  private final Choreographer.FrameCallback frameCallback =
+      new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+          onVsync();
+        }
+      };
+  // Set by a change since the last vsync.
+  private final AtomicBoolean changed = new AtomicBoolean();
+  // Set while a frame callback is posted.
+  private final AtomicBoolean frameCallbackPosted = new AtomicBoolean();
+
+  private final AtomicLong redrawRequests = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+  private final AtomicLong idleVsyncs = new AtomicLong();
+  // Written on the UI thread only.
+  private volatile long framesDrawn;
+  private long drawRateWindowStartMillis;
+  private int drawRateWindowFrames;
+  private volatile float drawRate;
+
+  /** An immutable set of graphics drawn together, back to front. */
+  public static final class Scene {
+    static final Scene EMPTY = new Scene(new Graphic[0]);
+
+    private final Graphic[] graphics;
+
+    private Scene(Graphic[] graphics) {
+      this.graphics = graphics;
+    }
+
+    /** Collects the graphics of a scene. Not thread safe, meant to be used by one producer. */
+    public static final class Builder {
+      private final List<Graphic> graphics = new ArrayList<>();
+
+      public Builder add(Graphic graphic) {
+        graphics.add(graphic);
+        return this;
+      }
+
+      public Scene build() {
+        return new Scene(graphics.toArray(new Graphic[graphics.size()]));
+      }
+    }
+
+    private boolean contains(Graphic graphic) {
+      for (Graphic g : graphics) {
+        if (g == graphic) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  // The camera attributes, swapped as a whole so a draw never sees half an update.
+  private static final class CameraInfo {
+    final int previewWidth;
+    final int previewHeight;
+    final int facing;
+
+    CameraInfo(int previewWidth, int previewHeight, int facing) {
+      this.previewWidth = previewWidth;
+      this.previewHeight = previewHeight;
+      this.facing = facing;
+    }
+  }
 
   /**
    * Base class for a custom graphics object to be rendered within the graphic overlay. Subclass
@@ -97,50 +195,164 @@ public class GraphicOverlay extends View {
      * Adjusts the x coordinate from the preview's coordinate system to the view coordinate system.
      */
     public float translateX(float x) {
-      if (overlay.facing == CameraSource.CAMERA_FACING_FRONT) {
-        return overlay.getWidth() - scaleX(x);
-      } else {
-        return scaleX(x);
-      }
+      return overlay.transform.mapX(x);
     }
 
     /**
      * Adjusts the y coordinate from the preview's coordinate system to the view coordinate system.
      */
     public float translateY(float y) {
-      return scaleY(y);
+      return overlay.transform.mapY(y);
+    }
+
+    /**
+     * Maps {@code count} interleaved x/y points from the preview's coordinate system to the view
+     * coordinate system in place, with the transform of the frame being drawn.
+     *
+     * @param offset index of the first x coordinate in {@code points}
+     */
+    public void mapPoints(float[] points, int offset, int count) {
+      overlay.transform.mapPoints(points, offset, count);
+    }
+
+    /**
+     * Returns the preview to view mapping of the frame being drawn, for concatenating to the
+     * canvas. Valid during {@link #draw(Canvas)}, not to be modified.
+     */
+    public Matrix getTransformMatrix() {
+      return overlay.transformMatrix;
     }
 
+    /** Asks for the overlay to be redrawn at the next vsync. */
     public void postInvalidate() {
-      overlay.postInvalidate();
+      overlay.requestRedraw();
     }
+
+    /**
+     * Called on the UI thread once a scene holding the graphic has been replaced by one that does
+     * not, and the replaced scene will not be drawn again, so it can give back resources it was
+     * drawing from.
+     */
+    protected void onRemoved() {}
   }
 
   public GraphicOverlay(Context context, AttributeSet attrs) {
     super(context, attrs);
+    choreographer = Choreographer.getInstance();
+  }
+
+  /**
+   * Marks the overlay as changed. It is redrawn at the next vsync together with every other
+   * change made until then. Safe to call from any thread.
+   */
+  public void requestRedraw() {
+    redrawRequests.incrementAndGet();
+    changed.set(true);
+    if (frameCallbackPosted.compareAndSet(false, true)) {
+      choreographer.postFrameCallback(frameCallback);
+    }
+  }
+
+  // Runs on the UI thread once per requested vsync.
+  private void onVsync() {
+    frameCallbackPosted.set(false);
+    if (changed.getAndSet(false)) {
+      invalidations.incrementAndGet();
+      invalidate();
+    } else {
+      idleVsyncs.incrementAndGet();
+    }
+    if (!isShown()) {
+      // Hidden or detached, so onDraw does not run to release the replaced scenes, which would
+      // keep their graphics and camera bitmaps until the view is shown again.
+      releaseRetiredScenes(scene.get());
+    }
+  }
+
+  @Override
+  protected void onDetachedFromWindow() {
+    super.onDetachedFromWindow();
+    releaseRetiredScenes(scene.get());
+  }
+
+  /** Returns the number of redraws asked for by scene changes and graphics. */
+  public long getRedrawRequests() {
+    return redrawRequests.get();
+  }
+
+  /** Returns the number of times the view was actually invalidated, at most once per vsync. */
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+
+  /** Returns the redraw requests folded into an invalidation already scheduled for the vsync. */
+  public long getRedundantInvalidationsAvoided() {
+    return redrawRequests.get() - invalidations.get();
+  }
+
+  /** Returns the number of vsync callbacks that found nothing changed and skipped drawing. */
+  public long getIdleVsyncs() {
+    return idleVsyncs.get();
+  }
+
+  /** Returns the number of times the overlay was drawn. */
+  public long getFramesDrawn() {
+    return framesDrawn;
+  }
+
+  /** Returns the draws per second achieved over the last full second. */
+  public float getDrawRate() {
+    return drawRate;
+  }
+
+  /**
+   * Replaces what the overlay draws with {@code newScene} and schedules a redraw. Safe to call
+   * from any thread.
+   */
+  public void publish(Scene newScene) {
+    Scene old = scene.getAndSet(newScene);
+    if (old != newScene && old != Scene.EMPTY) {
+      retiredScenes.offer(old);
+    }
+    requestRedraw();
   }
 
   /** Removes all graphics from the overlay. */
   public void clear() {
     synchronized (lock) {
-      graphics.clear();
+      publish(Scene.EMPTY);
     }
-    postInvalidate();
   }
 
-  /** Adds a graphic to the overlay. */
+  /**
+   * Adds a graphic to the overlay. Each call publishes a new scene, use {@link #publish(Scene)}
+   * to replace several graphics at once.
+   */
   public void add(Graphic graphic) {
     synchronized (lock) {
-      graphics.add(graphic);
+      Scene.Builder builder = new Scene.Builder();
+      for (Graphic g : scene.get().graphics) {
+        builder.add(g);
+      }
+      publish(builder.add(graphic).build());
     }
   }
 
   /** Removes a graphic from the overlay. */
   public void remove(Graphic graphic) {
     synchronized (lock) {
-      graphics.remove(graphic);
+      Scene current = scene.get();
+      if (!current.contains(graphic)) {
+        return;
+      }
+      Scene.Builder builder = new Scene.Builder();
+      for (Graphic g : current.graphics) {
+        if (g != graphic) {
+          builder.add(g);
+        }
+      }
+      publish(builder.build());
     }
-    postInvalidate();
   }
 
   /**
@@ -148,28 +360,91 @@ public class GraphicOverlay extends View {
    * coordinates later.
    */
   public void setCameraInfo(int previewWidth, int previewHeight, int facing) {
-    synchronized (lock) {
-      this.previewWidth = previewWidth;
-      this.previewHeight = previewHeight;
-      this.facing = facing;
-    }
-    postInvalidate();
+    cameraInfo = new CameraInfo(previewWidth, previewHeight, facing);
+    requestRedraw();
   }
 
-  /** Draws the overlay with its associated graphic objects. */
+  /** Draws the overlay with the latest published scene. */
   @Override
   protected void onDraw(Canvas canvas) {
     super.onDraw(canvas);
 
-    synchronized (lock) {
-      if ((previewWidth != 0) && (previewHeight != 0)) {
-        widthScaleFactor = (float) canvas.getWidth() / (float) previewWidth;
-        heightScaleFactor = (float) canvas.getHeight() / (float) previewHeight;
+    Scene drawing = scene.get();
+    releaseRetiredScenes(drawing);
+
+    CameraInfo info = cameraInfo;
+    if ((info.previewWidth != 0) && (info.previewHeight != 0)) {
+      widthScaleFactor = (float) canvas.getWidth() / (float) info.previewWidth;
+      heightScaleFactor = (float) canvas.getHeight() / (float) info.previewHeight;
+      transform.set(
+          info.previewWidth,
+          info.previewHeight,
+          canvas.getWidth(),
+          canvas.getHeight(),
+          info.facing == CameraSource.CAMERA_FACING_FRONT);
+      transform.getValues(transformValues);
+      transformMatrix.setValues(transformValues);
+    }
+
+    for (Graphic graphic : drawing.graphics) {
+      graphic.draw(canvas);
+    }
+    countFrame();
+  }
+
+  // Updates the frame counters after a draw.
+  private void countFrame() {
+    framesDrawn++;
+    long now = SystemClock.uptimeMillis();
+    if (drawRateWindowFrames == 0) {
+      drawRateWindowStartMillis = now;
+    }
+    drawRateWindowFrames++;
+    long elapsed = now - drawRateWindowStartMillis;
+    if (elapsed >= 1000) {
+      drawRate = (drawRateWindowFrames - 1) * 1000f / elapsed;
+      drawRateWindowStartMillis = now;
+      drawRateWindowFrames = 1;
+    }
+  }
+
+  // Runs on the UI thread. Every retired scene is done with except drawing, which is the scene
+  // about to be drawn, or the latest one when the view does not draw. The latest scene may have
+  // been replaced since drawing was read. A graphic is released with the last scene holding it,
+  // so it is skipped while the scene being drawn, the latest one or a newer retired one still
+  // holds it.
+  private void releaseRetiredScenes(Scene drawing) {
+    boolean drawingRetired = false;
+    Scene retired;
+    while ((retired = retiredScenes.poll()) != null) {
+      if (retired == drawing) {
+        drawingRetired = true;
+      } else {
+        drainedScenes.add(retired);
+      }
+    }
+    Scene latest = scene.get();
+    for (int i = 0; i < drainedScenes.size(); i++) {
+      for (Graphic graphic : drainedScenes.get(i).graphics) {
+        if (!drawing.contains(graphic)
+            && !latest.contains(graphic)
+            && !containedInLater(graphic, i)) {
+          graphic.onRemoved();
+        }
       }
+    }
+    drainedScenes.clear();
+    if (drawingRetired) {
+      retiredScenes.offer(drawing);
+    }
+  }
 
-      for (Graphic graphic : graphics) {
-        graphic.draw(canvas);
+  private boolean containedInLater(Graphic graphic, int index) {
+    for (int i = index + 1; i < drainedScenes.size(); i++) {
+      if (drainedScenes.get(i).contains(graphic)) {
+        return true;
       }
     }
+    return false;
   }
 }
@@ -0,0 +1,111 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hands the most recent frame from a producer (the camera callback) to a single consumer (the
+ * frame processing thread) without taking a monitor. The exchanger holds at most one frame: a
+ * frame offered while another is still waiting replaces it, and the replaced frame is returned to
+ * the producer so it can give the buffer back.
+ *
+ * <p>The consumer parks when there is nothing to take. The producer only unparks it when it is
+ * actually parked, so a consumer that keeps up with the camera costs the producer a single atomic
+ * swap and a volatile read per frame.
+ *
+ * @param <T> the frame type
+ */
+public class LatestFrameExchanger<T> {
+
+  private final AtomicReference<T> slot = new AtomicReference<>();
+
+  private volatile boolean active = true;
+  private volatile boolean consumerWaiting;
+  private volatile Thread consumer;
+
+  private final AtomicLong framesDelivered = new AtomicLong();
+  private final AtomicLong framesReplaced = new AtomicLong();
+  private final AtomicLong wakeups = new AtomicLong();
+
+  /**
+   * Publishes {@code frame} as the latest frame.
+   *
+   * @return the frame it replaced before the consumer took it, or null
+   */
+  public T offer(T frame) {
+    T replaced = slot.getAndSet(frame);
+    if (replaced != null) {
+      framesReplaced.incrementAndGet();
+    }
+    if (consumerWaiting) {
+      LockSupport.unpark(consumer);
+    }
+    return replaced;
+  }
+
+  /**
+   * Takes the latest frame, parking until one is offered. Returns null once the exchanger is
+   * inactive; a frame still waiting at that point stays in the exchanger, see {@link #clear()}.
+   * Interrupting the consumer does not end the wait, only {@link #setActive} does.
+   */
+  public T take() {
+    consumer = Thread.currentThread();
+    while (true) {
+      if (!active) {
+        return null;
+      }
+      T frame = slot.getAndSet(null);
+      if (frame != null) {
+        framesDelivered.incrementAndGet();
+        return frame;
+      }
+
+      // Announce the wait before checking once more, so an offer racing with us either sees the
+      // flag and unparks us or is seen by the second check.
+      consumerWaiting = true;
+      frame = slot.getAndSet(null);
+      if (frame != null || !active) {
+        consumerWaiting = false;
+        if (frame != null) {
+          framesDelivered.incrementAndGet();
+        }
+        return frame;
+      }
+      LockSupport.park(this);
+      consumerWaiting = false;
+      wakeups.incrementAndGet();
+      // Park returns at once while the thread is interrupted, so clear it to wait again.
+      Thread.interrupted();
+    }
+  }
+
+  /** Marks the exchanger as active/not active and wakes the consumer so it can observe it. */
+  public void setActive(boolean active) {
+    this.active = active;
+    Thread waiter = consumer;
+    if (waiter != null) {
+      LockSupport.unpark(waiter);
+    }
+  }
+
+  /** Removes and returns the waiting frame, if any. */
+  public T clear() {
+    return slot.getAndSet(null);
+  }
+
+  /** Returns the number of frames handed to the consumer. */
+  public long getFramesDelivered() {
+    return framesDelivered.get();
+  }
+
+  /** Returns the number of frames replaced by a newer one before the consumer took them. */
+  public long getFramesReplaced() {
+    return framesReplaced.get();
+  }
+
+  /** Returns the number of times the consumer was unparked while waiting for a frame. */
+  public long getWakeups() {
+    return wakeups.get();
+  }
+}
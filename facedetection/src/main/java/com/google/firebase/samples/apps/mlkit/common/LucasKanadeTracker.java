@@ -0,0 +1,444 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tracks sparse points from one camera frame to the next with pyramidal Lucas-Kanade optical flow
+ * (after Bouguet, "Pyramidal Implementation of the Lucas Kanade Feature Tracker"), on the luma
+ * plane of NV21 frames only.
+ *
+ * <p>Frames are pushed with {@link #pushFrame(ByteBuffer, int, int)}; {@link #track} then moves
+ * points from the frame pushed before it to the frame pushed last. Each point is first tracked on
+ * the coarsest pyramid level and refined level by level, so motion of several times the window
+ * size is followed. A point is reported lost when its window has too little texture, when it
+ * leaves the frame or when the window matches poorly after tracking.
+ *
+ * <p>A tracker created with more than one thread splits the points between the calling thread
+ * and its own worker threads. Pyramids and per-thread windows are allocated once and reused as
+ * long as the frame size does not change, so tracking frame after frame does not allocate. Not
+ * thread safe: push and track from one thread at a time.
+ */
+public final class LucasKanadeTracker {
+
+  /** Pyramid levels, each half the size of the one below. */
+  static final int LEVELS = 3;
+
+  /** Half size of the square window matched around each point, in pixels of every level. */
+  static final int WINDOW_RADIUS = 4;
+
+  private static final int WINDOW_SIZE = 2 * WINDOW_RADIUS + 1;
+  private static final int WINDOW_AREA = WINDOW_SIZE * WINDOW_SIZE;
+  private static final int MAX_ITERATIONS = 10;
+  private static final float EPSILON = 0.01f;
+
+  // Smallest eigenvalue of the window's gradient matrix per window pixel, in squared luma steps
+  // per pixel. Below it the window is too flat, or only has an edge, to be tracked.
+  private static final float MIN_EIGENVALUE = 0.25f;
+
+  // Largest mean absolute luma difference between the window and where it was tracked to.
+  private static final float MAX_ERROR = 24f;
+
+  private final int threadCount;
+  private final Window[] windows;
+  private final Thread[] workers;
+
+  private Pyramid previous = new Pyramid();
+  private Pyramid current = new Pyramid();
+  private int framesPushed;
+
+  // Luma of a frame whose buffer has no backing array.
+  private byte[] luma = new byte[0];
+
+  // The call being tracked, shared with the workers under lock.
+  private final Object lock = new Object();
+  private float[] points;
+  private float[] trackedPoints;
+  private boolean[] status;
+  private int pointCount;
+  private int generation;
+  private int pendingWorkers;
+  private boolean shutdown;
+
+  /** Creates a tracker that runs on the calling thread only. */
+  public LucasKanadeTracker() {
+    this(1);
+  }
+
+  /**
+   * Creates a tracker that splits the points of each call between the calling thread and {@code
+   * threadCount - 1} worker threads.
+   */
+  public LucasKanadeTracker(int threadCount) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+    }
+    this.threadCount = threadCount;
+    windows = new Window[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      windows[i] = new Window();
+    }
+    workers = new Thread[threadCount - 1];
+    for (int i = 0; i < workers.length; i++) {
+      final int part = i + 1;
+      workers[i] = new Thread(
+          new Runnable() {
+            @Override
+            public void run() {
+              workerLoop(part);
+            }
+          },
+          "LucasKanadeTracker");
+      workers[i].setDaemon(true);
+      workers[i].start();
+    }
+  }
+
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  /**
+   * Builds the pyramid of a new NV21 frame, which becomes the frame tracked to. The frame pushed
+   * before it becomes the frame tracked from. Only the Y plane is read, the buffer position is not
+   * changed.
+   */
+  public void pushFrame(ByteBuffer nv21, int width, int height) {
+    if (width <= 0 || height <= 0 || nv21.capacity() < width * height) {
+      throw new IllegalArgumentException(
+          "Invalid frame: " + width + "x" + height + ", " + nv21.capacity() + " bytes");
+    }
+    Pyramid swap = previous;
+    previous = current;
+    current = swap;
+    if (nv21.hasArray()) {
+      current.build(nv21.array(), nv21.arrayOffset(), width, height);
+    } else {
+      if (luma.length < width * height) {
+        luma = new byte[width * height];
+      }
+      for (int i = 0; i < width * height; i++) {
+        luma[i] = nv21.get(i);
+      }
+      current.build(luma, 0, width, height);
+    }
+    framesPushed++;
+  }
+
+  /** Forgets the frames pushed so far. */
+  public void reset() {
+    framesPushed = 0;
+  }
+
+  /** Returns whether two frames of the same size were pushed since the last reset. */
+  public boolean canTrack() {
+    return framesPushed >= 2
+        && previous.width == current.width
+        && previous.height == current.height;
+  }
+
+  /**
+   * Tracks {@code count} points, x/y interleaved in {@code points}, from the frame pushed before
+   * the last one to the last one. Tracked positions are written to {@code trackedPoints}, which
+   * may be {@code points} itself; lost points are left where they were.
+   *
+   * @param status set for each point to whether it was tracked
+   * @return the number of points tracked
+   * @throws IllegalStateException if {@link #canTrack()} is false
+   */
+  public int track(float[] points, float[] trackedPoints, boolean[] status, int count) {
+    if (!canTrack()) {
+      throw new IllegalStateException("Two frames of the same size are needed to track.");
+    }
+    boolean parallel = workers.length > 0 && count >= threadCount;
+    if (parallel) {
+      synchronized (lock) {
+        // Once shut down, the calling thread tracks everything itself.
+        parallel = !shutdown;
+        if (parallel) {
+          this.points = points;
+          this.trackedPoints = trackedPoints;
+          this.status = status;
+          pointCount = count;
+          pendingWorkers = workers.length;
+          generation++;
+          lock.notifyAll();
+        }
+      }
+    }
+    if (parallel) {
+      trackRange(points, trackedPoints, status, 0, partEnd(0, count), windows[0]);
+      awaitWorkers();
+    } else {
+      trackRange(points, trackedPoints, status, 0, count, windows[0]);
+    }
+    int tracked = 0;
+    for (int i = 0; i < count; i++) {
+      if (status[i]) {
+        tracked++;
+      }
+    }
+    return tracked;
+  }
+
+  /**
+   * Stops the worker threads once they are done with the call being tracked. Later calls are
+   * tracked on the calling thread only.
+   */
+  public void shutdown() {
+    synchronized (lock) {
+      shutdown = true;
+      lock.notifyAll();
+    }
+  }
+
+  private int partEnd(int part, int count) {
+    int perPart = (count + threadCount - 1) / threadCount;
+    return Math.min(count, (part + 1) * perPart);
+  }
+
+  private void workerLoop(int part) {
+    int seen = 0;
+    while (true) {
+      float[] from;
+      float[] to;
+      boolean[] tracked;
+      int count;
+      synchronized (lock) {
+        while (generation == seen && !shutdown) {
+          try {
+            lock.wait();
+          } catch (InterruptedException e) {
+            // Only shutdown() stops a worker, the caller may be waiting for it.
+          }
+        }
+        if (generation == seen) {
+          // Shut down, with no call left to take part in.
+          return;
+        }
+        seen = generation;
+        from = points;
+        to = trackedPoints;
+        tracked = status;
+        count = pointCount;
+      }
+      try {
+        trackRange(
+            from, to, tracked, partEnd(part - 1, count), partEnd(part, count), windows[part]);
+      } finally {
+        synchronized (lock) {
+          if (--pendingWorkers == 0) {
+            lock.notifyAll();
+          }
+        }
+      }
+    }
+  }
+
+  // The workers read the pyramids and write into the caller's arrays, so the caller waits for
+  // them even when interrupted.
+  private void awaitWorkers() {
+    boolean interrupted = false;
+    synchronized (lock) {
+      while (pendingWorkers > 0) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      points = null;
+      trackedPoints = null;
+      status = null;
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void trackRange(
+      float[] from, float[] to, boolean[] tracked, int start, int end, Window window) {
+    for (int i = start; i < end; i++) {
+      tracked[i] = trackPoint(from[i * 2], from[i * 2 + 1], window);
+      if (tracked[i]) {
+        to[i * 2] = window.resultX;
+        to[i * 2 + 1] = window.resultY;
+      } else {
+        to[i * 2] = from[i * 2];
+        to[i * 2 + 1] = from[i * 2 + 1];
+      }
+    }
+  }
+
+  // Tracks one point from the previous to the current frame, leaving the result in the window.
+  private boolean trackPoint(float x, float y, Window window) {
+    float[] intensity = window.intensity;
+    float[] gradientX = window.gradientX;
+    float[] gradientY = window.gradientY;
+    // Displacement guessed from the coarser levels, in pixels of the current level.
+    float guessX = 0f;
+    float guessY = 0f;
+    float errorSum = 0f;
+    for (int level = LEVELS - 1; level >= 0; level--) {
+      float scale = 1f / (1 << level);
+      float px = x * scale;
+      float py = y * scale;
+      float[] from = previous.levels[level];
+      float[] to = current.levels[level];
+      int width = previous.widths[level];
+      int height = previous.heights[level];
+
+      float gxx = 0f;
+      float gxy = 0f;
+      float gyy = 0f;
+      int k = 0;
+      for (int dy = -WINDOW_RADIUS; dy <= WINDOW_RADIUS; dy++) {
+        for (int dx = -WINDOW_RADIUS; dx <= WINDOW_RADIUS; dx++, k++) {
+          float sx = px + dx;
+          float sy = py + dy;
+          float ix = 0.5f * (sample(from, width, height, sx + 1, sy)
+              - sample(from, width, height, sx - 1, sy));
+          float iy = 0.5f * (sample(from, width, height, sx, sy + 1)
+              - sample(from, width, height, sx, sy - 1));
+          intensity[k] = sample(from, width, height, sx, sy);
+          gradientX[k] = ix;
+          gradientY[k] = iy;
+          gxx += ix * ix;
+          gxy += ix * iy;
+          gyy += iy * iy;
+        }
+      }
+      float determinant = gxx * gyy - gxy * gxy;
+      float minEigenvalue =
+          (gxx + gyy - (float) Math.sqrt((gxx - gyy) * (gxx - gyy) + 4f * gxy * gxy)) / 2f;
+      if (minEigenvalue / WINDOW_AREA < MIN_EIGENVALUE || determinant <= 0f) {
+        return false;
+      }
+
+      float vx = 0f;
+      float vy = 0f;
+      for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+        float bx = 0f;
+        float by = 0f;
+        errorSum = 0f;
+        k = 0;
+        for (int dy = -WINDOW_RADIUS; dy <= WINDOW_RADIUS; dy++) {
+          for (int dx = -WINDOW_RADIUS; dx <= WINDOW_RADIUS; dx++, k++) {
+            float difference = intensity[k]
+                - sample(to, width, height, px + guessX + vx + dx, py + guessY + vy + dy);
+            bx += difference * gradientX[k];
+            by += difference * gradientY[k];
+            errorSum += Math.abs(difference);
+          }
+        }
+        float ex = (gyy * bx - gxy * by) / determinant;
+        float ey = (gxx * by - gxy * bx) / determinant;
+        vx += ex;
+        vy += ey;
+        if (ex * ex + ey * ey < EPSILON * EPSILON) {
+          break;
+        }
+      }
+      if (level > 0) {
+        guessX = 2f * (guessX + vx);
+        guessY = 2f * (guessY + vy);
+      } else {
+        guessX += vx;
+        guessY += vy;
+      }
+    }
+
+    float trackedX = x + guessX;
+    float trackedY = y + guessY;
+    if (trackedX < 0f || trackedY < 0f
+        || trackedX > current.width - 1 || trackedY > current.height - 1
+        || errorSum / WINDOW_AREA > MAX_ERROR) {
+      return false;
+    }
+    window.resultX = trackedX;
+    window.resultY = trackedY;
+    return true;
+  }
+
+  // Bilinear sample of a level, clamped to its border.
+  private static float sample(float[] level, int width, int height, float x, float y) {
+    if (x < 0f) {
+      x = 0f;
+    } else if (x > width - 1) {
+      x = width - 1;
+    }
+    if (y < 0f) {
+      y = 0f;
+    } else if (y > height - 1) {
+      y = height - 1;
+    }
+    int x0 = (int) x;
+    int y0 = (int) y;
+    int x1 = x0 < width - 1 ? x0 + 1 : x0;
+    int y1 = y0 < height - 1 ? y0 + 1 : y0;
+    float fx = x - x0;
+    float fy = y - y0;
+    int row0 = y0 * width;
+    int row1 = y1 * width;
+    float top = level[row0 + x0] + fx * (level[row0 + x1] - level[row0 + x0]);
+    float bottom = level[row1 + x0] + fx * (level[row1 + x1] - level[row1 + x0]);
+    return top + fy * (bottom - top);
+  }
+
+  /** Luma of a frame and its downscaled levels. */
+  private static final class Pyramid {
+    final float[][] levels = new float[LEVELS][];
+    final int[] widths = new int[LEVELS];
+    final int[] heights = new int[LEVELS];
+    int width;
+    int height;
+
+    void build(byte[] luma, int offset, int width, int height) {
+      if (this.width != width || this.height != height || levels[0] == null) {
+        int w = width;
+        int h = height;
+        for (int level = 0; level < LEVELS; level++) {
+          widths[level] = w;
+          heights[level] = h;
+          levels[level] = new float[w * h];
+          w = Math.max(1, w / 2);
+          h = Math.max(1, h / 2);
+        }
+        this.width = width;
+        this.height = height;
+      }
+      float[] base = levels[0];
+      for (int i = 0; i < width * height; i++) {
+        base[i] = luma[offset + i] & 0xff;
+      }
+      for (int level = 1; level < LEVELS; level++) {
+        downscale(levels[level - 1], widths[level - 1], heights[level - 1],
+            levels[level], widths[level], heights[level]);
+      }
+    }
+
+    // Averages 2x2 blocks of the level below, clamping at its border.
+    private static void downscale(
+        float[] source, int sourceWidth, int sourceHeight, float[] target, int width, int height) {
+      for (int y = 0; y < height; y++) {
+        int row0 = Math.min(2 * y, sourceHeight - 1) * sourceWidth;
+        int row1 = Math.min(2 * y + 1, sourceHeight - 1) * sourceWidth;
+        for (int x = 0; x < width; x++) {
+          int x0 = Math.min(2 * x, sourceWidth - 1);
+          int x1 = Math.min(2 * x + 1, sourceWidth - 1);
+          target[y * width + x] =
+              0.25f * (source[row0 + x0] + source[row0 + x1] + source[row1 + x0]
+                  + source[row1 + x1]);
+        }
+      }
+    }
+  }
+
+  /** The window of one point being tracked, per thread. */
+  private static final class Window {
+    final float[] intensity = new float[WINDOW_AREA];
+    final float[] gradientX = new float[WINDOW_AREA];
+    final float[] gradientY = new float[WINDOW_AREA];
+    float resultX;
+    float resultY;
+  }
+}
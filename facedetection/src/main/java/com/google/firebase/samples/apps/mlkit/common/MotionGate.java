@@ -0,0 +1,233 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Decides whether a camera frame differs enough from the last processed one to be worth running
+ * the detector on. While the scene holds still, the detector would only return the results it
+ * already drew, so those are left on screen instead.
+ *
+ * <p>The Y plane of each frame is reduced to the mean luma of its {@value #CELL_SIZE}x{@value
+ * #CELL_SIZE} cells, a grid at 1/{@value #CELL_SIZE} of the frame resolution that averages out
+ * most sensor noise. Motion is the luma change reached by the {@value #MOVING_CELL_FRACTION}
+ * fraction of cells that changed most between the grid of a frame and that of the last processed
+ * frame. A mean over the whole grid would wash out a talking mouth, which covers about one cell in
+ * a hundred, while a single cell would let noise through. Comparing with the last processed frame
+ * rather than the previous one means slow motion adds up until it passes the threshold. A
+ * frame is processed anyway once {@link #getRefreshInterval()} frames in a row were skipped, so
+ * the results catch up with changes too subtle to be measured.
+ *
+ * <p>{@link #shouldProcess} must be called from a single thread; the grids are reused, so it does
+ * not allocate once the frame size is known. The settings, the metrics and {@link #reset()} can be
+ * used from any thread.
+ */
+public final class MotionGate {
+
+  /** Width and height, in pixels, of the cells the Y plane is averaged over. */
+  static final int CELL_SIZE = 8;
+
+  private static final int CELL_AREA = CELL_SIZE * CELL_SIZE;
+
+  /** Fraction of the cells, at least one, whose change decides the motion of a frame. */
+  static final float MOVING_CELL_FRACTION = 0.005f;
+
+  // Cell changes are counted in bins of 1/BINS_PER_LEVEL luma level; larger ones share the last.
+  private static final int BINS_PER_LEVEL = 16;
+  private static final int BIN_COUNT = 64 * BINS_PER_LEVEL;
+
+  private volatile boolean enabled = true;
+  private volatile float threshold;
+  private volatile int refreshInterval;
+
+  // Cell sums of the frame being measured and of the last processed frame.
+  private int[] cells = new int[0];
+  private int[] reference = new int[0];
+  private boolean hasReference;
+  private volatile boolean resetRequested;
+  private int gridWidth;
+  private int gridHeight;
+  private int frameWidth;
+  private int frameHeight;
+  private int skippedInARow;
+  private byte[] row = new byte[0];
+  private final int[] histogram = new int[BIN_COUNT];
+
+  // Written by the processing thread only.
+  private volatile long framesSeen;
+  private volatile long framesSkipped;
+  private volatile float lastMotion;
+
+  /**
+   * @param threshold luma change, in levels per cell, of the cells that changed most above which
+   *     a frame is processed
+   * @param refreshInterval largest number of frames skipped in a row
+   */
+  public MotionGate(float threshold, int refreshInterval) {
+    setThreshold(threshold);
+    setRefreshInterval(refreshInterval);
+  }
+
+  /**
+   * Measures the motion between {@code nv21} and the last processed frame.
+   *
+   * @return true if the frame should be processed, in which case it becomes the frame the next
+   *     ones are compared with; false if the results of the last processed frame still apply
+   */
+  public boolean shouldProcess(ByteBuffer nv21, int width, int height) {
+    framesSeen++;
+    if (resetRequested) {
+      resetRequested = false;
+      hasReference = false;
+    }
+    if (!enabled) {
+      hasReference = false;
+      return true;
+    }
+    if (width != frameWidth || height != frameHeight) {
+      resize(width, height);
+    }
+    measure(nv21);
+    boolean process;
+    if (!hasReference) {
+      lastMotion = Float.NaN;
+      process = true;
+    } else {
+      lastMotion = largestDifference();
+      process = lastMotion > threshold || skippedInARow >= refreshInterval;
+    }
+    if (process) {
+      int[] swap = reference;
+      reference = cells;
+      cells = swap;
+      hasReference = true;
+      skippedInARow = 0;
+    } else {
+      skippedInARow++;
+      framesSkipped++;
+    }
+    return process;
+  }
+
+  /** Forgets the last processed frame, so the next frame is processed. */
+  public void reset() {
+    resetRequested = true;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /** Disabling the gate lets every frame through. */
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public float getThreshold() {
+    return threshold;
+  }
+
+  public void setThreshold(float threshold) {
+    if (!(threshold >= 0)) {
+      throw new IllegalArgumentException("Invalid threshold: " + threshold);
+    }
+    this.threshold = threshold;
+  }
+
+  public int getRefreshInterval() {
+    return refreshInterval;
+  }
+
+  public void setRefreshInterval(int refreshInterval) {
+    if (refreshInterval < 0) {
+      throw new IllegalArgumentException("Invalid refresh interval: " + refreshInterval);
+    }
+    this.refreshInterval = refreshInterval;
+  }
+
+  /** Returns the number of frames measured. */
+  public long getFramesSeen() {
+    return framesSeen;
+  }
+
+  /** Returns the number of frames skipped because the scene held still. */
+  public long getFramesSkipped() {
+    return framesSkipped;
+  }
+
+  /** Returns the fraction of the frames measured that were skipped, or 0 if none were. */
+  public float getSkipRate() {
+    long seen = framesSeen;
+    return seen == 0 ? 0f : (float) framesSkipped / seen;
+  }
+
+  /**
+   * Returns the motion measured on the last frame, in luma levels per cell, or NaN if there was
+   * no processed frame to compare it with. Changes of 64 levels and more are reported as 64.
+   */
+  public float getLastMotion() {
+    return lastMotion;
+  }
+
+  public void resetStatistics() {
+    framesSeen = 0;
+    framesSkipped = 0;
+  }
+
+  private void resize(int width, int height) {
+    frameWidth = width;
+    frameHeight = height;
+    gridWidth = width / CELL_SIZE;
+    gridHeight = height / CELL_SIZE;
+    cells = new int[gridWidth * gridHeight];
+    reference = new int[gridWidth * gridHeight];
+    row = new byte[width];
+    hasReference = false;
+  }
+
+  // Sums the luma of each full cell into cells; the partial cells at the edges are left out.
+  private void measure(ByteBuffer nv21) {
+    Arrays.fill(cells, 0);
+    boolean hasArray = nv21.hasArray();
+    byte[] data = hasArray ? nv21.array() : row;
+    int base = hasArray ? nv21.arrayOffset() : 0;
+    int columns = gridWidth * CELL_SIZE;
+    for (int y = 0; y < gridHeight * CELL_SIZE; y++) {
+      int offset;
+      if (hasArray) {
+        offset = base + y * frameWidth;
+      } else {
+        for (int x = 0; x < columns; x++) {
+          row[x] = nv21.get(y * frameWidth + x);
+        }
+        offset = 0;
+      }
+      int cell = (y / CELL_SIZE) * gridWidth;
+      for (int x = 0; x < columns; x += CELL_SIZE, cell++) {
+        int sum = 0;
+        for (int i = offset + x, end = i + CELL_SIZE; i < end; i++) {
+          sum += data[i] & 0xff;
+        }
+        cells[cell] += sum;
+      }
+    }
+  }
+
+  // Returns the change of the cell ranked MOVING_CELL_FRACTION from the top, rounded down to a bin.
+  private float largestDifference() {
+    if (cells.length == 0) {
+      return 0f;
+    }
+    Arrays.fill(histogram, 0);
+    for (int i = 0; i < cells.length; i++) {
+      int bin = Math.abs(cells[i] - reference[i]) * BINS_PER_LEVEL / CELL_AREA;
+      histogram[Math.min(bin, BIN_COUNT - 1)]++;
+    }
+    int rank = Math.max(1, (int) Math.ceil(cells.length * MOVING_CELL_FRACTION));
+    int bin = BIN_COUNT - 1;
+    for (int counted = histogram[bin]; counted < rank; counted += histogram[bin]) {
+      bin--;
+    }
+    return (float) bin / BINS_PER_LEVEL;
+  }
+}
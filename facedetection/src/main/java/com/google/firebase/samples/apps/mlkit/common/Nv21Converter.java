@@ -0,0 +1,290 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Converts NV21 camera frames to packed ARGB_8888 pixels without going through an intermediate
+ * JPEG. Uses BT.601 (video range) coefficients in 10-bit fixed point, so the output matches what
+ * the camera preview shows to within one step per channel.
+ *
+ * <p>The output can be rotated by a multiple of 90 degrees and mirrored in the same pass, so a
+ * front camera frame comes out upright without a second full-frame copy. Rotations use the
+ * {@code FirebaseVisionImageMetadata.ROTATION_*} values, i.e. clockwise quarter turns, and the
+ * mirror flips the rotated image horizontally.
+ *
+ * <p>A converter created with more than one thread splits the frame into horizontal stripes of
+ * even height (each pair of luma rows shares one chroma row) and converts them in parallel. The
+ * single threaded {@link #convert(byte[], int, int, int[])} is always available as a static call.
+ */
+public class Nv21Converter {
+
+  // BT.601 video range, scaled by 1 << 10.
+  private static final int Y_SCALE = 1192; // 1.164
+  private static final int V_TO_R = 1634; // 1.596
+  private static final int V_TO_G = 833; // 0.813
+  private static final int U_TO_G = 400; // 0.391
+  private static final int U_TO_B = 2066; // 2.018
+  private static final int ROUND = 1 << 9;
+  private static final int MAX_CHANNEL = (255 << 10) + ROUND;
+
+  private final int threadCount;
+  private final ExecutorService executor;
+  private final Stripe[] stripes;
+
+  /** Creates a converter that runs on the calling thread only. */
+  public Nv21Converter() {
+    this(1);
+  }
+
+  /**
+   * Creates a converter that splits each frame into {@code threadCount} row stripes. The calling
+   * thread converts the first stripe itself, so {@code threadCount - 1} worker threads are
+   * started.
+   */
+  public Nv21Converter(int threadCount) {
+    if (threadCount < 1) {
+      throw new IllegalArgumentException("Invalid thread count: " + threadCount);
+    }
+    this.threadCount = threadCount;
+    stripes = new Stripe[threadCount];
+    for (int i = 0; i < threadCount; i++) {
+      stripes[i] = new Stripe();
+    }
+    if (threadCount > 1) {
+      executor =
+          Executors.newFixedThreadPool(
+              threadCount - 1,
+              new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                  Thread thread = new Thread(r, "Nv21Converter");
+                  thread.setDaemon(true);
+                  return thread;
+                }
+              });
+    } else {
+      executor = null;
+    }
+  }
+
+  /** Returns the number of row stripes each frame is split into. */
+  public int getThreadCount() {
+    return threadCount;
+  }
+
+  /**
+   * Converts {@code nv21} into {@code argb}, which must hold at least {@code width * height}
+   * pixels. Blocks until every stripe is done.
+   */
+  public void convertFrame(byte[] nv21, int width, int height, int[] argb) {
+    convertFrame(nv21, width, height, 0, false, argb);
+  }
+
+  /**
+   * Converts, rotates and mirrors {@code nv21} into {@code argb} in a single pass. The output is
+   * {@link #getOutputWidth(int, int, int)} pixels wide. Blocks until every stripe is done.
+   *
+   * @param rotation number of clockwise quarter turns, 0 to 3
+   * @param mirror whether to flip the rotated output horizontally
+   */
+  public void convertFrame(
+      byte[] nv21, int width, int height, int rotation, boolean mirror, int[] argb) {
+    checkArguments(nv21, width, height, argb);
+    checkRotation(rotation);
+    if (executor == null || height < 4) {
+      convertRows(nv21, width, height, rotation, mirror, argb, 0, height);
+      return;
+    }
+
+    // Stripe heights are kept even so no chroma row is split between two stripes.
+    int rowsPerStripe = ((height / threadCount) + 1) & ~1;
+    CountDownLatch done = new CountDownLatch(threadCount - 1);
+    for (int i = 1; i < threadCount; i++) {
+      int rowStart = Math.min(height, i * rowsPerStripe);
+      int rowEnd = (i == threadCount - 1) ? height : Math.min(height, (i + 1) * rowsPerStripe);
+      stripes[i].set(nv21, width, height, rotation, mirror, argb, rowStart, rowEnd, done);
+      executor.execute(stripes[i]);
+    }
+    convertRows(nv21, width, height, rotation, mirror, argb, 0, Math.min(height, rowsPerStripe));
+
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /** Stops the worker threads. The converter must not be used afterwards. */
+  public void shutdown() {
+    if (executor != null) {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Converts a whole NV21 frame into {@code argb} on the calling thread.
+   *
+   * @param nv21 the Y plane followed by the interleaved V/U plane
+   * @param width frame width, must be even
+   * @param height frame height, must be even
+   * @param argb output pixels, row-major, at least {@code width * height} long
+   */
+  public static void convert(byte[] nv21, int width, int height, int[] argb) {
+    convert(nv21, width, height, 0, false, argb);
+  }
+
+  /**
+   * Converts, rotates and mirrors a whole NV21 frame into {@code argb} on the calling thread.
+   *
+   * @param rotation number of clockwise quarter turns, 0 to 3
+   * @param mirror whether to flip the rotated output horizontally
+   */
+  public static void convert(
+      byte[] nv21, int width, int height, int rotation, boolean mirror, int[] argb) {
+    checkArguments(nv21, width, height, argb);
+    checkRotation(rotation);
+    convertRows(nv21, width, height, rotation, mirror, argb, 0, height);
+  }
+
+  /** Returns the width of the converted image for the given source size and rotation. */
+  public static int getOutputWidth(int width, int height, int rotation) {
+    return (rotation & 1) == 0 ? width : height;
+  }
+
+  /** Returns the height of the converted image for the given source size and rotation. */
+  public static int getOutputHeight(int width, int height, int rotation) {
+    return (rotation & 1) == 0 ? height : width;
+  }
+
+  /**
+   * Converts source rows {@code [rowStart, rowEnd)}; {@code rowStart} must be even. Source pixels
+   * are read in memory order and each one is written to its rotated and mirrored position, which
+   * for a given source row is a fixed start index and a fixed step.
+   */
+  static void convertRows(
+      byte[] nv21,
+      int width,
+      int height,
+      int rotation,
+      boolean mirror,
+      int[] argb,
+      int rowStart,
+      int rowEnd) {
+    int frameSize = width * height;
+    for (int j = rowStart; j < rowEnd; j++) {
+      int out;
+      int step;
+      switch (rotation) {
+        case 1:
+          out = mirror ? j : height - 1 - j;
+          step = height;
+          break;
+        case 2:
+          out = (height - 1 - j) * width + (mirror ? 0 : width - 1);
+          step = mirror ? 1 : -1;
+          break;
+        case 3:
+          out = (width - 1) * height + (mirror ? height - 1 - j : j);
+          step = -height;
+          break;
+        default:
+          out = j * width + (mirror ? width - 1 : 0);
+          step = mirror ? -1 : 1;
+          break;
+      }
+
+      int yIndex = j * width;
+      int uvIndex = frameSize + (j >> 1) * width;
+      int v = 0;
+      int u = 0;
+      for (int i = 0; i < width; i++, yIndex++, out += step) {
+        if ((i & 1) == 0) {
+          v = (nv21[uvIndex++] & 0xff) - 128;
+          u = (nv21[uvIndex++] & 0xff) - 128;
+        }
+        argb[out] = yuvToArgb(nv21[yIndex] & 0xff, u, v);
+      }
+    }
+  }
+
+  /** Converts one pixel. {@code u} and {@code v} are already centred on zero. */
+  static int yuvToArgb(int y, int u, int v) {
+    int y1192 = (y - 16) * Y_SCALE + ROUND;
+    int r = y1192 + V_TO_R * v;
+    int g = y1192 - V_TO_G * v - U_TO_G * u;
+    int b = y1192 + U_TO_B * u;
+
+    r = r < 0 ? 0 : (r > MAX_CHANNEL ? MAX_CHANNEL : r);
+    g = g < 0 ? 0 : (g > MAX_CHANNEL ? MAX_CHANNEL : g);
+    b = b < 0 ? 0 : (b > MAX_CHANNEL ? MAX_CHANNEL : b);
+
+    return 0xff000000 | ((r << 6) & 0xff0000) | ((g >> 2) & 0xff00) | ((b >> 10) & 0xff);
+  }
+
+  private static void checkRotation(int rotation) {
+    if (rotation < 0 || rotation > 3) {
+      throw new IllegalArgumentException("Invalid rotation: " + rotation);
+    }
+  }
+
+  private static void checkArguments(byte[] nv21, int width, int height, int[] argb) {
+    if (width <= 0 || height <= 0 || (width & 1) != 0 || (height & 1) != 0) {
+      throw new IllegalArgumentException("Invalid NV21 frame size: " + width + "x" + height);
+    }
+    int frameSize = width * height;
+    if (nv21.length < frameSize + frameSize / 2) {
+      throw new IllegalArgumentException("NV21 buffer too small: " + nv21.length);
+    }
+    if (argb.length < frameSize) {
+      throw new IllegalArgumentException("ARGB buffer too small: " + argb.length);
+    }
+  }
+
+  /** One row stripe of a frame, reused across frames. */
+  private static class Stripe implements Runnable {
+    private byte[] nv21;
+    private int width;
+    private int height;
+    private int rotation;
+    private boolean mirror;
+    private int[] argb;
+    private int rowStart;
+    private int rowEnd;
+    private CountDownLatch done;
+
+    void set(
+        byte[] nv21,
+        int width,
+        int height,
+        int rotation,
+        boolean mirror,
+        int[] argb,
+        int rowStart,
+        int rowEnd,
+        CountDownLatch done) {
+      this.nv21 = nv21;
+      this.width = width;
+      this.height = height;
+      this.rotation = rotation;
+      this.mirror = mirror;
+      this.argb = argb;
+      this.rowStart = rowStart;
+      this.rowEnd = rowEnd;
+      this.done = done;
+    }
+
+    @Override
+    public void run() {
+      try {
+        convertRows(nv21, width, height, rotation, mirror, argb, rowStart, rowEnd);
+      } finally {
+        nv21 = null;
+        argb = null;
+        done.countDown();
+      }
+    }
+  }
+}
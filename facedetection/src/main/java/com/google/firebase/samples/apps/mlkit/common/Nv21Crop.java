@@ -0,0 +1,137 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies rectangular regions out of NV21 frames, and maps rectangles between the coordinates of
+ * the frame as the camera delivers it and those of the upright image the detector reports results
+ * in.
+ *
+ * <p>NV21 stores one interleaved V/U pair per 2x2 block of Y samples, so regions start and end on
+ * even coordinates: a crop is then a valid NV21 image whose chroma lines up with the frame's.
+ * Rectangles are {@code int[]} of left, top, right and bottom, right and bottom exclusive.
+ * Rotations are numbers of clockwise quarter turns, as in {@link Nv21Converter}. Nothing here
+ * allocates.
+ */
+public final class Nv21Crop {
+
+  private Nv21Crop() {}
+
+  /** Returns the number of bytes of an NV21 image of the given size. */
+  public static int getBufferSize(int width, int height) {
+    return width * height * 3 / 2;
+  }
+
+  /**
+   * Copies the region {@code rect} of the NV21 frame {@code src} into {@code dst}, as an NV21
+   * image of the region's size starting at index 0 of {@code dst}. Buffer positions and limits
+   * are left unchanged.
+   *
+   * @throws IllegalArgumentException if the region is empty, not even-aligned, outside the frame,
+   *     or if either buffer is too small
+   */
+  public static void crop(ByteBuffer src, int width, int height, int[] rect, ByteBuffer dst) {
+    int left = rect[0];
+    int top = rect[1];
+    int cropWidth = rect[2] - left;
+    int cropHeight = rect[3] - top;
+    if (((left | top | cropWidth | cropHeight) & 1) != 0
+        || left < 0
+        || top < 0
+        || cropWidth <= 0
+        || cropHeight <= 0
+        || rect[2] > width
+        || rect[3] > height) {
+      throw new IllegalArgumentException(
+          "Invalid region " + left + "," + top + "," + rect[2] + "," + rect[3]
+              + " of a " + width + "x" + height + " frame");
+    }
+    if (src.capacity() < getBufferSize(width, height)
+        || dst.capacity() < getBufferSize(cropWidth, cropHeight)) {
+      throw new IllegalArgumentException("Buffer too small");
+    }
+    int frameSize = width * height;
+    int cropSize = cropWidth * cropHeight;
+    // Y rows, then V/U rows, which are as wide as Y rows and half as many.
+    copyRows(src, top * width + left, width, dst, 0, cropWidth, cropWidth, cropHeight);
+    copyRows(
+        src, frameSize + (top / 2) * width + left, width,
+        dst, cropSize, cropWidth, cropWidth, cropHeight / 2);
+  }
+
+  /**
+   * Maps a rectangle in upright image coordinates, in place, to the frame coordinates of a {@code
+   * width} x {@code height} frame that is turned by {@code rotation} to be upright.
+   */
+  public static void toFrameRect(int[] rect, int width, int height, int rotation) {
+    int left = rect[0];
+    int top = rect[1];
+    int right = rect[2];
+    int bottom = rect[3];
+    switch (rotation) {
+      case 1:
+        set(rect, top, height - right, bottom, height - left);
+        break;
+      case 2:
+        set(rect, width - right, height - bottom, width - left, height - top);
+        break;
+      case 3:
+        set(rect, width - bottom, left, width - top, right);
+        break;
+      default:
+        break;
+    }
+  }
+
+  /**
+   * Maps a rectangle in the frame coordinates of a {@code width} x {@code height} frame, in place,
+   * to the coordinates of the frame turned upright by {@code rotation}. The inverse of {@link
+   * #toFrameRect}.
+   */
+  public static void toUprightRect(int[] rect, int width, int height, int rotation) {
+    int left = rect[0];
+    int top = rect[1];
+    int right = rect[2];
+    int bottom = rect[3];
+    switch (rotation) {
+      case 1:
+        set(rect, height - bottom, left, height - top, right);
+        break;
+      case 2:
+        set(rect, width - right, height - bottom, width - left, height - top);
+        break;
+      case 3:
+        set(rect, top, width - right, bottom, width - left);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private static void set(int[] rect, int left, int top, int right, int bottom) {
+    rect[0] = left;
+    rect[1] = top;
+    rect[2] = right;
+    rect[3] = bottom;
+  }
+
+  private static void copyRows(
+      ByteBuffer src, int srcIndex, int srcStride,
+      ByteBuffer dst, int dstIndex, int dstStride, int length, int rows) {
+    if (src.hasArray() && dst.hasArray()) {
+      byte[] in = src.array();
+      byte[] out = dst.array();
+      int from = src.arrayOffset() + srcIndex;
+      int to = dst.arrayOffset() + dstIndex;
+      for (int row = 0; row < rows; row++, from += srcStride, to += dstStride) {
+        System.arraycopy(in, from, out, to, length);
+      }
+      return;
+    }
+    for (int row = 0; row < rows; row++, srcIndex += srcStride, dstIndex += dstStride) {
+      for (int i = 0; i < length; i++) {
+        dst.put(dstIndex + i, src.get(srcIndex + i));
+      }
+    }
+  }
+}
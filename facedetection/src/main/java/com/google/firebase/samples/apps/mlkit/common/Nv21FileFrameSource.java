@@ -0,0 +1,199 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays the frames of a {@link Nv21FrameFile} as a {@link FrameSource}, for running the frame
+ * pipeline on a plain JVM.
+ *
+ * <p>Frames are copied from the mapped file into {@link FrameSource#BUFFER_COUNT} buffers, as
+ * many as the camera has, as the camera fills its preview buffers. At a fixed frame rate the source
+ * behaves like the camera: a frame that finds every buffer still held is dropped and counted. {@link #AS_FAST_AS_POSSIBLE} instead
+ * delivers each frame once the one before it is released, so that no frame is dropped or replaced
+ * on the way and the consumer sets the pace.
+ *
+ * <p>The metadata carries the rotation and facing recorded with each frame and the time the frame
+ * was delivered, so the timestamps are those of the replay, not of the recording.
+ */
+public final class Nv21FileFrameSource implements FrameSource {
+
+  /** Frame rate that replays the frames one at a time, as fast as the consumer releases them. */
+  public static final float AS_FAST_AS_POSSIBLE = 0f;
+
+  private final Nv21FrameFile file;
+  private final int[] order;
+  private final long periodNanos;
+  private volatile boolean looping;
+
+  private final Queue<FrameLease> freeBuffers = new ConcurrentLinkedQueue<>();
+  // Frames that may be out with the consumer; a permit is returned after its buffer.
+  private final Semaphore outstanding;
+
+  private final AtomicLong framesDelivered = new AtomicLong();
+  private final AtomicLong framesDropped = new AtomicLong();
+
+  // @GuardedBy("this")
+  private Thread thread;
+  private volatile CountDownLatch finished = new CountDownLatch(0);
+
+  /**
+   * @param fps frame rate to replay at, or {@link #AS_FAST_AS_POSSIBLE}
+   */
+  public Nv21FileFrameSource(Nv21FrameFile file, float fps) {
+    if (fps < 0) {
+      throw new IllegalArgumentException("Invalid frame rate: " + fps);
+    }
+    this.file = file;
+    order = file.getFrameOrder();
+    periodNanos = fps == AS_FAST_AS_POSSIBLE ? 0 : (long) (1_000_000_000L / fps);
+    outstanding = new Semaphore(periodNanos == 0 ? 1 : BUFFER_COUNT);
+    FrameLease.Recycler recycler =
+        new FrameLease.Recycler() {
+          @Override
+          public void recycle(FrameLease lease) {
+            freeBuffers.offer(lease);
+            outstanding.release();
+          }
+        };
+    for (int i = 0; i < BUFFER_COUNT; i++) {
+      freeBuffers.offer(
+          new FrameLease(ByteBuffer.wrap(new byte[file.getFrameSize()]), recycler));
+    }
+  }
+
+  /** Sets whether the sequence starts over after its last frame instead of ending. */
+  public void setLooping(boolean looping) {
+    this.looping = looping;
+  }
+
+  /** Starts replaying from the first frame on a thread of its own. */
+  @Override
+  public synchronized void start(final Callback callback) {
+    if (thread != null) {
+      return;
+    }
+    finished = new CountDownLatch(1);
+    final CountDownLatch done = finished;
+    thread =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  replay(callback);
+                } finally {
+                  done.countDown();
+                }
+              }
+            },
+            "Nv21FileFrameSource");
+    thread.start();
+  }
+
+  /** Stops the replay and waits for the frame being delivered. */
+  @Override
+  public void stop() {
+    Thread stopping;
+    synchronized (this) {
+      stopping = thread;
+      thread = null;
+    }
+    if (stopping == null) {
+      return;
+    }
+    stopping.interrupt();
+    try {
+      stopping.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Waits for the replay to deliver its last frame, which it never does while looping.
+   *
+   * @return whether the replay is over, false on timeout
+   */
+  public boolean awaitFinished(long timeout, TimeUnit unit) throws InterruptedException {
+    return finished.await(timeout, unit);
+  }
+
+  /** Returns the number of frames delivered since creation. */
+  public long getFramesDelivered() {
+    return framesDelivered.get();
+  }
+
+  /** Returns the number of frames dropped because every buffer was held by the consumer. */
+  public long getFramesDropped() {
+    return framesDropped.get();
+  }
+
+  private void replay(Callback callback) {
+    if (order.length == 0) {
+      return;
+    }
+    long deadline = System.nanoTime();
+    do {
+      for (int slot : order) {
+        if (periodNanos > 0) {
+          if (!sleepUntil(deadline)) {
+            return;
+          }
+          deadline += periodNanos;
+          long now = System.nanoTime();
+          if (now - deadline > periodNanos) {
+            // Fell behind, like a busy camera: carry on from now rather than catch up in a burst.
+            deadline = now;
+          }
+          if (!outstanding.tryAcquire()) {
+            framesDropped.incrementAndGet();
+            continue;
+          }
+        } else {
+          try {
+            outstanding.acquire();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        // Buffers are queued before their permit is returned.
+        FrameLease buffer = freeBuffers.poll();
+        file.copyFrame(slot, buffer.getData());
+        FrameMetadata metadata =
+            new FrameMetadata.Builder()
+                .setWidth(file.getWidth())
+                .setHeight(file.getHeight())
+                .setRotation(file.getRotation(slot))
+                .setCameraFacing(file.getCameraFacing(slot))
+                .setTimestampNanos(System.nanoTime())
+                .build();
+        framesDelivered.incrementAndGet();
+        callback.onFrame(buffer.open(), metadata);
+        if (Thread.currentThread().isInterrupted()) {
+          return;
+        }
+      }
+    } while (looping);
+  }
+
+  // Parks until the deadline; returns false if the replay was stopped meanwhile.
+  private static boolean sleepUntil(long deadline) {
+    while (true) {
+      if (Thread.currentThread().isInterrupted()) {
+        return false;
+      }
+      long wait = deadline - System.nanoTime();
+      if (wait <= 0) {
+        return true;
+      }
+      LockSupport.parkNanos(wait);
+    }
+  }
+}
@@ -0,0 +1,268 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A memory-mapped file of NV21 frames of one size, with the metadata of each frame.
+ *
+ * <p>The file is a header followed by a fixed number of frame slots:
+ *
+ * <pre>
+ *   header: int magic 'NV21', int version, int width, int height, int slot count, 12 bytes unused
+ *   slot:   long sequence, long timestamp ns, int rotation, int camera facing, 8 bytes unused,
+ *           NV21 data, padding to a multiple of 8
+ * </pre>
+ *
+ * <p>All numbers are big-endian. A slot whose sequence is {@link #EMPTY} holds no frame. Frames
+ * are replayed in the order of their sequence numbers, see {@link #getFrameOrder()}, so slots can
+ * be filled in any order. {@link #writeFrame} marks the slot empty while it writes, so a slot that
+ * was being written when the writer died reads as empty.
+ *
+ * <p>Metadata and frame copies use absolute positions, but copies share one view of the mapping,
+ * so a file must not be copied from on several threads at once.
+ */
+public final class Nv21FrameFile implements Closeable {
+
+  /** Sequence number of an empty slot. */
+  public static final long EMPTY = -1;
+
+  static final int MAGIC = 0x4e563231;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 32;
+  static final int SLOT_HEADER_SIZE = 32;
+
+  private static final int SEQUENCE = 0;
+  private static final int TIMESTAMP = 8;
+  private static final int ROTATION = 16;
+  private static final int CAMERA_FACING = 20;
+
+  private final RandomAccessFile file;
+  private final MappedByteBuffer mapping;
+  // View of the mapping whose position and limit are moved to copy frames.
+  private final ByteBuffer view;
+  private final int width;
+  private final int height;
+  private final int slotCount;
+  private final int frameSize;
+  private final int slotSize;
+
+  private Nv21FrameFile(
+      RandomAccessFile file, MappedByteBuffer mapping, int width, int height, int slotCount) {
+    this.file = file;
+    this.mapping = mapping;
+    this.width = width;
+    this.height = height;
+    this.slotCount = slotCount;
+    frameSize = Nv21Crop.getBufferSize(width, height);
+    slotSize = slotSize(width, height);
+    view = mapping.duplicate();
+  }
+
+  /**
+   * Creates, or overwrites, a file of {@code slotCount} empty slots for frames of {@code width} x
+   * {@code height}. The whole file is allocated and mapped up front.
+   *
+   * @throws IllegalArgumentException if the size is odd or the file would exceed 2 GB
+   */
+  public static Nv21FrameFile create(File path, int width, int height, int slotCount)
+      throws IOException {
+    if (width <= 0 || height <= 0 || ((width | height) & 1) != 0 || slotCount <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid frame file: " + slotCount + " frames of " + width + "x" + height);
+    }
+    long length = HEADER_SIZE + (long) slotSize(width, height) * slotCount;
+    if (length > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Frame file too large: " + length + " bytes");
+    }
+    RandomAccessFile file = new RandomAccessFile(path, "rw");
+    try {
+      file.setLength(0);
+      file.setLength(length);
+      MappedByteBuffer mapping = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+      mapping.putInt(0, MAGIC);
+      mapping.putInt(4, VERSION);
+      mapping.putInt(8, width);
+      mapping.putInt(12, height);
+      mapping.putInt(16, slotCount);
+      Nv21FrameFile frames = new Nv21FrameFile(file, mapping, width, height, slotCount);
+      for (int slot = 0; slot < slotCount; slot++) {
+        mapping.putLong(frames.slotOffset(slot) + SEQUENCE, EMPTY);
+      }
+      return frames;
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Opens a file written by {@link #create} for reading.
+   *
+   * @throws IOException if the file cannot be read or is not a frame file
+   */
+  public static Nv21FrameFile open(File path) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(path, "r");
+    try {
+      long length = file.length();
+      if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+        throw new IOException("Not a frame file: " + path);
+      }
+      MappedByteBuffer mapping = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+      int width = mapping.getInt(8);
+      int height = mapping.getInt(12);
+      int slotCount = mapping.getInt(16);
+      if (mapping.getInt(0) != MAGIC
+          || mapping.getInt(4) != VERSION
+          || width <= 0
+          || height <= 0
+          || slotCount <= 0
+          || length < HEADER_SIZE + (long) slotSize(width, height) * slotCount) {
+        throw new IOException("Not a frame file: " + path);
+      }
+      return new Nv21FrameFile(file, mapping, width, height, slotCount);
+    } catch (IOException | RuntimeException e) {
+      file.close();
+      throw e;
+    }
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public int getSlotCount() {
+    return slotCount;
+  }
+
+  /** Returns the size of the NV21 data of a frame. */
+  public int getFrameSize() {
+    return frameSize;
+  }
+
+  /** Returns the sequence number of the frame in {@code slot}, or {@link #EMPTY}. */
+  public long getSequence(int slot) {
+    return mapping.getLong(slotOffset(slot) + SEQUENCE);
+  }
+
+  /** Returns the capture time of the frame in {@code slot}, in {@link System#nanoTime()} time. */
+  public long getTimestampNanos(int slot) {
+    return mapping.getLong(slotOffset(slot) + TIMESTAMP);
+  }
+
+  public int getRotation(int slot) {
+    return mapping.getInt(slotOffset(slot) + ROTATION);
+  }
+
+  public int getCameraFacing(int slot) {
+    return mapping.getInt(slotOffset(slot) + CAMERA_FACING);
+  }
+
+  /** Returns the slots that hold a frame, ordered by sequence number. */
+  public int[] getFrameOrder() {
+    List<Integer> slots = new ArrayList<>();
+    for (int slot = 0; slot < slotCount; slot++) {
+      if (getSequence(slot) != EMPTY) {
+        slots.add(slot);
+      }
+    }
+    Collections.sort(
+        slots,
+        new Comparator<Integer>() {
+          @Override
+          public int compare(Integer a, Integer b) {
+            long sequenceA = getSequence(a);
+            long sequenceB = getSequence(b);
+            return sequenceA < sequenceB ? -1 : (sequenceA == sequenceB ? 0 : 1);
+          }
+        });
+    int[] order = new int[slots.size()];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = slots.get(i);
+    }
+    return order;
+  }
+
+  /**
+   * Copies the NV21 data of the frame in {@code slot} to index 0 of {@code dst}. The position of
+   * {@code dst} is left unchanged.
+   */
+  public void copyFrame(int slot, ByteBuffer dst) {
+    int offset = slotOffset(slot) + SLOT_HEADER_SIZE;
+    view.limit(offset + frameSize);
+    view.position(offset);
+    int position = dst.position();
+    dst.position(0);
+    dst.put(view);
+    dst.position(position);
+  }
+
+  /**
+   * Writes a frame to {@code slot}, replacing the one it held. The frame size must match the file,
+   * the region and scale of {@code metadata} are not stored.
+   *
+   * @param sequence the position of the frame in the sequence, at least 0
+   * @param nv21 the frame data, from index 0; its position is left unchanged
+   */
+  public void writeFrame(int slot, long sequence, FrameMetadata metadata, ByteBuffer nv21) {
+    if (metadata.getWidth() != width || metadata.getHeight() != height || sequence < 0) {
+      throw new IllegalArgumentException(
+          "Cannot write frame " + sequence + " of " + metadata.getWidth() + "x"
+              + metadata.getHeight() + " to a file of " + width + "x" + height);
+    }
+    int offset = slotOffset(slot);
+    mapping.putLong(offset + SEQUENCE, EMPTY);
+    mapping.putLong(offset + TIMESTAMP, metadata.getTimestampNanos());
+    mapping.putInt(offset + ROTATION, metadata.getRotation());
+    mapping.putInt(offset + CAMERA_FACING, metadata.getCameraFacing());
+    view.limit(offset + SLOT_HEADER_SIZE + frameSize);
+    view.position(offset + SLOT_HEADER_SIZE);
+    if (nv21.hasArray()) {
+      view.put(nv21.array(), nv21.arrayOffset(), frameSize);
+    } else {
+      ByteBuffer src = nv21.duplicate();
+      src.limit(frameSize);
+      src.position(0);
+      view.put(src);
+    }
+    mapping.putLong(offset + SEQUENCE, sequence);
+  }
+
+  /** Writes the changes made to the mapping out to the file. */
+  public void force() {
+    mapping.force();
+  }
+
+  /**
+   * Closes the file. The mapping itself is only unmapped once it is garbage collected, so the
+   * frames must no longer be read or written.
+   */
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+
+  private int slotOffset(int slot) {
+    if (slot < 0 || slot >= slotCount) {
+      throw new IndexOutOfBoundsException("Slot " + slot + " of " + slotCount);
+    }
+    return HEADER_SIZE + slot * slotSize;
+  }
+
+  private static int slotSize(int width, int height) {
+    return (SLOT_HEADER_SIZE + Nv21Crop.getBufferSize(width, height) + 7) & ~7;
+  }
+}
@@ -0,0 +1,86 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the frames of a {@link Nv21FrameFile} in capture order, such as a recording made by
+ * {@link Nv21FrameRecorder}: the oldest frame first, wherever the ring had got to. The file must
+ * no longer be written to. Not thread safe.
+ */
+public final class Nv21FrameReader implements Closeable {
+
+  private final Nv21FrameFile file;
+  private final int[] order;
+  private int next;
+
+  /** Opens the file at {@code path} for reading. */
+  public Nv21FrameReader(File path) throws IOException {
+    this(Nv21FrameFile.open(path));
+  }
+
+  /** Reads the frames of an open file, which {@link #close()} closes. */
+  public Nv21FrameReader(Nv21FrameFile file) {
+    this.file = file;
+    order = file.getFrameOrder();
+  }
+
+  public int getWidth() {
+    return file.getWidth();
+  }
+
+  public int getHeight() {
+    return file.getHeight();
+  }
+
+  /** Returns the number of frames in the file. */
+  public int getFrameCount() {
+    return order.length;
+  }
+
+  public boolean hasNext() {
+    return next < order.length;
+  }
+
+  /**
+   * Copies the next frame to index 0 of {@code dst}, which must hold {@link
+   * Nv21FrameFile#getFrameSize()} bytes, and returns its metadata as recorded: size, rotation,
+   * camera facing and capture time.
+   *
+   * @throws java.util.NoSuchElementException if every frame has been read
+   */
+  public FrameMetadata next(ByteBuffer dst) {
+    if (!hasNext()) {
+      throw new java.util.NoSuchElementException();
+    }
+    int slot = order[next++];
+    file.copyFrame(slot, dst);
+    return new FrameMetadata.Builder()
+        .setWidth(file.getWidth())
+        .setHeight(file.getHeight())
+        .setRotation(file.getRotation(slot))
+        .setCameraFacing(file.getCameraFacing(slot))
+        .setTimestampNanos(file.getTimestampNanos(slot))
+        .build();
+  }
+
+  /** Returns the sequence number the last frame read was recorded with. */
+  public long getSequence() {
+    if (next == 0) {
+      throw new IllegalStateException("No frame read yet");
+    }
+    return file.getSequence(order[next - 1]);
+  }
+
+  /** Starts over from the first frame. */
+  public void rewind() {
+    next = 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+}
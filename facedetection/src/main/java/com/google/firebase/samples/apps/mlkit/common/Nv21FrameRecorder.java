@@ -0,0 +1,207 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records the frames passing from a {@link FrameSource} to its callback into a {@link
+ * Nv21FrameFile} used as a ring: once every slot is filled, each new frame overwrites the oldest
+ * one, so the file holds the last {@link Nv21FrameFile#getSlotCount()} frames. Read the recording
+ * back with {@link Nv21FrameReader} or replay it with {@link Nv21FileFrameSource}.
+ *
+ * <p>The source thread never waits on the file. It copies each frame into one of a few staging
+ * buffers and goes on to the downstream callback; a writer thread moves the staged frames to the
+ * mapped file and flushes it every {@link #FLUSH_INTERVAL_NANOS}. A frame that finds every staging
+ * buffer waiting for the writer, whose size does not match the file, or that comes once the
+ * recorder is stopped, is dropped from the recording and counted; it still goes downstream. The
+ * staging buffers form a single producer, single consumer ring, so recording takes no lock and
+ * does not allocate per frame.
+ *
+ * <p>{@link #onFrame} must be called from one thread at a time, as sources do.
+ */
+public final class Nv21FrameRecorder implements FrameSource.Callback {
+
+  /** Time between flushes of the written frames to the file. */
+  static final long FLUSH_INTERVAL_NANOS = 500_000_000L;
+
+  private final Nv21FrameFile file;
+  private final FrameSource.Callback downstream;
+
+  // Staged frames, indexed by staging count modulo their number.
+  private final byte[][] staging;
+  private final ByteBuffer[] stagingBuffers;
+  private final FrameMetadata[] stagedMetadata;
+  // Frames staged by the source thread and frames written by the writer thread. Each is only
+  // advanced by its own thread, after the slot is filled or emptied.
+  private final AtomicLong staged = new AtomicLong();
+  private final AtomicLong written = new AtomicLong();
+  // Sequence number of the first frame staged by this recorder.
+  private final long firstSequence;
+
+  private final AtomicLong framesDropped = new AtomicLong();
+
+  private volatile boolean running;
+  // Set by stop() until the next start(). Frames are no longer staged, and those still staged are
+  // counted as dropped.
+  private volatile boolean stopped;
+  private volatile boolean writerWaiting;
+  // Read by the source thread to wake the writer up.
+  private volatile Thread writer;
+
+  /**
+   * @param file the file to record into; frames already in it are kept until overwritten, and the
+   *     sequence numbers continue after theirs
+   * @param downstream the callback every frame is passed on to
+   * @param stagingBuffers number of frames that can wait for the writer
+   */
+  public Nv21FrameRecorder(
+      Nv21FrameFile file, FrameSource.Callback downstream, int stagingBuffers) {
+    if (stagingBuffers <= 0) {
+      throw new IllegalArgumentException("Invalid staging buffer count: " + stagingBuffers);
+    }
+    this.file = file;
+    this.downstream = downstream;
+    staging = new byte[stagingBuffers][file.getFrameSize()];
+    this.stagingBuffers = new ByteBuffer[stagingBuffers];
+    for (int i = 0; i < stagingBuffers; i++) {
+      this.stagingBuffers[i] = ByteBuffer.wrap(staging[i]);
+    }
+    stagedMetadata = new FrameMetadata[stagingBuffers];
+    long last = Nv21FrameFile.EMPTY;
+    for (int slot = 0; slot < file.getSlotCount(); slot++) {
+      last = Math.max(last, file.getSequence(slot));
+    }
+    firstSequence = last + 1;
+  }
+
+  /** Starts the writer thread. Frames are only staged, not recorded, before this. */
+  public synchronized void start() {
+    if (writer != null) {
+      return;
+    }
+    running = true;
+    stopped = false;
+    writer =
+        new Thread(
+            new Runnable() {
+              @Override
+              public void run() {
+                write();
+              }
+            },
+            "Nv21FrameRecorder");
+    writer.start();
+  }
+
+  /**
+   * Stops the writer once it has written the staged frames, and flushes the file. Frames passed to
+   * {@link #onFrame} afterwards, and frames staged too late for the writer, still go downstream
+   * but are not recorded; they are counted as dropped.
+   */
+  public synchronized void stop() {
+    if (writer == null) {
+      return;
+    }
+    stopped = true;
+    running = false;
+    LockSupport.unpark(writer);
+    try {
+      writer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    writer = null;
+  }
+
+  /** Stages a copy of the frame for the writer, or drops it, and passes it downstream. */
+  @Override
+  public void onFrame(FrameLease frame, FrameMetadata metadata) {
+    stage(frame.getData(), metadata);
+    downstream.onFrame(frame, metadata);
+  }
+
+  /** Returns the number of frames written to the file. */
+  public long getFramesRecorded() {
+    return written.get();
+  }
+
+  /**
+   * Returns the number of frames not recorded because the writer fell behind or was stopped, or
+   * because of their size.
+   */
+  public long getFramesDropped() {
+    long dropped = framesDropped.get();
+    if (stopped) {
+      // Staged while the writer was stopping, after it last looked. The writer is gone, so
+      // written no longer moves.
+      dropped += staged.get() - written.get();
+    }
+    return dropped;
+  }
+
+  private void stage(ByteBuffer data, FrameMetadata metadata) {
+    int frameSize = file.getFrameSize();
+    long count = staged.get();
+    if (stopped
+        || metadata.getWidth() != file.getWidth()
+        || metadata.getHeight() != file.getHeight()
+        || data.capacity() < frameSize
+        || count - written.get() == staging.length) {
+      framesDropped.incrementAndGet();
+      return;
+    }
+    int index = (int) (count % staging.length);
+    if (data.hasArray()) {
+      System.arraycopy(data.array(), data.arrayOffset(), staging[index], 0, frameSize);
+    } else {
+      for (int i = 0; i < frameSize; i++) {
+        staging[index][i] = data.get(i);
+      }
+    }
+    stagedMetadata[index] = metadata;
+    // Publishes the copy to the writer; a full write, so it is ordered before reading the flag.
+    staged.set(count + 1);
+    if (writerWaiting) {
+      LockSupport.unpark(writer);
+    }
+  }
+
+  private void write() {
+    long lastFlush = System.nanoTime();
+    boolean dirty = false;
+    while (true) {
+      long count = written.get();
+      if (count < staged.get()) {
+        int index = (int) (count % staging.length);
+        long sequence = firstSequence + count;
+        file.writeFrame(
+            (int) (sequence % file.getSlotCount()),
+            sequence,
+            stagedMetadata[index],
+            stagingBuffers[index]);
+        stagedMetadata[index] = null;
+        // Hands the staging buffer back to the source thread.
+        written.lazySet(count + 1);
+        dirty = true;
+        continue;
+      }
+      long now = System.nanoTime();
+      if (dirty && (!running || now - lastFlush >= FLUSH_INTERVAL_NANOS)) {
+        file.force();
+        lastFlush = now;
+        dirty = false;
+      }
+      if (!running) {
+        return;
+      }
+      // Announce the wait before checking once more, so a frame staged meanwhile either sees the
+      // flag and unparks us or is seen by the second check.
+      writerWaiting = true;
+      if (written.get() == staged.get() && running) {
+        LockSupport.parkNanos(this, FLUSH_INTERVAL_NANOS);
+      }
+      writerWaiting = false;
+    }
+  }
+}
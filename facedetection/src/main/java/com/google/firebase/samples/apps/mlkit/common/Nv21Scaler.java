@@ -0,0 +1,165 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Shrinks a region of an NV21 frame into a smaller NV21 image with a box filter: each output
+ * sample is the rounded mean of the source samples its footprint covers, luma and chroma alike.
+ * Every source sample of the region is read once, so the cost is that of a copy, and the filter
+ * does not alias the way sampling the nearest or the four nearest pixels would once the image is
+ * shrunk by more than half.
+ *
+ * <p>The footprints are kept in tables that are refilled on every call and only grow, so scaling
+ * does not allocate once the largest sizes have been seen. Not thread safe.
+ */
+public final class Nv21Scaler {
+
+  // Source columns [columnStart[x], columnStart[x + 1]) of each output column of the last scale,
+  // and the same for rows; chroma tables are in V/U pairs.
+  private int[] columnStart = new int[0];
+  private int[] rowStart = new int[0];
+  private int[] chromaColumnStart = new int[0];
+  private int[] chromaRowStart = new int[0];
+  // Sums of the source rows of the output row being built.
+  private int[] sums = new int[0];
+
+  /**
+   * Returns {@code size} scaled by {@code scale}, rounded to an even number of at least 2, as
+   * NV21 requires.
+   */
+  public static int scaledSize(int size, float scale) {
+    return Math.max(2, Math.round(size * scale / 2f) * 2);
+  }
+
+  /**
+   * Scales the region {@code rect} (left, top, right, bottom, even-aligned) of the NV21 frame
+   * {@code src} down to a {@code dstWidth} x {@code dstHeight} NV21 image at index 0 of {@code
+   * dst}. Buffer positions are left unchanged.
+   *
+   * @throws IllegalArgumentException if the region is invalid, the output is larger than the
+   *     region or has odd dimensions, or a buffer is too small
+   */
+  public void scale(
+      ByteBuffer src, int width, int height, int[] rect,
+      ByteBuffer dst, int dstWidth, int dstHeight) {
+    int left = rect[0];
+    int top = rect[1];
+    int srcWidth = rect[2] - left;
+    int srcHeight = rect[3] - top;
+    if (((left | top | srcWidth | srcHeight | dstWidth | dstHeight) & 1) != 0
+        || left < 0
+        || top < 0
+        || rect[2] > width
+        || rect[3] > height
+        || dstWidth <= 0
+        || dstHeight <= 0
+        || dstWidth > srcWidth
+        || dstHeight > srcHeight) {
+      throw new IllegalArgumentException(
+          "Cannot scale region " + left + "," + top + "," + rect[2] + "," + rect[3]
+              + " of a " + width + "x" + height + " frame to " + dstWidth + "x" + dstHeight);
+    }
+    if (src.capacity() < Nv21Crop.getBufferSize(width, height)
+        || dst.capacity() < Nv21Crop.getBufferSize(dstWidth, dstHeight)) {
+      throw new IllegalArgumentException("Buffer too small");
+    }
+    columnStart = footprints(columnStart, srcWidth, dstWidth);
+    rowStart = footprints(rowStart, srcHeight, dstHeight);
+    chromaColumnStart = footprints(chromaColumnStart, srcWidth / 2, dstWidth / 2);
+    chromaRowStart = footprints(chromaRowStart, srcHeight / 2, dstHeight / 2);
+    if (sums.length < dstWidth) {
+      sums = new int[dstWidth];
+    }
+    // Luma, one sample per pixel.
+    scalePlane(
+        src, top * width + left, width, rowStart, columnStart, 1,
+        dst, 0, dstWidth, dstHeight, dstWidth);
+    // Chroma, V and U interleaved: each is scaled as a plane of every other byte.
+    int chroma = width * height + (top / 2) * width + left;
+    int dstChroma = dstWidth * dstHeight;
+    for (int channel = 0; channel < 2; channel++) {
+      scalePlane(
+          src, chroma + channel, width, chromaRowStart, chromaColumnStart, 2,
+          dst, dstChroma + channel, dstWidth, dstHeight / 2, dstWidth / 2);
+    }
+  }
+
+  // Fills table[0..dstSize] with the first source index of each output index, and returns the
+  // table, grown if it was too small.
+  private static int[] footprints(int[] table, int srcSize, int dstSize) {
+    if (table.length < dstSize + 1) {
+      table = new int[dstSize + 1];
+    }
+    for (int i = 0; i <= dstSize; i++) {
+      table[i] = (int) ((long) i * srcSize / dstSize);
+    }
+    return table;
+  }
+
+  /**
+   * Scales one plane whose samples are {@code step} bytes apart within a row.
+   *
+   * @param dstRowStride bytes between output rows
+   * @param samples output samples per row
+   */
+  private void scalePlane(
+      ByteBuffer src, int srcIndex, int srcRowStride, int[] rows, int[] columns, int step,
+      ByteBuffer dst, int dstIndex, int dstRowStride, int dstRows, int samples) {
+    boolean arrays = src.hasArray() && dst.hasArray();
+    byte[] in = arrays ? src.array() : null;
+    byte[] out = arrays ? dst.array() : null;
+    if (arrays) {
+      srcIndex += src.arrayOffset();
+      dstIndex += dst.arrayOffset();
+    }
+    for (int y = 0; y < dstRows; y++) {
+      for (int x = 0; x < samples; x++) {
+        sums[x] = 0;
+      }
+      for (int row = rows[y]; row < rows[y + 1]; row++) {
+        int rowIndex = srcIndex + row * srcRowStride;
+        if (arrays) {
+          sumRow(in, rowIndex, columns, step, samples);
+        } else {
+          sumRow(src, rowIndex, columns, step, samples);
+        }
+      }
+      int rowCount = rows[y + 1] - rows[y];
+      int outIndex = dstIndex + y * dstRowStride;
+      for (int x = 0; x < samples; x++, outIndex += step) {
+        int count = rowCount * (columns[x + 1] - columns[x]);
+        byte value = (byte) ((sums[x] + count / 2) / count);
+        if (arrays) {
+          out[outIndex] = value;
+        } else {
+          dst.put(outIndex, value);
+        }
+      }
+    }
+  }
+
+  // Adds the samples of one source row to the sums of the output samples covering them.
+  private void sumRow(byte[] in, int rowIndex, int[] columns, int step, int samples) {
+    int i = rowIndex + columns[0] * step;
+    for (int x = 0; x < samples; x++) {
+      int end = rowIndex + columns[x + 1] * step;
+      int sum = 0;
+      for (; i < end; i += step) {
+        sum += in[i] & 0xff;
+      }
+      sums[x] += sum;
+    }
+  }
+
+  private void sumRow(ByteBuffer in, int rowIndex, int[] columns, int step, int samples) {
+    int i = rowIndex + columns[0] * step;
+    for (int x = 0; x < samples; x++) {
+      int end = rowIndex + columns[x + 1] * step;
+      int sum = 0;
+      for (; i < end; i += step) {
+        sum += in.get(i) & 0xff;
+      }
+      sums[x] += sum;
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+/**
+ * The mapping from preview coordinates to overlay view coordinates for one drawn frame: a scale
+ * per axis, and for the front camera a horizontal mirror. It is an axis-aligned affine transform,
+ * {@code x' = scaleX * x + translateX} and {@code y' = scaleY * y + translateY}, computed once per
+ * frame so whole point arrays can be mapped in one tight loop instead of point by point.
+ *
+ * <p>{@link #getValues(float[])} gives the same transform in the layout of {@code
+ * android.graphics.Matrix#setValues}, for drawing through a canvas matrix.
+ */
+public final class OverlayTransform {
+
+  private float scaleX = 1f;
+  private float scaleY = 1f;
+  private float translateX;
+  private float translateY;
+
+  /**
+   * Sets the transform for drawing a preview of the given size onto a view of the given size.
+   *
+   * @param mirror whether x is mirrored, as for the front camera
+   */
+  public void set(int previewWidth, int previewHeight, int viewWidth, int viewHeight,
+      boolean mirror) {
+    float sx = 1f;
+    float sy = 1f;
+    if (previewWidth != 0 && previewHeight != 0) {
+      sx = (float) viewWidth / (float) previewWidth;
+      sy = (float) viewHeight / (float) previewHeight;
+    }
+    scaleX = mirror ? -sx : sx;
+    scaleY = sy;
+    translateX = mirror ? viewWidth : 0f;
+    translateY = 0f;
+  }
+
+  /** Returns the horizontal scale, negative when mirrored. */
+  public float getScaleX() {
+    return scaleX;
+  }
+
+  public float getScaleY() {
+    return scaleY;
+  }
+
+  /** Maps an x coordinate from preview to view coordinates. */
+  public float mapX(float x) {
+    return scaleX * x + translateX;
+  }
+
+  /** Maps a y coordinate from preview to view coordinates. */
+  public float mapY(float y) {
+    return scaleY * y + translateY;
+  }
+
+  /**
+   * Maps {@code count} points stored as interleaved x/y pairs, in place.
+   *
+   * @param offset index of the first x coordinate in {@code points}
+   */
+  public void mapPoints(float[] points, int offset, int count) {
+    mapPoints(points, offset, points, offset, count);
+  }
+
+  /**
+   * Maps {@code count} interleaved x/y points from {@code src} into {@code dst}, which may be the
+   * same array.
+   */
+  public void mapPoints(float[] src, int srcOffset, float[] dst, int dstOffset, int count) {
+    float sx = scaleX;
+    float sy = scaleY;
+    float tx = translateX;
+    float ty = translateY;
+    int end = srcOffset + count * 2;
+    for (int s = srcOffset, d = dstOffset; s < end; s += 2, d += 2) {
+      dst[d] = sx * src[s] + tx;
+      dst[d + 1] = sy * src[s + 1] + ty;
+    }
+  }
+
+  /** Writes the transform as the 9 values of a 3x3 matrix in row-major order into {@code out}. */
+  public void getValues(float[] out) {
+    out[0] = scaleX;
+    out[1] = 0f;
+    out[2] = translateX;
+    out[3] = 0f;
+    out[4] = scaleY;
+    out[5] = translateY;
+    out[6] = 0f;
+    out[7] = 0f;
+    out[8] = 1f;
+  }
+}
@@ -14,18 +14,44 @@
 package com.google.firebase.samples.apps.mlkit.common;
 
 import android.graphics.Bitmap;
+import android.support.annotation.Nullable;
 
 import com.google.firebase.ml.common.FirebaseMLException;
 
-import java.nio.ByteBuffer;
-
 /** An inferface to process the images with different ML Kit detectors and custom image models. */
 public interface VisionImageProcessor {
 
-  /** Processes the images with the underlying machine learning models. */
-  void process(ByteBuffer data, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay)
+  /**
+   * Processes the images with the underlying machine learning models. The caller releases its
+   * reference on {@code frame} when this returns; implementations that use the frame data after
+   * returning must {@link FrameLease#retain()} it and release it when done.
+   */
+  void process(FrameLease frame, FrameMetadata frameMetadata, GraphicOverlay graphicOverlay)
       throws FirebaseMLException;
 
+  /**
+   * Sets whether camera frames are converted to a bitmap drawn behind the results. Not needed
+   * while the camera preview is displayed on its own surface, where only the results are drawn.
+   */
+  void setCameraImageRequired(boolean required);
+
+  /**
+   * Sets the listener told about dropped camera frames and detection latencies, or null for none.
+   */
+  void setFrameLoadListener(@Nullable FrameLoadListener listener);
+
+  /**
+   * Returns the scale camera frames of the given size are detected at, 1 if they are detected as
+   * they are, so the camera can tell which smaller preview sizes make detection cheaper.
+   */
+  float getDetectionScale(int width, int height);
+
+  /**
+   * Tells the processor that the camera frames that follow have a different size. Results and
+   * state carried over from earlier frames no longer line up with them and are dropped.
+   */
+  void onFrameSizeChanged();
+
   /** Processes the bitmap images. */
   void process(Bitmap bitmap, GraphicOverlay graphicOverlay);
 
@@ -0,0 +1,192 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+/**
+ * Decides what happens after a detection fails: whether to retry the same frame and after which
+ * delay, and when to stop feeding every camera frame to a detector that keeps failing.
+ *
+ * <p>Transient failures are retried with exponential backoff, bounded both in the number of
+ * attempts and in the delay. After {@code failureThreshold} consecutive failed detections the
+ * breaker opens and only lets one frame through per {@code openFrameIntervalMillis}, lowering the
+ * detection frame rate. Once the cooldown has passed it goes half-open and admits a single probe
+ * frame: a success closes it again, a failure reopens it with twice the cooldown, up to
+ * {@code maxCooldownMillis}.
+ */
+public class DetectionCircuitBreaker {
+
+    /** State of the breaker. */
+    public enum State {
+        /** Every frame is detected. */
+        CLOSED,
+        /** Detection keeps failing, frames are throttled. */
+        OPEN,
+        /** A probe frame is being detected to find out whether the detector recovered. */
+        HALF_OPEN
+    }
+
+    private final int failureThreshold;
+    private final long openFrameIntervalMillis;
+    private final long baseCooldownMillis;
+    private final long maxCooldownMillis;
+    private final int maxRetries;
+    private final long baseRetryDelayMillis;
+    private final long maxRetryDelayMillis;
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long cooldownMillis;
+    private long openedAtMillis;
+    private long lastAdmittedMillis;
+    private boolean probeInFlight;
+
+    private long failures;
+    private long transientFailures;
+    private long retries;
+    private long framesThrottled;
+    private long timesOpened;
+
+    /** Creates a breaker with defaults suited to a 20 fps camera preview. */
+    public DetectionCircuitBreaker() {
+        this(5, 500, 1000, 8000, 2, 20, 200);
+    }
+
+    /**
+     * @param failureThreshold consecutive failed detections that open the breaker
+     * @param openFrameIntervalMillis minimum time between frames admitted while open
+     * @param baseCooldownMillis time the breaker stays open before the first probe
+     * @param maxCooldownMillis upper bound for the cooldown after repeated failed probes
+     * @param maxRetries retries of a single frame after a transient failure
+     * @param baseRetryDelayMillis delay before the first retry, doubled for each further one
+     * @param maxRetryDelayMillis upper bound for the retry delay
+     */
+    public DetectionCircuitBreaker(
+            int failureThreshold,
+            long openFrameIntervalMillis,
+            long baseCooldownMillis,
+            long maxCooldownMillis,
+            int maxRetries,
+            long baseRetryDelayMillis,
+            long maxRetryDelayMillis) {
+        this.failureThreshold = failureThreshold;
+        this.openFrameIntervalMillis = openFrameIntervalMillis;
+        this.baseCooldownMillis = baseCooldownMillis;
+        this.maxCooldownMillis = maxCooldownMillis;
+        this.maxRetries = maxRetries;
+        this.baseRetryDelayMillis = baseRetryDelayMillis;
+        this.maxRetryDelayMillis = maxRetryDelayMillis;
+        cooldownMillis = baseCooldownMillis;
+    }
+
+    /**
+     * Returns whether a new camera frame should be detected. Frames are always admitted while
+     * closed; while open they are admitted at the reduced rate, and once the cooldown is over a
+     * single probe frame is admitted.
+     */
+    public synchronized boolean admitFrame(long nowMillis) {
+        switch (state) {
+            case OPEN:
+                if (nowMillis - openedAtMillis >= cooldownMillis) {
+                    state = State.HALF_OPEN;
+                    probeInFlight = true;
+                    lastAdmittedMillis = nowMillis;
+                    return true;
+                }
+                if (nowMillis - lastAdmittedMillis >= openFrameIntervalMillis) {
+                    lastAdmittedMillis = nowMillis;
+                    return true;
+                }
+                framesThrottled++;
+                return false;
+            case HALF_OPEN:
+                if (probeInFlight) {
+                    framesThrottled++;
+                    return false;
+                }
+                probeInFlight = true;
+                lastAdmittedMillis = nowMillis;
+                return true;
+            default:
+                return true;
+        }
+    }
+
+    /** Records a successful detection. */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            cooldownMillis = baseCooldownMillis;
+        }
+    }
+
+    /**
+     * Records a failed attempt and returns the delay before the frame should be retried, or -1 if
+     * it should be given up.
+     *
+     * @param attempt number of retries of this frame already made
+     * @param isTransient whether the failure may go away when the same frame is tried again
+     */
+    public synchronized long onFailure(int attempt, boolean isTransient, long nowMillis) {
+        failures++;
+        if (isTransient) {
+            transientFailures++;
+            if (attempt < maxRetries && state == State.CLOSED) {
+                retries++;
+                return Math.min(baseRetryDelayMillis << attempt, maxRetryDelayMillis);
+            }
+        }
+
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+            cooldownMillis = Math.min(cooldownMillis * 2, maxCooldownMillis);
+            open(nowMillis);
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+            open(nowMillis);
+        }
+        return -1;
+    }
+
+    private void open(long nowMillis) {
+        state = State.OPEN;
+        openedAtMillis = nowMillis;
+        lastAdmittedMillis = nowMillis;
+        probeInFlight = false;
+        timesOpened++;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /** Returns the number of failed detection attempts, including retried ones. */
+    public synchronized long getFailures() {
+        return failures;
+    }
+
+    /** Returns the number of failed attempts that were considered transient. */
+    public synchronized long getTransientFailures() {
+        return transientFailures;
+    }
+
+    /** Returns the number of retries scheduled. */
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    /** Returns the number of camera frames skipped because the breaker was not closed. */
+    public synchronized long getFramesThrottled() {
+        return framesThrottled;
+    }
+
+    /** Returns how often the breaker opened. */
+    public synchronized long getTimesOpened() {
+        return timesOpened;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+                "state=%s failures=%d transient=%d retries=%d throttled=%d opened=%d",
+                state, failures, transientFailures, retries, framesThrottled, timesOpened);
+    }
+}
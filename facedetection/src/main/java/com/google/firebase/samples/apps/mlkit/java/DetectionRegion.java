@@ -0,0 +1,173 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+import com.google.firebase.samples.apps.mlkit.common.Nv21Crop;
+
+/**
+ * Decides which region of a camera frame to detect on: once the faces of a frame are known, only
+ * a region around them, grown by a margin so the faces stay inside while they move, is cropped
+ * and detected. The whole frame is still detected every {@code fullScanInterval} detections, to
+ * find faces entering it, as soon as fewer faces are found than expected, and whenever the region
+ * would cover most of the frame anyway.
+ *
+ * <p>Processors report the faces of every detected camera frame with {@link #onFacesDetected} or
+ * {@link #onNoFaces}, in frame coordinates. Disabled by default.
+ */
+public class DetectionRegion {
+
+    /** Regions covering more than this fraction of the frame are not worth cropping. */
+    private static final float MAX_AREA_FRACTION = 0.6f;
+
+    private final float margin;
+    private final int fullScanInterval;
+    private final int minSize;
+
+    private boolean enabled;
+
+    // Union of the last reported face boxes, upright frame coordinates; valid when faceCount > 0.
+    private final int[] faces = new int[4];
+    private int faceCount;
+    private int detectionsSinceFullScan;
+    private boolean fullScanNeeded = true;
+
+    private long crops;
+    private long fullScans;
+    private long facesLost;
+
+    /** Creates a region with defaults suited to faces in a 480x360 preview. */
+    public DetectionRegion() {
+        this(0.5f, 15, 96);
+    }
+
+    /**
+     * @param margin added on every side of the faces, as a fraction of their larger side
+     * @param fullScanInterval detections after which the whole frame is detected again
+     * @param minSize smallest width and height of a region, in pixels
+     */
+    public DetectionRegion(float margin, int fullScanInterval, int minSize) {
+        this.margin = margin;
+        this.fullScanInterval = fullScanInterval;
+        this.minSize = minSize;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        fullScanNeeded = true;
+    }
+
+    public synchronized boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Chooses the region of the next camera frame to detect.
+     *
+     * @param rotation quarter turns that make the frame upright
+     * @param region receives the left, top, right and bottom of the region in the coordinates of
+     *     the frame as delivered, even-aligned for {@link Nv21Crop#crop}
+     * @return true to detect on {@code region}, false to detect on the whole frame
+     */
+    public synchronized boolean nextRegion(int width, int height, int rotation, int[] region) {
+        if (!enabled
+                || fullScanNeeded
+                || faceCount == 0
+                || detectionsSinceFullScan >= fullScanInterval) {
+            return fullScan();
+        }
+        int size = Math.max(faces[2] - faces[0], faces[3] - faces[1]);
+        int grow = Math.round(size * margin);
+        region[0] = faces[0] - grow;
+        region[1] = faces[1] - grow;
+        region[2] = faces[2] + grow;
+        region[3] = faces[3] + grow;
+        Nv21Crop.toFrameRect(region, width, height, rotation);
+        growTo(region, 0, 2, minSize, width);
+        growTo(region, 1, 3, minSize, height);
+        // Even-aligned outwards, within the frame.
+        region[0] = Math.max(0, region[0] & ~1);
+        region[1] = Math.max(0, region[1] & ~1);
+        region[2] = Math.min(width & ~1, (region[2] + 1) & ~1);
+        region[3] = Math.min(height & ~1, (region[3] + 1) & ~1);
+        long area = (long) (region[2] - region[0]) * (region[3] - region[1]);
+        if (region[2] <= region[0]
+                || region[3] <= region[1]
+                || area > MAX_AREA_FRACTION * width * height) {
+            return fullScan();
+        }
+        detectionsSinceFullScan++;
+        crops++;
+        return true;
+    }
+
+    /**
+     * Reports the faces found in a detected camera frame: their number and the union of their
+     * bounding boxes, in upright frame coordinates. Finding fewer faces than the previous
+     * detection means a face was lost, and the next detection scans the whole frame.
+     */
+    public synchronized void onFacesDetected(
+            int count, int left, int top, int right, int bottom) {
+        if (count < faceCount) {
+            facesLost++;
+            fullScanNeeded = true;
+        }
+        faceCount = count;
+        faces[0] = left;
+        faces[1] = top;
+        faces[2] = right;
+        faces[3] = bottom;
+    }
+
+    /** Reports a detected camera frame without faces. */
+    public synchronized void onNoFaces() {
+        if (faceCount > 0) {
+            facesLost++;
+        }
+        faceCount = 0;
+        fullScanNeeded = true;
+    }
+
+    /** Forgets the faces reported so far, so the next detection scans the whole frame. */
+    public synchronized void reset() {
+        faceCount = 0;
+        fullScanNeeded = true;
+    }
+
+    /** Returns the number of detections made on a region of the frame. */
+    public synchronized long getCrops() {
+        return crops;
+    }
+
+    /** Returns the number of detections made on the whole frame. */
+    public synchronized long getFullScans() {
+        return fullScans;
+    }
+
+    /** Returns the number of times fewer faces were found than in the previous detection. */
+    public synchronized long getFacesLost() {
+        return facesLost;
+    }
+
+    private boolean fullScan() {
+        detectionsSinceFullScan = 0;
+        fullScanNeeded = false;
+        fullScans++;
+        return false;
+    }
+
+    // Grows [region[from], region[to]) around its centre to at least size, shifted into
+    // [0, limit).
+    private static void growTo(int[] region, int from, int to, int size, int limit) {
+        int missing = size - (region[to] - region[from]);
+        if (missing > 0) {
+            region[from] -= missing / 2;
+            region[to] += missing - missing / 2;
+        }
+        if (region[from] < 0) {
+            region[to] -= region[from];
+            region[from] = 0;
+        }
+        if (region[to] > limit) {
+            region[from] -= region[to] - limit;
+            region[to] = limit;
+        }
+    }
+}
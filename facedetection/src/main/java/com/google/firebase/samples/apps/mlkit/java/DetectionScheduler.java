@@ -0,0 +1,846 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+import com.google.firebase.samples.apps.mlkit.common.FrameLease;
+import com.google.firebase.samples.apps.mlkit.common.FrameLoadListener;
+import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
+import com.google.firebase.samples.apps.mlkit.common.Nv21Crop;
+import com.google.firebase.samples.apps.mlkit.common.Nv21Scaler;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Schedules the detection of camera frames and still images, in plain Java. This is the core of
+ * {@link VisionProcessorBase}, which adapts it to bitmaps and the graphic overlay; harnesses drive
+ * it directly on the JVM.
+ *
+ * <p>Camera frames go to the {@link Detector} through an in-flight window, one in every detection
+ * interval, while the frames in between are predicted. A circuit breaker retries transient
+ * failures and throttles frames while detection keeps failing. Frames are cropped to the {@link
+ * DetectionRegion} and scaled down to the maximum detection size first. Results and predictions
+ * go to the {@link Listener} in frame order, along with an image converted from each frame on a
+ * worker while it is detected, when one is required.
+ *
+ * @param <T> The type of the detected feature.
+ * @param <I> The type of the image converted from camera frames, such as a bitmap.
+ */
+public class DetectionScheduler<T, I> {
+
+    /**
+     * Receives the outcome of every frame. The delivery callbacks, {@link #onDetectedFrame},
+     * {@link #onSuccess}, {@link #onPredictedFrame} and {@link #onFrameStateReset}, never run
+     * concurrently.
+     */
+    public interface Listener<T, I> {
+
+        /**
+         * Converts a camera frame to the image delivered with its results, on the conversion
+         * worker, while images are required. Returns null if the frame could not be converted.
+         */
+        I convert(ByteBuffer data, FrameMetadata metadata);
+
+        /** Takes back a converted image that is not delivered after all. */
+        void discard(I image);
+
+        /**
+         * Called with the NV21 data of a camera frame right before its results are passed to
+         * {@link #onSuccess}. The data is only valid during the call.
+         */
+        void onDetectedFrame(ByteBuffer frameData, FrameMetadata metadata);
+
+        /**
+         * Receives the results of a detection.
+         *
+         * @param image the image converted from the camera frame, or null if none is required
+         * @param metadata the camera frame, with the offset and scale of the image detected in it,
+         *     or null for still images
+         */
+        void onSuccess(I image, T results, FrameMetadata metadata);
+
+        /**
+         * Receives a camera frame that is not detected, see {@link #setDetectionInterval(int)}.
+         * The data is only valid during the call.
+         */
+        void onPredictedFrame(I image, ByteBuffer frameData, FrameMetadata metadata);
+
+        /** Receives a failure of a detection that is given up. */
+        void onFailure(Exception e);
+
+        /**
+         * Returns whether a failed detection may succeed when the same image is tried again,
+         * usually as {@link Detector#isTransientFailure} decides.
+         */
+        boolean isTransientFailure(Exception e);
+
+        /** Called when camera frames change size, see {@link #onFrameSizeChanged()}. */
+        void onFrameStateReset();
+
+        /** Called on the conversion worker once stopped, after the last conversion. */
+        void onConversionStopped();
+    }
+
+    // To keep the latest image waiting for a detection slot and its metadata. The frame holds a
+    // retained lease, so its buffer is not given back to the camera while waiting. Frames being
+    // detected hold their own lease in their InFlightDetection until the detector is done with
+    // them.
+    // @GuardedBy("this")
+    private FrameLease latestImage;
+
+    // @GuardedBy("this")
+    private FrameMetadata latestImageMetaData;
+
+    // Number of camera frames submitted to the detector whose detection has not completed yet.
+    // @GuardedBy("this")
+    private int inFlight;
+
+    // @GuardedBy("this")
+    private int maxInFlight = 1;
+
+    // @GuardedBy("this")
+    private long nextSequence;
+
+    // Detections submitted and not finished yet, finished by stop() if the detector never
+    // completes them.
+    // @GuardedBy("this")
+    private final List<InFlightDetection> detections = new ArrayList<>();
+
+    // @GuardedBy("this")
+    private boolean stopped;
+
+    // Only every detectionInterval-th camera frame is detected, the others are predicted.
+    // @GuardedBy("this")
+    private int detectionInterval = 1;
+
+    // @GuardedBy("this")
+    private long frameCount;
+
+    // @GuardedBy("this")
+    private long detectionsSkipped;
+
+    // Set by requestDetection() to detect the next camera frame whatever the interval.
+    private volatile boolean detectionRequested;
+
+    // Sequence number of the newest result passed to onSuccess. Older results are discarded.
+    private final Object deliveryLock = new Object();
+
+    // @GuardedBy("deliveryLock")
+    private long lastDeliveredSequence = -1;
+
+    // Set by stop(), after which nothing more is delivered.
+    // @GuardedBy("deliveryLock")
+    private boolean deliveryStopped;
+
+    private final DetectionWindowStats windowStats = new DetectionWindowStats();
+
+    // Chooses the region of camera frames detected once faces are known.
+    private final DetectionRegion detectionRegion = new DetectionRegion();
+
+    // Regions of camera frames cropped or scaled for detection, reused once their detection is
+    // finished.
+    // @GuardedBy("this")
+    private final ArrayDeque<ByteBuffer> cropBuffers = new ArrayDeque<>();
+
+    // @GuardedBy("this")
+    private final int[] region = new int[4];
+
+    // Camera frames larger than this are scaled down to fit before detection; 0 for no limit.
+    // @GuardedBy("this")
+    private int maxDetectionWidth;
+
+    // @GuardedBy("this")
+    private int maxDetectionHeight;
+
+    // @GuardedBy("this")
+    private final Nv21Scaler scaler = new Nv21Scaler();
+
+    // Retries transient failures and throttles frames while detection keeps failing.
+    private final DetectionCircuitBreaker circuitBreaker = new DetectionCircuitBreaker();
+
+    // Runs delayed retries of failed detections.
+    private final ScheduledExecutorService retryExecutor =
+            Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "VisionProcessorRetry");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+    // Converts camera frames to the image delivered with the results, while the detector works on
+    // the same frame.
+    private final ExecutorService conversionExecutor =
+            Executors.newSingleThreadExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "VisionProcessorConversion");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+    private final StageTimings stageTimings = new StageTimings();
+
+    // Whether camera frames are converted to the image delivered with the results.
+    private volatile boolean imageRequired = true;
+
+    // Told about superseded camera frames and detection latencies, or null.
+    private volatile FrameLoadListener frameLoadListener;
+
+    private final Detector<T> detector;
+    private final Listener<T, I> listener;
+
+    /** @param detector the detector to run, which is closed on {@link #stop()} */
+    public DetectionScheduler(Detector<T> detector, Listener<T, I> listener) {
+        this.detector = detector;
+        this.listener = listener;
+    }
+
+    /**
+     * Sets how many camera frames may be in detection at the same time. With a window larger than
+     * one, the next frame is submitted while the previous result is still being computed or
+     * handled, and results are still delivered in frame order: a result that arrives after the
+     * result of a newer frame is discarded. Every frame in flight holds its camera frame lease.
+     */
+    public synchronized void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Invalid in-flight window: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    public synchronized int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    /**
+     * Sets how often camera frames are detected: with an interval of n, one frame in n goes to the
+     * detector and the n - 1 frames after it are handed to {@link Listener#onPredictedFrame}
+     * instead, for listeners that can extrapolate their last results.
+     */
+    public synchronized void setDetectionInterval(int detectionInterval) {
+        if (detectionInterval < 1) {
+            throw new IllegalArgumentException("Invalid detection interval: " + detectionInterval);
+        }
+        this.detectionInterval = detectionInterval;
+    }
+
+    public synchronized int getDetectionInterval() {
+        return detectionInterval;
+    }
+
+    /**
+     * Sets the largest camera frame the detector gets, in the orientation of the frames as the
+     * camera delivers them. Larger frames are scaled down to fit, keeping their aspect ratio, and
+     * so is the region of them detected; see {@link FrameMetadata#getDetectionScale()}. 0 for no
+     * limit, the default.
+     */
+    public synchronized void setMaxDetectionSize(int width, int height) {
+        if (width < 0 || height < 0) {
+            throw new IllegalArgumentException("Invalid size: " + width + "x" + height);
+        }
+        maxDetectionWidth = width;
+        maxDetectionHeight = height;
+    }
+
+    /**
+     * Returns the scale camera frames of the given size are detected at, 1 if they are detected
+     * as they are or if the detector does not read images.
+     */
+    public synchronized float getDetectionScale(int width, int height) {
+        return detector.readsImages() ? detectionScale(width, height) : 1f;
+    }
+
+    /**
+     * Makes the next camera frame go to the detector whatever the detection interval, for
+     * listeners whose predictions are no longer reliable. The interval restarts from that frame.
+     */
+    public void requestDetection() {
+        detectionRequested = true;
+    }
+
+    /** Returns the number of camera frames predicted instead of detected. */
+    public synchronized long getDetectionsSkipped() {
+        return detectionsSkipped;
+    }
+
+    /** Returns throughput and latency counters, per in-flight window size. */
+    public DetectionWindowStats getWindowStats() {
+        return windowStats;
+    }
+
+    /**
+     * Returns the choice of the region of camera frames to detect. Listeners that enable it
+     * report the faces of every detected frame to it, and map the results of frames detected on a
+     * region with {@link FrameMetadata#getRegionLeft()} and {@link FrameMetadata#getRegionTop()}.
+     * Detectors that do not read images, see {@link Detector#readsImages()}, get whole frames.
+     */
+    public DetectionRegion getDetectionRegion() {
+        return detectionRegion;
+    }
+
+    /** Returns the failure, retry and circuit state counters. */
+    public DetectionCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /** Returns the per-stage durations of camera frames. */
+    public StageTimings getStageTimings() {
+        return stageTimings;
+    }
+
+    /**
+     * Sets whether camera frames are converted with {@link Listener#convert}. When false, the
+     * listener gets null images and no conversion work is done.
+     */
+    public void setImageRequired(boolean required) {
+        imageRequired = required;
+    }
+
+    /**
+     * Sets the listener told about dropped camera frames and detection latencies, or null for none.
+     */
+    public void setFrameLoadListener(FrameLoadListener listener) {
+        frameLoadListener = listener;
+    }
+
+    /**
+     * Detects or predicts a camera frame. The caller releases its reference on {@code frame} when
+     * this returns; frames still needed hold their own.
+     */
+    public void process(FrameLease frame, FrameMetadata frameMetadata) {
+        long sequence;
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+            boolean detect = detectionRequested || frameCount % detectionInterval == 0;
+            frameCount++;
+            if (detect) {
+                if (detectionRequested) {
+                    detectionRequested = false;
+                    frameCount = 1;
+                }
+                if (latestImage != null) {
+                    // Superseded before detection got to it.
+                    latestImage.release();
+                    FrameLoadListener loadListener = frameLoadListener;
+                    if (loadListener != null) {
+                        loadListener.onFrameDropped();
+                    }
+                }
+                latestImage = frame.retain();
+                latestImageMetaData = frameMetadata;
+                processLatestImage();
+                return;
+            }
+            detectionsSkipped++;
+            sequence = nextSequence++;
+        }
+        predictFrame(sequence, frame, frameMetadata);
+    }
+
+    /** Detects an upright still image, given as ARGB pixels row after row. */
+    public void process(int[] argb, int width, int height) {
+        startDetection(null /* data */, argb, width, height, 0 /* rotation */, null,
+                null /* frame */, null /* cropBuffer */, false).submit();
+    }
+
+    /**
+     * Tells the scheduler that the camera frames that follow have a different size. Drops the
+     * latest frame waiting for detection and the results of every frame submitted so far,
+     * restarts the detection interval and the detection region, and calls {@link
+     * Listener#onFrameStateReset()}.
+     */
+    public void onFrameSizeChanged() {
+        long lastOldSequence;
+        synchronized (this) {
+            if (latestImage != null) {
+                latestImage.release();
+                latestImage = null;
+                latestImageMetaData = null;
+            }
+            frameCount = 0;
+            lastOldSequence = nextSequence - 1;
+        }
+        detectionRegion.reset();
+        synchronized (deliveryLock) {
+            // Results of the old frames still in flight are discarded like superseded ones.
+            lastDeliveredSequence = Math.max(lastDeliveredSequence, lastOldSequence);
+            listener.onFrameStateReset();
+        }
+    }
+
+    // Hands a frame that is not detected to onPredictedFrame, after converting it on the
+    // conversion worker if an image is required.
+    private void predictFrame(
+            final long sequence, FrameLease frame, final FrameMetadata frameMetadata) {
+        if (!imageRequired) {
+            deliverPrediction(sequence, null, frame.getData(), frameMetadata);
+            return;
+        }
+        final FrameLease conversionFrame = frame.retain();
+        try {
+            conversionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        I image = listener.convert(conversionFrame.getData(), frameMetadata);
+                        deliverPrediction(
+                                sequence, image, conversionFrame.getData(), frameMetadata);
+                    } finally {
+                        conversionFrame.release();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException stopped) {
+            conversionFrame.release();
+        }
+    }
+
+    // Starts detection on the latest image if the in-flight window has room for it. While the
+    // circuit breaker is open, frames it does not admit are dropped.
+    private synchronized void processLatestImage() {
+        if (stopped || inFlight >= maxInFlight || latestImage == null
+                || latestImageMetaData == null) {
+            return;
+        }
+        FrameLease frame = latestImage;
+        FrameMetadata frameMetadata = latestImageMetaData;
+        latestImage = null;
+        latestImageMetaData = null;
+        if (!circuitBreaker.admitFrame(nowMillis())) {
+            frame.release();
+            return;
+        }
+        inFlight++;
+        processImage(frame, frameMetadata);
+    }
+
+    // Submits the raw frame, or the region of it chosen by detectionRegion, scaled down to the
+    // maximum detection size, to the detector first; detectors that do not read images get the
+    // whole frame. Then converts the whole frame on the conversion worker while detection runs,
+    // unless no image is required. The two join in InFlightDetection.
+    // @GuardedBy("this")
+    private void processImage(FrameLease frame, FrameMetadata frameMetadata) {
+        int frameWidth = frameMetadata.getWidth();
+        int frameHeight = frameMetadata.getHeight();
+        int rotation = frameMetadata.getRotation();
+        boolean readsImage = detector.readsImages();
+        float scale = readsImage ? detectionScale(frameWidth, frameHeight) : 1f;
+        boolean cropped = readsImage
+                && detectionRegion.nextRegion(frameWidth, frameHeight, rotation, region);
+        int width = frameWidth;
+        int height = frameHeight;
+        ByteBuffer detectedData = frame.getData();
+        ByteBuffer cropBuffer = null;
+        if (cropped || scale < 1f) {
+            long start = System.nanoTime();
+            if (!cropped) {
+                region[0] = 0;
+                region[1] = 0;
+                region[2] = frameWidth;
+                region[3] = frameHeight;
+            }
+            width = region[2] - region[0];
+            height = region[3] - region[1];
+            cropBuffer = acquireCropBuffer(Nv21Crop.getBufferSize(frameWidth, frameHeight));
+            if (scale < 1f) {
+                int scaledWidth = Math.min(width, Nv21Scaler.scaledSize(width, scale));
+                int scaledHeight = Math.min(height, Nv21Scaler.scaledSize(height, scale));
+                scaler.scale(frame.getData(), frameWidth, frameHeight, region, cropBuffer,
+                        scaledWidth, scaledHeight);
+                // The scale actually applied after rounding to even sizes.
+                scale = (float) scaledWidth / width;
+                width = scaledWidth;
+                height = scaledHeight;
+            } else {
+                Nv21Crop.crop(frame.getData(), frameWidth, frameHeight, region, cropBuffer);
+            }
+            detectedData = cropBuffer;
+            Nv21Crop.toUprightRect(region, frameWidth, frameHeight, rotation);
+            frameMetadata =
+                    new FrameMetadata.Builder(frameMetadata)
+                            .setRegion(region[0], region[1])
+                            .setDetectionScale(scale)
+                            .build();
+            stageTimings.record(StageTimings.Stage.PREPARE, System.nanoTime() - start);
+        }
+        boolean convert = imageRequired;
+        InFlightDetection detection =
+                startDetection(
+                        detectedData, null /* argb */, width, height, rotation, frameMetadata,
+                        frame, cropBuffer, convert);
+        detection.submit();
+        if (convert) {
+            detection.startConversion(frame.retain());
+        }
+    }
+
+    /**
+     * @param data the NV21 image to detect, or null for still images
+     * @param argb the ARGB pixels of the still image to detect, or null for camera frames
+     * @param frame the lease on the camera frame being detected, which is released and frees its
+     *              in-flight slot once the detection is finished, or null for still images
+     * @param cropBuffer the region of the frame being detected, reused once the detection is
+     *                   finished, or null if the whole frame is detected
+     * @param convert whether the frame is also converted to an image for onSuccess
+     */
+    private synchronized InFlightDetection startDetection(
+            ByteBuffer data,
+            int[] argb,
+            int width,
+            int height,
+            int rotation,
+            FrameMetadata metadata,
+            FrameLease frame,
+            ByteBuffer cropBuffer,
+            boolean convert) {
+        long now = System.nanoTime();
+        windowStats.onSubmitted(maxInFlight, now);
+        InFlightDetection detection =
+                new InFlightDetection(
+                        nextSequence++, maxInFlight, now, data, argb, width, height, rotation,
+                        metadata, frame, cropBuffer, convert);
+        detections.add(detection);
+        return detection;
+    }
+
+    // Returns the scale that fits a frame of the given size into the maximum detection size.
+    // @GuardedBy("this")
+    private float detectionScale(int width, int height) {
+        float scale = 1f;
+        if (maxDetectionWidth > 0 && width > maxDetectionWidth) {
+            scale = (float) maxDetectionWidth / width;
+        }
+        if (maxDetectionHeight > 0 && height > maxDetectionHeight) {
+            scale = Math.min(scale, (float) maxDetectionHeight / height);
+        }
+        return scale;
+    }
+
+    // Returns a buffer of at least the given capacity for a cropped region. There is one per
+    // detection in flight once the frame size is settled.
+    // @GuardedBy("this")
+    private ByteBuffer acquireCropBuffer(int capacity) {
+        ByteBuffer buffer = cropBuffers.poll();
+        while (buffer != null && buffer.capacity() < capacity) {
+            buffer = cropBuffers.poll();
+        }
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(capacity);
+        }
+        return buffer;
+    }
+
+    // Passes the results on unless the result of a newer frame has already been delivered.
+    private void deliverInOrder(InFlightDetection detection, T results) {
+        boolean delivered = false;
+        I image = detection.image.getAndSet(null);
+        synchronized (deliveryLock) {
+            if (!deliveryStopped && detection.sequence > lastDeliveredSequence) {
+                lastDeliveredSequence = detection.sequence;
+                if (detection.frame != null) {
+                    // Still leased until the detection is finished.
+                    listener.onDetectedFrame(detection.frame.getData(), detection.metadata);
+                }
+                listener.onSuccess(image, results, detection.metadata);
+                delivered = true;
+            }
+        }
+        if (!delivered && image != null) {
+            listener.discard(image);
+        }
+        long now = System.nanoTime();
+        windowStats.onCompleted(
+                detection.windowSize, now - detection.startNanos, delivered, now);
+    }
+
+    // Passes a predicted frame on unless the result of a newer frame has already been delivered.
+    // Predictions do not hold back the results of older frames still being detected, which
+    // bring new information.
+    private void deliverPrediction(
+            long sequence, I image, ByteBuffer frameData, FrameMetadata frameMetadata) {
+        boolean delivered = false;
+        synchronized (deliveryLock) {
+            if (!deliveryStopped && sequence > lastDeliveredSequence) {
+                listener.onPredictedFrame(image, frameData, frameMetadata);
+                delivered = true;
+            }
+        }
+        if (!delivered && image != null) {
+            listener.discard(image);
+        }
+    }
+
+    // Frees the in-flight slot held by a camera frame and gives its buffer back.
+    private synchronized void finishDetection(InFlightDetection detection) {
+        detections.remove(detection);
+        if (detection.frame != null) {
+            detection.frame.release();
+            inFlight--;
+        }
+        if (detection.cropBuffer != null && !stopped) {
+            cropBuffers.add(detection.cropBuffer);
+        }
+    }
+
+    /**
+     * Stops detection. Detections still in flight or waiting to be retried are finished without
+     * a result, giving their camera frames back, before the detector is closed. Once this returns
+     * nothing more is delivered to the listener; a result being delivered when it is called is
+     * waited for, and gives its frame back right after.
+     */
+    public void stop() {
+        List<InFlightDetection> unfinished;
+        synchronized (this) {
+            stopped = true;
+            if (latestImage != null) {
+                latestImage.release();
+                latestImage = null;
+            }
+            cropBuffers.clear();
+            unfinished = new ArrayList<>(detections);
+        }
+        // Retries not run yet are dropped; their detections are among the unfinished ones.
+        retryExecutor.shutdownNow();
+        for (InFlightDetection detection : unfinished) {
+            detection.abandon();
+        }
+        synchronized (deliveryLock) {
+            // Waits for a delivery under way, which still holds its frame, and stops the others.
+            deliveryStopped = true;
+        }
+        detector.close();
+        try {
+            // Queued behind any conversion still running.
+            conversionExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    listener.onConversionStopped();
+                }
+            });
+        } catch (RejectedExecutionException alreadyStopped) {
+            // Nothing left to shut down.
+        }
+        conversionExecutor.shutdown();
+    }
+
+    private static long nowMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    /**
+     * One frame submitted for detection. Listens to its own task, retries it after transient
+     * failures and, whatever the outcome, frees its in-flight slot and moves on to the latest
+     * frame once it is finished.
+     *
+     * <p>For camera frames the image conversion runs alongside the detector. Both parts count
+     * down {@code pendingParts} and whichever finishes last delivers the result, on its own
+     * thread.
+     *
+     * <p>A detection is finished once, by whichever of its delivery, its failure and {@link
+     * #stop()} sets {@code finished} first. Only that one uses the frame and gives it back, so a
+     * result being delivered keeps its frame until the listener is done with it. Callbacks from
+     * the detector after that are ignored, and a converted image left over is discarded.
+     */
+    private class InFlightDetection implements Detector.Callback<T>, Runnable {
+        final long sequence;
+        final int windowSize;
+        final long startNanos;
+        final ByteBuffer data;
+        final int[] argb;
+        final int width;
+        final int height;
+        final int rotation;
+        final FrameMetadata metadata;
+        final FrameLease frame;
+        final ByteBuffer cropBuffer;
+        final boolean convert;
+        int attempt;
+
+        // The detection result and the image conversion, when there is one. Fields written by a
+        // part are published to the delivering thread by its decrement.
+        private final AtomicInteger pendingParts;
+        // Taken by whoever delivers or discards it, so it goes back to the listener once.
+        final AtomicReference<I> image = new AtomicReference<>();
+        private T results;
+        // Set by whichever finishes the detection.
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private long detectDoneNanos;
+        private long convertDoneNanos;
+
+        InFlightDetection(
+                long sequence,
+                int windowSize,
+                long startNanos,
+                ByteBuffer data,
+                int[] argb,
+                int width,
+                int height,
+                int rotation,
+                FrameMetadata metadata,
+                FrameLease frame,
+                ByteBuffer cropBuffer,
+                boolean convert) {
+            this.sequence = sequence;
+            this.windowSize = windowSize;
+            this.startNanos = startNanos;
+            this.data = data;
+            this.argb = argb;
+            this.width = width;
+            this.height = height;
+            this.rotation = rotation;
+            this.metadata = metadata;
+            this.frame = frame;
+            this.cropBuffer = cropBuffer;
+            this.convert = convert;
+            pendingParts = new AtomicInteger(convert ? 2 : 1);
+        }
+
+        /**
+         * Queues the image conversion of the frame, which holds its own reference on the frame
+         * until it is done.
+         */
+        void startConversion(final FrameLease conversionFrame) {
+            Runnable conversion = new Runnable() {
+                @Override
+                public void run() {
+                    long start = System.nanoTime();
+                    stageTimings.record(StageTimings.Stage.CONVERT_QUEUE, start - startNanos);
+                    try {
+                        image.set(listener.convert(conversionFrame.getData(), metadata));
+                    } finally {
+                        conversionFrame.release();
+                    }
+                    convertDoneNanos = System.nanoTime();
+                    stageTimings.record(StageTimings.Stage.CONVERT, convertDoneNanos - start);
+                    partDone();
+                }
+            };
+            try {
+                conversionExecutor.execute(conversion);
+            } catch (RejectedExecutionException stopped) {
+                // The scheduler was stopped, deliver without an image.
+                conversionFrame.release();
+                convertDoneNanos = System.nanoTime();
+                partDone();
+            }
+        }
+
+        void submit() {
+            if (argb != null) {
+                detector.detect(argb, width, height, this);
+            } else {
+                detector.detect(data, width, height, rotation, this);
+            }
+        }
+
+        // Retry after backoff.
+        @Override
+        public void run() {
+            if (!finished.get()) {
+                submit();
+            }
+        }
+
+        @Override
+        public void onSuccess(T results) {
+            circuitBreaker.onSuccess();
+            this.results = results;
+            detectDoneNanos = System.nanoTime();
+            stageTimings.record(StageTimings.Stage.DETECT, detectDoneNanos - startNanos);
+            partDone();
+        }
+
+        // Delivers the result once both the detection and the conversion are done, unless the
+        // detection is finished already.
+        private void partDone() {
+            boolean last = pendingParts.decrementAndGet() == 0;
+            if (finished.get()) {
+                // Nothing to deliver the image with.
+                discardImage();
+                return;
+            }
+            if (!last) {
+                return;
+            }
+            if (!finished.compareAndSet(false, true)) {
+                // Abandoned by stop() in the meantime.
+                discardImage();
+                return;
+            }
+            if (convert) {
+                stageTimings.record(StageTimings.Stage.JOIN_WAIT,
+                        Math.max(0, convertDoneNanos - detectDoneNanos));
+            }
+            deliverInOrder(this, results);
+            long latency = System.nanoTime() - startNanos;
+            stageTimings.record(StageTimings.Stage.END_TO_END, latency);
+            FrameLoadListener loadListener = frameLoadListener;
+            if (frame != null && loadListener != null) {
+                loadListener.onFrameDetected(latency);
+            }
+            // The frame is given back only now that the listener is done with it.
+            finishDetection(this);
+            processLatestImage();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            if (finished.get()) {
+                // Abandoned by stop(), which already gave the frame back.
+                partDone();
+                return;
+            }
+            long retryDelay =
+                    circuitBreaker.onFailure(attempt, listener.isTransientFailure(e), nowMillis());
+            if (retryDelay >= 0) {
+                attempt++;
+                try {
+                    retryExecutor.schedule(this, retryDelay, TimeUnit.MILLISECONDS);
+                    return;
+                } catch (RejectedExecutionException stopped) {
+                    // The scheduler was stopped, give the frame up below.
+                }
+            }
+            // The conversion part, if still running, only drops its own reference on the frame
+            // and gives its image back when it is done.
+            if (finished.compareAndSet(false, true)) {
+                listener.onFailure(e);
+                finishDetection(this);
+                processLatestImage();
+            }
+            partDone();
+        }
+
+        // Finishes the detection on stop(), whether or not the detector still completes it. A
+        // converted image is discarded here, or by the conversion when it is done later.
+        void abandon() {
+            if (finished.compareAndSet(false, true)) {
+                finishDetection(this);
+                discardImage();
+            }
+        }
+
+        private void discardImage() {
+            I leftover = image.getAndSet(null);
+            if (leftover != null) {
+                listener.discard(leftover);
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Throughput and latency of frame detections, kept separately for every in-flight window size
+ * the processor ran with, so different window sizes can be compared on the same device.
+ */
+public class DetectionWindowStats {
+
+    /** Counters for one window size. */
+    public static class Bucket {
+        private final int windowSize;
+        private long submitted;
+        private long delivered;
+        private long discarded;
+        private long totalLatencyNanos;
+        private long maxLatencyNanos;
+        private long firstSubmitNanos;
+        private long lastCompleteNanos;
+
+        Bucket(int windowSize) {
+            this.windowSize = windowSize;
+        }
+
+        Bucket(Bucket other) {
+            windowSize = other.windowSize;
+            submitted = other.submitted;
+            delivered = other.delivered;
+            discarded = other.discarded;
+            totalLatencyNanos = other.totalLatencyNanos;
+            maxLatencyNanos = other.maxLatencyNanos;
+            firstSubmitNanos = other.firstSubmitNanos;
+            lastCompleteNanos = other.lastCompleteNanos;
+        }
+
+        public int getWindowSize() {
+            return windowSize;
+        }
+
+        /** Returns the number of detections started. */
+        public long getSubmitted() {
+            return submitted;
+        }
+
+        /** Returns the number of results handed to the subclass. */
+        public long getDelivered() {
+            return delivered;
+        }
+
+        /** Returns the number of results dropped because a newer frame's result came first. */
+        public long getDiscarded() {
+            return discarded;
+        }
+
+        /** Returns the mean time from submitting a frame to its result, in milliseconds. */
+        public double getMeanLatencyMillis() {
+            long completed = delivered + discarded;
+            return completed == 0 ? 0 : totalLatencyNanos / 1e6 / completed;
+        }
+
+        /** Returns the longest time from submitting a frame to its result, in milliseconds. */
+        public double getMaxLatencyMillis() {
+            return maxLatencyNanos / 1e6;
+        }
+
+        /** Returns delivered results per second between the first submit and the last result. */
+        public double getThroughputPerSecond() {
+            long elapsed = lastCompleteNanos - firstSubmitNanos;
+            return elapsed <= 0 ? 0 : delivered * 1e9 / elapsed;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "window=%d submitted=%d delivered=%d discarded=%d latency=%.1fms (max %.1fms)"
+                            + " throughput=%.1f/s",
+                    windowSize,
+                    submitted,
+                    delivered,
+                    discarded,
+                    getMeanLatencyMillis(),
+                    getMaxLatencyMillis(),
+                    getThroughputPerSecond());
+        }
+    }
+
+    private final Map<Integer, Bucket> buckets = new TreeMap<>();
+
+    /** Records that a detection was started with the given window size. */
+    public synchronized void onSubmitted(int windowSize, long nowNanos) {
+        Bucket bucket = bucket(windowSize);
+        if (bucket.submitted == 0) {
+            bucket.firstSubmitNanos = nowNanos;
+        }
+        bucket.submitted++;
+    }
+
+    /**
+     * Records a finished detection.
+     *
+     * @param delivered false if the result was discarded because it had been overtaken
+     */
+    public synchronized void onCompleted(
+            int windowSize, long latencyNanos, boolean delivered, long nowNanos) {
+        Bucket bucket = bucket(windowSize);
+        if (delivered) {
+            bucket.delivered++;
+        } else {
+            bucket.discarded++;
+        }
+        bucket.totalLatencyNanos += latencyNanos;
+        bucket.maxLatencyNanos = Math.max(bucket.maxLatencyNanos, latencyNanos);
+        bucket.lastCompleteNanos = nowNanos;
+    }
+
+    /** Returns a copy of the counters of every window size used so far, smallest first. */
+    public synchronized List<Bucket> snapshot() {
+        List<Bucket> copy = new ArrayList<>(buckets.size());
+        for (Bucket bucket : buckets.values()) {
+            copy.add(new Bucket(bucket));
+        }
+        return copy;
+    }
+
+    private Bucket bucket(int windowSize) {
+        Bucket bucket = buckets.get(windowSize);
+        if (bucket == null) {
+            bucket = new Bucket(windowSize);
+            buckets.put(windowSize, bucket);
+        }
+        return bucket;
+    }
+}
@@ -0,0 +1,52 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Detects features in an image and reports them asynchronously, the service {@link
+ * VisionProcessorBase} feeds camera frames and still images to. Implementations may run ML Kit,
+ * or hand back recorded results without looking at the image at all.
+ *
+ * <p>Each call to a {@code detect} method completes once, on any thread, by calling either {@link
+ * Callback#onSuccess} or {@link Callback#onFailure}; after {@link #close()} it may not complete.
+ * Calls may overlap, how many run at once is up to the implementation.
+ *
+ * @param <T> The type of the detected feature.
+ */
+public interface Detector<T> {
+
+    /** Receives the outcome of one detection. */
+    interface Callback<T> {
+        void onSuccess(T results);
+
+        void onFailure(Exception e);
+    }
+
+    /**
+     * Detects in an NV21 image. The data must stay unchanged until the detection completes.
+     *
+     * @param rotation clockwise quarter turns that make the image upright; results are in the
+     *                 coordinates of the upright image
+     */
+    void detect(ByteBuffer nv21, int width, int height, int rotation, Callback<T> callback);
+
+    /** Detects in an upright ARGB image, row after row. */
+    void detect(int[] argb, int width, int height, Callback<T> callback);
+
+    /**
+     * Returns whether detections look at the image. Detectors that hand back results known
+     * beforehand, such as replays of results recorded in camera frame coordinates, are given whole
+     * camera frames, neither cropped nor scaled, and their results are taken to be in frame
+     * coordinates.
+     */
+    boolean readsImages();
+
+    /**
+     * Returns whether a failed detection may succeed when the same image is tried again, such as
+     * while the detector is busy or still loading its model.
+     */
+    boolean isTransientFailure(Exception e);
+
+    /** Releases the resources of the detector. */
+    void close();
+}
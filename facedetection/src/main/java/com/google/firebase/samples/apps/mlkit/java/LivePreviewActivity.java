@@ -45,6 +45,7 @@ import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.firebase.samples.apps.mlkit.java.facedetection.FaceContourDetectorProcessor;
 import com.google.firebase.samples.apps.mlkit.java.facedetection.FaceContourGraphic;
 import com.google.firebase.samples.apps.mlkit.java.facedetection.FaceDetectionProcessor;
+import com.google.firebase.samples.apps.mlkit.java.facedetection.LipStyle;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -70,10 +71,17 @@ public final class LivePreviewActivity extends AppCompatActivity
     private static final String FACE_CONTOUR = "Face Contour";
     private static final String TAG = "LivePreviewActivity";
     private static final int PERMISSION_REQUESTS = 1;
+    private static final int DEFAULT_LIP_COLOR = Color.argb(40, 100, 50, 0);
+    // The contours are drawn over a sharper preview than the frames they are detected on.
+    private static final int CONTOUR_PREVIEW_WIDTH = 960;
+    private static final int CONTOUR_PREVIEW_HEIGHT = 720;
+    private static final int DETECTION_PREVIEW_WIDTH = 480;
+    private static final int DETECTION_PREVIEW_HEIGHT = 360;
 
     private CameraSource cameraSource = null;
     private CameraSourcePreview preview;
     private GraphicOverlay graphicOverlay;
+    private VisionProcessorBase<?> frameProcessor;
     private String selectedModel = FACE_CONTOUR;
 
     @Override
@@ -156,6 +164,15 @@ public final class LivePreviewActivity extends AppCompatActivity
                 setButtonsColor(button6);
             }
         });
+        // Builds the lip style of every palette colour now rather than on selection.
+        LipStyle.prebuild(
+                tintOf(button1),
+                tintOf(button2),
+                tintOf(button3),
+                tintOf(button4),
+                tintOf(button5),
+                tintOf(button6),
+                DEFAULT_LIP_COLOR);
         if (allPermissionsGranted()) {
             createCameraSource(selectedModel);
         } else {
@@ -163,9 +180,12 @@ public final class LivePreviewActivity extends AppCompatActivity
         }
     }
 
+    private static int tintOf(Button button) {
+        return button.getBackgroundTintList().getDefaultColor();
+    }
+
     private void setButtonsColor(Button button){
-        int colorId = button.getBackgroundTintList().getDefaultColor();
-        FaceContourGraphic.applyColor(colorId);
+        FaceContourGraphic.applyColor(tintOf(button));
     }
 
     @Override
@@ -212,12 +232,18 @@ public final class LivePreviewActivity extends AppCompatActivity
             switch (model) {
                 case FACE_DETECTION:
                     Log.i(TAG, "Using Face Detector Processor");
-                    cameraSource.setMachineLearningFrameProcessor(new FaceDetectionProcessor(getResources()));
+                    frameProcessor = new FaceDetectionProcessor(getResources());
+                    cameraSource.setRequestedPreviewSize(
+                            DETECTION_PREVIEW_WIDTH, DETECTION_PREVIEW_HEIGHT);
+                    cameraSource.setMachineLearningFrameProcessor(frameProcessor);
                     break;
                 case FACE_CONTOUR:
                     Log.i(TAG, "Using Face Contour Detector Processor");
-                    cameraSource.setMachineLearningFrameProcessor(new FaceContourDetectorProcessor());
-                    FaceContourGraphic.applyColor(Color.argb(40,100,50,0));
+                    frameProcessor = new FaceContourDetectorProcessor();
+                    cameraSource.setRequestedPreviewSize(
+                            CONTOUR_PREVIEW_WIDTH, CONTOUR_PREVIEW_HEIGHT);
+                    cameraSource.setMachineLearningFrameProcessor(frameProcessor);
+                    FaceContourGraphic.applyColor(DEFAULT_LIP_COLOR);
                     break;
                 default:
                     Log.e(TAG, "Unknown model: " + model);
@@ -271,6 +297,14 @@ public final class LivePreviewActivity extends AppCompatActivity
         preview.stop();
     }
 
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        if (frameProcessor != null) {
+            frameProcessor.getBitmapPool().trimMemory(level);
+        }
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -0,0 +1,78 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+/**
+ * Accumulated durations of the stages a camera frame goes through in {@link
+ * VisionProcessorBase}. Detection and bitmap conversion run in parallel, so comparing {@link
+ * Stage#END_TO_END} with the sum of {@link Stage#DETECT} and {@link Stage#CONVERT} shows how much
+ * of the conversion is hidden behind detection.
+ */
+public class StageTimings {
+
+    /** A timed stage of frame processing. */
+    public enum Stage {
+        /** Cropping the detected region out of the frame and scaling it down, when either is. */
+        PREPARE,
+        /** From submitting the frame to the detector until its result arrives. */
+        DETECT,
+        /** From submitting the frame until the conversion worker picks it up. */
+        CONVERT_QUEUE,
+        /** Converting the frame to the bitmap drawn behind the results. */
+        CONVERT,
+        /** From the detection result until the bitmap is ready, zero if it was ready first. */
+        JOIN_WAIT,
+        /** From submitting the frame until its result is handed to the subclass. */
+        END_TO_END
+    }
+
+    private final long[] counts = new long[Stage.values().length];
+    private final long[] totalNanos = new long[counts.length];
+    private final long[] maxNanos = new long[counts.length];
+
+    /** Adds one sample for {@code stage}. */
+    public synchronized void record(Stage stage, long nanos) {
+        int i = stage.ordinal();
+        counts[i]++;
+        totalNanos[i] += nanos;
+        if (nanos > maxNanos[i]) {
+            maxNanos[i] = nanos;
+        }
+    }
+
+    public synchronized long getCount(Stage stage) {
+        return counts[stage.ordinal()];
+    }
+
+    /** Returns the mean duration of {@code stage} in milliseconds. */
+    public synchronized double getMeanMillis(Stage stage) {
+        int i = stage.ordinal();
+        return counts[i] == 0 ? 0 : totalNanos[i] / 1e6 / counts[i];
+    }
+
+    /** Returns the longest duration of {@code stage} in milliseconds. */
+    public synchronized double getMaxMillis(Stage stage) {
+        return maxNanos[stage.ordinal()] / 1e6;
+    }
+
+    /** Clears all samples. */
+    public synchronized void reset() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+            totalNanos[i] = 0;
+            maxNanos[i] = 0;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            if (builder.length() > 0) {
+                builder.append(' ');
+            }
+            builder.append(String.format(
+                    "%s=%.1fms(max %.1fms)",
+                    stage.name().toLowerCase(), getMeanMillis(stage), getMaxMillis(stage)));
+        }
+        return builder.toString();
+    }
+}
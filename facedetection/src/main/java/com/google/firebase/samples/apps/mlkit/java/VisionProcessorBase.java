@@ -14,132 +14,297 @@
 package com.google.firebase.samples.apps.mlkit.java;
 
 import android.graphics.Bitmap;
-import android.support.annotation.GuardedBy;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 
-import com.google.android.gms.tasks.OnFailureListener;
-import com.google.android.gms.tasks.OnSuccessListener;
-import com.google.android.gms.tasks.Task;
-import com.google.firebase.ml.vision.common.FirebaseVisionImage;
-import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
+import com.google.firebase.samples.apps.mlkit.common.BitmapPool;
 import com.google.firebase.samples.apps.mlkit.common.BitmapUtils;
+import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
+import com.google.firebase.samples.apps.mlkit.common.CameraSource;
+import com.google.firebase.samples.apps.mlkit.common.FrameLoadListener;
+import com.google.firebase.samples.apps.mlkit.common.FrameLease;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+import com.google.firebase.samples.apps.mlkit.common.Nv21Converter;
 import com.google.firebase.samples.apps.mlkit.common.VisionImageProcessor;
 
 import java.nio.ByteBuffer;
 
 /**
- * Abstract base class for ML Kit frame processors. Subclasses need to implement {@link
+ * Abstract base class for frame processors. Subclasses need to implement {@link
  * #onSuccess(Bitmap, Object, FrameMetadata, GraphicOverlay)} to define what they want to with
- * the detection results and {@link #detectInImage(FirebaseVisionImage)} to specify the detector
- * object.
+ * the detection results, and pass the {@link Detector} to run, such as an ML Kit detector, to the
+ * constructor.
+ *
+ * <p>Frames are scheduled by a {@link DetectionScheduler}; this class converts them to the bitmaps
+ * drawn behind the results and hands the results to the graphic overlay.
  *
  * @param <T> The type of the detected feature.
  */
 public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
 
-    // To keep the latest images and its metadata.
-    @GuardedBy("this")
-    private ByteBuffer latestImage;
+    // Camera frames held besides the ones in detection: the latest frame waiting for a slot, the
+    // frame the processing loop hands over or converts for a prediction, and the next frame
+    // waiting for the loop. The camera needs one more buffer to fill.
+    private static final int FRAMES_HELD_OUTSIDE_WINDOW = 3;
+
+    /** The largest in-flight window the camera preview buffers leave room for. */
+    public static final int MAX_IN_FLIGHT =
+            CameraSource.PREVIEW_BUFFER_COUNT - FRAMES_HELD_OUTSIDE_WINDOW - 1;
+
+    private final Detector<T> detector;
+
+    private final DetectionScheduler<T, Bitmap> scheduler;
+
+    // Converts camera frames to the bitmap drawn behind the detection results.
+    private final Nv21Converter nv21Converter;
+
+    // Reused across frames by the converter, only touched from the conversion worker.
+    private int[] argbBuffer;
+
+    // Camera bitmaps handed to onSuccess come from here and are given back by CameraImageGraphic
+    // once the overlay no longer draws them. Sized for a few preview frames.
+    private final BitmapPool bitmapPool = new BitmapPool(8 * 1024 * 1024);
+
+    // The overlay of the latest frame, which results are drawn on.
+    private volatile GraphicOverlay graphicOverlay;
+
+    /** @param detector the detector to run, which is closed on {@link #stop()} */
+    public VisionProcessorBase(Detector<T> detector) {
+        this(detector, 1);
+    }
+
+    /**
+     * @param detector the detector to run, which is closed on {@link #stop()}
+     * @param conversionThreads number of row stripes the NV21 to bitmap conversion is split into
+     */
+    public VisionProcessorBase(Detector<T> detector, int conversionThreads) {
+        this.detector = detector;
+        nv21Converter = new Nv21Converter(conversionThreads);
+        scheduler = new DetectionScheduler<>(detector, new SchedulerListener());
+    }
+
+    /**
+     * Sets how many camera frames may be in detection at the same time, see {@link
+     * DetectionScheduler#setMaxInFlight}. Every frame in flight holds a camera preview buffer, so
+     * windows larger than {@link #MAX_IN_FLIGHT} are reduced to it.
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("Invalid in-flight window: " + maxInFlight);
+        }
+        scheduler.setMaxInFlight(Math.min(maxInFlight, MAX_IN_FLIGHT));
+    }
+
+    public int getMaxInFlight() {
+        return scheduler.getMaxInFlight();
+    }
+
+    /**
+     * Sets how often camera frames are detected: with an interval of n, one frame in n goes to the
+     * detector and the n - 1 frames after it are handed to {@link #onPredictedFrame} instead,
+     * for processors that can extrapolate their last results.
+     */
+    public void setDetectionInterval(int detectionInterval) {
+        scheduler.setDetectionInterval(detectionInterval);
+    }
+
+    public int getDetectionInterval() {
+        return scheduler.getDetectionInterval();
+    }
+
+    /**
+     * Sets the largest camera frame the detector gets, in the orientation of the frames as the
+     * camera delivers them. Larger frames, which may be wanted for a sharper preview, are scaled
+     * down to fit, keeping their aspect ratio, and so is the region of them detected. Processors
+     * that set it map their results with {@link FrameMetadata#getDetectionScale()}. 0 for no
+     * limit, the default.
+     */
+    public void setMaxDetectionSize(int width, int height) {
+        scheduler.setMaxDetectionSize(width, height);
+    }
+
+    @Override
+    public float getDetectionScale(int width, int height) {
+        return scheduler.getDetectionScale(width, height);
+    }
+
+    /**
+     * Drops the latest frame waiting for detection and the results of every frame submitted so
+     * far, restarts the detection interval and the detection region, and calls {@link
+     * #onFrameStateReset()}.
+     */
+    @Override
+    public void onFrameSizeChanged() {
+        scheduler.onFrameSizeChanged();
+    }
 
-    @GuardedBy("this")
-    private FrameMetadata latestImageMetaData;
+    /**
+     * Makes the next camera frame go to the detector whatever the detection interval, for
+     * processors whose predictions are no longer reliable. The interval restarts from that frame.
+     */
+    protected void requestDetection() {
+        scheduler.requestDetection();
+    }
+
+    /** Returns the number of camera frames predicted instead of detected. */
+    public long getDetectionsSkipped() {
+        return scheduler.getDetectionsSkipped();
+    }
+
+    /** Returns throughput and latency counters, per in-flight window size. */
+    public DetectionWindowStats getWindowStats() {
+        return scheduler.getWindowStats();
+    }
+
+    /**
+     * Returns the choice of the region of camera frames to detect, see {@link
+     * DetectionScheduler#getDetectionRegion()}.
+     */
+    public DetectionRegion getDetectionRegion() {
+        return scheduler.getDetectionRegion();
+    }
+
+    /** Returns the failure, retry and circuit state counters. */
+    public DetectionCircuitBreaker getCircuitBreaker() {
+        return scheduler.getCircuitBreaker();
+    }
 
-    // To keep the images and metadata in process.
-    @GuardedBy("this")
-    private ByteBuffer processingImage;
+    /**
+     * Sets whether camera frames are converted to the bitmap handed to {@link #onSuccess}. When
+     * false, which is the case while the camera preview is displayed on screen, {@code onSuccess}
+     * gets a null bitmap and no conversion work is done.
+     */
+    @Override
+    public void setCameraImageRequired(boolean required) {
+        scheduler.setImageRequired(required);
+    }
 
-    @GuardedBy("this")
+    @Override
+    public void setFrameLoadListener(@Nullable FrameLoadListener listener) {
+        scheduler.setFrameLoadListener(listener);
+    }
 
-    private FrameMetadata processingMetaData;
+    /**
+     * Returns the pool of the camera bitmaps handed to {@link #onSuccess}, for its statistics and
+     * for trimming it on memory pressure.
+     */
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
 
-    public VisionProcessorBase() {
+    /** Returns the per-stage durations of camera frames. */
+    public StageTimings getStageTimings() {
+        return scheduler.getStageTimings();
     }
 
     @Override
-    public synchronized void process(
-            ByteBuffer data, final FrameMetadata frameMetadata, final GraphicOverlay
+    public void process(
+            FrameLease frame, final FrameMetadata frameMetadata, final GraphicOverlay
             graphicOverlay) {
-        latestImage = data;
-        latestImageMetaData = frameMetadata;
-        if (processingImage == null && processingMetaData == null) {
-            processLatestImage(graphicOverlay);
-        }
+        this.graphicOverlay = graphicOverlay;
+        scheduler.process(frame, frameMetadata);
     }
 
     // Bitmap version
     @Override
     public void process(Bitmap bitmap, final GraphicOverlay
             graphicOverlay) {
-        detectInVisionImage(null /* bitmap */, FirebaseVisionImage.fromBitmap(bitmap), null,
-                graphicOverlay);
-    }
-
-    private synchronized void processLatestImage(final GraphicOverlay graphicOverlay) {
-        processingImage = latestImage;
-        processingMetaData = latestImageMetaData;
-        latestImage = null;
-        latestImageMetaData = null;
-        if (processingImage != null && processingMetaData != null) {
-            processImage(processingImage, processingMetaData, graphicOverlay);
-        }
+        this.graphicOverlay = graphicOverlay;
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        int[] argb = new int[width * height];
+        bitmap.getPixels(argb, 0, width, 0, 0, width, height);
+        scheduler.process(argb, width, height);
     }
 
-    private void processImage(
-            ByteBuffer data, final FrameMetadata frameMetadata,
-            final GraphicOverlay graphicOverlay) {
-        FirebaseVisionImageMetadata metadata =
-                new FirebaseVisionImageMetadata.Builder()
-                        .setFormat(FirebaseVisionImageMetadata.IMAGE_FORMAT_NV21)
-                        .setWidth(frameMetadata.getWidth())
-                        .setHeight(frameMetadata.getHeight())
-                        .setRotation(frameMetadata.getRotation())
-                        .build();
-
-        Bitmap bitmap = BitmapUtils.getBitmap(data, frameMetadata);
-        detectInVisionImage(
-                bitmap, FirebaseVisionImage.fromByteBuffer(data, metadata), frameMetadata,
-                graphicOverlay);
-    }
-
-    private void detectInVisionImage(
-            final Bitmap originalCameraImage,
-            FirebaseVisionImage image,
-            final FrameMetadata metadata,
-            final GraphicOverlay graphicOverlay) {
-        detectInImage(image)
-                .addOnSuccessListener(
-                        new OnSuccessListener<T>() {
-                            @Override
-                            public void onSuccess(T results) {
-                                VisionProcessorBase.this.onSuccess(originalCameraImage, results,
-                                        metadata,
-                                        graphicOverlay);
-                                processLatestImage(graphicOverlay);
-                            }
-                        })
-                .addOnFailureListener(
-                        new OnFailureListener() {
-                            @Override
-                            public void onFailure(@NonNull Exception e) {
-                                VisionProcessorBase.this.onFailure(e);
-                            }
-                        });
+    /**
+     * Returns whether a failed detection may succeed when the same image is tried again. By
+     * default the detector decides, see {@link Detector#isTransientFailure}.
+     */
+    protected boolean isTransientFailure(@NonNull Exception e) {
+        return detector.isTransientFailure(e);
     }
 
+    /**
+     * Stops detection. Detections still in flight or waiting to be retried are finished without
+     * a result, giving their camera frames back, before the detector is closed.
+     */
     @Override
     public void stop() {
+        scheduler.stop();
+        bitmapPool.clear();
     }
 
-    protected abstract Task<T> detectInImage(FirebaseVisionImage image);
+    // Draws the outcome of the scheduled frames on the overlay, with the camera bitmaps.
+    private class SchedulerListener implements DetectionScheduler.Listener<T, Bitmap> {
+
+        // Runs on the conversion worker.
+        @Nullable
+        @Override
+        public Bitmap convert(ByteBuffer data, FrameMetadata frameMetadata) {
+            int pixelCount = frameMetadata.getWidth() * frameMetadata.getHeight();
+            if (argbBuffer == null || argbBuffer.length < pixelCount) {
+                argbBuffer = new int[pixelCount];
+            }
+            return BitmapUtils.getBitmap(
+                    data, frameMetadata, nv21Converter, argbBuffer, bitmapPool);
+        }
+
+        @Override
+        public void discard(Bitmap image) {
+            bitmapPool.release(image);
+        }
+
+        @Override
+        public void onDetectedFrame(ByteBuffer frameData, FrameMetadata metadata) {
+            VisionProcessorBase.this.onDetectedFrame(frameData, metadata);
+        }
+
+        @Override
+        public void onSuccess(Bitmap image, T results, FrameMetadata metadata) {
+            VisionProcessorBase.this.onSuccess(image, results, metadata, graphicOverlay);
+        }
+
+        @Override
+        public void onPredictedFrame(
+                Bitmap image, ByteBuffer frameData, FrameMetadata metadata) {
+            VisionProcessorBase.this.onPredictedFrame(image, frameData, metadata, graphicOverlay);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            VisionProcessorBase.this.onFailure(e);
+        }
+
+        @Override
+        public boolean isTransientFailure(Exception e) {
+            return VisionProcessorBase.this.isTransientFailure(e);
+        }
+
+        @Override
+        public void onFrameStateReset() {
+            VisionProcessorBase.this.onFrameStateReset();
+        }
+
+        // Queued behind any conversion still running, which keeps using the converter.
+        @Override
+        public void onConversionStopped() {
+            nv21Converter.shutdown();
+        }
+    }
 
     /**
      * Callback that executes with a successful detection result.
      *
      * @param originalCameraImage hold the original image from camera, used to draw the background
-     *                            image.
+     *                            image. It comes from {@link #getBitmapPool()} and should be given
+     *                            back to it once it is no longer drawn, see {@link
+     *                            CameraImageGraphic}.
+     * @param frameMetadata the camera frame; when only a region of it was detected, see {@link
+     *                      #getDetectionRegion()}, or it was scaled down, see {@link
+     *                      #setMaxDetectionSize}, the results are relative to the detected image
+     *                      and its offset and scale in the frame are given here
      */
     protected abstract void onSuccess(
             @Nullable Bitmap originalCameraImage,
@@ -147,5 +312,41 @@ public abstract class VisionProcessorBase<T> implements VisionImageProcessor {
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay);
 
+    /**
+     * Called with the NV21 data of a camera frame right before its results are passed to {@link
+     * #onSuccess}, for processors that track results from frame to frame. The data is only valid
+     * during the call. Does nothing by default.
+     */
+    protected void onDetectedFrame(
+            @NonNull ByteBuffer frameData, @NonNull FrameMetadata frameMetadata) {
+    }
+
+    /**
+     * Callback for camera frames that are not detected, see {@link #setDetectionInterval(int)}.
+     * Called in frame order with the results passed to {@link #onSuccess}, except that the result
+     * of an older frame may still arrive after a prediction. By default the frame is dropped.
+     *
+     * @param originalCameraImage the camera image when one is required, from {@link
+     *                            #getBitmapPool()} like the one passed to {@code onSuccess}
+     * @param frameData the NV21 data of the frame, only valid during the call
+     */
+    protected void onPredictedFrame(
+            @Nullable Bitmap originalCameraImage,
+            @NonNull ByteBuffer frameData,
+            @NonNull FrameMetadata frameMetadata,
+            @NonNull GraphicOverlay graphicOverlay) {
+        if (originalCameraImage != null) {
+            bitmapPool.release(originalCameraImage);
+        }
+    }
+
+    /**
+     * Called when camera frames change size, for processors that carry state from frame to frame
+     * in frame coordinates, which they should drop. Runs between the delivery callbacks, never
+     * alongside one. Does nothing by default.
+     */
+    protected void onFrameStateReset() {
+    }
+
     protected abstract void onFailure(@NonNull Exception e);
 }
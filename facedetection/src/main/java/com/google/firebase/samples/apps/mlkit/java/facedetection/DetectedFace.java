@@ -0,0 +1,262 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFace;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceLandmark;
+
+/**
+ * The geometry of one face reported by a {@link FaceDetector}: its bounding box, tracking id,
+ * landmarks, contours and classifications, in the coordinates of the upright detected image.
+ * Whatever the detector did not compute is reported as missing: no landmark, no contour points,
+ * {@link #UNCOMPUTED_PROBABILITY}. Plain Java, so results can be recorded and replayed off-device.
+ */
+public final class DetectedFace {
+
+  /** Tracking id of a face the detector does not track. */
+  public static final int INVALID_ID = FirebaseVisionFace.INVALID_ID;
+
+  /** Probability of a classification the detector did not compute. */
+  public static final float UNCOMPUTED_PROBABILITY = FirebaseVisionFace.UNCOMPUTED_PROBABILITY;
+
+  /** The {@link FirebaseVisionFaceLandmark} types stored. */
+  static final int[] LANDMARK_TYPES = {
+    FirebaseVisionFaceLandmark.MOUTH_BOTTOM,
+    FirebaseVisionFaceLandmark.LEFT_CHEEK,
+    FirebaseVisionFaceLandmark.LEFT_EAR,
+    FirebaseVisionFaceLandmark.LEFT_EYE,
+    FirebaseVisionFaceLandmark.MOUTH_LEFT,
+    FirebaseVisionFaceLandmark.NOSE_BASE,
+    FirebaseVisionFaceLandmark.RIGHT_CHEEK,
+    FirebaseVisionFaceLandmark.RIGHT_EAR,
+    FirebaseVisionFaceLandmark.RIGHT_EYE,
+    FirebaseVisionFaceLandmark.MOUTH_RIGHT
+  };
+
+  private final int trackingId;
+  private final int left;
+  private final int top;
+  private final int right;
+  private final int bottom;
+  private final float headEulerAngleY;
+  private final float headEulerAngleZ;
+  private final float smilingProbability;
+  private final float leftEyeOpenProbability;
+  private final float rightEyeOpenProbability;
+  // Positions x/y interleaved, indexed like LANDMARK_TYPES.
+  private final float[] landmarks;
+  private final boolean[] hasLandmark;
+  private final FaceContourGeometry contours;
+
+  private DetectedFace(Builder builder) {
+    trackingId = builder.trackingId;
+    left = builder.left;
+    top = builder.top;
+    right = builder.right;
+    bottom = builder.bottom;
+    headEulerAngleY = builder.headEulerAngleY;
+    headEulerAngleZ = builder.headEulerAngleZ;
+    smilingProbability = builder.smilingProbability;
+    leftEyeOpenProbability = builder.leftEyeOpenProbability;
+    rightEyeOpenProbability = builder.rightEyeOpenProbability;
+    landmarks = builder.landmarks.clone();
+    hasLandmark = builder.hasLandmark.clone();
+    contours = new FaceContourGeometry();
+    contours.copyFrom(builder.contours);
+  }
+
+  /** Returns the id the detector tracks the face by across images, or {@link #INVALID_ID}. */
+  public int getTrackingId() {
+    return trackingId;
+  }
+
+  public int getLeft() {
+    return left;
+  }
+
+  public int getTop() {
+    return top;
+  }
+
+  public int getRight() {
+    return right;
+  }
+
+  public int getBottom() {
+    return bottom;
+  }
+
+  public float getHeadEulerAngleY() {
+    return headEulerAngleY;
+  }
+
+  public float getHeadEulerAngleZ() {
+    return headEulerAngleZ;
+  }
+
+  public float getSmilingProbability() {
+    return smilingProbability;
+  }
+
+  public float getLeftEyeOpenProbability() {
+    return leftEyeOpenProbability;
+  }
+
+  public float getRightEyeOpenProbability() {
+    return rightEyeOpenProbability;
+  }
+
+  /** Returns whether the landmark of the given {@link FirebaseVisionFaceLandmark} type is known. */
+  public boolean hasLandmark(int landmarkType) {
+    int slot = slotOf(landmarkType);
+    return slot >= 0 && hasLandmark[slot];
+  }
+
+  /** Returns the x coordinate of a landmark, which must be known. */
+  public float getLandmarkX(int landmarkType) {
+    return landmarks[checkedSlotOf(landmarkType) * 2];
+  }
+
+  /** Returns the y coordinate of a landmark, which must be known. */
+  public float getLandmarkY(int landmarkType) {
+    return landmarks[checkedSlotOf(landmarkType) * 2 + 1];
+  }
+
+  /** Returns the contours of the face, empty if they were not detected. Do not change them. */
+  public FaceContourGeometry getContours() {
+    return contours;
+  }
+
+  /**
+   * Returns the face with every coordinate scaled by {@code scale}, then moved by {@code dx},
+   * {@code dy}, such as from a region of a camera frame detected at a smaller scale to the frame.
+   * Bounds are rounded to the nearest pixel.
+   */
+  public DetectedFace transform(float scale, int dx, int dy) {
+    if (scale == 1f && dx == 0 && dy == 0) {
+      return this;
+    }
+    Builder builder =
+        new Builder()
+            .setTrackingId(trackingId)
+            .setBounds(
+                Math.round(left * scale) + dx,
+                Math.round(top * scale) + dy,
+                Math.round(right * scale) + dx,
+                Math.round(bottom * scale) + dy)
+            .setHeadEulerAngles(headEulerAngleY, headEulerAngleZ)
+            .setSmilingProbability(smilingProbability)
+            .setEyeOpenProbabilities(leftEyeOpenProbability, rightEyeOpenProbability)
+            .setContours(contours);
+    builder.contours.transform(scale, dx, dy);
+    for (int i = 0; i < LANDMARK_TYPES.length; i++) {
+      if (hasLandmark[i]) {
+        builder.setLandmark(
+            LANDMARK_TYPES[i], landmarks[i * 2] * scale + dx, landmarks[i * 2 + 1] * scale + dy);
+      }
+    }
+    return builder.build();
+  }
+
+  private int checkedSlotOf(int landmarkType) {
+    if (!hasLandmark(landmarkType)) {
+      throw new IllegalArgumentException("Landmark not detected: " + landmarkType);
+    }
+    return slotOf(landmarkType);
+  }
+
+  private static int slotOf(int landmarkType) {
+    for (int i = 0; i < LANDMARK_TYPES.length; i++) {
+      if (LANDMARK_TYPES[i] == landmarkType) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Builder of {@link DetectedFace}. */
+  public static class Builder {
+
+    private int trackingId = INVALID_ID;
+    private int left;
+    private int top;
+    private int right;
+    private int bottom;
+    private float headEulerAngleY;
+    private float headEulerAngleZ;
+    private float smilingProbability = UNCOMPUTED_PROBABILITY;
+    private float leftEyeOpenProbability = UNCOMPUTED_PROBABILITY;
+    private float rightEyeOpenProbability = UNCOMPUTED_PROBABILITY;
+    private final float[] landmarks = new float[LANDMARK_TYPES.length * 2];
+    private final boolean[] hasLandmark = new boolean[LANDMARK_TYPES.length];
+    private final FaceContourGeometry contours = new FaceContourGeometry();
+
+    public Builder setTrackingId(int trackingId) {
+      this.trackingId = trackingId;
+      return this;
+    }
+
+    public Builder setBounds(int left, int top, int right, int bottom) {
+      this.left = left;
+      this.top = top;
+      this.right = right;
+      this.bottom = bottom;
+      return this;
+    }
+
+    public Builder setHeadEulerAngles(float y, float z) {
+      headEulerAngleY = y;
+      headEulerAngleZ = z;
+      return this;
+    }
+
+    public Builder setSmilingProbability(float probability) {
+      smilingProbability = probability;
+      return this;
+    }
+
+    public Builder setEyeOpenProbabilities(float left, float right) {
+      leftEyeOpenProbability = left;
+      rightEyeOpenProbability = right;
+      return this;
+    }
+
+    /**
+     * Sets the position of a landmark.
+     *
+     * @throws IllegalArgumentException if {@code landmarkType} is not one of the stored types
+     */
+    public Builder setLandmark(int landmarkType, float x, float y) {
+      int slot = slotOf(landmarkType);
+      if (slot < 0) {
+        throw new IllegalArgumentException("Unsupported landmark type: " + landmarkType);
+      }
+      landmarks[slot * 2] = x;
+      landmarks[slot * 2 + 1] = y;
+      hasLandmark[slot] = true;
+      return this;
+    }
+
+    /**
+     * Starts adding the points of a contour, see {@link FaceContourGeometry#beginContour(int)}.
+     */
+    public Builder beginContour(int contourType) {
+      contours.beginContour(contourType);
+      return this;
+    }
+
+    /** Adds a point to the contour started last. */
+    public Builder addContourPoint(float x, float y) {
+      contours.addPoint(x, y);
+      return this;
+    }
+
+    /** Sets the contours, which are copied, in place of those added so far. */
+    public Builder setContours(FaceContourGeometry contours) {
+      this.contours.copyFrom(contours);
+      return this;
+    }
+
+    public DetectedFace build() {
+      return new DetectedFace(this);
+    }
+  }
+}
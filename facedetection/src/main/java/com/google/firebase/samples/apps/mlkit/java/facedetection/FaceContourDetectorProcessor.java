@@ -5,70 +5,193 @@ import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 
-import com.google.android.gms.tasks.Task;
-import com.google.firebase.ml.vision.FirebaseVision;
-import com.google.firebase.ml.vision.common.FirebaseVisionImage;
-import com.google.firebase.ml.vision.face.FirebaseVisionFace;
-import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetector;
 import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
-import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
+import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphicPool;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.firebase.samples.apps.mlkit.java.VisionProcessorBase;
 
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.List;
 
 /**
  * Face Contour Demo.
+ *
+ * <p>Contours of camera frames are smoothed per tracked face, and only every {@link
+ * #DEFAULT_DETECTION_INTERVAL}-th frame is detected by default. On the frames in between the
+ * detected contours are moved along with the image by optical flow; when that loses the faces, the
+ * contours predicted by the smoother are shown and the next frame is detected.
+ *
+ * <p>Once faces are found, only a region of the frame around them is detected, see {@link
+ * #getDetectionRegion()}, and frames larger than {@link #MAX_DETECTION_WIDTH} x {@link
+ * #MAX_DETECTION_HEIGHT} are scaled down first, so the preview can be sharper than what is
+ * detected.
  */
-public class FaceContourDetectorProcessor extends VisionProcessorBase<List<FirebaseVisionFace>> {
+public class FaceContourDetectorProcessor extends VisionProcessorBase<List<DetectedFace>> {
 
     private static final String TAG = "FaceContourDetectorProc";
 
-    private final FirebaseVisionFaceDetector detector;
+    public static final int DEFAULT_DETECTION_INTERVAL = 4;
+
+    /**
+     * Largest camera frame the detector gets; larger previews are scaled down to this before
+     * detection. The contours of a face filling a fair part of the frame are as accurate at this
+     * size, and detection time grows with the number of pixels.
+     */
+    public static final int MAX_DETECTION_WIDTH = 480;
+
+    public static final int MAX_DETECTION_HEIGHT = 360;
+
+    private static final int FLOW_THREADS = 2;
+
+    // Only used from the delivery callbacks, which never run concurrently.
+    private final FaceContourTracking tracking;
+
+    // Graphics, and the contours they draw, reused from frame to frame. Also only used from the
+    // delivery callbacks.
+    private FaceContourGraphicPool graphicPool;
+    private CameraImageGraphicPool imageGraphicPool;
+
+    // Adds the faces passed on by the tracking to the scene being built. Also only used from the
+    // delivery callbacks.
+    private final SceneSink sceneSink = new SceneSink();
+
+    @Nullable
+    private volatile FaceResultRecorder resultRecorder;
 
     public FaceContourDetectorProcessor() {
+        this(DEFAULT_DETECTION_INTERVAL);
+    }
+
+    /** @param detectionInterval detect one camera frame in this many, predict the others */
+    public FaceContourDetectorProcessor(int detectionInterval) {
+        this(createDetector(), detectionInterval);
+    }
+
+    /**
+     * @param detector the detector to run, which must report contours, such as a {@link
+     *                 ReplayFaceDetector} of contour results
+     * @param detectionInterval detect one camera frame in this many, predict the others
+     */
+    public FaceContourDetectorProcessor(FaceDetector detector, int detectionInterval) {
+        super(detector);
+        setDetectionInterval(detectionInterval);
+        setMaxDetectionSize(MAX_DETECTION_WIDTH, MAX_DETECTION_HEIGHT);
+        getDetectionRegion().setEnabled(true);
+        tracking = new FaceContourTracking(FLOW_THREADS, getDetectionRegion());
+    }
+
+    private static FaceDetector createDetector() {
         FirebaseVisionFaceDetectorOptions options =
                 new FirebaseVisionFaceDetectorOptions.Builder()
                         .setPerformanceMode(FirebaseVisionFaceDetectorOptions.ACCURATE)
                         .setContourMode(FirebaseVisionFaceDetectorOptions.ALL_CONTOURS)
+                        .enableTracking()
                         .build();
+        return new MlKitFaceDetector(options);
+    }
+
+    /**
+     * Returns the smoother of the face contours, for its prediction error. Only read it from the
+     * delivery callbacks or once the processor is stopped.
+     */
+    public FaceContourSmoother getSmoother() {
+        return tracking.getSmoother();
+    }
+
+    /** Returns the optical flow of the contours, for its counters. Read it like the smoother. */
+    public FaceContourFlow getFlow() {
+        return tracking.getFlow();
+    }
 
-        detector = FirebaseVision.getInstance().getVisionFaceDetector(options);
+    /** Sets the recorder given the faces of every detection delivered, or null for none. */
+    public void setResultRecorder(@Nullable FaceResultRecorder recorder) {
+        resultRecorder = recorder;
     }
 
     @Override
     public void stop() {
-        try {
-            detector.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Exception thrown while trying to close Face Contour Detector: " + e);
-        }
+        super.stop();
+        tracking.shutdown();
+    }
+
+    @Override
+    protected void onFrameStateReset() {
+        tracking.reset();
     }
 
     @Override
-    protected Task<List<FirebaseVisionFace>> detectInImage(FirebaseVisionImage image) {
-        return detector.detectInImage(image);
+    protected void onDetectedFrame(
+            @NonNull ByteBuffer frameData, @NonNull FrameMetadata frameMetadata) {
+        tracking.onDetectedFrame(frameData, frameMetadata);
     }
 
     @Override
     protected void onSuccess(
             @Nullable Bitmap originalCameraImage,
-            @NonNull List<FirebaseVisionFace> faces,
+            @NonNull List<DetectedFace> faces,
+            @NonNull FrameMetadata frameMetadata,
+            @NonNull GraphicOverlay graphicOverlay) {
+        FaceResultRecorder recorder = resultRecorder;
+        if (recorder != null) {
+            recorder.record(faces, frameMetadata);
+        }
+        GraphicOverlay.Scene.Builder scene =
+                sceneSink.begin(originalCameraImage, graphicOverlay);
+        tracking.onDetected(faces, frameMetadata, sceneSink);
+        graphicOverlay.publish(scene.build());
+    }
+
+    @Override
+    protected void onPredictedFrame(
+            @Nullable Bitmap originalCameraImage,
+            @NonNull ByteBuffer frameData,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
-        if (originalCameraImage != null) {
-            CameraImageGraphic imageGraphic = new CameraImageGraphic(graphicOverlay, originalCameraImage);
-            graphicOverlay.add(imageGraphic);
+        GraphicOverlay.Scene.Builder scene =
+                sceneSink.begin(originalCameraImage, graphicOverlay);
+        if (!tracking.onPredictedFrame(frameData, frameMetadata, sceneSink)) {
+            requestDetection();
+        }
+        graphicOverlay.publish(scene.build());
+    }
+
+    private FaceContourGraphicPool graphicPool(GraphicOverlay graphicOverlay) {
+        if (graphicPool == null || graphicPool.getOverlay() != graphicOverlay) {
+            graphicPool = new FaceContourGraphicPool(graphicOverlay);
+        }
+        return graphicPool;
+    }
+
+    private CameraImageGraphicPool imageGraphicPool(GraphicOverlay graphicOverlay) {
+        if (imageGraphicPool == null || imageGraphicPool.getOverlay() != graphicOverlay) {
+            imageGraphicPool = new CameraImageGraphicPool(graphicOverlay, getBitmapPool());
         }
-        for (int i = 0; i < faces.size(); ++i) {
-            FirebaseVisionFace face = faces.get(i);
-            FaceContourGraphic faceGraphic = new FaceContourGraphic(graphicOverlay, face);
-            graphicOverlay.add(faceGraphic);
+        return imageGraphicPool;
+    }
+
+    // Adds a pooled graphic per face to the scene of the frame being delivered.
+    private class SceneSink implements FaceContourTracking.FaceSink {
+        private GraphicOverlay.Scene.Builder scene;
+        private FaceContourGraphicPool pool;
+
+        // Starts the scene of a frame, behind the camera image if there is one.
+        GraphicOverlay.Scene.Builder begin(
+                @Nullable Bitmap originalCameraImage, GraphicOverlay graphicOverlay) {
+            scene = new GraphicOverlay.Scene.Builder();
+            if (originalCameraImage != null) {
+                scene.add(imageGraphicPool(graphicOverlay).acquire(originalCameraImage));
+            }
+            pool = graphicPool(graphicOverlay);
+            return scene;
+        }
+
+        @Override
+        public FaceContourGeometry addFace(int trackingId) {
+            FaceContourGraphic graphic = pool.acquire(trackingId);
+            scene.add(graphic);
+            return graphic.getGeometry();
         }
-        graphicOverlay.postInvalidate();
     }
 
     @Override
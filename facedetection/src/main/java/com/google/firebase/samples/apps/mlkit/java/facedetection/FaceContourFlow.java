@@ -0,0 +1,191 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.samples.apps.mlkit.common.LucasKanadeTracker;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Carries the contours of the faces of the last detection over to the camera frames after it with
+ * {@link LucasKanadeTracker} optical flow, frame to frame, on the Y plane of the NV21 frames.
+ *
+ * <p>Tracking is only trusted while at least {@link #MIN_TRACKED_FRACTION} of the points of every
+ * face are tracked; otherwise {@link #track} reports it and the faces are dropped until the next
+ * detection. Points lost on a frame keep their last position. Contour storage is reused from
+ * detection to detection.
+ *
+ * <p>Contours are in the coordinates of the upright image, like the detector reports them, while
+ * frames are tracked as the camera delivers them; the points are turned between the two by the
+ * rotation of the frames. Not thread safe.
+ */
+public final class FaceContourFlow {
+
+  /** Fraction of the points of each face that must be tracked on a frame. */
+  static final float MIN_TRACKED_FRACTION = 0.7f;
+
+  private final LucasKanadeTracker tracker;
+
+  private int[] trackingIds = new int[2];
+  private FaceContourGeometry[] faces = new FaceContourGeometry[2];
+  private int faceCount;
+  private boolean[] status = new boolean[0];
+  // Points of the face being tracked, in frame coordinates.
+  private float[] framePoints = new float[0];
+
+  private long framesTracked;
+  private long trackingFailures;
+
+  /** @param threadCount number of threads the points of a face are tracked with */
+  public FaceContourFlow(int threadCount) {
+    tracker = new LucasKanadeTracker(threadCount);
+  }
+
+  /**
+   * Starts over from a detected frame, without faces. Add the faces detected in it with {@link
+   * #addFace}.
+   */
+  public void startFrom(ByteBuffer nv21, int width, int height) {
+    tracker.reset();
+    tracker.pushFrame(nv21, width, height);
+    faceCount = 0;
+  }
+
+  /** Adds the contours of a face detected in the frame given to {@link #startFrom}. */
+  public void addFace(int trackingId, FaceContourGeometry geometry) {
+    if (faceCount == faces.length) {
+      int[] grownIds = new int[faceCount * 2];
+      FaceContourGeometry[] grownFaces = new FaceContourGeometry[faceCount * 2];
+      System.arraycopy(trackingIds, 0, grownIds, 0, faceCount);
+      System.arraycopy(faces, 0, grownFaces, 0, faceCount);
+      trackingIds = grownIds;
+      faces = grownFaces;
+    }
+    if (faces[faceCount] == null) {
+      faces[faceCount] = new FaceContourGeometry();
+    }
+    faces[faceCount].copyFrom(geometry);
+    trackingIds[faceCount] = trackingId;
+    faceCount++;
+    if (status.length < geometry.getTotalPointCount()) {
+      status = new boolean[geometry.getTotalPointCount()];
+      framePoints = new float[geometry.getTotalPointCount() * 2];
+    }
+  }
+
+  /**
+   * Moves the contours of every face to the given frame, which follows the frame they were last
+   * moved to or detected in.
+   *
+   * @param rotation quarter turns, clockwise, that make the frame upright
+   * @return whether the faces were tracked well enough to be drawn; if not, or if there are no
+   *     faces, they are dropped until the next detection
+   */
+  public boolean track(ByteBuffer nv21, int width, int height, int rotation) {
+    if (faceCount == 0) {
+      return false;
+    }
+    tracker.pushFrame(nv21, width, height);
+    boolean trusted = tracker.canTrack();
+    for (int i = 0; i < faceCount && trusted; i++) {
+      float[] points = faces[i].getPoints();
+      int count = faces[i].getTotalPointCount();
+      toFramePoints(points, count, width, height, rotation);
+      int tracked = tracker.track(framePoints, framePoints, status, count);
+      toUprightPoints(points, count, width, height, rotation);
+      trusted = tracked >= MIN_TRACKED_FRACTION * count;
+    }
+    if (trusted) {
+      framesTracked++;
+    } else {
+      trackingFailures++;
+      faceCount = 0;
+    }
+    return trusted;
+  }
+
+  /** Drops the faces, until the next {@link #startFrom}. */
+  public void clear() {
+    tracker.reset();
+    faceCount = 0;
+  }
+
+  /** Returns the number of faces being tracked. */
+  public int getFaceCount() {
+    return faceCount;
+  }
+
+  public int getTrackingId(int index) {
+    return trackingIds[index];
+  }
+
+  /** Returns the current contours of a face. They change on the next {@link #track}. */
+  public FaceContourGeometry getFace(int index) {
+    return faces[index];
+  }
+
+  /** Returns the number of frames the faces were tracked on. */
+  public long getFramesTracked() {
+    return framesTracked;
+  }
+
+  /** Returns the number of frames on which tracking was lost. */
+  public long getTrackingFailures() {
+    return trackingFailures;
+  }
+
+  /** Stops the tracker threads. */
+  public void shutdown() {
+    tracker.shutdown();
+  }
+
+  // Writes the upright points into framePoints, in the coordinates of the frame.
+  private void toFramePoints(float[] points, int count, int width, int height, int rotation) {
+    for (int i = 0; i < count * 2; i += 2) {
+      float x = points[i];
+      float y = points[i + 1];
+      switch (rotation) {
+        case 1:
+          framePoints[i] = y;
+          framePoints[i + 1] = height - x;
+          break;
+        case 2:
+          framePoints[i] = width - x;
+          framePoints[i + 1] = height - y;
+          break;
+        case 3:
+          framePoints[i] = width - y;
+          framePoints[i + 1] = x;
+          break;
+        default:
+          framePoints[i] = x;
+          framePoints[i + 1] = y;
+          break;
+      }
+    }
+  }
+
+  // The inverse of toFramePoints, from framePoints into points.
+  private void toUprightPoints(float[] points, int count, int width, int height, int rotation) {
+    for (int i = 0; i < count * 2; i += 2) {
+      float x = framePoints[i];
+      float y = framePoints[i + 1];
+      switch (rotation) {
+        case 1:
+          points[i] = height - y;
+          points[i + 1] = x;
+          break;
+        case 2:
+          points[i] = width - x;
+          points[i + 1] = height - y;
+          break;
+        case 3:
+          points[i] = y;
+          points[i + 1] = width - x;
+          break;
+        default:
+          points[i] = x;
+          points[i + 1] = y;
+          break;
+      }
+    }
+  }
+}
@@ -0,0 +1,231 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+
+/**
+ * The contour points of one detected face packed into primitive arrays: a single float array with
+ * the x/y coordinates of every contour, in preview coordinates, and an index table giving the
+ * first point and the number of points of each {@link FirebaseVisionFaceContour} type.
+ *
+ * <p>The geometry is filled once per detection. Drawing then reads it through {@link
+ * #upperLipOutline(float[])} and {@link #lowerLipOutline(float[])}, which write into an array the
+ * caller reuses, so drawing a face does not allocate.
+ */
+public final class FaceContourGeometry {
+
+  /** The contour types stored, in the order of the index table. */
+  static final int[] CONTOUR_TYPES = {
+    FirebaseVisionFaceContour.FACE,
+    FirebaseVisionFaceContour.LEFT_EYEBROW_TOP,
+    FirebaseVisionFaceContour.LEFT_EYEBROW_BOTTOM,
+    FirebaseVisionFaceContour.RIGHT_EYEBROW_TOP,
+    FirebaseVisionFaceContour.RIGHT_EYEBROW_BOTTOM,
+    FirebaseVisionFaceContour.LEFT_EYE,
+    FirebaseVisionFaceContour.RIGHT_EYE,
+    FirebaseVisionFaceContour.UPPER_LIP_TOP,
+    FirebaseVisionFaceContour.UPPER_LIP_BOTTOM,
+    FirebaseVisionFaceContour.LOWER_LIP_TOP,
+    FirebaseVisionFaceContour.LOWER_LIP_BOTTOM,
+    FirebaseVisionFaceContour.NOSE_BRIDGE,
+    FirebaseVisionFaceContour.NOSE_BOTTOM
+  };
+
+  // Enough for the 133 points ML Kit reports for a face, grown if a contour has more.
+  private static final int INITIAL_POINT_CAPACITY = 136;
+
+  private float[] points = new float[INITIAL_POINT_CAPACITY * 2];
+  private int pointCount;
+
+  // First point and number of points of each contour, indexed like CONTOUR_TYPES.
+  private final int[] offsets = new int[CONTOUR_TYPES.length];
+  private final int[] counts = new int[CONTOUR_TYPES.length];
+
+  // Contour being added, or -1.
+  private int currentSlot = -1;
+
+  /** Removes all contours. */
+  public void reset() {
+    pointCount = 0;
+    currentSlot = -1;
+    for (int i = 0; i < counts.length; i++) {
+      offsets[i] = 0;
+      counts[i] = 0;
+    }
+  }
+
+  /**
+   * Starts adding the points of a contour. Each type is expected at most once between resets.
+   *
+   * @throws IllegalArgumentException if {@code contourType} is not one of the stored types
+   */
+  public void beginContour(int contourType) {
+    currentSlot = slotOf(contourType);
+    if (currentSlot < 0) {
+      throw new IllegalArgumentException("Unsupported contour type: " + contourType);
+    }
+    offsets[currentSlot] = pointCount;
+    counts[currentSlot] = 0;
+  }
+
+  /** Adds a point, in preview coordinates, to the contour started last. */
+  public void addPoint(float x, float y) {
+    if (currentSlot < 0) {
+      throw new IllegalStateException("No contour started.");
+    }
+    if (pointCount * 2 == points.length) {
+      float[] grown = new float[points.length * 2];
+      System.arraycopy(points, 0, grown, 0, points.length);
+      points = grown;
+    }
+    points[pointCount * 2] = x;
+    points[pointCount * 2 + 1] = y;
+    pointCount++;
+    counts[currentSlot]++;
+  }
+
+  /** Returns the number of points of the given contour type, 0 if it was not detected. */
+  public int getPointCount(int contourType) {
+    int slot = slotOf(contourType);
+    return slot < 0 ? 0 : counts[slot];
+  }
+
+  /** Returns the x coordinate of a point of the given contour type. */
+  public float getX(int contourType, int index) {
+    return points[indexOf(contourType, index) * 2];
+  }
+
+  /** Returns the y coordinate of a point of the given contour type. */
+  public float getY(int contourType, int index) {
+    return points[indexOf(contourType, index) * 2 + 1];
+  }
+
+  /** Returns the total number of points of all contours. */
+  public int getTotalPointCount() {
+    return pointCount;
+  }
+
+  /**
+   * Returns the packed x/y coordinates of all contours. Only the first {@code 2 *
+   * getTotalPointCount()} floats are used; they may be changed in place, for smoothing.
+   */
+  float[] getPoints() {
+    return points;
+  }
+
+  /** Scales every point by {@code scale}, then moves it by {@code dx}, {@code dy}. */
+  public void transform(float scale, float dx, float dy) {
+    for (int i = 0; i < pointCount * 2; i += 2) {
+      points[i] = points[i] * scale + dx;
+      points[i + 1] = points[i + 1] * scale + dy;
+    }
+  }
+
+  /** Makes this geometry a copy of {@code other}, reusing its own storage when large enough. */
+  public void copyFrom(FaceContourGeometry other) {
+    if (points.length < other.pointCount * 2) {
+      points = new float[other.points.length];
+    }
+    System.arraycopy(other.points, 0, points, 0, other.pointCount * 2);
+    System.arraycopy(other.offsets, 0, offsets, 0, offsets.length);
+    System.arraycopy(other.counts, 0, counts, 0, counts.length);
+    pointCount = other.pointCount;
+    currentSlot = -1;
+  }
+
+  /** Returns whether both geometries have the same contours with the same numbers of points. */
+  public boolean hasSameLayout(FaceContourGeometry other) {
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != other.counts[i] || offsets[i] != other.offsets[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the size an array passed to the outline methods needs: two floats per lip point plus
+   * the points repeated to join and close the outlines.
+   */
+  public int getOutlineCapacity() {
+    int lipPoints =
+        getPointCount(FirebaseVisionFaceContour.UPPER_LIP_TOP)
+            + getPointCount(FirebaseVisionFaceContour.UPPER_LIP_BOTTOM)
+            + getPointCount(FirebaseVisionFaceContour.LOWER_LIP_TOP)
+            + getPointCount(FirebaseVisionFaceContour.LOWER_LIP_BOTTOM);
+    return (lipPoints + 3) * 2;
+  }
+
+  /**
+   * Writes the closed outline of the upper lip into {@code out}: along the top of the lip from
+   * left to right, back along its bottom and to the first point again. For reference see
+   * "https://firebase.google.com/docs/ml-kit/images/examples/face_contours.svg".
+   *
+   * @return the number of points written, 0 if the lip contours were not detected
+   */
+  public int upperLipOutline(float[] out) {
+    int top = slotOf(FirebaseVisionFaceContour.UPPER_LIP_TOP);
+    int bottom = slotOf(FirebaseVisionFaceContour.UPPER_LIP_BOTTOM);
+    if (counts[top] == 0 || counts[bottom] == 0) {
+      return 0;
+    }
+    int n = 0;
+    n = copyPoints(top, 0, counts[top] - 1, out, n);
+    n = copyPoints(bottom, counts[bottom] - 1, 0, out, n);
+    return copyPoints(top, 0, 0, out, n) / 2;
+  }
+
+  /**
+   * Writes the closed outline of the lower lip into {@code out}: from the left corner of the mouth
+   * along the top of the lower lip, to the right corner and back along its bottom to the left
+   * corner. The corners are the ends of the upper lip top contour.
+   *
+   * @return the number of points written, 0 if the lip contours were not detected
+   */
+  public int lowerLipOutline(float[] out) {
+    int upperTop = slotOf(FirebaseVisionFaceContour.UPPER_LIP_TOP);
+    int top = slotOf(FirebaseVisionFaceContour.LOWER_LIP_TOP);
+    int bottom = slotOf(FirebaseVisionFaceContour.LOWER_LIP_BOTTOM);
+    if (counts[upperTop] == 0 || counts[top] == 0 || counts[bottom] == 0) {
+      return 0;
+    }
+    int lastCorner = counts[upperTop] - 1;
+    int n = 0;
+    n = copyPoints(upperTop, 0, 0, out, n);
+    n = copyPoints(top, counts[top] - 1, 0, out, n);
+    n = copyPoints(upperTop, lastCorner, lastCorner, out, n);
+    n = copyPoints(bottom, 0, counts[bottom] - 1, out, n);
+    return copyPoints(upperTop, 0, 0, out, n) / 2;
+  }
+
+  // Copies the points from..to (inclusive, in either direction) of a contour to out[n], returns
+  // the new end of out.
+  private int copyPoints(int slot, int from, int to, float[] out, int n) {
+    int step = from <= to ? 1 : -1;
+    int base = offsets[slot];
+    for (int i = from; ; i += step) {
+      out[n++] = points[(base + i) * 2];
+      out[n++] = points[(base + i) * 2 + 1];
+      if (i == to) {
+        return n;
+      }
+    }
+  }
+
+  private int indexOf(int contourType, int index) {
+    int slot = slotOf(contourType);
+    if (slot < 0 || index < 0 || index >= counts[slot]) {
+      throw new IndexOutOfBoundsException(
+          "Point " + index + " of contour " + contourType + " out of range");
+    }
+    return offsets[slot] + index;
+  }
+
+  private static int slotOf(int contourType) {
+    for (int i = 0; i < CONTOUR_TYPES.length; i++) {
+      if (CONTOUR_TYPES[i] == contourType) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
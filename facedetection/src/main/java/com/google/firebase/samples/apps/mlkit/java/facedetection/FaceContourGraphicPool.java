@@ -0,0 +1,52 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reuses {@link FaceContourGraphic}s, and the contour storage they own, across frames. A graphic
+ * comes back once the overlay no longer draws it, and is preferably handed out again for the face
+ * with the same tracking id, whose contours have the same layout.
+ */
+class FaceContourGraphicPool {
+
+    // More than the faces usually on screen, times the frames a graphic stays in use.
+    private static final int MAX_FREE = 12;
+
+    private final GraphicOverlay overlay;
+    private final List<FaceContourGraphic> free = new ArrayList<>();
+
+    FaceContourGraphicPool(GraphicOverlay overlay) {
+        this.overlay = overlay;
+    }
+
+    GraphicOverlay getOverlay() {
+        return overlay;
+    }
+
+    /** Returns a free graphic for {@code trackingId}, last used for it if there is one. */
+    synchronized FaceContourGraphic acquire(int trackingId) {
+        FaceContourGraphic graphic = null;
+        int size = free.size();
+        for (int i = size - 1; i >= 0 && graphic == null; i--) {
+            if (free.get(i).getTrackingId() == trackingId) {
+                graphic = free.remove(i);
+            }
+        }
+        if (graphic == null) {
+            graphic = size == 0
+                    ? new FaceContourGraphic(overlay, this) : free.remove(size - 1);
+        }
+        graphic.setTrackingId(trackingId);
+        return graphic;
+    }
+
+    /** Takes back a graphic the overlay no longer draws, or that was never added to a scene. */
+    synchronized void release(FaceContourGraphic graphic) {
+        if (free.size() < MAX_FREE) {
+            free.add(graphic);
+        }
+    }
+}
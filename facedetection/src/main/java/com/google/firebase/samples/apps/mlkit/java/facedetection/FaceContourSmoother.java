@@ -0,0 +1,139 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Smooths the contours of tracked faces from detection to detection, and predicts them for frames
+ * that are not detected. Each face has its own {@link OneEuroFilter} over all its contour points,
+ * keyed by the tracking id the detector assigns to it.
+ *
+ * <p>When a face is detected again, the points predicted for that frame are compared with the
+ * detected ones first. The mean distance is reported by {@link #getMeanPredictionError()}: what
+ * the contours drawn in between detections were off by, at worst, since the error grows with the
+ * time predicted ahead.
+ *
+ * <p>Not thread safe.
+ */
+public final class FaceContourSmoother {
+
+  // Tuned with FaceContourSmoothingReplay for preview coordinates, a few hundred pixels across.
+  private static final float MIN_CUTOFF_HZ = 1.0f;
+  private static final float BETA = 0.2f;
+  private static final float DERIVATIVE_CUTOFF_HZ = 3.0f;
+
+  private static final class Track {
+    final OneEuroFilter filter =
+        new OneEuroFilter(MIN_CUTOFF_HZ, BETA, DERIVATIVE_CUTOFF_HZ);
+    // Last smoothed contours of the face.
+    final FaceContourGeometry geometry = new FaceContourGeometry();
+    long lastSeenNanos;
+  }
+
+  private final Map<Integer, Track> tracks = new HashMap<>();
+
+  // Predicted points of a face, compared with the detected ones.
+  private float[] predicted = new float[0];
+
+  private double predictionErrorSum;
+  private long predictionErrorPoints;
+
+  /**
+   * Smooths the contours of a face detected in the frame taken at {@code timestampNanos}, in
+   * place. The first detection of a tracking id is taken as is, as are contours whose points
+   * changed in number.
+   */
+  public void smooth(int trackingId, FaceContourGeometry geometry, long timestampNanos) {
+    Track track = tracks.get(trackingId);
+    if (track == null) {
+      track = new Track();
+      tracks.put(trackingId, track);
+    }
+    int coordinates = geometry.getTotalPointCount() * 2;
+    float[] points = geometry.getPoints();
+    if (track.filter.isInitialized()
+        && track.geometry.hasSameLayout(geometry)
+        && timestampNanos > track.filter.getLastTimestampNanos()) {
+      recordPredictionError(track, points, coordinates, timestampNanos);
+    } else {
+      track.filter.reset();
+    }
+    track.filter.filter(points, 0, coordinates, timestampNanos);
+    track.geometry.copyFrom(geometry);
+    track.lastSeenNanos = timestampNanos;
+  }
+
+  /**
+   * Writes the contours of a tracked face predicted for the frame taken at {@code timestampNanos}
+   * into {@code out}.
+   *
+   * @return false if the face is not tracked, leaving {@code out} unchanged
+   */
+  public boolean predict(int trackingId, FaceContourGeometry out, long timestampNanos) {
+    Track track = tracks.get(trackingId);
+    if (track == null) {
+      return false;
+    }
+    out.copyFrom(track.geometry);
+    track.filter.predict(out.getPoints(), 0, timestampNanos);
+    return true;
+  }
+
+  /**
+   * Stops tracking the faces last detected before {@code timestampNanos}. Called after smoothing
+   * the faces of a detection with its timestamp, this drops the faces that left the frame.
+   */
+  public void removeTracksNotSeenSince(long timestampNanos) {
+    Iterator<Track> iterator = tracks.values().iterator();
+    while (iterator.hasNext()) {
+      if (iterator.next().lastSeenNanos < timestampNanos) {
+        iterator.remove();
+      }
+    }
+  }
+
+  /** Returns the tracking ids of the faces being tracked. */
+  public Set<Integer> getTrackingIds() {
+    return Collections.unmodifiableSet(tracks.keySet());
+  }
+
+  /** Stops tracking all faces. Statistics are kept. */
+  public void clear() {
+    tracks.clear();
+  }
+
+  /**
+   * Returns the mean distance, in preview pixels, between the points predicted for detected
+   * frames and the detected points, or 0 if no face was detected twice.
+   */
+  public double getMeanPredictionError() {
+    return predictionErrorPoints == 0 ? 0 : predictionErrorSum / predictionErrorPoints;
+  }
+
+  /** Returns the number of points {@link #getMeanPredictionError()} is averaged over. */
+  public long getPredictionErrorPoints() {
+    return predictionErrorPoints;
+  }
+
+  public void resetStatistics() {
+    predictionErrorSum = 0;
+    predictionErrorPoints = 0;
+  }
+
+  private void recordPredictionError(
+      Track track, float[] detected, int coordinates, long timestampNanos) {
+    if (predicted.length < coordinates) {
+      predicted = new float[coordinates];
+    }
+    track.filter.predict(predicted, 0, timestampNanos);
+    for (int i = 0; i < coordinates; i += 2) {
+      float dx = predicted[i] - detected[i];
+      float dy = predicted[i + 1] - detected[i + 1];
+      predictionErrorSum += Math.sqrt(dx * dx + dy * dy);
+    }
+    predictionErrorPoints += coordinates / 2;
+  }
+}
@@ -0,0 +1,165 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
+import com.google.firebase.samples.apps.mlkit.java.DetectionRegion;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Follows face contours from frame to frame, for {@link FaceContourDetectorProcessor}: detected
+ * contours are mapped to frame coordinates and smoothed per tracked face, the faces are reported to
+ * the {@link DetectionRegion}, and on the frames in between the contours are moved along with the
+ * image by optical flow, or predicted by the smoother when that loses the faces.
+ *
+ * <p>Only used from the delivery callbacks, which never run concurrently.
+ */
+public class FaceContourTracking {
+
+  /** Receives the contours of the faces of a frame. */
+  public interface FaceSink {
+
+    /**
+     * Returns the geometry to write the contours of a face into, in frame coordinates. It must
+     * not change until the next frame.
+     */
+    FaceContourGeometry addFace(int trackingId);
+  }
+
+  private final FaceContourSmoother smoother = new FaceContourSmoother();
+  private final FaceContourFlow flow;
+  private final DetectionRegion detectionRegion;
+  // Predictions are written here first, as most tracks of a lost face are not predicted.
+  private final FaceContourGeometry prediction = new FaceContourGeometry();
+
+  // Timestamp of the newest camera frame whose contours were published.
+  private long lastPublishedNanos = Long.MIN_VALUE;
+
+  // Whether the frame of the next result was handed to the flow, which then starts from its faces.
+  private boolean flowStarted;
+
+  /**
+   * @param flowThreads number of threads the optical flow is split into
+   * @param detectionRegion told about the faces of every detected camera frame
+   */
+  public FaceContourTracking(int flowThreads, DetectionRegion detectionRegion) {
+    flow = new FaceContourFlow(flowThreads);
+    this.detectionRegion = detectionRegion;
+  }
+
+  /** Returns the smoother of the face contours, for its prediction error. */
+  public FaceContourSmoother getSmoother() {
+    return smoother;
+  }
+
+  /** Returns the optical flow of the contours, for its counters. */
+  public FaceContourFlow getFlow() {
+    return flow;
+  }
+
+  /** Starts the optical flow from a detected camera frame, before its faces are passed on. */
+  public void onDetectedFrame(ByteBuffer frameData, FrameMetadata metadata) {
+    flow.startFrom(frameData, metadata.getWidth(), metadata.getHeight());
+    flowStarted = true;
+  }
+
+  /**
+   * Passes the detected faces to {@code sink}. Faces of camera frames are mapped to frame
+   * coordinates and smoothed; faces of still images are passed on as detected.
+   *
+   * @param metadata the camera frame the faces were detected in, or null for still images
+   */
+  public void onDetected(List<DetectedFace> faces, FrameMetadata metadata, FaceSink sink) {
+    // Still images are drawn as detected.
+    boolean smooth = metadata != null;
+    long timestamp = smooth ? metadata.getTimestampNanos() : 0;
+    // Results detected on a region of the frame, or on a scaled down frame, are mapped to frame
+    // coordinates first.
+    int regionLeft = smooth ? metadata.getRegionLeft() : 0;
+    int regionTop = smooth ? metadata.getRegionTop() : 0;
+    float toFrame = smooth ? 1f / metadata.getDetectionScale() : 1f;
+    int left = Integer.MAX_VALUE;
+    int top = Integer.MAX_VALUE;
+    int right = Integer.MIN_VALUE;
+    int bottom = Integer.MIN_VALUE;
+    for (int i = 0; i < faces.size(); ++i) {
+      DetectedFace face = faces.get(i);
+      int trackingId = face.getTrackingId();
+      // A replaying detector hands out the same faces again, so they are moved as copies.
+      FaceContourGeometry geometry = sink.addFace(trackingId);
+      geometry.copyFrom(face.getContours());
+      geometry.transform(toFrame, regionLeft, regionTop);
+      left = Math.min(left, face.getLeft());
+      top = Math.min(top, face.getTop());
+      right = Math.max(right, face.getRight());
+      bottom = Math.max(bottom, face.getBottom());
+      // The detector may leave contour faces untracked. A single face is still smoothed as one,
+      // several cannot be told apart.
+      if (smooth && (trackingId != DetectedFace.INVALID_ID || faces.size() == 1)) {
+        if (flowStarted) {
+          flow.addFace(trackingId, geometry);
+        }
+        smoother.smooth(trackingId, geometry, timestamp);
+        if (timestamp < lastPublishedNanos) {
+          // A newer frame was already predicted, do not step back in time.
+          smoother.predict(trackingId, geometry, lastPublishedNanos);
+        }
+      }
+    }
+    flowStarted = false;
+    if (smooth) {
+      if (faces.isEmpty()) {
+        detectionRegion.onNoFaces();
+      } else {
+        detectionRegion.onFacesDetected(faces.size(),
+            Math.round(left * toFrame) + regionLeft,
+            Math.round(top * toFrame) + regionTop,
+            Math.round(right * toFrame) + regionLeft,
+            Math.round(bottom * toFrame) + regionTop);
+      }
+      smoother.removeTracksNotSeenSince(timestamp);
+      lastPublishedNanos = Math.max(lastPublishedNanos, timestamp);
+    }
+  }
+
+  /**
+   * Passes the faces of a camera frame that is not detected to {@code sink}, moved by optical flow
+   * or else predicted.
+   *
+   * @return false if the flow lost the faces, in which case the next frame should be detected
+   */
+  public boolean onPredictedFrame(ByteBuffer frameData, FrameMetadata metadata, FaceSink sink) {
+    long timestamp = metadata.getTimestampNanos();
+    boolean tracked = flow.track(frameData, metadata.getWidth(), metadata.getHeight(),
+        metadata.getRotation());
+    if (tracked) {
+      // The tracked contours are measurements like detected ones.
+      for (int i = 0; i < flow.getFaceCount(); i++) {
+        int trackingId = flow.getTrackingId(i);
+        FaceContourGeometry geometry = sink.addFace(trackingId);
+        geometry.copyFrom(flow.getFace(i));
+        smoother.smooth(trackingId, geometry, timestamp);
+      }
+    } else {
+      for (int trackingId : smoother.getTrackingIds()) {
+        if (smoother.predict(trackingId, prediction, timestamp)) {
+          sink.addFace(trackingId).copyFrom(prediction);
+        }
+      }
+    }
+    lastPublishedNanos = Math.max(lastPublishedNanos, timestamp);
+    return tracked || smoother.getTrackingIds().isEmpty();
+  }
+
+  /** Drops the faces followed so far, whose coordinates no longer line up with the frames. */
+  public void reset() {
+    smoother.clear();
+    flow.clear();
+    flowStarted = false;
+  }
+
+  /** Stops the threads of the optical flow. */
+  public void shutdown() {
+    flow.shutdown();
+  }
+}
@@ -22,79 +22,91 @@ import android.support.annotation.Nullable;
 import android.util.Log;
 
 import com.example.facedetection.R;
-import com.google.android.gms.tasks.Task;
-import com.google.firebase.ml.vision.FirebaseVision;
-import com.google.firebase.ml.vision.common.FirebaseVisionImage;
-import com.google.firebase.ml.vision.face.FirebaseVisionFace;
-import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetector;
 import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
 //import com.google.firebase.samples.apps.mlkit.R;
-import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphic;
+import com.google.firebase.samples.apps.mlkit.common.CameraImageGraphicPool;
 import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.firebase.samples.apps.mlkit.java.VisionProcessorBase;
 
-import java.io.IOException;
 import java.util.List;
 
 /**
  * Face Detector Demo.
  */
-public class FaceDetectionProcessor extends VisionProcessorBase<List<FirebaseVisionFace>> {
+public class FaceDetectionProcessor extends VisionProcessorBase<List<DetectedFace>> {
 
     private static final String TAG = "FaceDetectionProcessor";
 
-    private final FirebaseVisionFaceDetector detector;
-
     private final Bitmap overlayBitmap;
 
+    // Face graphics reused across frames, for the overlay results were last drawn on.
+    private FaceGraphicPool graphicPool;
+    // Camera image graphics reused across frames, for the same overlay.
+    private CameraImageGraphicPool imageGraphicPool;
+
+    @Nullable
+    private volatile FaceResultRecorder resultRecorder;
+
     public FaceDetectionProcessor(Resources resources) {
+        this(resources, createDetector());
+    }
+
+    /**
+     * @param detector the detector to run, which reports landmarks and classifications, such as a
+     *                 {@link ReplayFaceDetector} of landmark results
+     */
+    public FaceDetectionProcessor(Resources resources, FaceDetector detector) {
+        super(detector);
+        overlayBitmap = BitmapFactory.decodeResource(resources, R.drawable.clown_nose);
+    }
+
+    private static FaceDetector createDetector() {
         FirebaseVisionFaceDetectorOptions options =
                 new FirebaseVisionFaceDetectorOptions.Builder()
                         .setClassificationMode(FirebaseVisionFaceDetectorOptions.ALL_CLASSIFICATIONS)
                         .setLandmarkMode(FirebaseVisionFaceDetectorOptions.ALL_LANDMARKS)
+                        .enableTracking()
                         .build();
-
-        detector = FirebaseVision.getInstance().getVisionFaceDetector(options);
-
-        overlayBitmap = BitmapFactory.decodeResource(resources, R.drawable.clown_nose);
+        return new MlKitFaceDetector(options);
     }
 
-    @Override
-    public void stop() {
-        try {
-            detector.close();
-        } catch (IOException e) {
-            Log.e(TAG, "Exception thrown while trying to close Face Detector: " + e);
-        }
-    }
-
-    @Override
-    protected Task<List<FirebaseVisionFace>> detectInImage(FirebaseVisionImage image) {
-        return detector.detectInImage(image);
+    /** Sets the recorder given the faces of every detection delivered, or null for none. */
+    public void setResultRecorder(@Nullable FaceResultRecorder recorder) {
+        resultRecorder = recorder;
     }
 
     @Override
     protected void onSuccess(
             @Nullable Bitmap originalCameraImage,
-            @NonNull List<FirebaseVisionFace> faces,
+            @NonNull List<DetectedFace> faces,
             @NonNull FrameMetadata frameMetadata,
             @NonNull GraphicOverlay graphicOverlay) {
-        graphicOverlay.clear();
+        FaceResultRecorder recorder = resultRecorder;
+        if (recorder != null) {
+            recorder.record(faces, frameMetadata);
+        }
+        GraphicOverlay.Scene.Builder scene = new GraphicOverlay.Scene.Builder();
         if (originalCameraImage != null) {
-            CameraImageGraphic imageGraphic = new CameraImageGraphic(graphicOverlay, originalCameraImage);
-            graphicOverlay.add(imageGraphic);
+            if (imageGraphicPool == null || imageGraphicPool.getOverlay() != graphicOverlay) {
+                imageGraphicPool = new CameraImageGraphicPool(graphicOverlay, getBitmapPool());
+            }
+            scene.add(imageGraphicPool.acquire(originalCameraImage));
+        }
+        if (graphicPool == null || graphicPool.getOverlay() != graphicOverlay) {
+            graphicPool = new FaceGraphicPool(graphicOverlay, overlayBitmap);
         }
         for (int i = 0; i < faces.size(); ++i) {
-            FirebaseVisionFace face = faces.get(i);
+            DetectedFace face = faces.get(i);
 
             int cameraFacing =
                     frameMetadata != null ? frameMetadata.getCameraFacing() :
                             Camera.CameraInfo.CAMERA_FACING_BACK;
-            FaceGraphic faceGraphic = new FaceGraphic(graphicOverlay, face, cameraFacing, overlayBitmap);
-            graphicOverlay.add(faceGraphic);
+            FaceGraphic faceGraphic =
+                    graphicPool.acquire(face.getTrackingId()).update(face, cameraFacing);
+            scene.add(faceGraphic);
         }
-        graphicOverlay.postInvalidate();
+        graphicOverlay.publish(scene.build());
     }
 
     @Override
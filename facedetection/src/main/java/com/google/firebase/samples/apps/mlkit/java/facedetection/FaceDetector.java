@@ -0,0 +1,12 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.samples.apps.mlkit.java.Detector;
+
+import java.util.List;
+
+/**
+ * A {@link Detector} of faces, which the face processors run on. {@link MlKitFaceDetector} is the
+ * one used on the device; {@link ReplayFaceDetector} hands back recorded results, so that the rest
+ * of the pipeline can be run and measured without a camera or ML Kit.
+ */
+public interface FaceDetector extends Detector<List<DetectedFace>> {}
@@ -18,11 +18,9 @@ import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
+import android.graphics.RectF;
 
 import com.google.android.gms.vision.CameraSource;
-import com.google.firebase.ml.vision.common.FirebaseVisionPoint;
-import com.google.firebase.ml.vision.face.FirebaseVisionFace;
 import com.google.firebase.ml.vision.face.FirebaseVisionFaceLandmark;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
 import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay.Graphic;
@@ -30,6 +28,10 @@ import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay.Graphic;
 /**
  * Graphic instance for rendering face position, orientation, and landmarks within an associated
  * graphic overlay view.
+ *
+ * <p>Instances come from a {@link FaceGraphicPool} and are reused: {@link #update} copies what is
+ * drawn out of the detected face, and the graphic goes back to the pool once the overlay no longer
+ * draws it. Paints are shared and labels cached, so drawing does not allocate.
  */
 public class FaceGraphic extends Graphic {
     private static final float FACE_POSITION_RADIUS = 4.0f;
@@ -38,86 +40,155 @@ public class FaceGraphic extends Graphic {
     private static final float ID_X_OFFSET = -50.0f;
     private static final float BOX_STROKE_WIDTH = 5.0f;
 
-    private int facing;
-
-    private final Paint facePositionPaint;
-    private final Paint idPaint;
-    private final Paint boxPaint;
-
-    private volatile FirebaseVisionFace firebaseVisionFace;
-
-    private final Bitmap overlayBitmap;
-
-    public FaceGraphic(GraphicOverlay overlay, FirebaseVisionFace face, int facing, Bitmap overlayBitmap) {
-        super(overlay);
-
-        firebaseVisionFace = face;
-        this.facing = facing;
-        this.overlayBitmap = overlayBitmap;
+    // Landmarks drawn as dots, in drawing order. The nose base gets the overlay bitmap instead,
+    // drawn between the left and the right side ones.
+    private static final int[] LANDMARKS = {
+            FirebaseVisionFaceLandmark.MOUTH_BOTTOM,
+            FirebaseVisionFaceLandmark.LEFT_CHEEK,
+            FirebaseVisionFaceLandmark.LEFT_EAR,
+            FirebaseVisionFaceLandmark.MOUTH_LEFT,
+            FirebaseVisionFaceLandmark.LEFT_EYE,
+            FirebaseVisionFaceLandmark.RIGHT_CHEEK,
+            FirebaseVisionFaceLandmark.RIGHT_EAR,
+            FirebaseVisionFaceLandmark.RIGHT_EYE,
+            FirebaseVisionFaceLandmark.MOUTH_RIGHT
+    };
+
+    // Number of LANDMARKS drawn before the nose base.
+    private static final int LEFT_SIDE_LANDMARKS = 5;
+
+    // Shared by all face graphics and never changed after class initialization.
+    private static final Paint facePositionPaint = new Paint();
+    private static final Paint idPaint = new Paint();
+    private static final Paint boxPaint = new Paint();
+
+    static {
         final int selectedColor = Color.WHITE;
 
-        facePositionPaint = new Paint();
         facePositionPaint.setColor(selectedColor);
 
-        idPaint = new Paint();
         idPaint.setColor(selectedColor);
         idPaint.setTextSize(ID_TEXT_SIZE);
 
-        boxPaint = new Paint();
         boxPaint.setColor(selectedColor);
         boxPaint.setStyle(Paint.Style.STROKE);
         boxPaint.setStrokeWidth(BOX_STROKE_WIDTH);
     }
 
+    private final Bitmap overlayBitmap;
+    private final FaceGraphicPool pool;
+
+    // Copied from the face by update(), in preview coordinates.
+    private int facing;
+    private int trackingId = DetectedFace.INVALID_ID;
+    private float centerX;
+    private float centerY;
+    private float boxWidth;
+    private float boxHeight;
+    private float smilingProbability;
+    private float leftEyeOpenProbability;
+    private float rightEyeOpenProbability;
+    // Landmark positions, x/y interleaved in LANDMARKS order, then the nose base.
+    private final float[] landmarks = new float[(LANDMARKS.length + 1) * 2];
+    private final boolean[] hasLandmark = new boolean[LANDMARKS.length + 1];
+
+    // Reused by every draw.
+    private final float[] mappedLandmarks = new float[landmarks.length];
+    private final RectF bitmapRect = new RectF();
+    private String idLabel;
+    private int idLabelTrackingId;
+    private final ProbabilityLabel happinessLabel = new ProbabilityLabel("happiness: ");
+    private final ProbabilityLabel leftEyeLabel = new ProbabilityLabel("left eye: ");
+    private final ProbabilityLabel rightEyeLabel = new ProbabilityLabel("right eye: ");
+
+    FaceGraphic(GraphicOverlay overlay, Bitmap overlayBitmap, FaceGraphicPool pool) {
+        super(overlay);
+        this.overlayBitmap = overlayBitmap;
+        this.pool = pool;
+    }
+
+    /**
+     * Copies what is drawn out of {@code face}. Only called while the graphic is not part of a
+     * published scene.
+     */
+    FaceGraphic update(DetectedFace face, int facing) {
+        this.facing = facing;
+        trackingId = face.getTrackingId();
+        // As Rect.centerX() and centerY() round them.
+        centerX = (face.getLeft() + face.getRight()) >> 1;
+        centerY = (face.getTop() + face.getBottom()) >> 1;
+        boxWidth = face.getRight() - face.getLeft();
+        boxHeight = face.getBottom() - face.getTop();
+        smilingProbability = face.getSmilingProbability();
+        leftEyeOpenProbability = face.getLeftEyeOpenProbability();
+        rightEyeOpenProbability = face.getRightEyeOpenProbability();
+        for (int i = 0; i < LANDMARKS.length; i++) {
+            copyLandmark(face, LANDMARKS[i], i);
+        }
+        copyLandmark(face, FirebaseVisionFaceLandmark.NOSE_BASE, LANDMARKS.length);
+        return this;
+    }
+
+    int getTrackingId() {
+        return trackingId;
+    }
+
+    private void copyLandmark(DetectedFace face, int landmarkID, int index) {
+        hasLandmark[index] = face.hasLandmark(landmarkID);
+        if (hasLandmark[index]) {
+            landmarks[index * 2] = face.getLandmarkX(landmarkID);
+            landmarks[index * 2 + 1] = face.getLandmarkY(landmarkID);
+        }
+    }
+
     /**
      * Draws the face annotations for position on the supplied canvas.
      */
     @Override
     public void draw(Canvas canvas) {
-        FirebaseVisionFace face = firebaseVisionFace;
-        if (face == null) {
-            return;
-        }
-
         // Draws a circle at the position of the detected face, with the face's track id below.
         // An offset is used on the Y axis in order to draw the circle, face id and happiness level in the top area
         // of the face's bounding box
-        float x = translateX(face.getBoundingBox().centerX());
-        float y = translateY(face.getBoundingBox().centerY());
+        float x = translateX(centerX);
+        float y = translateY(centerY);
         canvas.drawCircle(x, y - 4 * ID_Y_OFFSET, FACE_POSITION_RADIUS, facePositionPaint);
-        canvas.drawText("id: " + face.getTrackingId(), x + ID_X_OFFSET, y - 3 * ID_Y_OFFSET, idPaint);
+        if (idLabel == null || idLabelTrackingId != trackingId) {
+            idLabel = "id: " + trackingId;
+            idLabelTrackingId = trackingId;
+        }
+        canvas.drawText(idLabel, x + ID_X_OFFSET, y - 3 * ID_Y_OFFSET, idPaint);
         canvas.drawText(
-                "happiness: " + String.format("%.2f", face.getSmilingProbability()),
+                happinessLabel.get(smilingProbability),
                 x + ID_X_OFFSET * 3,
                 y - 2 * ID_Y_OFFSET,
                 idPaint);
         if (facing == CameraSource.CAMERA_FACING_FRONT) {
             canvas.drawText(
-                    "right eye: " + String.format("%.2f", face.getRightEyeOpenProbability()),
+                    rightEyeLabel.get(rightEyeOpenProbability),
                     x - ID_X_OFFSET,
                     y,
                     idPaint);
             canvas.drawText(
-                    "left eye: " + String.format("%.2f", face.getLeftEyeOpenProbability()),
+                    leftEyeLabel.get(leftEyeOpenProbability),
                     x + ID_X_OFFSET * 6,
                     y,
                     idPaint);
         } else {
             canvas.drawText(
-                    "left eye: " + String.format("%.2f", face.getLeftEyeOpenProbability()),
+                    leftEyeLabel.get(leftEyeOpenProbability),
                     x - ID_X_OFFSET,
                     y,
                     idPaint);
             canvas.drawText(
-                    "right eye: " + String.format("%.2f", face.getRightEyeOpenProbability()),
+                    rightEyeLabel.get(rightEyeOpenProbability),
                     x + ID_X_OFFSET * 6,
                     y,
                     idPaint);
         }
 
         // Draws a bounding box around the face.
-        float xOffset = scaleX(face.getBoundingBox().width() / 2.0f);
-        float yOffset = scaleY(face.getBoundingBox().height() / 2.0f);
+        float xOffset = scaleX(boxWidth / 2.0f);
+        float yOffset = scaleY(boxHeight / 2.0f);
         float left = x - xOffset;
         float top = y - yOffset;
         float right = x + xOffset;
@@ -125,50 +196,43 @@ public class FaceGraphic extends Graphic {
         canvas.drawRect(left, top, right, bottom, boxPaint);
 
         // draw landmarks
-        drawLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.MOUTH_BOTTOM);
-        drawLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.LEFT_CHEEK);
-        drawLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.LEFT_EAR);
-        drawLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.MOUTH_LEFT);
-        drawLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.LEFT_EYE);
-        drawBitmapOverLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.NOSE_BASE);
-        drawLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.RIGHT_CHEEK);
-        drawLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.RIGHT_EAR);
-        drawLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.RIGHT_EYE);
-        drawLandmarkPosition(canvas, face, FirebaseVisionFaceLandmark.MOUTH_RIGHT);
+        System.arraycopy(landmarks, 0, mappedLandmarks, 0, landmarks.length);
+        mapPoints(mappedLandmarks, 0, hasLandmark.length);
+        for (int i = 0; i < LEFT_SIDE_LANDMARKS; i++) {
+            drawLandmarkPosition(canvas, i);
+        }
+        drawBitmapOverNoseBase(canvas);
+        for (int i = LEFT_SIDE_LANDMARKS; i < LANDMARKS.length; i++) {
+            drawLandmarkPosition(canvas, i);
+        }
     }
 
-    private void drawLandmarkPosition(Canvas canvas, FirebaseVisionFace face, int landmarkID) {
-        FirebaseVisionFaceLandmark landmark = face.getLandmark(landmarkID);
-        if (landmark != null) {
-            FirebaseVisionPoint point = landmark.getPosition();
-            canvas.drawCircle(
-                    translateX(point.getX()),
-                    translateY(point.getY()),
-                    10f, idPaint);
+    private void drawLandmarkPosition(Canvas canvas, int index) {
+        if (hasLandmark[index]) {
+            canvas.drawCircle(mappedLandmarks[index * 2], mappedLandmarks[index * 2 + 1], 10f, idPaint);
         }
     }
 
-    private void drawBitmapOverLandmarkPosition(Canvas canvas, FirebaseVisionFace face, int landmarkID) {
-        FirebaseVisionFaceLandmark landmark = face.getLandmark(landmarkID);
-        if (landmark == null) {
+    private void drawBitmapOverNoseBase(Canvas canvas) {
+        int nose = LANDMARKS.length;
+        if (!hasLandmark[nose] || overlayBitmap == null) {
             return;
         }
 
-        FirebaseVisionPoint point = landmark.getPosition();
-
-        if (overlayBitmap != null) {
-            float imageEdgeSizeBasedOnFaceSize = (face.getBoundingBox().width() / 4.0f);
+        float imageEdgeSizeBasedOnFaceSize = (boxWidth / 4.0f);
+        float noseX = mappedLandmarks[nose * 2];
+        float noseY = mappedLandmarks[nose * 2 + 1];
 
-            int left = (int) (translateX(point.getX()) - imageEdgeSizeBasedOnFaceSize);
-            int top = (int) (translateY(point.getY()) - imageEdgeSizeBasedOnFaceSize);
-            int right = (int) (translateX(point.getX()) + imageEdgeSizeBasedOnFaceSize);
-            int bottom = (int) (translateY(point.getY()) + imageEdgeSizeBasedOnFaceSize);
-
-            canvas.drawBitmap(overlayBitmap,
-                    null,
-                    new Rect(left, top, right, bottom),
-                    null);
-        }
+        bitmapRect.set(
+                (int) (noseX - imageEdgeSizeBasedOnFaceSize),
+                (int) (noseY - imageEdgeSizeBasedOnFaceSize),
+                (int) (noseX + imageEdgeSizeBasedOnFaceSize),
+                (int) (noseY + imageEdgeSizeBasedOnFaceSize));
+        canvas.drawBitmap(overlayBitmap, null, bitmapRect, null);
+    }
 
+    @Override
+    protected void onRemoved() {
+        pool.release(this);
     }
 }
@@ -0,0 +1,53 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.graphics.Bitmap;
+
+import com.google.firebase.samples.apps.mlkit.common.GraphicOverlay;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reuses {@link FaceGraphic}s across frames. A graphic comes back once the overlay no longer
+ * draws it, and is preferably handed out again for the face with the same tracking id, so its
+ * cached labels usually still match.
+ */
+class FaceGraphicPool {
+
+    // More than the faces usually on screen, times the frames a graphic stays in use.
+    private static final int MAX_FREE = 12;
+
+    private final GraphicOverlay overlay;
+    private final Bitmap overlayBitmap;
+    private final List<FaceGraphic> free = new ArrayList<>();
+
+    FaceGraphicPool(GraphicOverlay overlay, Bitmap overlayBitmap) {
+        this.overlay = overlay;
+        this.overlayBitmap = overlayBitmap;
+    }
+
+    GraphicOverlay getOverlay() {
+        return overlay;
+    }
+
+    /** Returns a free graphic, last used for {@code trackingId} if there is one. */
+    synchronized FaceGraphic acquire(int trackingId) {
+        int size = free.size();
+        if (size == 0) {
+            return new FaceGraphic(overlay, overlayBitmap, this);
+        }
+        for (int i = size - 1; i >= 0; i--) {
+            if (free.get(i).getTrackingId() == trackingId) {
+                return free.remove(i);
+            }
+        }
+        return free.remove(size - 1);
+    }
+
+    /** Takes back a graphic the overlay no longer draws. */
+    synchronized void release(FaceGraphic graphic) {
+        if (free.size() < MAX_FREE) {
+            free.add(graphic);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the faces of the first detections a face processor delivers, in the order it delivers
+ * them, for {@link ReplayFaceDetector} to replay later. Faces detected on a region of a camera
+ * frame or on a scaled down frame are kept in the coordinates of the whole frame, so the replay
+ * does not depend on the region and scale chosen while recording.
+ */
+public final class FaceResultRecorder {
+
+  private final int maxDetections;
+
+  // @GuardedBy("this")
+  private final List<List<DetectedFace>> results = new ArrayList<>();
+
+  /** @param maxDetections number of results kept; later ones are left out */
+  public FaceResultRecorder(int maxDetections) {
+    if (maxDetections <= 0) {
+      throw new IllegalArgumentException("Invalid detection count: " + maxDetections);
+    }
+    this.maxDetections = maxDetections;
+  }
+
+  /**
+   * Keeps the faces of one detection, unless enough are kept already.
+   *
+   * @param metadata the camera frame detected, whose region offset and detection scale map the
+   *     faces to frame coordinates, or null for a still image, whose faces are kept as they are
+   */
+  public void record(List<DetectedFace> faces, FrameMetadata metadata) {
+    synchronized (this) {
+      if (results.size() >= maxDetections) {
+        return;
+      }
+    }
+    List<DetectedFace> kept = new ArrayList<>(faces.size());
+    for (DetectedFace face : faces) {
+      kept.add(
+          metadata == null
+              ? face
+              : face.transform(
+                  1f / metadata.getDetectionScale(),
+                  metadata.getRegionLeft(),
+                  metadata.getRegionTop()));
+    }
+    synchronized (this) {
+      if (results.size() < maxDetections) {
+        results.add(kept);
+      }
+    }
+  }
+
+  /** Returns the results kept so far. */
+  public synchronized List<List<DetectedFace>> getResults() {
+    return new ArrayList<>(results);
+  }
+
+  /** Writes the results kept so far in the format of {@link ReplayFaceDetector#readResults}. */
+  public void writeResults(Writer out) throws IOException {
+    ReplayFaceDetector.writeResults(getResults(), out);
+  }
+}
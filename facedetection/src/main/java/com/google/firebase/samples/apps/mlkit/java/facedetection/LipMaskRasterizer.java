@@ -0,0 +1,284 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+/**
+ * Rasterizes the lip outlines of a face into an anti-aliased 8-bit coverage mask, and blends a
+ * colour into an ARGB image through that mask. Unlike drawing the lip path on a canvas with a mask
+ * filter this runs in plain Java, on any thread and off-device.
+ *
+ * <p>The mask only covers the bounding box of the lips, clipped to the image. Each pixel row is
+ * sampled at {@link #SUBSAMPLES} sub-scanlines; on each of them the exact horizontal extent of the
+ * lips is accumulated per pixel, so coverage is close to the area of the pixel inside the lips.
+ * The upper and lower lip are filled as a union, whatever the direction of their outlines.
+ *
+ * <p>All buffers are kept between frames and only grow, so rasterizing frame after frame does not
+ * allocate once they are large enough. Not thread safe.
+ */
+public final class LipMaskRasterizer {
+
+  /** Sub-scanlines sampled per pixel row. */
+  static final int SUBSAMPLES = 16;
+
+  // Lip outlines, x/y interleaved.
+  private float[] upperOutline = new float[0];
+  private float[] lowerOutline = new float[0];
+
+  // Crossings of the current sub-scanline with one outline, and the resulting spans of both.
+  private float[] crossings = new float[16];
+  private float[] spanStarts = new float[16];
+  private float[] spanEnds = new float[16];
+
+  // Horizontal coverage of the current pixel row, in pixels summed over the sub-scanlines.
+  private float[] rowCoverage = new float[0];
+
+  private byte[] mask = new byte[0];
+  private int maskLeft;
+  private int maskTop;
+  private int maskWidth;
+  private int maskHeight;
+  private int imageWidth;
+  private int imageHeight;
+
+  /**
+   * Rasterizes the lips of {@code geometry}, whose coordinates are pixels of an image of the given
+   * size.
+   *
+   * @return false if the lips were not detected or lie outside the image, leaving an empty mask
+   */
+  public boolean rasterize(FaceContourGeometry geometry, int width, int height) {
+    int capacity = geometry.getOutlineCapacity();
+    if (upperOutline.length < capacity) {
+      upperOutline = new float[capacity];
+      lowerOutline = new float[capacity];
+    }
+    int upperCount = geometry.upperLipOutline(upperOutline);
+    int lowerCount = geometry.lowerLipOutline(lowerOutline);
+    return rasterize(upperOutline, upperCount, lowerOutline, lowerCount, width, height);
+  }
+
+  /**
+   * Rasterizes the union of two closed polygons, x/y interleaved, into the mask. Either may have
+   * zero points.
+   *
+   * @return false if the polygons lie outside the image, leaving an empty mask
+   */
+  public boolean rasterize(
+      float[] polygonA, int countA, float[] polygonB, int countB, int width, int height) {
+    imageWidth = width;
+    imageHeight = height;
+    maskWidth = 0;
+    maskHeight = 0;
+
+    float minX = Float.MAX_VALUE;
+    float minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE;
+    float maxY = -Float.MAX_VALUE;
+    for (int i = 0; i < countA * 2; i += 2) {
+      minX = Math.min(minX, polygonA[i]);
+      maxX = Math.max(maxX, polygonA[i]);
+      minY = Math.min(minY, polygonA[i + 1]);
+      maxY = Math.max(maxY, polygonA[i + 1]);
+    }
+    for (int i = 0; i < countB * 2; i += 2) {
+      minX = Math.min(minX, polygonB[i]);
+      maxX = Math.max(maxX, polygonB[i]);
+      minY = Math.min(minY, polygonB[i + 1]);
+      maxY = Math.max(maxY, polygonB[i + 1]);
+    }
+    int left = Math.max(0, (int) Math.floor(minX));
+    int top = Math.max(0, (int) Math.floor(minY));
+    int right = Math.min(width, (int) Math.ceil(maxX));
+    int bottom = Math.min(height, (int) Math.ceil(maxY));
+    if (countA + countB == 0 || left >= right || top >= bottom) {
+      return false;
+    }
+
+    maskLeft = left;
+    maskTop = top;
+    maskWidth = right - left;
+    maskHeight = bottom - top;
+    if (mask.length < maskWidth * maskHeight) {
+      mask = new byte[maskWidth * maskHeight];
+    }
+    if (rowCoverage.length < maskWidth) {
+      rowCoverage = new float[maskWidth];
+    }
+
+    for (int row = 0; row < maskHeight; row++) {
+      for (int i = 0; i < maskWidth; i++) {
+        rowCoverage[i] = 0f;
+      }
+      for (int s = 0; s < SUBSAMPLES; s++) {
+        float y = top + row + (s + 0.5f) / SUBSAMPLES;
+        int spans = addSpans(polygonA, countA, y, 0);
+        spans = addSpans(polygonB, countB, y, spans);
+        accumulateUnion(spans, left, right);
+      }
+      int offset = row * maskWidth;
+      for (int i = 0; i < maskWidth; i++) {
+        int coverage = Math.round(rowCoverage[i] * 255f / SUBSAMPLES);
+        mask[offset + i] = (byte) Math.min(255, coverage);
+      }
+    }
+    return true;
+  }
+
+  // Adds the spans of the polygon on the sub-scanline at y, filled even-odd, after the first
+  // spanCount spans. Returns the new number of spans.
+  private int addSpans(float[] polygon, int count, float y, int spanCount) {
+    int crossingCount = 0;
+    for (int i = 0; i < count; i++) {
+      int j = i == count - 1 ? 0 : i + 1;
+      float x0 = polygon[i * 2];
+      float y0 = polygon[i * 2 + 1];
+      float x1 = polygon[j * 2];
+      float y1 = polygon[j * 2 + 1];
+      if ((y0 <= y && y < y1) || (y1 <= y && y < y0)) {
+        if (crossingCount == crossings.length) {
+          crossings = grow(crossings);
+        }
+        crossings[crossingCount++] = x0 + (y - y0) * (x1 - x0) / (y1 - y0);
+      }
+    }
+    // Few crossings per line, insertion sort is enough.
+    for (int i = 1; i < crossingCount; i++) {
+      float x = crossings[i];
+      int j = i - 1;
+      while (j >= 0 && crossings[j] > x) {
+        crossings[j + 1] = crossings[j];
+        j--;
+      }
+      crossings[j + 1] = x;
+    }
+    for (int i = 0; i + 1 < crossingCount; i += 2) {
+      if (spanCount == spanStarts.length) {
+        spanStarts = grow(spanStarts);
+        spanEnds = grow(spanEnds);
+      }
+      spanStarts[spanCount] = crossings[i];
+      spanEnds[spanCount] = crossings[i + 1];
+      spanCount++;
+    }
+    return spanCount;
+  }
+
+  // Merges overlapping spans and adds their horizontal coverage, clipped to [left, right), to the
+  // row.
+  private void accumulateUnion(int spanCount, int left, int right) {
+    for (int i = 1; i < spanCount; i++) {
+      float start = spanStarts[i];
+      float end = spanEnds[i];
+      int j = i - 1;
+      while (j >= 0 && spanStarts[j] > start) {
+        spanStarts[j + 1] = spanStarts[j];
+        spanEnds[j + 1] = spanEnds[j];
+        j--;
+      }
+      spanStarts[j + 1] = start;
+      spanEnds[j + 1] = end;
+    }
+    int i = 0;
+    while (i < spanCount) {
+      float start = spanStarts[i];
+      float end = spanEnds[i];
+      i++;
+      while (i < spanCount && spanStarts[i] <= end) {
+        end = Math.max(end, spanEnds[i]);
+        i++;
+      }
+      accumulateSpan(Math.max(start, left), Math.min(end, right), left);
+    }
+  }
+
+  private void accumulateSpan(float start, float end, int left) {
+    if (start >= end) {
+      return;
+    }
+    int first = (int) Math.floor(start);
+    int last = (int) Math.floor(end);
+    if (first == last) {
+      rowCoverage[first - left] += end - start;
+      return;
+    }
+    rowCoverage[first - left] += first + 1 - start;
+    for (int x = first + 1; x < last; x++) {
+      rowCoverage[x - left] += 1f;
+    }
+    if (last - left < maskWidth) {
+      rowCoverage[last - left] += end - last;
+    }
+  }
+
+  /**
+   * Blends {@code color} into the image the mask was rasterized for, weighted by the coverage of
+   * each pixel and the alpha of the colour. The alpha of the image is kept.
+   *
+   * @param argb the image, {@code width * height} pixels row by row
+   * @throws IllegalArgumentException if the image size differs from the one rasterized for
+   */
+  public void blend(int[] argb, int width, int height, int color) {
+    if (width != imageWidth || height != imageHeight || argb.length < width * height) {
+      throw new IllegalArgumentException(
+          "Mask was rasterized for " + imageWidth + "x" + imageHeight + ", not for " + width + "x"
+              + height);
+    }
+    int alpha = color >>> 24;
+    int red = (color >> 16) & 0xff;
+    int green = (color >> 8) & 0xff;
+    int blue = color & 0xff;
+    for (int row = 0; row < maskHeight; row++) {
+      int maskOffset = row * maskWidth;
+      int imageOffset = (maskTop + row) * width + maskLeft;
+      for (int i = 0; i < maskWidth; i++) {
+        int a = ((mask[maskOffset + i] & 0xff) * alpha + 127) / 255;
+        if (a == 0) {
+          continue;
+        }
+        int pixel = argb[imageOffset + i];
+        int inverse = 255 - a;
+        int r = (red * a + ((pixel >> 16) & 0xff) * inverse + 127) / 255;
+        int g = (green * a + ((pixel >> 8) & 0xff) * inverse + 127) / 255;
+        int b = (blue * a + (pixel & 0xff) * inverse + 127) / 255;
+        argb[imageOffset + i] = (pixel & 0xff000000) | (r << 16) | (g << 8) | b;
+      }
+    }
+  }
+
+  /** Returns the coverage of an image pixel, 0 to 255, 0 outside the mask. */
+  public int getCoverage(int x, int y) {
+    int column = x - maskLeft;
+    int row = y - maskTop;
+    if (column < 0 || row < 0 || column >= maskWidth || row >= maskHeight) {
+      return 0;
+    }
+    return mask[row * maskWidth + column] & 0xff;
+  }
+
+  /** Returns the mask, {@link #getMaskWidth()} bytes per row. Valid until the next rasterize. */
+  public byte[] getMask() {
+    return mask;
+  }
+
+  /** Returns the image column of the first mask column. */
+  public int getMaskLeft() {
+    return maskLeft;
+  }
+
+  /** Returns the image row of the first mask row. */
+  public int getMaskTop() {
+    return maskTop;
+  }
+
+  public int getMaskWidth() {
+    return maskWidth;
+  }
+
+  public int getMaskHeight() {
+    return maskHeight;
+  }
+
+  private static float[] grow(float[] array) {
+    float[] grown = new float[array.length * 2];
+    System.arraycopy(array, 0, grown, 0, array.length);
+    return grown;
+  }
+}
@@ -0,0 +1,80 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.graphics.CornerPathEffect;
+import android.graphics.EmbossMaskFilter;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffColorFilter;
+import android.support.annotation.ColorInt;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * How the lips are painted for one palette colour. A style is built once per colour, cached and
+ * never changed afterwards, so drawing threads can use its paint without synchronization.
+ * Selecting a colour only swaps the style {@link #current()} returns.
+ */
+public final class LipStyle {
+
+  private static final float STROKE_WIDTH = 5.0f;
+  private static final int ALPHA = 70;
+
+  // Built styles by colour.
+  private static final Map<Integer, LipStyle> styles = new HashMap<>();
+  private static volatile LipStyle current = forColor(0);
+
+  private final int color;
+  private final Paint paint;
+
+  private LipStyle(@ColorInt int color) {
+    this.color = color;
+    paint = new Paint();
+    paint.setStyle(Paint.Style.FILL_AND_STROKE);
+    paint.setStrokeWidth(STROKE_WIDTH);
+    paint.setPathEffect(new CornerPathEffect(1.0f));
+    paint.setColor(color);
+    paint.setAlpha(ALPHA);
+    paint.setColorFilter(new PorterDuffColorFilter(color, PorterDuff.Mode.DST_IN));
+    paint.setMaskFilter(new EmbossMaskFilter(new float[] {0f, 1f, 1f}, 0.8f, 50f, 4f));
+  }
+
+  /** Returns the style for {@code color}, building it the first time. */
+  public static LipStyle forColor(@ColorInt int color) {
+    synchronized (styles) {
+      LipStyle style = styles.get(color);
+      if (style == null) {
+        style = new LipStyle(color);
+        styles.put(color, style);
+      }
+      return style;
+    }
+  }
+
+  /** Builds the styles of a palette ahead of time, so selecting one later builds nothing. */
+  public static void prebuild(@ColorInt int... colors) {
+    for (int color : colors) {
+      forColor(color);
+    }
+  }
+
+  /** Makes the style of {@code color} the one lips are drawn with. */
+  public static void select(@ColorInt int color) {
+    current = forColor(color);
+  }
+
+  /** Returns the style lips are currently drawn with. */
+  public static LipStyle current() {
+    return current;
+  }
+
+  @ColorInt
+  public int getColor() {
+    return color;
+  }
+
+  /** Returns the paint of this style. It must not be modified. */
+  public Paint getPaint() {
+    return paint;
+  }
+}
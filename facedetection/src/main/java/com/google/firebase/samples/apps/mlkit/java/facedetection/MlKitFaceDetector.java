@@ -0,0 +1,144 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnFailureListener;
+import com.google.android.gms.tasks.OnSuccessListener;
+import com.google.firebase.ml.common.FirebaseMLException;
+import com.google.firebase.ml.vision.FirebaseVision;
+import com.google.firebase.ml.vision.common.FirebaseVisionImage;
+import com.google.firebase.ml.vision.common.FirebaseVisionImageMetadata;
+import com.google.firebase.ml.vision.common.FirebaseVisionPoint;
+import com.google.firebase.ml.vision.face.FirebaseVisionFace;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetector;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceDetectorOptions;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceLandmark;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The {@link FaceDetector} backed by the ML Kit face detector. Results are copied out of the
+ * {@link FirebaseVisionFace}s on the thread ML Kit calls back on, the main thread.
+ */
+public class MlKitFaceDetector implements FaceDetector {
+
+    private static final String TAG = "MlKitFaceDetector";
+
+    private final FirebaseVisionFaceDetector detector;
+
+    public MlKitFaceDetector(FirebaseVisionFaceDetectorOptions options) {
+        detector = FirebaseVision.getInstance().getVisionFaceDetector(options);
+    }
+
+    @Override
+    public void detect(
+            ByteBuffer nv21, int width, int height, int rotation,
+            Callback<List<DetectedFace>> callback) {
+        FirebaseVisionImageMetadata metadata =
+                new FirebaseVisionImageMetadata.Builder()
+                        .setFormat(FirebaseVisionImageMetadata.IMAGE_FORMAT_NV21)
+                        .setWidth(width)
+                        .setHeight(height)
+                        .setRotation(rotation)
+                        .build();
+        detect(FirebaseVisionImage.fromByteBuffer(nv21, metadata), callback);
+    }
+
+    @Override
+    public void detect(
+            int[] argb, int width, int height, Callback<List<DetectedFace>> callback) {
+        Bitmap bitmap = Bitmap.createBitmap(argb, width, height, Bitmap.Config.ARGB_8888);
+        detect(FirebaseVisionImage.fromBitmap(bitmap), callback);
+    }
+
+    private void detect(
+            FirebaseVisionImage image, final Callback<List<DetectedFace>> callback) {
+        detector.detectInImage(image)
+                .addOnSuccessListener(new OnSuccessListener<List<FirebaseVisionFace>>() {
+                    @Override
+                    public void onSuccess(List<FirebaseVisionFace> faces) {
+                        List<DetectedFace> results = new ArrayList<>(faces.size());
+                        for (int i = 0; i < faces.size(); i++) {
+                            results.add(toDetectedFace(faces.get(i)));
+                        }
+                        callback.onSuccess(results);
+                    }
+                })
+                .addOnFailureListener(new OnFailureListener() {
+                    @Override
+                    public void onFailure(@NonNull Exception e) {
+                        callback.onFailure(e);
+                    }
+                });
+    }
+
+    @Override
+    public boolean readsImages() {
+        return true;
+    }
+
+    /** The ML Kit errors reported while the detector is busy or still loading its model. */
+    @Override
+    public boolean isTransientFailure(Exception e) {
+        if (!(e instanceof FirebaseMLException)) {
+            return false;
+        }
+        switch (((FirebaseMLException) e).getCode()) {
+            case FirebaseMLException.UNAVAILABLE:
+            case FirebaseMLException.DEADLINE_EXCEEDED:
+            case FirebaseMLException.RESOURCE_EXHAUSTED:
+            case FirebaseMLException.ABORTED:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            detector.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Exception thrown while trying to close Face Detector: " + e);
+        }
+    }
+
+    // Copies what the detector computed; contours and landmarks it was not asked for are missing.
+    private static DetectedFace toDetectedFace(FirebaseVisionFace face) {
+        Rect box = face.getBoundingBox();
+        DetectedFace.Builder builder =
+                new DetectedFace.Builder()
+                        .setTrackingId(face.getTrackingId())
+                        .setBounds(box.left, box.top, box.right, box.bottom)
+                        .setHeadEulerAngles(face.getHeadEulerAngleY(), face.getHeadEulerAngleZ())
+                        .setSmilingProbability(face.getSmilingProbability())
+                        .setEyeOpenProbabilities(
+                                face.getLeftEyeOpenProbability(),
+                                face.getRightEyeOpenProbability());
+        for (int landmarkType : DetectedFace.LANDMARK_TYPES) {
+            FirebaseVisionFaceLandmark landmark = face.getLandmark(landmarkType);
+            if (landmark != null) {
+                FirebaseVisionPoint point = landmark.getPosition();
+                builder.setLandmark(landmarkType, point.getX(), point.getY());
+            }
+        }
+        for (int contourType : FaceContourGeometry.CONTOUR_TYPES) {
+            FirebaseVisionFaceContour contour = face.getContour(contourType);
+            if (contour == null) {
+                continue;
+            }
+            builder.beginContour(contourType);
+            for (FirebaseVisionPoint point : contour.getPoints()) {
+                builder.addContourPoint(point.getX(), point.getY());
+            }
+        }
+        return builder.build();
+    }
+}
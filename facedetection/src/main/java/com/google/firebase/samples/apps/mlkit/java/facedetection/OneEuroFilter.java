@@ -0,0 +1,128 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+/**
+ * A One-Euro filter over a vector of coordinates, after Casiez et al., "1 Euro Filter: A Simple
+ * Speed-based Low-pass Filter for Noisy Input in Interactive Systems". Each coordinate is low-pass
+ * filtered with a cutoff frequency that rises with its speed: still points are smoothed strongly,
+ * which removes jitter, while moving points follow with little lag.
+ *
+ * <p>The filter also keeps the smoothed speed of each coordinate, so positions can be predicted
+ * for frames in between samples. Buffers are only reallocated when the number of coordinates
+ * grows. Not thread safe.
+ */
+public final class OneEuroFilter {
+
+  /** Predictions extrapolate the last speed at most this far past the last sample. */
+  static final long MAX_PREDICTION_NANOS = 200_000_000L;
+
+  private static final float NANOS_PER_SECOND = 1e9f;
+
+  private final float minCutoff;
+  private final float beta;
+  private final float derivativeCutoff;
+
+  private float[] values = new float[0];
+  private float[] derivatives = new float[0];
+  private int size;
+  private long lastTimestampNanos;
+  private boolean initialized;
+
+  /**
+   * @param minCutoff cutoff frequency in Hz of still coordinates; lower removes more jitter
+   * @param beta how fast the cutoff rises with speed, in Hz per coordinate unit per second; higher
+   *     reduces lag
+   * @param derivativeCutoff cutoff frequency in Hz of the speed estimate
+   */
+  public OneEuroFilter(float minCutoff, float beta, float derivativeCutoff) {
+    if (minCutoff <= 0 || beta < 0 || derivativeCutoff <= 0) {
+      throw new IllegalArgumentException(
+          "Invalid parameters: " + minCutoff + ", " + beta + ", " + derivativeCutoff);
+    }
+    this.minCutoff = minCutoff;
+    this.beta = beta;
+    this.derivativeCutoff = derivativeCutoff;
+  }
+
+  /** Forgets the previous samples; the next one is taken as is. */
+  public void reset() {
+    initialized = false;
+  }
+
+  /** Returns whether a sample was filtered since the last reset. */
+  public boolean isInitialized() {
+    return initialized;
+  }
+
+  /** Returns the number of coordinates of the last sample. */
+  public int size() {
+    return initialized ? size : 0;
+  }
+
+  /** Returns the time of the last sample. */
+  public long getLastTimestampNanos() {
+    return lastTimestampNanos;
+  }
+
+  /**
+   * Filters a sample of {@code count} coordinates taken at {@code timestampNanos}, in place. The
+   * filter restarts from this sample if the number of coordinates changed or time did not move
+   * forward.
+   */
+  public void filter(float[] samples, int offset, int count, long timestampNanos) {
+    if (!initialized || count != size || timestampNanos <= lastTimestampNanos) {
+      start(samples, offset, count, timestampNanos);
+      return;
+    }
+    float dt = (timestampNanos - lastTimestampNanos) / NANOS_PER_SECOND;
+    float derivativeAlpha = alpha(derivativeCutoff, dt);
+    for (int i = 0; i < count; i++) {
+      float sample = samples[offset + i];
+      float speed = (sample - values[i]) / dt;
+      float derivative = derivatives[i] + derivativeAlpha * (speed - derivatives[i]);
+      float cutoff = minCutoff + beta * Math.abs(derivative);
+      float value = values[i] + alpha(cutoff, dt) * (sample - values[i]);
+      derivatives[i] = derivative;
+      values[i] = value;
+      samples[offset + i] = value;
+    }
+    lastTimestampNanos = timestampNanos;
+  }
+
+  /**
+   * Writes the filtered coordinates extrapolated to {@code timestampNanos} along their smoothed
+   * speed, at most {@link #MAX_PREDICTION_NANOS} past the last sample.
+   *
+   * @throws IllegalStateException if nothing was filtered yet
+   */
+  public void predict(float[] out, int offset, long timestampNanos) {
+    if (!initialized) {
+      throw new IllegalStateException("No sample filtered yet.");
+    }
+    long ahead = Math.max(0, Math.min(MAX_PREDICTION_NANOS, timestampNanos - lastTimestampNanos));
+    float dt = ahead / NANOS_PER_SECOND;
+    for (int i = 0; i < size; i++) {
+      out[offset + i] = values[i] + derivatives[i] * dt;
+    }
+  }
+
+  private void start(float[] samples, int offset, int count, long timestampNanos) {
+    if (values.length < count) {
+      values = new float[count];
+      derivatives = new float[count];
+    }
+    System.arraycopy(samples, offset, values, 0, count);
+    for (int i = 0; i < count; i++) {
+      derivatives[i] = 0f;
+    }
+    size = count;
+    lastTimestampNanos = timestampNanos;
+    initialized = true;
+  }
+
+  // Smoothing factor of an exponential low-pass filter with the given cutoff, for a sample dt
+  // seconds after the previous one.
+  private static float alpha(float cutoff, float dt) {
+    float tau = 1f / (2f * (float) Math.PI * cutoff);
+    return 1f / (1f + tau / dt);
+  }
+}
@@ -0,0 +1,44 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+/**
+ * A text label such as {@code "happiness: 0.87"} showing a probability with two decimals. The
+ * text is only rebuilt when the rounded value changes, so drawing the label frame after frame does
+ * not allocate while the value stays the same.
+ */
+final class ProbabilityLabel {
+
+    private final String prefix;
+    private final StringBuilder builder = new StringBuilder();
+    private int hundredths = Integer.MIN_VALUE;
+    private String text;
+
+    ProbabilityLabel(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /** Returns the label for {@code probability}, rounded to two decimals. */
+    String get(float probability) {
+        int rounded = Math.round(probability * 100);
+        if (rounded != hundredths || text == null) {
+            hundredths = rounded;
+            text = format(rounded);
+        }
+        return text;
+    }
+
+    private String format(int value) {
+        builder.setLength(0);
+        builder.append(prefix);
+        if (value < 0) {
+            builder.append('-');
+            value = -value;
+        }
+        builder.append(value / 100).append('.');
+        int fraction = value % 100;
+        if (fraction < 10) {
+            builder.append('0');
+        }
+        builder.append(fraction);
+        return builder.toString();
+    }
+}
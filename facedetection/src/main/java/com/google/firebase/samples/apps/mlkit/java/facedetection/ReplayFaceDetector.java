@@ -0,0 +1,283 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link FaceDetector} that hands back recorded results instead of looking at the images, so
+ * the scheduling, smoothing, tracking and drawing of faces can be run and load tested on a plain
+ * JVM. Each detection gets the next recorded result, starting over after the last. Results are
+ * returned as recorded, in camera frame coordinates, so the processor hands this detector whole
+ * frames, see {@link #readsImages()}. Record them with {@link FaceResultRecorder}, or write them
+ * with {@link #writeResults}.
+ *
+ * <p>Detections complete after a synthetic latency, one at a time like the ML Kit detector: a
+ * detection started while another runs waits for it. Results are delivered on a thread of the
+ * detector.
+ *
+ * <p>The text format of {@link #readResults} has one detection per line: the number of faces,
+ * then for each face its tracking id, bounding box left, top, right and bottom, head Euler angles
+ * Y and Z, smiling, left eye open and right eye open probabilities, the number of landmarks
+ * followed by the type, x and y of each, and for every contour type of {@link FaceContourGeometry}
+ * in order its number of points followed by their x and y. Values are separated by spaces; empty
+ * lines and lines starting with {@code #} are skipped.
+ */
+public final class ReplayFaceDetector implements FaceDetector {
+
+  private final List<List<DetectedFace>> results;
+
+  private final ScheduledExecutorService executor =
+      Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread thread = new Thread(r, "ReplayFaceDetector");
+              thread.setDaemon(true);
+              return thread;
+            }
+          });
+
+  // @GuardedBy("this")
+  private final Random random = new Random(0);
+  // @GuardedBy("this")
+  private long latencyNanos;
+  // @GuardedBy("this")
+  private long jitterNanos;
+  // When the detection started last is done, in System.nanoTime() time.
+  // @GuardedBy("this")
+  private long busyUntilNanos = Long.MIN_VALUE;
+  // @GuardedBy("this")
+  private int next;
+
+  private final AtomicLong detections = new AtomicLong();
+
+  /** @param results the result of each detection in turn, at least one */
+  public ReplayFaceDetector(List<List<DetectedFace>> results) {
+    if (results.isEmpty()) {
+      throw new IllegalArgumentException("No results to replay.");
+    }
+    this.results = new ArrayList<>(results);
+  }
+
+  /**
+   * Sets how long each detection takes: {@code latencyNanos} plus or minus up to {@code
+   * jitterNanos}, uniformly distributed. The jitter is drawn from a fixed seed, so runs repeat.
+   * Detections complete right away by default.
+   */
+  public synchronized void setLatency(long latencyNanos, long jitterNanos) {
+    if (latencyNanos < 0 || jitterNanos < 0 || jitterNanos > latencyNanos) {
+      throw new IllegalArgumentException(
+          "Invalid latency: " + latencyNanos + " +- " + jitterNanos);
+    }
+    this.latencyNanos = latencyNanos;
+    this.jitterNanos = jitterNanos;
+  }
+
+  /** Returns the number of detections started. */
+  public long getDetections() {
+    return detections.get();
+  }
+
+  /** Hands back the next recorded result; the image is ignored. */
+  @Override
+  public void detect(
+      ByteBuffer nv21, int width, int height, int rotation,
+      Callback<List<DetectedFace>> callback) {
+    replay(callback);
+  }
+
+  /** Hands back the next recorded result; the image is ignored. */
+  @Override
+  public void detect(int[] argb, int width, int height, Callback<List<DetectedFace>> callback) {
+    replay(callback);
+  }
+
+  /** Returns false: the results are in frame coordinates, whatever image is given. */
+  @Override
+  public boolean readsImages() {
+    return false;
+  }
+
+  /** Replayed detections do not fail. */
+  @Override
+  public boolean isTransientFailure(Exception e) {
+    return false;
+  }
+
+  /** Stops the detector; detections not completed yet never are. */
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private void replay(final Callback<List<DetectedFace>> callback) {
+    final List<DetectedFace> faces;
+    long delayNanos;
+    synchronized (this) {
+      faces = results.get(next);
+      next = (next + 1) % results.size();
+      long latency = latencyNanos;
+      if (jitterNanos > 0) {
+        latency += (long) ((random.nextDouble() * 2 - 1) * jitterNanos);
+      }
+      long now = System.nanoTime();
+      busyUntilNanos = Math.max(busyUntilNanos, now) + latency;
+      delayNanos = busyUntilNanos - now;
+    }
+    detections.incrementAndGet();
+    try {
+      executor.schedule(
+          new Runnable() {
+            @Override
+            public void run() {
+              callback.onSuccess(faces);
+            }
+          },
+          delayNanos,
+          TimeUnit.NANOSECONDS);
+    } catch (RejectedExecutionException closed) {
+      // Closed, the detection never completes.
+    }
+  }
+
+  /** Reads results in the text format described above. */
+  public static List<List<DetectedFace>> readResults(Reader in) throws IOException {
+    BufferedReader reader = new BufferedReader(in);
+    List<List<DetectedFace>> results = new ArrayList<>();
+    String line;
+    int lineNumber = 0;
+    while ((line = reader.readLine()) != null) {
+      lineNumber++;
+      line = line.trim();
+      if (line.isEmpty() || line.startsWith("#")) {
+        continue;
+      }
+      try {
+        results.add(parseDetection(line.split("\\s+")));
+      } catch (RuntimeException e) {
+        throw new IOException("Invalid detection on line " + lineNumber + ": " + e, e);
+      }
+    }
+    return results;
+  }
+
+  /** Writes results in the text format described above, which keeps every value exactly. */
+  public static void writeResults(List<List<DetectedFace>> results, Writer out)
+      throws IOException {
+    StringBuilder line = new StringBuilder();
+    for (List<DetectedFace> faces : results) {
+      line.setLength(0);
+      line.append(faces.size());
+      for (DetectedFace face : faces) {
+        appendFace(face, line);
+      }
+      out.write(line.append('\n').toString());
+    }
+    out.flush();
+  }
+
+  private static List<DetectedFace> parseDetection(String[] values) {
+    Values in = new Values(values);
+    int faceCount = in.nextInt();
+    if (faceCount == 0) {
+      return Collections.emptyList();
+    }
+    List<DetectedFace> faces = new ArrayList<>(faceCount);
+    for (int i = 0; i < faceCount; i++) {
+      DetectedFace.Builder face =
+          new DetectedFace.Builder()
+              .setTrackingId(in.nextInt())
+              .setBounds(in.nextInt(), in.nextInt(), in.nextInt(), in.nextInt())
+              .setHeadEulerAngles(in.nextFloat(), in.nextFloat())
+              .setSmilingProbability(in.nextFloat())
+              .setEyeOpenProbabilities(in.nextFloat(), in.nextFloat());
+      int landmarkCount = in.nextInt();
+      for (int j = 0; j < landmarkCount; j++) {
+        face.setLandmark(in.nextInt(), in.nextFloat(), in.nextFloat());
+      }
+      for (int contourType : FaceContourGeometry.CONTOUR_TYPES) {
+        face.beginContour(contourType);
+        int pointCount = in.nextInt();
+        for (int j = 0; j < pointCount; j++) {
+          face.addContourPoint(in.nextFloat(), in.nextFloat());
+        }
+      }
+      faces.add(face.build());
+    }
+    if (in.remaining() != 0) {
+      throw new IllegalArgumentException(in.remaining() + " values left over");
+    }
+    return faces;
+  }
+
+  private static void appendFace(DetectedFace face, StringBuilder line) {
+    line.append(' ').append(face.getTrackingId())
+        .append(' ').append(face.getLeft())
+        .append(' ').append(face.getTop())
+        .append(' ').append(face.getRight())
+        .append(' ').append(face.getBottom())
+        .append(' ').append(face.getHeadEulerAngleY())
+        .append(' ').append(face.getHeadEulerAngleZ())
+        .append(' ').append(face.getSmilingProbability())
+        .append(' ').append(face.getLeftEyeOpenProbability())
+        .append(' ').append(face.getRightEyeOpenProbability());
+    int landmarkCount = 0;
+    for (int landmarkType : DetectedFace.LANDMARK_TYPES) {
+      if (face.hasLandmark(landmarkType)) {
+        landmarkCount++;
+      }
+    }
+    line.append(' ').append(landmarkCount);
+    for (int landmarkType : DetectedFace.LANDMARK_TYPES) {
+      if (face.hasLandmark(landmarkType)) {
+        line.append(' ').append(landmarkType)
+            .append(' ').append(face.getLandmarkX(landmarkType))
+            .append(' ').append(face.getLandmarkY(landmarkType));
+      }
+    }
+    FaceContourGeometry contours = face.getContours();
+    for (int contourType : FaceContourGeometry.CONTOUR_TYPES) {
+      int pointCount = contours.getPointCount(contourType);
+      line.append(' ').append(pointCount);
+      for (int i = 0; i < pointCount; i++) {
+        line.append(' ').append(contours.getX(contourType, i))
+            .append(' ').append(contours.getY(contourType, i));
+      }
+    }
+  }
+
+  /** The values of one line, read in turn. */
+  private static final class Values {
+    private final String[] values;
+    private int position;
+
+    Values(String[] values) {
+      this.values = values;
+    }
+
+    int nextInt() {
+      return Integer.parseInt(values[position++]);
+    }
+
+    float nextFloat() {
+      return Float.parseFloat(values[position++]);
+    }
+
+    int remaining() {
+      return values.length - position;
+    }
+  }
+}
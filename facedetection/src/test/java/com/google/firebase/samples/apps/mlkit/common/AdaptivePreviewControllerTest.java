@@ -0,0 +1,212 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/** Drives {@link AdaptivePreviewController} through windows of made up load. */
+public class AdaptivePreviewControllerTest {
+
+    private static final long WINDOW = AdaptivePreviewController.WINDOW_NANOS;
+    private static final long BUDGET = 200_000_000L;
+
+    private static final List<AdaptivePreviewController.OperatingPoint> POINTS = Arrays.asList(
+            new AdaptivePreviewController.OperatingPoint(960, 720, 20f),
+            new AdaptivePreviewController.OperatingPoint(640, 480, 20f),
+            new AdaptivePreviewController.OperatingPoint(640, 480, 10f));
+
+    private AdaptivePreviewController controller;
+    private long now;
+
+    @Before
+    public void setUp() {
+        controller = new AdaptivePreviewController(BUDGET);
+        controller.setOperatingPoints(POINTS);
+        now = 0;
+        // Opens the first window, which only lets the camera start.
+        assertEquals(-1, controller.evaluate(now));
+        assertEquals(-1, window(20, 0, 0));
+    }
+
+    @Test
+    public void evaluate_stepsDownOnDrops() {
+        assertEquals(1, window(20, 10, 50_000_000L));
+
+        assertSame(POINTS.get(1), controller.getPendingPoint());
+        controller.onTransitionDone(true, now);
+        assertSame(POINTS.get(1), controller.getCurrentPoint());
+        assertNull(controller.getPendingPoint());
+    }
+
+    @Test
+    public void evaluate_stepsDownOnLatency() {
+        assertEquals(1, window(20, 0, BUDGET + 1));
+    }
+
+    @Test
+    public void evaluate_ignoresWindowAfterTransition() {
+        assertEquals(1, window(20, 10, 0));
+        controller.onTransitionDone(true, now);
+
+        // Reconfiguring drops frames itself.
+        assertEquals(-1, window(20, 20, 0));
+        assertEquals(2, window(20, 20, 0));
+    }
+
+    @Test
+    public void evaluate_doesNotGoPastTheEnds() {
+        moveTo(2);
+        assertEquals(-1, window(20, 20, 0));
+
+        AdaptivePreviewController fresh = new AdaptivePreviewController(BUDGET);
+        fresh.setOperatingPoints(POINTS);
+        fresh.evaluate(0);
+        for (int i = 1; i < 10; i++) {
+            feed(fresh, 20, 0, 1);
+            assertEquals(-1, fresh.evaluate(i * WINDOW));
+        }
+    }
+
+    @Test
+    public void evaluate_stepsUpAfterGoodWindows() {
+        moveTo(1);
+
+        assertEquals(-1, window(20, 0, 10_000_000L));
+        assertEquals(-1, window(20, 0, 10_000_000L));
+        assertEquals(0, window(20, 0, 10_000_000L));
+    }
+
+    @Test
+    public void evaluate_middlingWindowsHoldThePoint() {
+        moveTo(1);
+
+        // Neither bad enough to step down nor good enough to step up.
+        for (int i = 0; i < 10; i++) {
+            assertEquals(-1, window(20, 2, BUDGET * 3 / 4));
+        }
+        assertEquals(1, controller.getCurrentIndex());
+    }
+
+    @Test
+    public void evaluate_failedUpgradeDoublesGoodWindowsNeeded() {
+        moveTo(1);
+        for (int i = 0; i < 2; i++) {
+            window(20, 0, 0);
+        }
+        assertEquals(0, window(20, 0, 0));
+        controller.onTransitionDone(true, now);
+        window(20, 0, 0);
+
+        // The better point does not keep up after all.
+        assertEquals(1, window(20, 10, 0));
+        controller.onTransitionDone(true, now);
+        window(20, 0, 0);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(-1, window(20, 0, 0));
+        }
+        assertEquals(0, window(20, 0, 0));
+    }
+
+    @Test
+    public void onTransitionDone_notAppliedStaysAndKeepsHistory() {
+        assertEquals(1, window(20, 10, 0));
+
+        controller.onTransitionDone(false, now);
+
+        assertEquals(0, controller.getCurrentIndex());
+        assertEquals(0, controller.getHistory().size());
+    }
+
+    @Test
+    public void getHistory_recordsTransitionsInOrder() {
+        moveTo(2);
+
+        List<AdaptivePreviewController.Transition> history = controller.getHistory();
+        assertEquals(2, history.size());
+        assertSame(POINTS.get(0), history.get(0).getFrom());
+        assertSame(POINTS.get(1), history.get(0).getTo());
+        assertSame(POINTS.get(2), history.get(1).getTo());
+        assertEquals("drops 50%, latency 0 ms", history.get(0).getReason());
+    }
+
+    @Test
+    public void setEnabled_falseHoldsThePoint() {
+        controller.setEnabled(false);
+
+        assertEquals(-1, window(20, 20, BUDGET * 2));
+        assertEquals(0, controller.getCurrentIndex());
+    }
+
+    @Test
+    public void setOperatingPoints_samePointsKeepWhatWasLearned() {
+        moveTo(1);
+        // A failed step up doubles the good windows needed.
+        for (int i = 0; i < 2; i++) {
+            window(20, 0, 0);
+        }
+        assertEquals(0, window(20, 0, 0));
+        controller.onTransitionDone(true, now);
+        window(20, 0, 0);
+        assertEquals(1, window(20, 10, 0));
+        controller.onTransitionDone(true, now);
+
+        // The camera is opened again, with equal points.
+        controller.setOperatingPoints(new ArrayList<>(POINTS));
+        assertEquals(1, controller.getCurrentIndex());
+        assertEquals(-1, controller.evaluate(now));
+        assertEquals(-1, window(20, 0, 0));
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(-1, window(20, 0, 0));
+        }
+        assertEquals(0, window(20, 0, 0));
+    }
+
+    @Test
+    public void setOperatingPoints_otherPointsStartOver() {
+        moveTo(2);
+
+        controller.setOperatingPoints(POINTS.subList(0, 2));
+
+        assertEquals(0, controller.getCurrentIndex());
+        assertEquals(2, controller.getOperatingPoints().size());
+        assertEquals(2, controller.getHistory().size());
+    }
+
+    // Steps down from the first point to the given one.
+    private void moveTo(int index) {
+        for (int i = 1; i <= index; i++) {
+            assertEquals(i, window(20, 10, 0));
+            controller.onTransitionDone(true, now);
+            // Settling window.
+            window(20, 0, 0);
+        }
+    }
+
+    // Feeds one window of load, closes it and returns what evaluate proposes.
+    private int window(int frames, int dropped, long latency) {
+        feed(controller, frames, dropped, latency);
+        now += WINDOW;
+        return controller.evaluate(now);
+    }
+
+    private static void feed(
+            AdaptivePreviewController controller, int frames, int dropped, long latency) {
+        for (int i = 0; i < frames; i++) {
+            controller.onFrameReceived();
+            if (i < dropped) {
+                controller.onFrameDropped();
+            } else {
+                controller.onFrameDetected(latency);
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Replays a recorded frame sequence through {@link FrameProcessingLoop} the way {@link
+ * CameraSource} runs it: the {@link MotionGate} first, then the work of a frame processor. Not run
+ * as part of the unit tests, run {@link #main} on the JVM.
+ *
+ * <p>The first argument is a frame file as written by {@link Nv21FrameFile}; without it a 960x720
+ * sequence of a texture that pans for half of the frames and holds still for the rest is made up.
+ * The processor scales each frame to 480x360 and then holds the frame for the detection time
+ * given as the second argument in milliseconds, 45 by default. The sequence is replayed as fast as
+ * possible, which gives the throughput of the pipeline, and at 30 fps, which gives the frames
+ * processed, skipped and dropped as on a device.
+ */
+public class FramePipelineBenchmark {
+
+    private static final int WIDTH = 960;
+    private static final int HEIGHT = 720;
+    private static final int FRAMES = 120;
+
+    public static void main(String[] args) throws Exception {
+        File path;
+        boolean temporary = args.length == 0;
+        if (temporary) {
+            path = File.createTempFile("pipeline", ".nv21");
+            record(path);
+        } else {
+            path = new File(args[0]);
+        }
+        long detectNanos = (long) ((args.length > 1 ? Double.parseDouble(args[1]) : 45) * 1e6);
+        Nv21FrameFile frames = Nv21FrameFile.open(path);
+        try {
+            for (float fps : new float[] {Nv21FileFrameSource.AS_FAST_AS_POSSIBLE, 30f}) {
+                run(frames, fps, detectNanos);
+            }
+        } finally {
+            frames.close();
+            if (temporary) {
+                path.delete();
+            }
+        }
+    }
+
+    private static void run(Nv21FrameFile frames, float fps, final long detectNanos)
+            throws InterruptedException {
+        final MotionGate gate = new MotionGate(1.5f, 15);
+        final Nv21Scaler scaler = new Nv21Scaler();
+        final ByteBuffer scaled = ByteBuffer.allocate(Nv21Crop.getBufferSize(480, 360));
+        final int[] processed = new int[1];
+        FrameProcessingLoop loop = new FrameProcessingLoop(new FrameProcessingLoop.FrameHandler() {
+            @Override
+            public void handleFrame(FrameLease frame, FrameMetadata metadata) {
+                int width = metadata.getWidth();
+                int height = metadata.getHeight();
+                if (!gate.shouldProcess(frame.getData(), width, height)) {
+                    return;
+                }
+                scaler.scale(frame.getData(), width, height, new int[] {0, 0, width, height},
+                        scaled, Math.min(480, width), Math.min(360, height));
+                LockSupport.parkNanos(detectNanos);
+                processed[0]++;
+            }
+        });
+        Nv21FileFrameSource source = new Nv21FileFrameSource(frames, fps);
+
+        long start = System.nanoTime();
+        loop.start();
+        source.start(loop);
+        source.awaitFinished(1, TimeUnit.MINUTES);
+        while (loop.getFramesDelivered() + loop.getFramesReplaced()
+                < source.getFramesDelivered()) {
+            Thread.sleep(1);
+        }
+        source.stop();
+        loop.stop();
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf(
+                "%s: %d frames in %.2f s, %.1f frames/s; processed %d, skipped still %d, "
+                        + "replaced %d, dropped by source %d%n",
+                fps == Nv21FileFrameSource.AS_FAST_AS_POSSIBLE ? "as fast as possible"
+                        : fps + " fps",
+                source.getFramesDelivered() + source.getFramesDropped(), seconds,
+                source.getFramesDelivered() / seconds, processed[0], gate.getFramesSkipped(),
+                loop.getFramesReplaced(), source.getFramesDropped());
+    }
+
+    private static void record(File path) throws Exception {
+        Nv21FrameFile frames = Nv21FrameFile.create(path, WIDTH, HEIGHT, FRAMES);
+        ByteBuffer nv21 = ByteBuffer.allocate(frames.getFrameSize());
+        byte[] data = nv21.array();
+        for (int i = 0; i < FRAMES; i++) {
+            int shift = Math.min(i, FRAMES / 2) * 3;
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    double value = 128 + 60 * Math.sin((x + shift) * 0.05) * Math.cos(y * 0.04);
+                    data[y * WIDTH + x] = (byte) value;
+                }
+            }
+            java.util.Arrays.fill(data, WIDTH * HEIGHT, data.length, (byte) 128);
+            frames.writeFrame(i, i, new FrameMetadata.Builder()
+                    .setWidth(WIDTH)
+                    .setHeight(HEIGHT)
+                    .setRotation(1)
+                    .setTimestampNanos(i * 33_333_333L)
+                    .build(), nv21);
+        }
+        frames.force();
+        frames.close();
+    }
+}
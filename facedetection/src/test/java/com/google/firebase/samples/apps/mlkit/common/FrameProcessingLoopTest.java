@@ -0,0 +1,207 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the hand-off and buffer accounting of {@link FrameProcessingLoop}. */
+public class FrameProcessingLoopTest {
+
+    private static final FrameMetadata METADATA =
+            new FrameMetadata.Builder().setWidth(2).setHeight(2).build();
+
+    @Test
+    public void onFrame_handsFramesToHandlerAndReleasesThem() throws Exception {
+        final List<FrameLease> handled = Collections.synchronizedList(new ArrayList<FrameLease>());
+        final CountDownLatch done = new CountDownLatch(3);
+        FrameProcessingLoop loop = new FrameProcessingLoop(new FrameProcessingLoop.FrameHandler() {
+            @Override
+            public void handleFrame(FrameLease frame, FrameMetadata metadata) {
+                handled.add(frame);
+                done.countDown();
+            }
+        });
+        AtomicInteger recycled = new AtomicInteger();
+        loop.start();
+
+        for (int i = 0; i < 3; i++) {
+            FrameLease frame = lease(recycled).open();
+            loop.onFrame(frame, METADATA);
+            // Wait for the loop to take each frame, so none is replaced.
+            while (loop.getFramesDelivered() <= i) {
+                Thread.sleep(1);
+            }
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        loop.stop();
+
+        assertEquals(3, handled.size());
+        assertEquals(3, recycled.get());
+        assertEquals(0, loop.getFramesReplaced());
+    }
+
+    @Test
+    public void onFrame_releasesAndReportsReplacedFrames() throws Exception {
+        final CountDownLatch busy = new CountDownLatch(1);
+        final CountDownLatch resume = new CountDownLatch(1);
+        final List<FrameLease> handled = Collections.synchronizedList(new ArrayList<FrameLease>());
+        FrameProcessingLoop loop = new FrameProcessingLoop(new FrameProcessingLoop.FrameHandler() {
+            @Override
+            public void handleFrame(FrameLease frame, FrameMetadata metadata) {
+                handled.add(frame);
+                busy.countDown();
+                try {
+                    resume.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        final AtomicInteger dropped = new AtomicInteger();
+        loop.setFrameLoadListener(new FrameLoadListener() {
+            @Override
+            public void onFrameDropped() {
+                dropped.incrementAndGet();
+            }
+
+            @Override
+            public void onFrameDetected(long latencyNanos) {}
+        });
+        AtomicInteger recycled = new AtomicInteger();
+        loop.start();
+
+        FrameLease first = lease(recycled).open();
+        loop.onFrame(first, METADATA);
+        assertTrue(busy.await(5, TimeUnit.SECONDS));
+        // The handler is busy: each frame replaces the one before it.
+        FrameLease[] waiting = new FrameLease[3];
+        for (int i = 0; i < waiting.length; i++) {
+            waiting[i] = lease(recycled).open();
+            loop.onFrame(waiting[i], METADATA);
+        }
+
+        assertEquals(2, dropped.get());
+        assertEquals(2, recycled.get());
+        assertEquals(0, waiting[0].getRefCount());
+        assertEquals(1, waiting[2].getRefCount());
+        resume.countDown();
+        while (loop.getFramesDelivered() < 2) {
+            Thread.sleep(1);
+        }
+        loop.stop();
+
+        assertEquals(2, handled.size());
+        assertEquals(waiting[2], handled.get(1));
+        assertEquals(4, recycled.get());
+    }
+
+    @Test
+    public void stop_releasesWaitingFrame() {
+        FrameProcessingLoop loop = new FrameProcessingLoop(new FrameProcessingLoop.FrameHandler() {
+            @Override
+            public void handleFrame(FrameLease frame, FrameMetadata metadata) {}
+        });
+        AtomicInteger recycled = new AtomicInteger();
+
+        // Never started, so the frame waits until stop.
+        loop.onFrame(lease(recycled).open(), METADATA);
+        loop.stop();
+
+        assertEquals(1, recycled.get());
+    }
+
+    @Test
+    public void start_runsNewThreadAfterHandlerThrew() throws Exception {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch handledAgain = new CountDownLatch(1);
+        FrameProcessingLoop loop = new FrameProcessingLoop(new FrameProcessingLoop.FrameHandler() {
+            @Override
+            public void handleFrame(FrameLease frame, FrameMetadata metadata) {
+                if (calls.incrementAndGet() == 1) {
+                    throw new IllegalStateException("handler failed");
+                }
+                handledAgain.countDown();
+            }
+        });
+        Thread.UncaughtExceptionHandler defaultHandler =
+                Thread.getDefaultUncaughtExceptionHandler();
+        final CountDownLatch ended = new CountDownLatch(1);
+        Thread.setDefaultUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+            @Override
+            public void uncaughtException(Thread t, Throwable e) {
+                ended.countDown();
+            }
+        });
+        AtomicInteger recycled = new AtomicInteger();
+        try {
+            loop.start();
+            loop.onFrame(lease(recycled).open(), METADATA);
+            assertTrue(ended.await(5, TimeUnit.SECONDS));
+
+            loop.start();
+            loop.onFrame(lease(recycled).open(), METADATA);
+            assertTrue(handledAgain.await(5, TimeUnit.SECONDS));
+        } finally {
+            loop.stop();
+            Thread.setDefaultUncaughtExceptionHandler(defaultHandler);
+        }
+
+        assertEquals(2, recycled.get());
+    }
+
+    @Test
+    public void replaysFileThroughHandler() throws Exception {
+        java.io.File path = java.io.File.createTempFile("frames", ".nv21");
+        try {
+            Nv21FrameFile frames = Nv21FrameFile.create(path, 16, 12, 20);
+            for (int i = 0; i < 20; i++) {
+                frames.writeFrame(i, i, new FrameMetadata.Builder().setWidth(16).setHeight(12)
+                        .build(), Nv21FileFrameSourceTest.frame(i));
+            }
+            final AtomicInteger handled = new AtomicInteger();
+            FrameProcessingLoop loop =
+                    new FrameProcessingLoop(new FrameProcessingLoop.FrameHandler() {
+                        @Override
+                        public void handleFrame(FrameLease frame, FrameMetadata metadata) {
+                            handled.incrementAndGet();
+                        }
+                    });
+            Nv21FileFrameSource source =
+                    new Nv21FileFrameSource(frames, Nv21FileFrameSource.AS_FAST_AS_POSSIBLE);
+
+            loop.start();
+            source.start(loop);
+            assertTrue(source.awaitFinished(5, TimeUnit.SECONDS));
+            source.stop();
+            // The last frame may still wait for the loop.
+            while (loop.getFramesDelivered() + loop.getFramesReplaced() < 20) {
+                Thread.sleep(1);
+            }
+            loop.stop();
+
+            assertEquals(20, source.getFramesDelivered());
+            assertEquals(20, handled.get() + loop.getFramesReplaced());
+            frames.close();
+        } finally {
+            path.delete();
+        }
+    }
+
+    private static FrameLease lease(final AtomicInteger recycled) {
+        return new FrameLease(ByteBuffer.allocate(6), new FrameLease.Recycler() {
+            @Override
+            public void recycle(FrameLease lease) {
+                recycled.incrementAndGet();
+            }
+        });
+    }
+}
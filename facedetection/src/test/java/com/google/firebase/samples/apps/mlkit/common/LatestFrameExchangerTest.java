@@ -0,0 +1,148 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the hand-off, replacement and wake-ups of {@link LatestFrameExchanger}. */
+public class LatestFrameExchangerTest {
+
+    @Test
+    public void offer_replacesFrameNotTakenYet() {
+        LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>();
+
+        assertNull(exchanger.offer("a"));
+        assertEquals("a", exchanger.offer("b"));
+        assertEquals("b", exchanger.take());
+
+        assertEquals(1, exchanger.getFramesDelivered());
+        assertEquals(1, exchanger.getFramesReplaced());
+        assertNull(exchanger.clear());
+    }
+
+    @Test
+    public void clear_removesWaitingFrame() {
+        LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>();
+        exchanger.offer("a");
+
+        assertEquals("a", exchanger.clear());
+        assertNull(exchanger.clear());
+    }
+
+    @Test
+    public void take_parksUntilOffer() throws Exception {
+        LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>();
+        Consumer consumer = new Consumer(exchanger);
+        consumer.start();
+        awaitParked(consumer);
+
+        exchanger.offer("a");
+        consumer.join(5000);
+
+        assertFalse(consumer.isAlive());
+        assertEquals("a", consumer.last.get());
+        assertTrue(exchanger.getWakeups() >= 1);
+    }
+
+    @Test
+    public void offerRacingPark_neverLeavesConsumerParkedWithFrame() throws Exception {
+        // Offers paced so the consumer often parks as the next frame arrives. Every frame is
+        // either taken or replaced, and the consumer sees the last one.
+        final int frames = 20000;
+        final LatestFrameExchanger<Integer> exchanger = new LatestFrameExchanger<>();
+        final AtomicReference<Integer> last = new AtomicReference<>();
+        final CountDownLatch sawLast = new CountDownLatch(1);
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Integer frame;
+                while ((frame = exchanger.take()) != null) {
+                    Integer previous = last.getAndSet(frame);
+                    if (previous != null && frame <= previous) {
+                        throw new AssertionError(frame + " after " + previous);
+                    }
+                    if (frame == frames - 1) {
+                        sawLast.countDown();
+                    }
+                }
+            }
+        });
+        consumer.start();
+
+        for (int i = 0; i < frames; i++) {
+            exchanger.offer(i);
+            if (i % 64 == 0) {
+                Thread.yield();
+            }
+        }
+
+        assertTrue(sawLast.await(5, TimeUnit.SECONDS));
+        exchanger.setActive(false);
+        consumer.join(5000);
+        assertFalse(consumer.isAlive());
+        assertEquals(frames, exchanger.getFramesDelivered() + exchanger.getFramesReplaced());
+    }
+
+    @Test
+    public void setActiveFalse_wakesParkedConsumer() throws Exception {
+        LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>();
+        Consumer consumer = new Consumer(exchanger);
+        consumer.start();
+        awaitParked(consumer);
+
+        exchanger.setActive(false);
+        consumer.join(5000);
+
+        assertFalse(consumer.isAlive());
+        assertNull(consumer.last.get());
+        assertTrue(consumer.returned);
+    }
+
+    @Test
+    public void take_keepsWaitingWhenInterrupted() throws Exception {
+        LatestFrameExchanger<String> exchanger = new LatestFrameExchanger<>();
+        Consumer consumer = new Consumer(exchanger);
+        consumer.start();
+        awaitParked(consumer);
+
+        consumer.interrupt();
+        consumer.join(100);
+        assertTrue(consumer.isAlive());
+
+        exchanger.offer("a");
+        consumer.join(5000);
+        assertEquals("a", consumer.last.get());
+    }
+
+    private static void awaitParked(Thread thread) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (thread.getState() != Thread.State.WAITING) {
+            assertTrue(System.nanoTime() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    /** Takes one frame, or nothing once the exchanger is inactive. */
+    private static final class Consumer extends Thread {
+        final LatestFrameExchanger<String> exchanger;
+        final AtomicReference<String> last = new AtomicReference<>();
+        volatile boolean returned;
+
+        Consumer(LatestFrameExchanger<String> exchanger) {
+            this.exchanger = exchanger;
+        }
+
+        @Override
+        public void run() {
+            last.set(exchanger.take());
+            returned = true;
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks {@link LucasKanadeTracker} on frames of a smooth texture shifted by known amounts. */
+public class LucasKanadeTrackerTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    @Test
+    public void track_followsSubpixelShift() {
+        LucasKanadeTracker tracker = new LucasKanadeTracker();
+        tracker.pushFrame(texture(0f, 0f), WIDTH, HEIGHT);
+        tracker.pushFrame(texture(2.5f, -1.5f), WIDTH, HEIGHT);
+        float[] points = grid();
+        float[] tracked = new float[points.length];
+        boolean[] status = new boolean[points.length / 2];
+
+        assertEquals(status.length, tracker.track(points, tracked, status, status.length));
+
+        for (int i = 0; i < status.length; i++) {
+            assertEquals(points[i * 2] + 2.5f, tracked[i * 2], 0.1f);
+            assertEquals(points[i * 2 + 1] - 1.5f, tracked[i * 2 + 1], 0.1f);
+        }
+    }
+
+    @Test
+    public void track_followsMotionLargerThanWindowThroughPyramid() {
+        // Coarser texture, so the motion stays below half its periods.
+        LucasKanadeTracker tracker = new LucasKanadeTracker();
+        tracker.pushFrame(texture(WIDTH, HEIGHT, 0.4f, 0f, 0f), WIDTH, HEIGHT);
+        tracker.pushFrame(texture(WIDTH, HEIGHT, 0.4f, 13f, 9f), WIDTH, HEIGHT);
+        float[] points = {70f, 50f, 90f, 60f};
+        float[] tracked = new float[4];
+        boolean[] status = new boolean[2];
+
+        assertEquals(2, tracker.track(points, tracked, status, 2));
+
+        assertEquals(83f, tracked[0], 0.3f);
+        assertEquals(59f, tracked[1], 0.3f);
+        assertEquals(103f, tracked[2], 0.3f);
+        assertEquals(69f, tracked[3], 0.3f);
+    }
+
+    @Test
+    public void track_losesPointsWithoutTexture() {
+        LucasKanadeTracker tracker = new LucasKanadeTracker();
+        ByteBuffer flat = ByteBuffer.allocate(WIDTH * HEIGHT * 3 / 2);
+        tracker.pushFrame(flat, WIDTH, HEIGHT);
+        tracker.pushFrame(flat, WIDTH, HEIGHT);
+        float[] points = {80f, 60f};
+        boolean[] status = new boolean[1];
+
+        assertEquals(0, tracker.track(points, points, status, 1));
+
+        assertFalse(status[0]);
+        assertEquals(80f, points[0], 0f);
+    }
+
+    @Test
+    public void track_losesPointsLeavingTheFrame() {
+        LucasKanadeTracker tracker = new LucasKanadeTracker();
+        tracker.pushFrame(texture(0f, 0f), WIDTH, HEIGHT);
+        tracker.pushFrame(texture(-6f, 0f), WIDTH, HEIGHT);
+        float[] points = {3f, 60f, 80f, 60f};
+        boolean[] status = new boolean[2];
+
+        tracker.track(points, new float[4], status, 2);
+
+        assertFalse(status[0]);
+        assertTrue(status[1]);
+    }
+
+    @Test
+    public void track_multithreadedMatchesSingleThreaded() {
+        LucasKanadeTracker single = new LucasKanadeTracker(1);
+        LucasKanadeTracker multi = new LucasKanadeTracker(3);
+        float[] points = grid();
+        float[] singleTracked = new float[points.length];
+        float[] multiTracked = new float[points.length];
+        boolean[] status = new boolean[points.length / 2];
+        try {
+            for (int frame = 0; frame < 3; frame++) {
+                ByteBuffer data = texture(frame * 1.7f, frame * 0.6f);
+                single.pushFrame(data, WIDTH, HEIGHT);
+                multi.pushFrame(data, WIDTH, HEIGHT);
+            }
+            single.track(points, singleTracked, status, status.length);
+            multi.track(points, multiTracked, status, status.length);
+        } finally {
+            multi.shutdown();
+        }
+
+        assertArrayEquals(singleTracked, multiTracked, 0f);
+    }
+
+    @Test
+    public void pushFrame_readsDirectBuffers() {
+        ByteBuffer heap = texture(4f, 2f);
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.capacity());
+        direct.put(heap.array());
+        LucasKanadeTracker tracker = new LucasKanadeTracker();
+        tracker.pushFrame(texture(0f, 0f), WIDTH, HEIGHT);
+        tracker.pushFrame(direct, WIDTH, HEIGHT);
+        float[] points = {80f, 60f};
+
+        assertEquals(1, tracker.track(points, points, new boolean[1], 1));
+        assertEquals(84f, points[0], 0.1f);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void track_needsTwoFrames() {
+        LucasKanadeTracker tracker = new LucasKanadeTracker();
+        tracker.pushFrame(texture(0f, 0f), WIDTH, HEIGHT);
+
+        tracker.track(new float[2], new float[2], new boolean[1], 1);
+    }
+
+    @Test
+    public void pushAndTrack_steadyStateDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        LucasKanadeTracker tracker = new LucasKanadeTracker();
+        ByteBuffer[] frames = {texture(0f, 0f), texture(1f, 0.5f)};
+        float[] points = grid();
+        float[] tracked = new float[points.length];
+        boolean[] status = new boolean[points.length / 2];
+        for (int i = 0; i < 200; i++) {
+            tracker.pushFrame(frames[i % 2], WIDTH, HEIGHT);
+            if (tracker.canTrack()) {
+                tracker.track(points, tracked, status, status.length);
+            }
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long first = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - first;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100; i++) {
+            tracker.pushFrame(frames[i % 2], WIDTH, HEIGHT);
+            tracker.track(points, tracked, status, status.length);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals(0, allocated);
+    }
+
+    // Points on a grid well inside the frame.
+    private static float[] grid() {
+        float[] points = new float[2 * 6 * 4];
+        int n = 0;
+        for (int row = 0; row < 4; row++) {
+            for (int column = 0; column < 6; column++) {
+                points[n++] = 30f + column * 20f + 0.3f;
+                points[n++] = 30f + row * 20f + 0.7f;
+            }
+        }
+        return points;
+    }
+
+    /**
+     * An NV21 frame whose luma is a smooth texture shifted right by dx and down by dy; chroma is
+     * grey.
+     */
+    static ByteBuffer texture(float dx, float dy) {
+        return texture(WIDTH, HEIGHT, 1f, dx, dy);
+    }
+
+    /** @param frequency scales the frequencies of the texture */
+    static ByteBuffer texture(int width, int height, float frequency, float dx, float dy) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                nv21[y * width + x] =
+                        (byte) Math.round(luma((x - dx) * frequency, (y - dy) * frequency));
+            }
+        }
+        for (int i = width * height; i < nv21.length; i++) {
+            nv21[i] = (byte) 128;
+        }
+        return ByteBuffer.wrap(nv21);
+    }
+
+    static double luma(double x, double y) {
+        return 128
+                + 40 * Math.sin(0.31 * x + 0.17 * y)
+                + 30 * Math.sin(0.23 * y - 0.11 * x + 1)
+                + 25 * Math.sin(0.41 * x) * Math.cos(0.37 * y);
+    }
+}
@@ -0,0 +1,184 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks {@link MotionGate} on frames of a texture with sensor noise. */
+public class MotionGateTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+
+    @Test
+    public void shouldProcess_processesFirstFrame() {
+        MotionGate gate = new MotionGate(1.5f, 15);
+
+        assertTrue(gate.shouldProcess(frame(0f, 0), WIDTH, HEIGHT));
+        assertTrue(Float.isNaN(gate.getLastMotion()));
+    }
+
+    @Test
+    public void shouldProcess_skipsNoisyStillFrames() {
+        MotionGate gate = new MotionGate(1.5f, 100);
+        gate.shouldProcess(frame(0f, 0), WIDTH, HEIGHT);
+
+        for (int i = 1; i <= 10; i++) {
+            assertFalse(gate.shouldProcess(frame(0f, i), WIDTH, HEIGHT));
+        }
+        assertEquals(11, gate.getFramesSeen());
+        assertEquals(10, gate.getFramesSkipped());
+        assertEquals(10f / 11, gate.getSkipRate(), 1e-6f);
+    }
+
+    @Test
+    public void shouldProcess_processesMovingFrames() {
+        MotionGate gate = new MotionGate(1.5f, 100);
+        gate.shouldProcess(frame(0f, 0), WIDTH, HEIGHT);
+
+        assertTrue(gate.shouldProcess(frame(3f, 1), WIDTH, HEIGHT));
+        assertTrue(gate.getLastMotion() > 1.5f);
+    }
+
+    @Test
+    public void shouldProcess_processesMotionOfSmallPatch() {
+        MotionGate gate = new MotionGate(1.5f, 100);
+        gate.shouldProcess(frame(0f, 0), WIDTH, HEIGHT);
+
+        // Four cells out of 300 change by 50 levels, under one level over the whole grid.
+        ByteBuffer moved = frame(0f, 1);
+        for (int y = 48; y < 64; y++) {
+            for (int x = 72; x < 88; x++) {
+                int value = (moved.get(y * WIDTH + x) & 0xff) + 50;
+                moved.put(y * WIDTH + x, (byte) Math.min(255, value));
+            }
+        }
+
+        assertTrue(gate.shouldProcess(moved, WIDTH, HEIGHT));
+        assertTrue(gate.getLastMotion() > 40f);
+    }
+
+    @Test
+    public void shouldProcess_addsUpSlowMotionSinceLastProcessedFrame() {
+        MotionGate gate = new MotionGate(1.5f, 100);
+        gate.shouldProcess(frame(0f, 0), WIDTH, HEIGHT);
+
+        int processed = 0;
+        for (int i = 1; i <= 40; i++) {
+            // Far below the threshold from one frame to the next.
+            if (gate.shouldProcess(frame(i * 0.02f, i), WIDTH, HEIGHT)) {
+                processed++;
+            }
+        }
+
+        assertTrue(processed > 0);
+        assertTrue(processed < 40);
+    }
+
+    @Test
+    public void shouldProcess_refreshesAfterIntervalOfSkippedFrames() {
+        MotionGate gate = new MotionGate(1.5f, 3);
+        ByteBuffer still = frame(0f, 0);
+
+        StringBuilder decisions = new StringBuilder();
+        for (int i = 0; i < 9; i++) {
+            decisions.append(gate.shouldProcess(still, WIDTH, HEIGHT) ? 'P' : '-');
+        }
+
+        assertEquals("P---P---P", decisions.toString());
+    }
+
+    @Test
+    public void shouldProcess_processesAfterResetAndSizeChange() {
+        MotionGate gate = new MotionGate(1.5f, 100);
+        ByteBuffer still = frame(0f, 0);
+        gate.shouldProcess(still, WIDTH, HEIGHT);
+        assertFalse(gate.shouldProcess(still, WIDTH, HEIGHT));
+
+        gate.reset();
+        assertTrue(gate.shouldProcess(still, WIDTH, HEIGHT));
+        assertFalse(gate.shouldProcess(still, WIDTH, HEIGHT));
+
+        assertTrue(gate.shouldProcess(still, WIDTH / 2, HEIGHT / 2));
+    }
+
+    @Test
+    public void shouldProcess_processesEveryFrameWhenDisabled() {
+        MotionGate gate = new MotionGate(1.5f, 100);
+        gate.setEnabled(false);
+        ByteBuffer still = frame(0f, 0);
+
+        assertTrue(gate.shouldProcess(still, WIDTH, HEIGHT));
+        assertTrue(gate.shouldProcess(still, WIDTH, HEIGHT));
+        assertEquals(0, gate.getFramesSkipped());
+    }
+
+    @Test
+    public void shouldProcess_readsDirectBuffers() {
+        ByteBuffer heap = frame(0f, 0);
+        ByteBuffer direct = ByteBuffer.allocateDirect(heap.capacity());
+        direct.put(heap.array());
+        MotionGate gate = new MotionGate(1.5f, 100);
+        gate.shouldProcess(heap, WIDTH, HEIGHT);
+
+        assertFalse(gate.shouldProcess(direct, WIDTH, HEIGHT));
+        assertEquals(0f, gate.getLastMotion(), 0f);
+    }
+
+    @Test
+    public void shouldProcess_steadyStateDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        MotionGate gate = new MotionGate(1.5f, 5);
+        ByteBuffer[] frames = {frame(0f, 0), frame(4f, 1), frame(0f, 2)};
+        for (int i = 0; i < 300; i++) {
+            gate.shouldProcess(frames[i % 3], WIDTH, HEIGHT);
+        }
+
+        // The least over several runs, as the JIT may still compile, and allocate, during one.
+        long threadId = Thread.currentThread().getId();
+        long allocated = Long.MAX_VALUE;
+        for (int run = 0; run < 5 && allocated > 0; run++) {
+            long first = threads.getThreadAllocatedBytes(threadId);
+            long overhead = threads.getThreadAllocatedBytes(threadId) - first;
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100; i++) {
+                gate.shouldProcess(frames[i % 3], WIDTH, HEIGHT);
+            }
+            allocated = Math.min(allocated,
+                    threads.getThreadAllocatedBytes(threadId) - before - overhead);
+        }
+
+        assertEquals(0, allocated);
+    }
+
+    /**
+     * An NV21 frame whose luma is a smooth texture shifted right by dx, with Gaussian noise of 2
+     * levels drawn from {@code seed}.
+     */
+    private static ByteBuffer frame(float dx, int seed) {
+        Random noise = new Random(seed);
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double value = LucasKanadeTrackerTest.luma(x - dx, y) + 2 * noise.nextGaussian();
+                nv21[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, Math.round(value)));
+            }
+        }
+        for (int i = WIDTH * HEIGHT; i < nv21.length; i++) {
+            nv21[i] = (byte) 128;
+        }
+        return ByteBuffer.wrap(nv21);
+    }
+}
@@ -0,0 +1,228 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link Nv21Converter} against reference BT.601 pixels.
+ */
+public class Nv21ConverterTest {
+
+    @Test
+    public void convert_blackAndWhite() {
+        assertEquals(0xff000000, Nv21Converter.yuvToArgb(16, 0, 0));
+        assertEquals(0xff000000, Nv21Converter.yuvToArgb(0, 0, 0));
+        assertEquals(0xffffffff, Nv21Converter.yuvToArgb(235, 0, 0));
+        assertEquals(0xffffffff, Nv21Converter.yuvToArgb(255, 0, 0));
+    }
+
+    @Test
+    public void convert_primaries() {
+        // Studio swing BT.601 encodings of the RGB primaries.
+        assertPixel(0xffff0000, Nv21Converter.yuvToArgb(81, 90 - 128, 240 - 128));
+        assertPixel(0xff00ff00, Nv21Converter.yuvToArgb(145, 54 - 128, 34 - 128));
+        assertPixel(0xff0000ff, Nv21Converter.yuvToArgb(41, 240 - 128, 110 - 128));
+        assertPixel(0xff808080, Nv21Converter.yuvToArgb(126, 0, 0));
+    }
+
+    @Test
+    public void convert_matchesFloatingPointReference() {
+        for (int y = 0; y < 256; y += 5) {
+            for (int u = 0; u < 256; u += 15) {
+                for (int v = 0; v < 256; v += 15) {
+                    assertPixel(referenceArgb(y, u, v), Nv21Converter.yuvToArgb(y, u - 128, v - 128));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void convert_sharesChromaBetweenPixelQuads() {
+        int width = 4;
+        int height = 2;
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        for (int i = 0; i < width * height; i++) {
+            nv21[i] = (byte) 128;
+        }
+        // V then U for the left quad, then for the right quad.
+        nv21[8] = (byte) 240;
+        nv21[9] = (byte) 90;
+        nv21[10] = (byte) 34;
+        nv21[11] = (byte) 54;
+
+        int[] argb = new int[width * height];
+        Nv21Converter.convert(nv21, width, height, argb);
+
+        for (int row = 0; row < height; row++) {
+            int left = Nv21Converter.yuvToArgb(128, 90 - 128, 240 - 128);
+            int right = Nv21Converter.yuvToArgb(128, 54 - 128, 34 - 128);
+            assertEquals(left, argb[row * width]);
+            assertEquals(left, argb[row * width + 1]);
+            assertEquals(right, argb[row * width + 2]);
+            assertEquals(right, argb[row * width + 3]);
+        }
+    }
+
+    @Test
+    public void convertFrame_multiThreadedMatchesSingleThreaded() {
+        int width = 64;
+        int height = 46;
+        byte[] nv21 = randomFrame(width, height, 42);
+        int[] expected = new int[width * height];
+        Nv21Converter.convert(nv21, width, height, expected);
+
+        for (int threads = 1; threads <= 5; threads++) {
+            Nv21Converter converter = new Nv21Converter(threads);
+            try {
+                int[] actual = new int[width * height];
+                converter.convertFrame(nv21, width, height, actual);
+                assertArrayEquals("threads=" + threads, expected, actual);
+            } finally {
+                converter.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void convert_rotatesAndMirrorsInOnePass() {
+        int width = 6;
+        int height = 4;
+        byte[] nv21 = randomFrame(width, height, 7);
+        int[] upright = new int[width * height];
+        Nv21Converter.convert(nv21, width, height, upright);
+
+        for (int rotation = 0; rotation < 4; rotation++) {
+            for (int mirror = 0; mirror < 2; mirror++) {
+                int[] expected = rotateAndMirror(upright, width, height, rotation, mirror == 1);
+                int[] actual = new int[width * height];
+                Nv21Converter.convert(nv21, width, height, rotation, mirror == 1, actual);
+                assertArrayEquals("rotation=" + rotation + " mirror=" + mirror, expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void convert_quarterTurnIsClockwise() {
+        // A 2x2 frame with a distinct luma value per pixel and neutral chroma.
+        byte[] nv21 = new byte[] {16, (byte) 235, 81, (byte) 145, (byte) 128, (byte) 128};
+        int topLeft = Nv21Converter.yuvToArgb(16, 0, 0);
+        int topRight = Nv21Converter.yuvToArgb(235, 0, 0);
+        int bottomLeft = Nv21Converter.yuvToArgb(81, 0, 0);
+        int bottomRight = Nv21Converter.yuvToArgb(145, 0, 0);
+
+        int[] argb = new int[4];
+        Nv21Converter.convert(nv21, 2, 2, 1, false, argb);
+        assertArrayEquals(new int[] {bottomLeft, topLeft, bottomRight, topRight}, argb);
+
+        Nv21Converter.convert(nv21, 2, 2, 1, true, argb);
+        assertArrayEquals(new int[] {topLeft, bottomLeft, topRight, bottomRight}, argb);
+    }
+
+    @Test
+    public void convertFrame_multiThreadedRotationMatchesSingleThreaded() {
+        int width = 48;
+        int height = 30;
+        byte[] nv21 = randomFrame(width, height, 3);
+        Nv21Converter converter = new Nv21Converter(3);
+        try {
+            for (int rotation = 0; rotation < 4; rotation++) {
+                int[] expected = new int[width * height];
+                int[] actual = new int[width * height];
+                Nv21Converter.convert(nv21, width, height, rotation, true, expected);
+                converter.convertFrame(nv21, width, height, rotation, true, actual);
+                assertArrayEquals("rotation=" + rotation, expected, actual);
+            }
+        } finally {
+            converter.shutdown();
+        }
+    }
+
+    @Test
+    public void getOutputSize_swapsForQuarterTurns() {
+        assertEquals(640, Nv21Converter.getOutputWidth(640, 480, 0));
+        assertEquals(480, Nv21Converter.getOutputWidth(640, 480, 1));
+        assertEquals(640, Nv21Converter.getOutputHeight(640, 480, 1));
+        assertEquals(480, Nv21Converter.getOutputHeight(640, 480, 2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void convert_rejectsOddSize() {
+        Nv21Converter.convert(new byte[64], 5, 4, new int[20]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void convert_rejectsShortBuffer() {
+        Nv21Converter.convert(new byte[16], 4, 4, new int[16]);
+    }
+
+    static byte[] randomFrame(int width, int height, long seed) {
+        byte[] nv21 = new byte[width * height * 3 / 2];
+        new Random(seed).nextBytes(nv21);
+        return nv21;
+    }
+
+    // Reference rotation: clockwise quarter turns followed by a horizontal flip of the result.
+    private static int[] rotateAndMirror(
+            int[] src, int width, int height, int rotation, boolean mirror) {
+        int outWidth = (rotation & 1) == 0 ? width : height;
+        int outHeight = (rotation & 1) == 0 ? height : width;
+        int[] out = new int[src.length];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int dx;
+                int dy;
+                switch (rotation) {
+                    case 1:
+                        dx = height - 1 - y;
+                        dy = x;
+                        break;
+                    case 2:
+                        dx = width - 1 - x;
+                        dy = height - 1 - y;
+                        break;
+                    case 3:
+                        dx = y;
+                        dy = width - 1 - x;
+                        break;
+                    default:
+                        dx = x;
+                        dy = y;
+                        break;
+                }
+                if (mirror) {
+                    dx = outWidth - 1 - dx;
+                }
+                out[dy * outWidth + dx] = src[y * width + x];
+            }
+        }
+        assertEquals(src.length, outWidth * outHeight);
+        return out;
+    }
+
+    private static int referenceArgb(int y, int u, int v) {
+        double c = 1.164 * (y - 16);
+        double r = c + 1.596 * (v - 128);
+        double g = c - 0.813 * (v - 128) - 0.391 * (u - 128);
+        double b = c + 2.018 * (u - 128);
+        return 0xff000000 | (clamp(r) << 16) | (clamp(g) << 8) | clamp(b);
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+
+    private static void assertPixel(int expected, int actual) {
+        String message = String.format("expected %08x but was %08x", expected, actual);
+        assertEquals(message, expected >>> 24, actual >>> 24);
+        for (int shift = 0; shift < 24; shift += 8) {
+            int e = (expected >> shift) & 0xff;
+            int a = (actual >> shift) & 0xff;
+            assertTrue(message, Math.abs(e - a) <= 2);
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Checks {@link Nv21Crop} against pixel by pixel copies and {@link Nv21Converter}. */
+public class Nv21CropTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+
+    @Test
+    public void crop_copiesLumaAndChromaOfRegion() {
+        byte[] frame = frame();
+        int[] rect = {6, 4, 20, 14};
+        ByteBuffer dst = ByteBuffer.allocate(Nv21Crop.getBufferSize(14, 10));
+
+        Nv21Crop.crop(ByteBuffer.wrap(frame), WIDTH, HEIGHT, rect, dst);
+
+        assertArrayEquals(expectedCrop(frame, rect), dst.array());
+    }
+
+    @Test
+    public void crop_readsAndWritesDirectBuffers() {
+        byte[] frame = frame();
+        ByteBuffer src = ByteBuffer.allocateDirect(frame.length);
+        src.put(frame);
+        src.position(7);
+        int[] rect = {0, 2, 8, 30};
+        ByteBuffer dst = ByteBuffer.allocateDirect(Nv21Crop.getBufferSize(8, 28));
+
+        Nv21Crop.crop(src, WIDTH, HEIGHT, rect, dst);
+
+        byte[] copied = new byte[dst.capacity()];
+        dst.get(copied);
+        assertArrayEquals(expectedCrop(frame, rect), copied);
+        assertEquals(7, src.position());
+    }
+
+    @Test
+    public void crop_wholeFrameIsACopy() {
+        byte[] frame = frame();
+        ByteBuffer dst = ByteBuffer.allocate(frame.length);
+
+        Nv21Crop.crop(ByteBuffer.wrap(frame), WIDTH, HEIGHT, new int[] {0, 0, WIDTH, HEIGHT}, dst);
+
+        assertArrayEquals(frame, dst.array());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void crop_rejectsOddRegion() {
+        Nv21Crop.crop(ByteBuffer.wrap(frame()), WIDTH, HEIGHT, new int[] {1, 0, 11, 10},
+                ByteBuffer.allocate(1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void crop_rejectsRegionOutsideFrame() {
+        Nv21Crop.crop(ByteBuffer.wrap(frame()), WIDTH, HEIGHT, new int[] {30, 20, 42, 30},
+                ByteBuffer.allocate(1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void crop_rejectsSmallDestination() {
+        Nv21Crop.crop(ByteBuffer.wrap(frame()), WIDTH, HEIGHT, new int[] {0, 0, 10, 10},
+                ByteBuffer.allocate(149));
+    }
+
+    @Test
+    public void toUprightRect_placesCropWithinUprightFrame() {
+        byte[] frame = frame();
+        int[] rect = {6, 4, 20, 14};
+        ByteBuffer crop = ByteBuffer.allocate(Nv21Crop.getBufferSize(14, 10));
+        Nv21Crop.crop(ByteBuffer.wrap(frame), WIDTH, HEIGHT, rect, crop);
+
+        for (int rotation = 0; rotation < 4; rotation++) {
+            int[] uprightFrame = new int[WIDTH * HEIGHT];
+            Nv21Converter.convert(frame, WIDTH, HEIGHT, rotation, false, uprightFrame);
+            int[] uprightCrop = new int[14 * 10];
+            Nv21Converter.convert(crop.array(), 14, 10, rotation, false, uprightCrop);
+            int[] upright = rect.clone();
+            Nv21Crop.toUprightRect(upright, WIDTH, HEIGHT, rotation);
+            int frameWidth = Nv21Converter.getOutputWidth(WIDTH, HEIGHT, rotation);
+            int cropWidth = upright[2] - upright[0];
+
+            assertEquals(Nv21Converter.getOutputWidth(14, 10, rotation), cropWidth);
+            for (int y = upright[1]; y < upright[3]; y++) {
+                for (int x = upright[0]; x < upright[2]; x++) {
+                    assertEquals("rotation " + rotation + " at " + x + "," + y,
+                            uprightFrame[y * frameWidth + x],
+                            uprightCrop[(y - upright[1]) * cropWidth + x - upright[0]]);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void toFrameRect_invertsToUprightRect() {
+        for (int rotation = 0; rotation < 4; rotation++) {
+            int[] rect = {6, 4, 20, 14};
+
+            Nv21Crop.toUprightRect(rect, WIDTH, HEIGHT, rotation);
+            Nv21Crop.toFrameRect(rect, WIDTH, HEIGHT, rotation);
+
+            assertArrayEquals(new int[] {6, 4, 20, 14}, rect);
+        }
+    }
+
+    @Test
+    public void crop_doesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        ByteBuffer src = ByteBuffer.wrap(frame());
+        ByteBuffer direct = ByteBuffer.allocateDirect(src.capacity());
+        ByteBuffer dst = ByteBuffer.allocate(src.capacity());
+        int[] rect = {6, 4, 20, 14};
+        for (int i = 0; i < 1000; i++) {
+            Nv21Crop.crop(src, WIDTH, HEIGHT, rect, dst);
+            Nv21Crop.crop(direct, WIDTH, HEIGHT, rect, dst);
+            Nv21Crop.toUprightRect(rect, WIDTH, HEIGHT, 1);
+            Nv21Crop.toFrameRect(rect, WIDTH, HEIGHT, 1);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long first = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - first;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100; i++) {
+            Nv21Crop.crop(src, WIDTH, HEIGHT, rect, dst);
+            Nv21Crop.crop(direct, WIDTH, HEIGHT, rect, dst);
+            Nv21Crop.toUprightRect(rect, WIDTH, HEIGHT, 1);
+            Nv21Crop.toFrameRect(rect, WIDTH, HEIGHT, 1);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals(0, allocated);
+    }
+
+    // An NV21 frame whose every luma and chroma byte differs from its neighbours.
+    private static byte[] frame() {
+        byte[] nv21 = new byte[Nv21Crop.getBufferSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < nv21.length; i++) {
+            nv21[i] = (byte) (i * 37 + i / WIDTH * 11);
+        }
+        return nv21;
+    }
+
+    // The region copied pixel by pixel: luma of each pixel, then the V/U pair of each 2x2 block.
+    private static byte[] expectedCrop(byte[] frame, int[] rect) {
+        int width = rect[2] - rect[0];
+        int height = rect[3] - rect[1];
+        byte[] crop = new byte[Nv21Crop.getBufferSize(width, height)];
+        int n = 0;
+        for (int y = rect[1]; y < rect[3]; y++) {
+            for (int x = rect[0]; x < rect[2]; x++) {
+                crop[n++] = frame[y * WIDTH + x];
+            }
+        }
+        for (int y = rect[1]; y < rect[3]; y += 2) {
+            for (int x = rect[0]; x < rect[2]; x += 2) {
+                int chroma = WIDTH * HEIGHT + (y / 2) * WIDTH + x;
+                crop[n++] = frame[chroma];
+                crop[n++] = frame[chroma + 1];
+            }
+        }
+        return crop;
+    }
+}
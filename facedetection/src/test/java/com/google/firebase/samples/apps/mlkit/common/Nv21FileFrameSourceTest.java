@@ -0,0 +1,209 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks {@link Nv21FrameFile} round trips and {@link Nv21FileFrameSource} replay. */
+public class Nv21FileFrameSourceTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 12;
+
+    private File path;
+
+    @Before
+    public void setUp() throws IOException {
+        path = File.createTempFile("frames", ".nv21");
+    }
+
+    @After
+    public void tearDown() {
+        path.delete();
+    }
+
+    @Test
+    public void frameFile_roundTripsFramesAndMetadata() throws IOException {
+        Nv21FrameFile written = Nv21FrameFile.create(path, WIDTH, HEIGHT, 3);
+        written.writeFrame(1, 7, metadata(3, 1, 1234L), frame(9));
+        written.force();
+        written.close();
+
+        Nv21FrameFile read = Nv21FrameFile.open(path);
+        ByteBuffer copy = ByteBuffer.allocate(read.getFrameSize());
+        copy.position(5);
+        read.copyFrame(1, copy);
+
+        assertEquals(WIDTH, read.getWidth());
+        assertEquals(HEIGHT, read.getHeight());
+        assertEquals(3, read.getSlotCount());
+        assertEquals(Nv21FrameFile.EMPTY, read.getSequence(0));
+        assertEquals(7, read.getSequence(1));
+        assertEquals(1234L, read.getTimestampNanos(1));
+        assertEquals(3, read.getRotation(1));
+        assertEquals(1, read.getCameraFacing(1));
+        assertArrayEquals(frame(9).array(), copy.array());
+        assertEquals(5, copy.position());
+        read.close();
+    }
+
+    @Test
+    public void getFrameOrder_followsSequenceAndSkipsEmptySlots() throws IOException {
+        Nv21FrameFile frames = Nv21FrameFile.create(path, WIDTH, HEIGHT, 4);
+        frames.writeFrame(0, 12, metadata(0, 0, 0), frame(0));
+        frames.writeFrame(2, 10, metadata(0, 0, 0), frame(0));
+        frames.writeFrame(3, 11, metadata(0, 0, 0), frame(0));
+
+        assertArrayEquals(new int[] {2, 3, 0}, frames.getFrameOrder());
+        frames.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void open_rejectsOtherFiles() throws IOException {
+        java.io.FileOutputStream out = new java.io.FileOutputStream(path);
+        out.write(new byte[64]);
+        out.close();
+
+        Nv21FrameFile.open(path);
+    }
+
+    @Test
+    public void asFastAsPossible_deliversEveryFrameInOrder() throws Exception {
+        Nv21FrameFile frames = recording(10);
+        Nv21FileFrameSource source =
+                new Nv21FileFrameSource(frames, Nv21FileFrameSource.AS_FAST_AS_POSSIBLE);
+        final List<Integer> seen = Collections.synchronizedList(new ArrayList<Integer>());
+
+        source.start(new FrameSource.Callback() {
+            @Override
+            public void onFrame(FrameLease frame, FrameMetadata metadata) {
+                assertEquals(WIDTH, metadata.getWidth());
+                assertEquals(HEIGHT, metadata.getHeight());
+                seen.add((int) frame.getData().get(0));
+                frame.release();
+            }
+        });
+
+        assertTrue(source.awaitFinished(5, TimeUnit.SECONDS));
+        source.stop();
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, seen);
+        assertEquals(10, source.getFramesDelivered());
+        assertEquals(0, source.getFramesDropped());
+        frames.close();
+    }
+
+    @Test
+    public void fixedRate_dropsFramesWhileEveryBufferIsHeld() throws Exception {
+        Nv21FrameFile frames = recording(10);
+        Nv21FileFrameSource source = new Nv21FileFrameSource(frames, 500f);
+        final List<FrameLease> held = Collections.synchronizedList(new ArrayList<FrameLease>());
+
+        source.start(new FrameSource.Callback() {
+            @Override
+            public void onFrame(FrameLease frame, FrameMetadata metadata) {
+                held.add(frame);
+            }
+        });
+
+        assertTrue(source.awaitFinished(5, TimeUnit.SECONDS));
+        source.stop();
+        assertEquals(FrameSource.BUFFER_COUNT, source.getFramesDelivered());
+        assertEquals(10 - FrameSource.BUFFER_COUNT, source.getFramesDropped());
+        for (FrameLease frame : held) {
+            frame.release();
+        }
+        frames.close();
+    }
+
+    @Test
+    public void fixedRate_pacesFrames() throws Exception {
+        Nv21FrameFile frames = recording(6);
+        Nv21FileFrameSource source = new Nv21FileFrameSource(frames, 50f);
+        final List<Long> timestamps = Collections.synchronizedList(new ArrayList<Long>());
+
+        source.start(new FrameSource.Callback() {
+            @Override
+            public void onFrame(FrameLease frame, FrameMetadata metadata) {
+                timestamps.add(metadata.getTimestampNanos());
+                frame.release();
+            }
+        });
+
+        assertTrue(source.awaitFinished(5, TimeUnit.SECONDS));
+        source.stop();
+        assertEquals(6, timestamps.size());
+        // Five periods of 20 ms, give or take scheduling.
+        long span = timestamps.get(5) - timestamps.get(0);
+        assertTrue("span " + span, span >= 90_000_000L);
+        frames.close();
+    }
+
+    @Test
+    public void stop_endsLoopingReplay() throws Exception {
+        Nv21FrameFile frames = recording(3);
+        Nv21FileFrameSource source =
+                new Nv21FileFrameSource(frames, Nv21FileFrameSource.AS_FAST_AS_POSSIBLE);
+        source.setLooping(true);
+
+        source.start(new FrameSource.Callback() {
+            @Override
+            public void onFrame(FrameLease frame, FrameMetadata metadata) {
+                frame.release();
+            }
+        });
+        assertFalse(source.awaitFinished(100, TimeUnit.MILLISECONDS));
+        source.stop();
+
+        assertTrue(source.awaitFinished(0, TimeUnit.MILLISECONDS));
+        long delivered = source.getFramesDelivered();
+        assertTrue("delivered " + delivered, delivered > 3);
+        Thread.sleep(20);
+        assertEquals(delivered, source.getFramesDelivered());
+        frames.close();
+    }
+
+    // A file of frames whose first byte is their index, written in reverse slot order.
+    private Nv21FrameFile recording(int count) throws IOException {
+        Nv21FrameFile frames = Nv21FrameFile.create(path, WIDTH, HEIGHT, count);
+        for (int i = 0; i < count; i++) {
+            frames.writeFrame(count - 1 - i, i, metadata(1, 0, i * 33_000_000L), frame(i));
+        }
+        return frames;
+    }
+
+    private static FrameMetadata metadata(int rotation, int facing, long timestampNanos) {
+        return new FrameMetadata.Builder()
+                .setWidth(WIDTH)
+                .setHeight(HEIGHT)
+                .setRotation(rotation)
+                .setCameraFacing(facing)
+                .setTimestampNanos(timestampNanos)
+                .build();
+    }
+
+    static ByteBuffer frame(int index) {
+        byte[] nv21 = new byte[Nv21Crop.getBufferSize(WIDTH, HEIGHT)];
+        nv21[0] = (byte) index;
+        for (int i = 1; i < nv21.length; i++) {
+            nv21[i] = (byte) (i * 31 + index);
+        }
+        return ByteBuffer.wrap(nv21);
+    }
+}
@@ -0,0 +1,235 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+/** Checks what {@link Nv21FrameRecorder} records and drops, and reading it back. */
+public class Nv21FrameRecorderTest {
+
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 12;
+
+    private final AtomicInteger passedOn = new AtomicInteger();
+    private final FrameSource.Callback downstream = new FrameSource.Callback() {
+        @Override
+        public void onFrame(FrameLease frame, FrameMetadata metadata) {
+            passedOn.incrementAndGet();
+        }
+    };
+    private File path;
+
+    @Before
+    public void setUp() throws Exception {
+        path = File.createTempFile("recording", ".nv21");
+    }
+
+    @After
+    public void tearDown() {
+        path.delete();
+    }
+
+    @Test
+    public void onFrame_recordsFramesAndPassesThemOn() throws Exception {
+        Nv21FrameFile file = Nv21FrameFile.create(path, WIDTH, HEIGHT, 8);
+        Nv21FrameRecorder recorder = new Nv21FrameRecorder(file, downstream, 4);
+        recorder.start();
+        for (int i = 0; i < 5; i++) {
+            recordAndWait(recorder, i);
+        }
+        recorder.stop();
+        file.close();
+
+        assertEquals(5, passedOn.get());
+        assertEquals(5, recorder.getFramesRecorded());
+        assertEquals(0, recorder.getFramesDropped());
+        Nv21FrameReader reader = new Nv21FrameReader(path);
+        ByteBuffer dst = ByteBuffer.allocate(reader.getWidth() * reader.getHeight() * 3 / 2);
+        assertEquals(5, reader.getFrameCount());
+        for (int i = 0; i < 5; i++) {
+            FrameMetadata metadata = reader.next(dst);
+            assertEquals(i, reader.getSequence());
+            assertEquals(i * 1_000L, metadata.getTimestampNanos());
+            assertEquals(1, metadata.getRotation());
+            assertArrayEquals(Nv21FileFrameSourceTest.frame(i).array(), dst.array());
+        }
+        assertFalse(reader.hasNext());
+        reader.close();
+    }
+
+    @Test
+    public void onFrame_overwritesOldestFramesOnceFull() throws Exception {
+        Nv21FrameFile file = Nv21FrameFile.create(path, WIDTH, HEIGHT, 4);
+        Nv21FrameRecorder recorder = new Nv21FrameRecorder(file, downstream, 2);
+        recorder.start();
+        for (int i = 0; i < 10; i++) {
+            recordAndWait(recorder, i);
+        }
+        recorder.stop();
+        file.close();
+
+        Nv21FrameReader reader = new Nv21FrameReader(path);
+        ByteBuffer dst = ByteBuffer.allocate(Nv21Crop.getBufferSize(WIDTH, HEIGHT));
+        assertEquals(4, reader.getFrameCount());
+        for (int i = 6; i < 10; i++) {
+            reader.next(dst);
+            assertEquals(i, reader.getSequence());
+            assertArrayEquals(Nv21FileFrameSourceTest.frame(i).array(), dst.array());
+        }
+        reader.rewind();
+        reader.next(dst);
+        assertEquals(6, reader.getSequence());
+        reader.close();
+    }
+
+    @Test
+    public void onFrame_continuesSequenceOfExistingRecording() throws Exception {
+        Nv21FrameFile file = Nv21FrameFile.create(path, WIDTH, HEIGHT, 4);
+        Nv21FrameRecorder recorder = new Nv21FrameRecorder(file, downstream, 2);
+        recorder.start();
+        recordAndWait(recorder, 0);
+        recordAndWait(recorder, 1);
+        recorder.stop();
+        Nv21FrameRecorder resumed = new Nv21FrameRecorder(file, downstream, 2);
+        resumed.start();
+        recordAndWait(resumed, 2);
+        resumed.stop();
+        file.close();
+
+        Nv21FrameReader reader = new Nv21FrameReader(path);
+        ByteBuffer dst = ByteBuffer.allocate(Nv21Crop.getBufferSize(WIDTH, HEIGHT));
+        assertEquals(3, reader.getFrameCount());
+        for (int i = 0; i < 3; i++) {
+            reader.next(dst);
+            assertEquals(i, reader.getSequence());
+            assertArrayEquals(Nv21FileFrameSourceTest.frame(i).array(), dst.array());
+        }
+        reader.close();
+    }
+
+    @Test
+    public void onFrame_dropsFramesWhileStagingIsFull() throws Exception {
+        Nv21FrameFile file = Nv21FrameFile.create(path, WIDTH, HEIGHT, 8);
+        Nv21FrameRecorder recorder = new Nv21FrameRecorder(file, downstream, 2);
+
+        // Not started, so nothing drains the staging buffers.
+        for (int i = 0; i < 5; i++) {
+            recorder.onFrame(lease(i), metadata(i, WIDTH, HEIGHT));
+        }
+        assertEquals(5, passedOn.get());
+        assertEquals(3, recorder.getFramesDropped());
+
+        recorder.start();
+        recorder.stop();
+        assertEquals(2, recorder.getFramesRecorded());
+        file.close();
+        Nv21FrameReader reader = new Nv21FrameReader(path);
+        ByteBuffer dst = ByteBuffer.allocate(Nv21Crop.getBufferSize(WIDTH, HEIGHT));
+        assertEquals(2, reader.getFrameCount());
+        reader.next(dst);
+        assertArrayEquals(Nv21FileFrameSourceTest.frame(0).array(), dst.array());
+        reader.next(dst);
+        assertArrayEquals(Nv21FileFrameSourceTest.frame(1).array(), dst.array());
+        reader.close();
+    }
+
+    @Test
+    public void onFrame_dropsFramesOfAnotherSize() throws Exception {
+        Nv21FrameFile file = Nv21FrameFile.create(path, WIDTH, HEIGHT, 8);
+        Nv21FrameRecorder recorder = new Nv21FrameRecorder(file, downstream, 2);
+        recorder.start();
+        FrameLease small = new FrameLease(ByteBuffer.allocate(Nv21Crop.getBufferSize(8, 6)), null);
+        recorder.onFrame(small, metadata(0, 8, 6));
+        recorder.stop();
+        file.close();
+
+        assertEquals(1, passedOn.get());
+        assertEquals(1, recorder.getFramesDropped());
+        assertEquals(0, recorder.getFramesRecorded());
+    }
+
+    @Test
+    public void onFrame_countsFramesAfterStopAsDropped() throws Exception {
+        Nv21FrameFile file = Nv21FrameFile.create(path, WIDTH, HEIGHT, 8);
+        Nv21FrameRecorder recorder = new Nv21FrameRecorder(file, downstream, 2);
+        recorder.start();
+        recordAndWait(recorder, 0);
+        recorder.stop();
+
+        // More frames than there are staging buffers.
+        for (int i = 1; i <= 3; i++) {
+            recorder.onFrame(lease(i), metadata(i, WIDTH, HEIGHT));
+        }
+        file.close();
+
+        assertEquals(4, passedOn.get());
+        assertEquals(1, recorder.getFramesRecorded());
+        assertEquals(3, recorder.getFramesDropped());
+    }
+
+    @Test
+    public void onFrame_steadyStateDoesNotAllocate() throws Exception {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Nv21FrameFile file = Nv21FrameFile.create(path, WIDTH, HEIGHT, 16);
+        Nv21FrameRecorder recorder = new Nv21FrameRecorder(file, downstream, 4);
+        FrameLease frame = lease(0);
+        FrameMetadata metadata = metadata(0, WIDTH, HEIGHT);
+        recorder.start();
+        try {
+            for (int i = 0; i < 3000; i++) {
+                recorder.onFrame(frame, metadata);
+            }
+
+            long threadId = Thread.currentThread().getId();
+            long first = threads.getThreadAllocatedBytes(threadId);
+            long overhead = threads.getThreadAllocatedBytes(threadId) - first;
+            long before = threads.getThreadAllocatedBytes(threadId);
+            for (int i = 0; i < 100; i++) {
+                recorder.onFrame(frame, metadata);
+            }
+            long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+            assertEquals(0, allocated);
+        } finally {
+            recorder.stop();
+            file.close();
+        }
+    }
+
+    // Records frame i and waits for the writer, so that none is dropped.
+    private void recordAndWait(Nv21FrameRecorder recorder, int i) throws InterruptedException {
+        long recorded = recorder.getFramesRecorded();
+        recorder.onFrame(lease(i), metadata(i, WIDTH, HEIGHT));
+        while (recorder.getFramesRecorded() == recorded) {
+            Thread.sleep(1);
+        }
+    }
+
+    private static FrameLease lease(int i) {
+        return new FrameLease(Nv21FileFrameSourceTest.frame(i), null);
+    }
+
+    private static FrameMetadata metadata(int i, int width, int height) {
+        return new FrameMetadata.Builder()
+                .setWidth(width)
+                .setHeight(height)
+                .setRotation(1)
+                .setTimestampNanos(i * 1_000L)
+                .build();
+    }
+}
@@ -0,0 +1,58 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Times {@link Nv21Scaler} on a 960x720 preview frame for a range of scale factors, next to the
+ * detection time each scale would allow. Not run as part of the unit tests, run {@link #main} on
+ * the JVM.
+ *
+ * <p>The detector does not run on the JVM. Its latency is modelled as proportional to the number
+ * of pixels detected, from the latency at 480x360 given as the first argument in milliseconds, 45
+ * by default; {@code StageTimings} gives the measured {@code PREPARE} and {@code DETECT} times on
+ * a device.
+ */
+public class Nv21ScalerBenchmark {
+
+    private static final int WIDTH = 960;
+    private static final int HEIGHT = 720;
+    private static final float[] SCALES = {1f, 0.75f, 0.5f, 0.375f, 0.25f};
+    private static final int FRAMES = 200;
+    private static final int ROUNDS = 3;
+
+    public static void main(String[] args) {
+        double referenceMillis = args.length > 0 ? Double.parseDouble(args[0]) : 45;
+        byte[] nv21 = new byte[Nv21Crop.getBufferSize(WIDTH, HEIGHT)];
+        new Random(1).nextBytes(nv21);
+        ByteBuffer frame = ByteBuffer.wrap(nv21);
+        ByteBuffer out = ByteBuffer.allocate(nv21.length);
+        int[] wholeFrame = {0, 0, WIDTH, HEIGHT};
+        Nv21Scaler scaler = new Nv21Scaler();
+
+        for (int round = 0; round < ROUNDS; round++) {
+            for (float scale : SCALES) {
+                int width = Nv21Scaler.scaledSize(WIDTH, scale);
+                int height = Nv21Scaler.scaledSize(HEIGHT, scale);
+                long start = System.nanoTime();
+                for (int i = 0; i < FRAMES; i++) {
+                    if (scale == 1f) {
+                        // The detector would get the camera buffer itself.
+                        continue;
+                    }
+                    scaler.scale(frame, WIDTH, HEIGHT, wholeFrame, out, width, height);
+                }
+                double scaleMillis = (System.nanoTime() - start) / 1e6 / FRAMES;
+                double detectMillis =
+                        referenceMillis * width * height / (480.0 * 360.0);
+                if (round == ROUNDS - 1) {
+                    System.out.printf(
+                            "scale %.3f: %dx%d, scaling %.2f ms, modelled detection %.1f ms, "
+                                    + "total %.1f ms%n",
+                            scale, width, height, scaleMillis, detectMillis,
+                            scaleMillis + detectMillis);
+                }
+            }
+        }
+    }
+}
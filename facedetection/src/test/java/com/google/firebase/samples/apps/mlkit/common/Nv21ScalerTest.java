@@ -0,0 +1,189 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/** Checks {@link Nv21Scaler} against box averages computed pixel by pixel. */
+public class Nv21ScalerTest {
+
+    private static final int WIDTH = 40;
+    private static final int HEIGHT = 30;
+    private static final int[] WHOLE_FRAME = {0, 0, WIDTH, HEIGHT};
+
+    @Test
+    public void scale_byHalfAveragesBlocks() {
+        byte[] frame = frame();
+        ByteBuffer dst = ByteBuffer.allocate(Nv21Crop.getBufferSize(20, 16));
+
+        new Nv21Scaler().scale(ByteBuffer.wrap(frame), WIDTH, HEIGHT, WHOLE_FRAME, dst, 20, 16);
+
+        byte[] out = dst.array();
+        // HEIGHT 30 into 16 rows: footprints of one or two rows; WIDTH halves exactly.
+        for (int y = 0; y < 16; y++) {
+            int top = y * HEIGHT / 16;
+            int bottom = (y + 1) * HEIGHT / 16;
+            for (int x = 0; x < 20; x++) {
+                assertEquals(
+                        "luma " + x + "," + y,
+                        mean(frame, 0, WIDTH, 1, x * 2, x * 2 + 2, top, bottom),
+                        out[y * 20 + x] & 0xff);
+            }
+        }
+        int chroma = WIDTH * HEIGHT;
+        for (int y = 0; y < 8; y++) {
+            int top = y * 15 / 8;
+            int bottom = (y + 1) * 15 / 8;
+            for (int x = 0; x < 10; x++) {
+                for (int channel = 0; channel < 2; channel++) {
+                    assertEquals(
+                            "chroma " + x + "," + y,
+                            mean(frame, chroma + channel, WIDTH, 2, x * 2, x * 2 + 2, top,
+                                    bottom),
+                            out[20 * 16 + y * 20 + x * 2 + channel] & 0xff);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void scale_toSameSizeIsACrop() {
+        byte[] frame = frame();
+        int[] rect = {6, 4, 20, 14};
+        ByteBuffer scaled = ByteBuffer.allocate(Nv21Crop.getBufferSize(14, 10));
+        ByteBuffer cropped = ByteBuffer.allocate(scaled.capacity());
+
+        new Nv21Scaler().scale(ByteBuffer.wrap(frame), WIDTH, HEIGHT, rect, scaled, 14, 10);
+        Nv21Crop.crop(ByteBuffer.wrap(frame), WIDTH, HEIGHT, rect, cropped);
+
+        assertArrayEquals(cropped.array(), scaled.array());
+    }
+
+    @Test
+    public void scale_regionMatchesScalingItsCrop() {
+        byte[] frame = frame();
+        int[] rect = {10, 6, 34, 24};
+        ByteBuffer crop = ByteBuffer.allocate(Nv21Crop.getBufferSize(24, 18));
+        Nv21Crop.crop(ByteBuffer.wrap(frame), WIDTH, HEIGHT, rect, crop);
+        ByteBuffer fromRegion = ByteBuffer.allocate(Nv21Crop.getBufferSize(10, 8));
+        ByteBuffer fromCrop = ByteBuffer.allocate(fromRegion.capacity());
+        Nv21Scaler scaler = new Nv21Scaler();
+
+        scaler.scale(ByteBuffer.wrap(frame), WIDTH, HEIGHT, rect, fromRegion, 10, 8);
+        scaler.scale(crop, 24, 18, new int[] {0, 0, 24, 18}, fromCrop, 10, 8);
+
+        assertArrayEquals(fromCrop.array(), fromRegion.array());
+    }
+
+    @Test
+    public void scale_keepsFlatImageFlat() {
+        byte[] flat = new byte[Nv21Crop.getBufferSize(WIDTH, HEIGHT)];
+        Arrays.fill(flat, (byte) 200);
+        ByteBuffer dst = ByteBuffer.allocate(Nv21Crop.getBufferSize(14, 12));
+
+        new Nv21Scaler().scale(ByteBuffer.wrap(flat), WIDTH, HEIGHT, WHOLE_FRAME, dst, 14, 12);
+
+        for (byte value : dst.array()) {
+            assertEquals(200, value & 0xff);
+        }
+    }
+
+    @Test
+    public void scale_readsAndWritesDirectBuffers() {
+        byte[] frame = frame();
+        ByteBuffer src = ByteBuffer.allocateDirect(frame.length);
+        src.put(frame);
+        ByteBuffer direct = ByteBuffer.allocateDirect(Nv21Crop.getBufferSize(14, 10));
+        ByteBuffer heap = ByteBuffer.allocate(direct.capacity());
+        Nv21Scaler scaler = new Nv21Scaler();
+
+        scaler.scale(src, WIDTH, HEIGHT, WHOLE_FRAME, direct, 14, 10);
+        scaler.scale(ByteBuffer.wrap(frame), WIDTH, HEIGHT, WHOLE_FRAME, heap, 14, 10);
+
+        byte[] copied = new byte[direct.capacity()];
+        direct.get(copied);
+        assertArrayEquals(heap.array(), copied);
+        assertEquals(frame.length, src.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scale_rejectsUpscaling() {
+        new Nv21Scaler().scale(ByteBuffer.wrap(frame()), WIDTH, HEIGHT, new int[] {0, 0, 10, 10},
+                ByteBuffer.allocate(1000), 12, 10);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scale_rejectsOddOutput() {
+        new Nv21Scaler().scale(ByteBuffer.wrap(frame()), WIDTH, HEIGHT, WHOLE_FRAME,
+                ByteBuffer.allocate(1000), 15, 10);
+    }
+
+    @Test
+    public void scaledSize_isEvenAndAtLeastTwo() {
+        assertEquals(240, Nv21Scaler.scaledSize(480, 0.5f));
+        assertEquals(180, Nv21Scaler.scaledSize(360, 0.5f));
+        assertEquals(116, Nv21Scaler.scaledSize(350, 1f / 3));
+        assertEquals(2, Nv21Scaler.scaledSize(10, 0.01f));
+    }
+
+    @Test
+    public void scale_steadyStateDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        Nv21Scaler scaler = new Nv21Scaler();
+        ByteBuffer src = ByteBuffer.wrap(frame());
+        ByteBuffer dst = ByteBuffer.allocate(src.capacity());
+        int[][] regions = {WHOLE_FRAME, {10, 6, 34, 24}};
+        for (int i = 0; i < 1000; i++) {
+            scaler.scale(src, WIDTH, HEIGHT, regions[0], dst, 20, 14);
+            scaler.scale(src, WIDTH, HEIGHT, regions[1], dst, 12, 8);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long first = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - first;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100; i++) {
+            scaler.scale(src, WIDTH, HEIGHT, regions[0], dst, 20, 14);
+            scaler.scale(src, WIDTH, HEIGHT, regions[1], dst, 12, 8);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals(0, allocated);
+    }
+
+    // An NV21 frame whose every luma and chroma byte differs from its neighbours.
+    private static byte[] frame() {
+        byte[] nv21 = new byte[Nv21Crop.getBufferSize(WIDTH, HEIGHT)];
+        for (int i = 0; i < nv21.length; i++) {
+            nv21[i] = (byte) (i * 37 + i / WIDTH * 11);
+        }
+        return nv21;
+    }
+
+    // Rounded mean of the samples [left, right) x [top, bottom) of a plane starting at start,
+    // with step bytes between the samples of a row.
+    private static int mean(
+            byte[] frame, int start, int stride, int step, int left, int right, int top,
+            int bottom) {
+        int sum = 0;
+        int count = 0;
+        for (int y = top; y < bottom; y++) {
+            for (int x = left; x < right; x++) {
+                sum += frame[start + y * stride + x * step] & 0xff;
+                count++;
+            }
+        }
+        return (sum + count / 2) / count;
+    }
+}
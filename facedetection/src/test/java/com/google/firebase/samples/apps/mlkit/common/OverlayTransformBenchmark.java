@@ -0,0 +1,76 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import java.util.Random;
+
+/**
+ * Compares mapping face points to view coordinates one call per coordinate, the way graphics
+ * used {@code translateX}/{@code translateY}, with one {@link OverlayTransform#mapPoints} call per
+ * array. Not run as part of the unit tests, run {@link #main} on the JVM.
+ */
+public class OverlayTransformBenchmark {
+
+    // Points of all contours of a face, times a few faces.
+    private static final int POINTS = 133 * 3;
+    private static final int FRAMES = 20000;
+    private static final int ROUNDS = 5;
+
+    /** Stands in for the overlay fields the per-point path read on every call. */
+    private static final class PerPointOverlay {
+        float widthScaleFactor = 3f;
+        float heightScaleFactor = 3f;
+        boolean frontFacing = true;
+        int width = 1080;
+
+        float translateX(float x) {
+            if (frontFacing) {
+                return width - x * widthScaleFactor;
+            } else {
+                return x * widthScaleFactor;
+            }
+        }
+
+        float translateY(float y) {
+            return y * heightScaleFactor;
+        }
+    }
+
+    public static void main(String[] args) {
+        float[] points = new float[POINTS * 2];
+        Random random = new Random(1);
+        for (int i = 0; i < points.length; i++) {
+            points[i] = random.nextFloat() * 480;
+        }
+        float[] mapped = new float[points.length];
+        PerPointOverlay overlay = new PerPointOverlay();
+        OverlayTransform transform = new OverlayTransform();
+        transform.set(360, 480, 1080, 1440, true);
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            float sink = 0;
+            for (int frame = 0; frame < FRAMES; frame++) {
+                for (int i = 0; i < points.length; i += 2) {
+                    mapped[i] = overlay.translateX(points[i]);
+                    mapped[i + 1] = overlay.translateY(points[i + 1]);
+                }
+                sink += mapped[frame % points.length];
+            }
+            long perPoint = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int frame = 0; frame < FRAMES; frame++) {
+                transform.mapPoints(points, 0, mapped, 0, POINTS);
+                sink += mapped[frame % points.length];
+            }
+            long batch = System.nanoTime() - start;
+
+            System.out.printf(
+                    "round %d: per point %.1f ns/frame, batch %.1f ns/frame (%.2fx) [%s]%n",
+                    round,
+                    (double) perPoint / FRAMES,
+                    (double) batch / FRAMES,
+                    (double) perPoint / batch,
+                    sink);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.google.firebase.samples.apps.mlkit.common;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks {@link OverlayTransform} against the per-point mapping graphics used before.
+ */
+public class OverlayTransformTest {
+
+    @Test
+    public void mapPoints_matchesPerPointMapping() {
+        for (boolean mirror : new boolean[] {false, true}) {
+            OverlayTransform transform = new OverlayTransform();
+            transform.set(360, 480, 1080, 1440, mirror);
+            float[] points = {0, 0, 10, 20, 359, 479, 180.5f, 240.25f};
+            float[] mapped = points.clone();
+
+            transform.mapPoints(mapped, 0, points.length / 2);
+
+            for (int i = 0; i < points.length; i += 2) {
+                assertEquals(perPointX(points[i], 3f, 1080, mirror), mapped[i], 1e-3f);
+                assertEquals(points[i + 1] * 3f, mapped[i + 1], 1e-3f);
+                assertEquals(mapped[i], transform.mapX(points[i]), 0f);
+                assertEquals(mapped[i + 1], transform.mapY(points[i + 1]), 0f);
+            }
+        }
+    }
+
+    @Test
+    public void mapPoints_withOffsetsIntoOtherArray() {
+        OverlayTransform transform = new OverlayTransform();
+        transform.set(100, 100, 200, 300, true);
+        float[] src = {-1, -1, 10, 10, 50, 20};
+        float[] dst = new float[6];
+
+        transform.mapPoints(src, 2, dst, 2, 2);
+
+        assertEquals(0f, dst[0], 0f);
+        assertEquals(180f, dst[2], 0f);
+        assertEquals(30f, dst[3], 0f);
+        assertEquals(100f, dst[4], 0f);
+        assertEquals(60f, dst[5], 0f);
+    }
+
+    @Test
+    public void getValues_isTheSameAffineMatrix() {
+        OverlayTransform transform = new OverlayTransform();
+        transform.set(360, 480, 720, 960, true);
+        float[] values = new float[9];
+
+        transform.getValues(values);
+
+        float x = 12;
+        float y = 34;
+        assertEquals(transform.mapX(x), values[0] * x + values[1] * y + values[2], 0f);
+        assertEquals(transform.mapY(y), values[3] * x + values[4] * y + values[5], 0f);
+        assertEquals(1f, values[8], 0f);
+    }
+
+    @Test
+    public void set_withoutPreviewSizeIsIdentity() {
+        OverlayTransform transform = new OverlayTransform();
+        transform.set(0, 0, 720, 960, false);
+
+        assertEquals(5f, transform.mapX(5f), 0f);
+        assertEquals(7f, transform.mapY(7f), 0f);
+    }
+
+    // The mapping Graphic.translateX did for every point.
+    static float perPointX(float x, float scale, int viewWidth, boolean mirror) {
+        return mirror ? viewWidth - x * scale : x * scale;
+    }
+}
@@ -0,0 +1,137 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the retry backoff and the state machine of {@link DetectionCircuitBreaker}. */
+public class DetectionCircuitBreakerTest {
+
+    // Opens after 3 failures, 100 ms between frames while open, cooldown 1 s up to 3 s, two
+    // retries starting at 20 ms up to 30 ms.
+    private static DetectionCircuitBreaker breaker() {
+        return new DetectionCircuitBreaker(3, 100, 1000, 3000, 2, 20, 30);
+    }
+
+    @Test
+    public void onFailure_retriesTransientFailuresWithBoundedBackoff() {
+        DetectionCircuitBreaker breaker = breaker();
+
+        assertEquals(20, breaker.onFailure(0, true, 0));
+        assertEquals(30, breaker.onFailure(1, true, 0));
+        assertEquals(-1, breaker.onFailure(2, true, 0));
+
+        assertEquals(3, breaker.getFailures());
+        assertEquals(3, breaker.getTransientFailures());
+        assertEquals(2, breaker.getRetries());
+        // Only the frame given up counts towards opening.
+        assertEquals(DetectionCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void onFailure_givesUpOtherFailuresAtOnce() {
+        DetectionCircuitBreaker breaker = breaker();
+
+        assertEquals(-1, breaker.onFailure(0, false, 0));
+
+        assertEquals(0, breaker.getRetries());
+        assertEquals(0, breaker.getTransientFailures());
+    }
+
+    @Test
+    public void consecutiveFailures_openAndThrottleFrames() {
+        DetectionCircuitBreaker breaker = breaker();
+        fail(breaker, 2, 0);
+        assertEquals(DetectionCircuitBreaker.State.CLOSED, breaker.getState());
+        fail(breaker, 1, 0);
+
+        assertEquals(DetectionCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(1, breaker.getTimesOpened());
+        assertFalse(breaker.admitFrame(50));
+        assertTrue(breaker.admitFrame(100));
+        assertFalse(breaker.admitFrame(150));
+        assertTrue(breaker.admitFrame(200));
+        assertEquals(2, breaker.getFramesThrottled());
+    }
+
+    @Test
+    public void success_resetsConsecutiveFailures() {
+        DetectionCircuitBreaker breaker = breaker();
+        fail(breaker, 2, 0);
+        breaker.onSuccess();
+        fail(breaker, 2, 0);
+
+        assertEquals(DetectionCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.admitFrame(0));
+    }
+
+    @Test
+    public void afterCooldown_admitsOneProbeAndClosesOnSuccess() {
+        DetectionCircuitBreaker breaker = breaker();
+        fail(breaker, 3, 0);
+
+        assertTrue(breaker.admitFrame(1000));
+        assertEquals(DetectionCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.admitFrame(1500));
+        breaker.onSuccess();
+
+        assertEquals(DetectionCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.admitFrame(1501));
+        assertTrue(breaker.admitFrame(1502));
+    }
+
+    @Test
+    public void failedProbe_reopensWithLongerCooldownUpToMax() {
+        DetectionCircuitBreaker breaker = breaker();
+        fail(breaker, 3, 0);
+
+        // Cooldown 1 s, then 2 s, then 3 s as 4 s is over the maximum.
+        long now = 1000;
+        for (long cooldown : new long[] {2000, 3000, 3000}) {
+            assertTrue(breaker.admitFrame(now));
+            // Probe failures are not retried, even transient ones.
+            assertEquals(-1, breaker.onFailure(0, true, now));
+            assertEquals(DetectionCircuitBreaker.State.OPEN, breaker.getState());
+            assertTrue(breaker.admitFrame(now + cooldown - 1));
+            assertEquals(DetectionCircuitBreaker.State.OPEN, breaker.getState());
+            now += cooldown;
+        }
+        assertTrue(breaker.admitFrame(now));
+        assertEquals(DetectionCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertEquals(4, breaker.getTimesOpened());
+    }
+
+    @Test
+    public void closingAgain_restoresBaseCooldown() {
+        DetectionCircuitBreaker breaker = breaker();
+        fail(breaker, 3, 0);
+        breaker.admitFrame(1000);
+        breaker.onFailure(0, false, 1000);
+        breaker.admitFrame(3000);
+        breaker.onSuccess();
+
+        fail(breaker, 3, 5000);
+
+        assertTrue(breaker.admitFrame(5999));
+        assertEquals(DetectionCircuitBreaker.State.OPEN, breaker.getState());
+        assertTrue(breaker.admitFrame(6000));
+        assertEquals(DetectionCircuitBreaker.State.HALF_OPEN, breaker.getState());
+    }
+
+    @Test
+    public void toString_reportsCounters() {
+        DetectionCircuitBreaker breaker = breaker();
+        breaker.onFailure(0, true, 0);
+
+        assertEquals("state=CLOSED failures=1 transient=1 retries=1 throttled=0 opened=0",
+                breaker.toString());
+    }
+
+    private static void fail(DetectionCircuitBreaker breaker, int frames, long nowMillis) {
+        for (int i = 0; i < frames; i++) {
+            assertEquals(-1, breaker.onFailure(0, false, nowMillis));
+        }
+    }
+}
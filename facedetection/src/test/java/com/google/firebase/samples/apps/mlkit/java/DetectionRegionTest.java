@@ -0,0 +1,157 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+import com.google.firebase.samples.apps.mlkit.common.Nv21Crop;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the crop and full-scan decisions of {@link DetectionRegion}. */
+public class DetectionRegionTest {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 360;
+
+    // Half the larger face side as margin, a full scan every 3 detections, 96 pixels at least.
+    private static DetectionRegion region() {
+        DetectionRegion region = new DetectionRegion(0.5f, 3, 96);
+        region.setEnabled(true);
+        return region;
+    }
+
+    @Test
+    public void nextRegion_scansWholeFramesWhileDisabled() {
+        DetectionRegion region = new DetectionRegion(0.5f, 3, 96);
+        region.onFacesDetected(1, 200, 100, 280, 180);
+
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertEquals(0, region.getCrops());
+    }
+
+    @Test
+    public void nextRegion_scansWholeFramesUntilFacesAreKnown() {
+        DetectionRegion region = region();
+
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertEquals(2, region.getFullScans());
+    }
+
+    @Test
+    public void nextRegion_cropsAroundFacesWithMargin() {
+        DetectionRegion region = region();
+        region.nextRegion(WIDTH, HEIGHT, 0, new int[4]);
+        region.onFacesDetected(1, 200, 100, 280, 180);
+
+        int[] rect = new int[4];
+        assertTrue(region.nextRegion(WIDTH, HEIGHT, 0, rect));
+
+        assertArrayEquals(new int[] {160, 60, 320, 220}, rect);
+        assertEquals(1, region.getCrops());
+    }
+
+    @Test
+    public void nextRegion_growsSmallRegionsInsideTheFrame() {
+        DetectionRegion region = region();
+        region.nextRegion(WIDTH, HEIGHT, 0, new int[4]);
+        // A 20 pixel face in the corner: 40 pixels with margin, grown to 96 and shifted inside.
+        region.onFacesDetected(1, 0, 0, 20, 20);
+
+        int[] rect = new int[4];
+        assertTrue(region.nextRegion(WIDTH, HEIGHT, 0, rect));
+
+        assertArrayEquals(new int[] {0, 0, 96, 96}, rect);
+    }
+
+    @Test
+    public void nextRegion_alignsRegionsToEvenCoordinates() {
+        DetectionRegion region = region();
+        region.nextRegion(WIDTH, HEIGHT, 0, new int[4]);
+        region.onFacesDetected(1, 201, 101, 281, 181);
+
+        int[] rect = new int[4];
+        assertTrue(region.nextRegion(WIDTH, HEIGHT, 0, rect));
+
+        assertArrayEquals(new int[] {160, 60, 322, 222}, rect);
+    }
+
+    @Test
+    public void nextRegion_mapsUprightFacesToFrameCoordinates() {
+        DetectionRegion region = region();
+        region.nextRegion(WIDTH, HEIGHT, 1, new int[4]);
+        // In the upright 360x480 image.
+        region.onFacesDetected(1, 100, 200, 180, 280);
+
+        int[] rect = new int[4];
+        assertTrue(region.nextRegion(WIDTH, HEIGHT, 1, rect));
+        Nv21Crop.toUprightRect(rect, WIDTH, HEIGHT, 1);
+
+        assertArrayEquals(new int[] {60, 160, 220, 320}, rect);
+    }
+
+    @Test
+    public void nextRegion_scansTheWholeFrameEveryInterval() {
+        DetectionRegion region = region();
+        region.nextRegion(WIDTH, HEIGHT, 0, new int[4]);
+        region.onFacesDetected(1, 200, 100, 280, 180);
+
+        int[] rect = new int[4];
+        assertTrue(region.nextRegion(WIDTH, HEIGHT, 0, rect));
+        assertTrue(region.nextRegion(WIDTH, HEIGHT, 0, rect));
+        assertTrue(region.nextRegion(WIDTH, HEIGHT, 0, rect));
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, rect));
+        assertTrue(region.nextRegion(WIDTH, HEIGHT, 0, rect));
+
+        assertEquals(4, region.getCrops());
+        assertEquals(2, region.getFullScans());
+    }
+
+    @Test
+    public void nextRegion_scansTheWholeFrameForRegionsCoveringMostOfIt() {
+        DetectionRegion region = region();
+        region.nextRegion(WIDTH, HEIGHT, 0, new int[4]);
+        region.onFacesDetected(1, 100, 60, 380, 300);
+
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertEquals(0, region.getCrops());
+    }
+
+    @Test
+    public void onFacesDetected_scansTheWholeFrameOnceAFaceIsLost() {
+        DetectionRegion region = region();
+        region.nextRegion(WIDTH, HEIGHT, 0, new int[4]);
+        region.onFacesDetected(2, 100, 100, 280, 180);
+        region.onFacesDetected(1, 200, 100, 280, 180);
+
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertTrue(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertEquals(1, region.getFacesLost());
+    }
+
+    @Test
+    public void onNoFaces_scansWholeFramesAgain() {
+        DetectionRegion region = region();
+        region.nextRegion(WIDTH, HEIGHT, 0, new int[4]);
+        region.onFacesDetected(1, 200, 100, 280, 180);
+        region.onNoFaces();
+
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertEquals(1, region.getFacesLost());
+    }
+
+    @Test
+    public void reset_forgetsTheFaces() {
+        DetectionRegion region = region();
+        region.nextRegion(WIDTH, HEIGHT, 0, new int[4]);
+        region.onFacesDetected(1, 200, 100, 280, 180);
+        region.reset();
+
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertFalse(region.nextRegion(WIDTH, HEIGHT, 0, new int[4]));
+        assertEquals(0, region.getFacesLost());
+    }
+}
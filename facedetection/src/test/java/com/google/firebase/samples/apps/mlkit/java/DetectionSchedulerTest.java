@@ -0,0 +1,488 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+import com.google.firebase.samples.apps.mlkit.common.FrameLease;
+import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the scheduling of {@link DetectionScheduler}: the in-flight window, delivery in frame
+ * order, retries, the conversion joining the detection, stopping and the detection region, with a
+ * detector that completes on command.
+ */
+public class DetectionSchedulerTest {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 360;
+
+    private final FakeDetector detector = new FakeDetector();
+    private final RecordingListener listener = new RecordingListener();
+    private final DetectionScheduler<String, String> scheduler =
+            new DetectionScheduler<>(detector, listener);
+    private final AtomicInteger recycled = new AtomicInteger();
+
+    @After
+    public void stopScheduler() {
+        scheduler.stop();
+    }
+
+    @Test
+    public void process_deliversResultsInFrameOrder() {
+        scheduler.setImageRequired(false);
+        scheduler.setMaxInFlight(2);
+        FrameLease first = process(0);
+        FrameLease second = process(1);
+
+        assertEquals(2, detector.callCount());
+        detector.call(0).succeed("a");
+        detector.call(1).succeed("b");
+
+        assertEquals(Arrays.asList("detected 0", "success a 0", "detected 1", "success b 1"),
+                listener.events());
+        assertEquals(0, first.getRefCount());
+        assertEquals(0, second.getRefCount());
+        assertEquals(2, recycled.get());
+    }
+
+    @Test
+    public void process_discardsResultsOvertakenByNewerFrames() {
+        scheduler.setImageRequired(false);
+        scheduler.setMaxInFlight(2);
+        FrameLease first = process(0);
+        process(1);
+
+        detector.call(1).succeed("b");
+        detector.call(0).succeed("a");
+
+        assertEquals(Arrays.asList("detected 1", "success b 1"), listener.events());
+        DetectionWindowStats.Bucket bucket = scheduler.getWindowStats().snapshot().get(0);
+        assertEquals(1, bucket.getDelivered());
+        assertEquals(1, bucket.getDiscarded());
+        // The overtaken frame is still given back.
+        assertEquals(0, first.getRefCount());
+    }
+
+    @Test
+    public void process_keepsOnlyTheLatestFrameWhileTheWindowIsFull() {
+        scheduler.setImageRequired(false);
+        FrameLease detected = process(0);
+        FrameLease superseded = process(1);
+        FrameLease latest = process(2);
+
+        assertEquals(1, detector.callCount());
+        // Held by the detection and by the wait for a slot only.
+        assertEquals(1, detected.getRefCount());
+        assertEquals(0, superseded.getRefCount());
+        assertEquals(1, latest.getRefCount());
+
+        detector.call(0).succeed("a");
+
+        assertEquals(2, detector.callCount());
+        assertEquals(0, detected.getRefCount());
+        detector.call(1).succeed("c");
+        assertEquals(Arrays.asList("detected 0", "success a 0", "detected 2", "success c 2"),
+                listener.events());
+    }
+
+    @Test
+    public void failure_retriesTransientFailuresOfTheSameFrame() throws Exception {
+        scheduler.setImageRequired(false);
+        FrameLease frame = process(0);
+
+        detector.call(0).fail(new TransientException());
+        FakeDetector.Call retry = detector.awaitCall(1);
+
+        assertSame(detector.call(0).data, retry.data);
+        assertEquals(1, frame.getRefCount());
+        retry.succeed("a");
+        assertEquals(Arrays.asList("detected 0", "success a 0"), listener.events());
+        assertEquals(1, scheduler.getCircuitBreaker().getRetries());
+        assertEquals(0, frame.getRefCount());
+    }
+
+    @Test
+    public void failure_givesUpOtherFailuresAndFreesTheSlot() {
+        scheduler.setImageRequired(false);
+        FrameLease failed = process(0);
+        process(1);
+
+        detector.call(0).fail(new IllegalArgumentException());
+
+        assertEquals(Collections.singletonList("failure"), listener.events());
+        assertEquals(0, failed.getRefCount());
+        // The waiting frame gets the slot.
+        assertEquals(2, detector.callCount());
+        assertEquals(0, scheduler.getCircuitBreaker().getRetries());
+    }
+
+    @Test
+    public void process_predictsFramesBetweenDetections() {
+        scheduler.setImageRequired(false);
+        scheduler.setDetectionInterval(3);
+        process(0);
+        detector.call(0).succeed("a");
+        process(1);
+        process(2);
+        scheduler.requestDetection();
+        process(3);
+        process(4);
+
+        assertEquals(2, detector.callCount());
+        assertEquals(3, scheduler.getDetectionsSkipped());
+        assertEquals(
+                Arrays.asList("detected 0", "success a 0", "predicted 1", "predicted 2",
+                        "predicted 4"),
+                listener.events());
+    }
+
+    @Test
+    public void process_deliversOnceDetectionAndConversionAreBothDone() throws Exception {
+        listener.conversionGate = new CountDownLatch(1);
+        FrameLease frame = process(0);
+
+        detector.call(0).succeed("a");
+        assertTrue(listener.events().isEmpty());
+        // Held by the detection until its result is delivered.
+        assertTrue(frame.getRefCount() > 0);
+
+        listener.conversionGate.countDown();
+        listener.awaitEvents(2);
+
+        assertEquals(Arrays.asList("detected 0", "success a image0"), listener.events());
+        awaitRefCount(frame, 0);
+    }
+
+    @Test
+    public void process_discardsImagesOfOvertakenResults() throws Exception {
+        scheduler.setMaxInFlight(2);
+        process(0);
+        process(1);
+
+        detector.call(1).succeed("b");
+        listener.awaitEvents(2);
+        detector.call(0).succeed("a");
+        listener.awaitDiscarded(1);
+
+        assertEquals(Arrays.asList("detected 1", "success b image1"), listener.events());
+        assertEquals(Collections.singletonList("image0"), listener.discarded());
+    }
+
+    @Test
+    public void stop_givesFramesAndImagesBackAndDeliversNothingMore() throws Exception {
+        scheduler.setMaxInFlight(2);
+        FrameLease first = process(0);
+        FrameLease second = process(1);
+        listener.awaitConversions(2);
+
+        scheduler.stop();
+        detector.call(0).succeed("a");
+        detector.call(1).fail(new TransientException());
+        listener.awaitDiscarded(2);
+
+        assertTrue(detector.closed);
+        // The conversions drop their own references once done.
+        awaitRefCount(first, 0);
+        awaitRefCount(second, 0);
+        assertTrue(listener.events().isEmpty());
+        List<String> discarded = new ArrayList<>(listener.discarded());
+        Collections.sort(discarded);
+        assertEquals(Arrays.asList("image0", "image1"), discarded);
+        assertEquals(0, scheduler.getCircuitBreaker().getRetries());
+    }
+
+    @Test
+    public void process_detectsTheRegionAroundKnownFaces() {
+        scheduler.setImageRequired(false);
+        scheduler.getDetectionRegion().setEnabled(true);
+        process(0);
+        detector.call(0).succeed("a");
+        scheduler.getDetectionRegion().onFacesDetected(1, 200, 100, 280, 180);
+
+        process(1);
+
+        FakeDetector.Call call = detector.call(1);
+        assertEquals(160, call.width);
+        assertEquals(160, call.height);
+        assertNotSame(detector.call(0).data, call.data);
+        call.succeed("b");
+        assertEquals("detected 1 region 160,60", listener.events().get(2));
+    }
+
+    @Test
+    public void process_scalesFramesDownToTheMaximumDetectionSize() {
+        scheduler.setImageRequired(false);
+        scheduler.setMaxDetectionSize(240, 240);
+
+        process(0);
+
+        FakeDetector.Call call = detector.call(0);
+        assertEquals(240, call.width);
+        assertEquals(180, call.height);
+        assertEquals(0.5f, scheduler.getDetectionScale(WIDTH, HEIGHT), 0f);
+        call.succeed("a");
+        assertEquals("detected 0 scale 0.5", listener.events().get(0));
+    }
+
+    @Test
+    public void process_givesWholeFramesToDetectorsThatDoNotReadImages() {
+        detector.readsImages = false;
+        scheduler.setImageRequired(false);
+        scheduler.setMaxDetectionSize(240, 240);
+        scheduler.getDetectionRegion().setEnabled(true);
+        scheduler.getDetectionRegion().onFacesDetected(1, 200, 100, 280, 180);
+
+        process(0);
+
+        assertEquals(WIDTH, detector.call(0).width);
+        assertEquals(HEIGHT, detector.call(0).height);
+        assertEquals(1f, scheduler.getDetectionScale(WIDTH, HEIGHT), 0f);
+    }
+
+    @Test
+    public void onFrameSizeChanged_dropsResultsOfEarlierFrames() {
+        scheduler.setImageRequired(false);
+        FrameLease detected = process(0);
+        FrameLease waiting = process(1);
+
+        scheduler.onFrameSizeChanged();
+        detector.call(0).succeed("a");
+
+        assertEquals(Collections.singletonList("reset"), listener.events());
+        assertEquals(0, detected.getRefCount());
+        assertEquals(0, waiting.getRefCount());
+        assertEquals(1, detector.callCount());
+    }
+
+    // Hands a new frame, stamped with its index, to the scheduler and drops the caller's
+    // reference like the processing loop does.
+    private FrameLease process(int index) {
+        FrameLease frame = new FrameLease(ByteBuffer.allocate(WIDTH * HEIGHT * 3 / 2),
+                new FrameLease.Recycler() {
+                    @Override
+                    public void recycle(FrameLease lease) {
+                        recycled.incrementAndGet();
+                    }
+                }).open();
+        scheduler.process(frame, new FrameMetadata.Builder()
+                .setWidth(WIDTH)
+                .setHeight(HEIGHT)
+                .setTimestampNanos(index)
+                .build());
+        frame.release();
+        return frame;
+    }
+
+    private static void awaitRefCount(FrameLease frame, int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (frame.getRefCount() != count && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(count, frame.getRefCount());
+    }
+
+    private static final class TransientException extends Exception {
+    }
+
+    /** Keeps every detection until the test completes it. */
+    private static final class FakeDetector implements Detector<String> {
+
+        static final class Call {
+            final ByteBuffer data;
+            final int width;
+            final int height;
+            final Callback<String> callback;
+
+            Call(ByteBuffer data, int width, int height, Callback<String> callback) {
+                this.data = data;
+                this.width = width;
+                this.height = height;
+                this.callback = callback;
+            }
+
+            void succeed(String results) {
+                callback.onSuccess(results);
+            }
+
+            void fail(Exception e) {
+                callback.onFailure(e);
+            }
+        }
+
+        private final List<Call> calls = new ArrayList<>();
+        volatile boolean readsImages = true;
+        volatile boolean closed;
+
+        @Override
+        public synchronized void detect(
+                ByteBuffer nv21, int width, int height, int rotation, Callback<String> callback) {
+            calls.add(new Call(nv21, width, height, callback));
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void detect(
+                int[] argb, int width, int height, Callback<String> callback) {
+            calls.add(new Call(null, width, height, callback));
+            notifyAll();
+        }
+
+        @Override
+        public boolean readsImages() {
+            return readsImages;
+        }
+
+        @Override
+        public boolean isTransientFailure(Exception e) {
+            return e instanceof TransientException;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+
+        synchronized int callCount() {
+            return calls.size();
+        }
+
+        synchronized Call call(int index) {
+            return calls.get(index);
+        }
+
+        synchronized Call awaitCall(int index) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (calls.size() <= index && System.nanoTime() < deadline) {
+                wait(10);
+            }
+            return calls.get(index);
+        }
+    }
+
+    /** Records what reaches the listener, with images named after the frame they come from. */
+    private static final class RecordingListener
+            implements DetectionScheduler.Listener<String, String> {
+        private final List<String> events = new ArrayList<>();
+        private final List<String> discarded = new ArrayList<>();
+        private int conversions;
+        // Holds conversions back until opened, when set.
+        volatile CountDownLatch conversionGate;
+
+        @Override
+        public String convert(ByteBuffer data, FrameMetadata metadata) {
+            CountDownLatch gate = conversionGate;
+            if (gate != null) {
+                try {
+                    gate.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            synchronized (this) {
+                conversions++;
+                notifyAll();
+            }
+            return "image" + metadata.getTimestampNanos();
+        }
+
+        @Override
+        public synchronized void discard(String image) {
+            discarded.add(image);
+            notifyAll();
+        }
+
+        @Override
+        public synchronized void onDetectedFrame(ByteBuffer frameData, FrameMetadata metadata) {
+            String event = "detected " + metadata.getTimestampNanos();
+            if (metadata.getRegionLeft() != 0 || metadata.getRegionTop() != 0) {
+                event += " region " + metadata.getRegionLeft() + "," + metadata.getRegionTop();
+            }
+            if (metadata.getDetectionScale() != 1f) {
+                event += " scale " + metadata.getDetectionScale();
+            }
+            add(event);
+        }
+
+        @Override
+        public synchronized void onSuccess(String image, String results, FrameMetadata metadata) {
+            add("success " + results + " "
+                    + (image != null ? image : String.valueOf(metadata.getTimestampNanos())));
+        }
+
+        @Override
+        public synchronized void onPredictedFrame(
+                String image, ByteBuffer frameData, FrameMetadata metadata) {
+            add("predicted " + metadata.getTimestampNanos());
+        }
+
+        @Override
+        public synchronized void onFailure(Exception e) {
+            add("failure");
+        }
+
+        @Override
+        public boolean isTransientFailure(Exception e) {
+            return e instanceof TransientException;
+        }
+
+        @Override
+        public synchronized void onFrameStateReset() {
+            add("reset");
+        }
+
+        @Override
+        public void onConversionStopped() {
+        }
+
+        synchronized List<String> events() {
+            return new ArrayList<>(events);
+        }
+
+        synchronized List<String> discarded() {
+            return new ArrayList<>(discarded);
+        }
+
+        synchronized void awaitEvents(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (events.size() < count && System.nanoTime() < deadline) {
+                wait(10);
+            }
+            assertEquals(count, events.size());
+        }
+
+        synchronized void awaitDiscarded(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (discarded.size() < count && System.nanoTime() < deadline) {
+                wait(10);
+            }
+            assertEquals(count, discarded.size());
+        }
+
+        synchronized void awaitConversions(int count) throws InterruptedException {
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (conversions < count && System.nanoTime() < deadline) {
+                wait(10);
+            }
+            assertEquals(count, conversions);
+        }
+
+        private void add(String event) {
+            events.add(event);
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.google.firebase.samples.apps.mlkit.java;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the per-window counters of {@link DetectionWindowStats}. */
+public class DetectionWindowStatsTest {
+
+    private static final long MS = 1000000L;
+
+    @Test
+    public void snapshot_keepsWindowSizesApartSmallestFirst() {
+        DetectionWindowStats stats = new DetectionWindowStats();
+        stats.onSubmitted(2, 0);
+        stats.onSubmitted(1, 0);
+        stats.onSubmitted(2, 0);
+
+        List<DetectionWindowStats.Bucket> buckets = stats.snapshot();
+
+        assertEquals(2, buckets.size());
+        assertEquals(1, buckets.get(0).getWindowSize());
+        assertEquals(1, buckets.get(0).getSubmitted());
+        assertEquals(2, buckets.get(1).getWindowSize());
+        assertEquals(2, buckets.get(1).getSubmitted());
+    }
+
+    @Test
+    public void onCompleted_countsDeliveredAndDiscardedLatency() {
+        DetectionWindowStats stats = new DetectionWindowStats();
+        stats.onSubmitted(2, 0);
+        stats.onSubmitted(2, 10 * MS);
+        stats.onCompleted(2, 40 * MS, true, 40 * MS);
+        stats.onCompleted(2, 20 * MS, false, 30 * MS);
+
+        DetectionWindowStats.Bucket bucket = stats.snapshot().get(0);
+
+        assertEquals(1, bucket.getDelivered());
+        assertEquals(1, bucket.getDiscarded());
+        assertEquals(30.0, bucket.getMeanLatencyMillis(), 1e-9);
+        assertEquals(40.0, bucket.getMaxLatencyMillis(), 1e-9);
+    }
+
+    @Test
+    public void throughput_countsDeliveredResultsFromFirstSubmitToLastResult() {
+        DetectionWindowStats stats = new DetectionWindowStats();
+        for (int i = 0; i < 10; i++) {
+            stats.onSubmitted(1, 1000 * MS + i * 50 * MS);
+            stats.onCompleted(1, 50 * MS, i % 2 == 0, 1000 * MS + (i + 1) * 50 * MS);
+        }
+
+        DetectionWindowStats.Bucket bucket = stats.snapshot().get(0);
+
+        // Five results in 500 ms.
+        assertEquals(10.0, bucket.getThroughputPerSecond(), 1e-9);
+    }
+
+    @Test
+    public void emptyBucket_reportsZero() {
+        DetectionWindowStats stats = new DetectionWindowStats();
+        stats.onSubmitted(1, 5 * MS);
+
+        DetectionWindowStats.Bucket bucket = stats.snapshot().get(0);
+
+        assertEquals(0.0, bucket.getMeanLatencyMillis(), 0.0);
+        assertEquals(0.0, bucket.getThroughputPerSecond(), 0.0);
+        assertTrue(bucket.toString().contains("window=1 submitted=1"));
+    }
+
+    @Test
+    public void snapshot_isNotChangedByLaterDetections() {
+        DetectionWindowStats stats = new DetectionWindowStats();
+        stats.onSubmitted(1, 0);
+        DetectionWindowStats.Bucket before = stats.snapshot().get(0);
+
+        stats.onSubmitted(1, MS);
+        stats.onCompleted(1, MS, true, 2 * MS);
+
+        assertEquals(1, before.getSubmitted());
+        assertEquals(0, before.getDelivered());
+        assertEquals(2, stats.snapshot().get(0).getSubmitted());
+    }
+}
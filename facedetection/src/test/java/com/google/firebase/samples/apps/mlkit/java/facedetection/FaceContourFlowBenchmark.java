@@ -0,0 +1,221 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Replays a synthetic 480x360 camera sequence, a textured face moving over a textured background
+ * with sensor noise, through {@link FaceContourFlow} the way {@link FaceContourDetectorProcessor}
+ * uses it: the contours are detected (the true points plus detector jitter) on one frame in n and
+ * tracked on the others, with a detection forced when tracking is lost. Reports for each n the
+ * time spent tracking, the frame rate this allows compared to detecting every frame, and how far
+ * the tracked points drift from the true ones. Not run as part of the unit tests, run {@link
+ * #main} on the JVM.
+ *
+ * <p>The detector itself does not run on the JVM: its latency per frame is taken from the first
+ * argument, in milliseconds, 45 by default.
+ */
+public class FaceContourFlowBenchmark {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 360;
+    private static final int FRAMES = 300;
+    private static final long FRAME_NANOS = 33_333_333L;
+    private static final int OUTLINE_POINTS = 36;
+    private static final int INNER_POINTS = 97;
+    private static final float RADIUS_X = 70f;
+    private static final float RADIUS_Y = 90f;
+    private static final float DETECTOR_JITTER = 1.5f;
+    private static final int[] INTERVALS = {1, 2, 4, 8};
+    private static final int[] THREADS = {1, 4};
+
+    public static void main(String[] args) {
+        double detectorMillis = args.length > 0 ? Double.parseDouble(args[0]) : 45;
+        float[] template = faceTemplate();
+        ByteBuffer[] frames = new ByteBuffer[FRAMES];
+        float[][] truth = new float[FRAMES][];
+        renderSequence(template, frames, truth);
+
+        for (int threads : THREADS) {
+            FaceContourFlow flow = new FaceContourFlow(threads);
+            try {
+                // Warm up.
+                replay(flow, threads, frames, truth, 4, detectorMillis, false);
+                double baselineFps = 0;
+                for (int interval : INTERVALS) {
+                    double fps = replay(
+                            flow, threads, frames, truth, interval, detectorMillis, true);
+                    if (interval == 1) {
+                        baselineFps = fps;
+                    }
+                    System.out.printf("    %.2fx the frame rate of detecting every frame%n",
+                            fps / baselineFps);
+                }
+            } finally {
+                flow.shutdown();
+            }
+        }
+    }
+
+    // Returns the frame rate the detector latency and the measured tracking time allow.
+    private static double replay(
+            FaceContourFlow flow, int threads, ByteBuffer[] frames, float[][] truth, int interval,
+            double detectorMillis, boolean print) {
+        Random jitter = new Random(interval);
+        FaceContourGeometry detected = new FaceContourGeometry();
+        long startNanos = 0;
+        long trackNanos = 0;
+        int detections = 0;
+        int tracked = 0;
+        int failures = 0;
+        double driftSum = 0;
+        double maxDrift = 0;
+        boolean forceDetection = false;
+        for (int frame = 0; frame < FRAMES; frame++) {
+            if (forceDetection || frame % interval == 0) {
+                forceDetection = false;
+                toGeometry(truth[frame], jitter, detected);
+                long start = System.nanoTime();
+                flow.startFrom(frames[frame], WIDTH, HEIGHT);
+                flow.addFace(0, detected);
+                startNanos += System.nanoTime() - start;
+                detections++;
+                continue;
+            }
+            long start = System.nanoTime();
+            boolean trusted = flow.track(frames[frame], WIDTH, HEIGHT, 0);
+            trackNanos += System.nanoTime() - start;
+            if (!trusted) {
+                failures++;
+                forceDetection = true;
+                continue;
+            }
+            tracked++;
+            float[] points = flow.getFace(0).getPoints();
+            double drift = meanDistance(points, truth[frame]);
+            driftSum += drift;
+            maxDrift = Math.max(maxDrift, drift);
+        }
+        double totalMillis = detections * detectorMillis + (startNanos + trackNanos) / 1e6;
+        double fps = FRAMES * 1000 / totalMillis;
+        if (print) {
+            System.out.printf(
+                    "%d threads, detect every %d: %d detections, %d frames tracked, %d lost, "
+                            + "%.2f ms per tracked frame, %.2f ms per pyramid of a detected frame, "
+                            + "drift %.2f px mean, %.2f px worst frame, %.1f fps%n",
+                    threads,
+                    interval,
+                    detections,
+                    tracked,
+                    failures,
+                    tracked + failures == 0 ? 0 : trackNanos / 1e6 / (tracked + failures),
+                    startNanos / 1e6 / detections,
+                    tracked == 0 ? 0 : driftSum / tracked,
+                    maxDrift,
+                    fps);
+        }
+        return fps;
+    }
+
+    // Contour points relative to the face centre: an outline just inside the face and points
+    // spread over it.
+    private static float[] faceTemplate() {
+        Random random = new Random(7);
+        float[] points = new float[(OUTLINE_POINTS + INNER_POINTS) * 2];
+        int n = 0;
+        for (int i = 0; i < OUTLINE_POINTS; i++) {
+            double angle = 2 * Math.PI * i / OUTLINE_POINTS;
+            points[n++] = (float) (0.85 * RADIUS_X * Math.cos(angle));
+            points[n++] = (float) (0.85 * RADIUS_Y * Math.sin(angle));
+        }
+        for (int i = 0; i < INNER_POINTS; i++) {
+            double angle = 2 * Math.PI * random.nextDouble();
+            double radius = 0.7 * Math.sqrt(random.nextDouble());
+            points[n++] = (float) (radius * RADIUS_X * Math.cos(angle));
+            points[n++] = (float) (radius * RADIUS_Y * Math.sin(angle));
+        }
+        return points;
+    }
+
+    // Renders the frames and the true contour points of each.
+    private static void renderSequence(float[] template, ByteBuffer[] frames, float[][] truth) {
+        float[] background = texture(0.21f, 0.13f);
+        float[] skin = texture(0.17f, 0.29f);
+        Random noise = new Random(11);
+        for (int frame = 0; frame < FRAMES; frame++) {
+            double seconds = frame * FRAME_NANOS / 1e9;
+            float centerX = (float) (WIDTH / 2 + 60 * Math.sin(2 * Math.PI * seconds / 3));
+            float centerY = (float) (HEIGHT / 2 + 25 * Math.sin(2 * Math.PI * seconds / 2));
+            byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+            for (int y = 0; y < HEIGHT; y++) {
+                for (int x = 0; x < WIDTH; x++) {
+                    float fx = (x - centerX) / RADIUS_X;
+                    float fy = (y - centerY) / RADIUS_Y;
+                    float value = fx * fx + fy * fy <= 1f
+                            ? sample(skin, x - centerX + WIDTH / 2, y - centerY + HEIGHT / 2)
+                            : background[y * WIDTH + x];
+                    value += (float) noise.nextGaussian() * 2f;
+                    nv21[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, Math.round(value)));
+                }
+            }
+            for (int i = WIDTH * HEIGHT; i < nv21.length; i++) {
+                nv21[i] = (byte) 128;
+            }
+            frames[frame] = ByteBuffer.wrap(nv21);
+            truth[frame] = new float[template.length];
+            for (int i = 0; i < template.length; i += 2) {
+                truth[frame][i] = template[i] + centerX;
+                truth[frame][i + 1] = template[i + 1] + centerY;
+            }
+        }
+    }
+
+    private static float[] texture(float a, float b) {
+        float[] texture = new float[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                texture[y * WIDTH + x] = (float) (128
+                        + 40 * Math.sin(a * x + b * y)
+                        + 30 * Math.sin(b * y - 0.5 * a * x + 1)
+                        + 25 * Math.sin(1.3 * a * x) * Math.cos(1.2 * b * y));
+            }
+        }
+        return texture;
+    }
+
+    private static float sample(float[] texture, float x, float y) {
+        x = Math.max(0, Math.min(WIDTH - 1.001f, x));
+        y = Math.max(0, Math.min(HEIGHT - 1.001f, y));
+        int x0 = (int) x;
+        int y0 = (int) y;
+        float fx = x - x0;
+        float fy = y - y0;
+        int i = y0 * WIDTH + x0;
+        float top = texture[i] + fx * (texture[i + 1] - texture[i]);
+        float bottom = texture[i + WIDTH] + fx * (texture[i + WIDTH + 1] - texture[i + WIDTH]);
+        return top + fy * (bottom - top);
+    }
+
+    // The smoother and the flow do not care which contour the points belong to.
+    private static void toGeometry(float[] points, Random jitter, FaceContourGeometry geometry) {
+        geometry.reset();
+        geometry.beginContour(FirebaseVisionFaceContour.FACE);
+        for (int i = 0; i < points.length; i += 2) {
+            geometry.addPoint(
+                    points[i] + (float) jitter.nextGaussian() * DETECTOR_JITTER,
+                    points[i + 1] + (float) jitter.nextGaussian() * DETECTOR_JITTER);
+        }
+    }
+
+    private static double meanDistance(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < b.length; i += 2) {
+            float dx = a[i] - b[i];
+            float dy = a[i + 1] - b[i + 1];
+            sum += Math.sqrt(dx * dx + dy * dy);
+        }
+        return sum / (b.length / 2);
+    }
+}
@@ -0,0 +1,101 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link FaceContourFlow} moves upright contours by the motion of frames delivered in
+ * every rotation.
+ */
+public class FaceContourFlowTest {
+
+    private static final int WIDTH = 160;
+    private static final int HEIGHT = 120;
+    private static final float DX = 2.5f;
+    private static final float DY = -1.5f;
+
+    @Test
+    public void track_rotation0_movesContoursWithFrame() {
+        assertTracked(0, DX, DY);
+    }
+
+    @Test
+    public void track_rotation90_turnsFrameMotionUpright() {
+        // Turned a quarter clockwise, frame right is upright down and frame down is upright left.
+        assertTracked(1, -DY, DX);
+    }
+
+    @Test
+    public void track_rotation180_turnsFrameMotionUpright() {
+        assertTracked(2, -DX, -DY);
+    }
+
+    @Test
+    public void track_rotation270_turnsFrameMotionUpright() {
+        assertTracked(3, DY, -DX);
+    }
+
+    @Test
+    public void track_withoutFaces_isNotTrusted() {
+        FaceContourFlow flow = new FaceContourFlow(1);
+        flow.startFrom(texture(0f, 0f), WIDTH, HEIGHT);
+
+        assertFalse(flow.track(texture(DX, DY), WIDTH, HEIGHT, 1));
+        flow.shutdown();
+    }
+
+    private static void assertTracked(int rotation, float uprightDx, float uprightDy) {
+        FaceContourGeometry face = grid();
+        FaceContourFlow flow = new FaceContourFlow(1);
+        flow.startFrom(texture(0f, 0f), WIDTH, HEIGHT);
+        flow.addFace(1, face);
+
+        assertTrue(flow.track(texture(DX, DY), WIDTH, HEIGHT, rotation));
+
+        FaceContourGeometry tracked = flow.getFace(0);
+        int type = FirebaseVisionFaceContour.FACE;
+        for (int i = 0; i < face.getPointCount(type); i++) {
+            assertEquals(face.getX(type, i) + uprightDx, tracked.getX(type, i), 0.1f);
+            assertEquals(face.getY(type, i) + uprightDy, tracked.getY(type, i), 0.1f);
+        }
+        flow.shutdown();
+    }
+
+    // Points inside the upright image at every rotation, 120x160 or 160x120.
+    private static FaceContourGeometry grid() {
+        FaceContourGeometry geometry = new FaceContourGeometry();
+        geometry.beginContour(FirebaseVisionFaceContour.FACE);
+        for (int row = 0; row < 3; row++) {
+            for (int column = 0; column < 3; column++) {
+                geometry.addPoint(40.3f + column * 20f, 40.7f + row * 20f);
+            }
+        }
+        return geometry;
+    }
+
+    // An NV21 frame whose luma is a smooth texture shifted right by dx and down by dy.
+    private static ByteBuffer texture(float dx, float dy) {
+        byte[] nv21 = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double u = x - dx;
+                double v = y - dy;
+                nv21[y * WIDTH + x] = (byte) Math.round(128
+                        + 40 * Math.sin(0.31 * u + 0.17 * v)
+                        + 30 * Math.sin(0.23 * v - 0.11 * u + 1)
+                        + 25 * Math.sin(0.41 * u) * Math.cos(0.37 * v));
+            }
+        }
+        for (int i = WIDTH * HEIGHT; i < nv21.length; i++) {
+            nv21[i] = (byte) 128;
+        }
+        return ByteBuffer.wrap(nv21);
+    }
+}
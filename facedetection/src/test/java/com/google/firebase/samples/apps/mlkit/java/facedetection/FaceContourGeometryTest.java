@@ -0,0 +1,165 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the packing of {@link FaceContourGeometry} and that building lip outlines from it does not
+ * allocate. The Path and Canvas calls of {@link FaceContourGraphic#draw} need Android and are not
+ * covered.
+ */
+public class FaceContourGeometryTest {
+
+    // Point counts ML Kit reports for the lip contours.
+    private static final int UPPER_LIP_TOP_POINTS = 11;
+    private static final int LIP_POINTS = 9;
+
+    @Test
+    public void contours_packedWithIndexTable() {
+        FaceContourGeometry geometry = lipGeometry();
+
+        assertEquals(UPPER_LIP_TOP_POINTS + 3 * LIP_POINTS + 36, geometry.getTotalPointCount());
+        assertEquals(36, geometry.getPointCount(FirebaseVisionFaceContour.FACE));
+        assertEquals(0, geometry.getPointCount(FirebaseVisionFaceContour.NOSE_BRIDGE));
+        assertEquals(UPPER_LIP_TOP_POINTS,
+                geometry.getPointCount(FirebaseVisionFaceContour.UPPER_LIP_TOP));
+        assertEquals(7f, geometry.getX(FirebaseVisionFaceContour.LOWER_LIP_TOP, 7), 0f);
+        assertEquals(300f + 7, geometry.getY(FirebaseVisionFaceContour.LOWER_LIP_TOP, 7), 0f);
+    }
+
+    @Test
+    public void upperLipOutline_topThenBottomReversedThenClosed() {
+        FaceContourGeometry geometry = lipGeometry();
+        float[] outline = new float[geometry.getOutlineCapacity()];
+
+        int count = geometry.upperLipOutline(outline);
+
+        assertEquals(UPPER_LIP_TOP_POINTS + LIP_POINTS + 1, count);
+        assertPoint(outline, 0, 0, 100);
+        assertPoint(outline, UPPER_LIP_TOP_POINTS - 1, 10, 110);
+        assertPoint(outline, UPPER_LIP_TOP_POINTS, 8, 208);
+        assertPoint(outline, UPPER_LIP_TOP_POINTS + LIP_POINTS - 1, 0, 200);
+        assertPoint(outline, count - 1, 0, 100);
+    }
+
+    @Test
+    public void lowerLipOutline_joinsTheMouthCorners() {
+        FaceContourGeometry geometry = lipGeometry();
+        float[] outline = new float[geometry.getOutlineCapacity()];
+
+        int count = geometry.lowerLipOutline(outline);
+
+        assertEquals(2 * LIP_POINTS + 3, count);
+        assertPoint(outline, 0, 0, 100);
+        assertPoint(outline, 1, 8, 308);
+        assertPoint(outline, LIP_POINTS, 0, 300);
+        assertPoint(outline, LIP_POINTS + 1, 10, 110);
+        assertPoint(outline, LIP_POINTS + 2, 0, 400);
+        assertPoint(outline, count - 1, 0, 100);
+    }
+
+    @Test
+    public void outlines_emptyWithoutLipContours() {
+        FaceContourGeometry geometry = new FaceContourGeometry();
+        geometry.beginContour(FirebaseVisionFaceContour.FACE);
+        geometry.addPoint(1, 2);
+        float[] outline = new float[geometry.getOutlineCapacity()];
+
+        assertEquals(0, geometry.upperLipOutline(outline));
+        assertEquals(0, geometry.lowerLipOutline(outline));
+    }
+
+    @Test
+    public void reset_reusesStorage() {
+        FaceContourGeometry geometry = lipGeometry();
+        geometry.reset();
+
+        assertEquals(0, geometry.getTotalPointCount());
+        assertEquals(0, geometry.getPointCount(FirebaseVisionFaceContour.UPPER_LIP_TOP));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void beginContour_rejectsAllPoints() {
+        new FaceContourGeometry().beginContour(FirebaseVisionFaceContour.ALL_POINTS);
+    }
+
+    @Test
+    public void lipOutlines_steadyStateDoNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        FaceContourGeometry geometry = lipGeometry();
+        float[] outline = new float[geometry.getOutlineCapacity()];
+        for (int i = 0; i < 20000; i++) {
+            readLipOutlines(geometry, outline);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long overhead = measureOverhead(threads, threadId);
+        long before = threads.getThreadAllocatedBytes(threadId);
+        float checksum = 0;
+        for (int i = 0; i < 10000; i++) {
+            checksum += readLipOutlines(geometry, outline);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals(0, allocated);
+        assertTrue(checksum > 0);
+    }
+
+    // Builds both lip outlines and reads every point, so the work is not optimized away.
+    private static float readLipOutlines(FaceContourGeometry geometry, float[] outline) {
+        float sum = 0;
+        int count = geometry.upperLipOutline(outline);
+        for (int i = 0; i < count * 2; i++) {
+            sum += outline[i];
+        }
+        count = geometry.lowerLipOutline(outline);
+        for (int i = 0; i < count * 2; i++) {
+            sum += outline[i];
+        }
+        return sum;
+    }
+
+    private static long measureOverhead(com.sun.management.ThreadMXBean threads, long threadId) {
+        long first = threads.getThreadAllocatedBytes(threadId);
+        return threads.getThreadAllocatedBytes(threadId) - first;
+    }
+
+    /**
+     * Lip contours with recognisable coordinates: point i of a contour is at x = i and y = i plus
+     * 100 for the upper lip top, 200 for its bottom, 300 for the lower lip top and 400 for its
+     * bottom. Also adds a face outline so the lips do not start at offset 0.
+     */
+    private static FaceContourGeometry lipGeometry() {
+        FaceContourGeometry geometry = new FaceContourGeometry();
+        addContour(geometry, FirebaseVisionFaceContour.FACE, 36, 0);
+        addContour(geometry, FirebaseVisionFaceContour.UPPER_LIP_TOP, UPPER_LIP_TOP_POINTS, 100);
+        addContour(geometry, FirebaseVisionFaceContour.UPPER_LIP_BOTTOM, LIP_POINTS, 200);
+        addContour(geometry, FirebaseVisionFaceContour.LOWER_LIP_TOP, LIP_POINTS, 300);
+        addContour(geometry, FirebaseVisionFaceContour.LOWER_LIP_BOTTOM, LIP_POINTS, 400);
+        return geometry;
+    }
+
+    private static void addContour(FaceContourGeometry geometry, int type, int points, int yBase) {
+        geometry.beginContour(type);
+        for (int i = 0; i < points; i++) {
+            geometry.addPoint(i, yBase + i);
+        }
+    }
+
+    private static void assertPoint(float[] outline, int index, float x, float y) {
+        assertEquals("x of point " + index, x, outline[index * 2], 0f);
+        assertEquals("y of point " + index, y, outline[index * 2 + 1], 0f);
+    }
+}
@@ -0,0 +1,110 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that {@link FaceContourSmoother} keeps one filter per tracked face. */
+public class FaceContourSmootherTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    @Test
+    public void smooth_keepsFacesApart() {
+        FaceContourSmoother smoother = new FaceContourSmoother();
+        smoother.smooth(1, face(100, 100), 0);
+        smoother.smooth(2, face(300, 100), 0);
+
+        FaceContourGeometry first = face(102, 100);
+        FaceContourGeometry second = face(300, 100);
+        smoother.smooth(1, first, FRAME_NANOS);
+        smoother.smooth(2, second, FRAME_NANOS);
+
+        // Point 0 of the face outline is 60 pixels right of the offset.
+        assertTrue(first.getX(FirebaseVisionFaceContour.FACE, 0) > 160f);
+        assertTrue(first.getX(FirebaseVisionFaceContour.FACE, 0) < 162f);
+        assertEquals(360f, second.getX(FirebaseVisionFaceContour.FACE, 0), 0f);
+    }
+
+    @Test
+    public void predict_continuesMotionOfTrackedFace() {
+        FaceContourSmoother smoother = new FaceContourSmoother();
+        for (int frame = 0; frame < 30; frame++) {
+            smoother.smooth(7, face(frame * 4f, 50), frame * FRAME_NANOS);
+        }
+        FaceContourGeometry predicted = new FaceContourGeometry();
+
+        assertTrue(smoother.predict(7, predicted, 30 * FRAME_NANOS));
+        assertEquals(180f, predicted.getX(FirebaseVisionFaceContour.FACE, 0), 2f);
+        assertEquals(50f, predicted.getY(FirebaseVisionFaceContour.FACE, 0), 0.01f);
+        assertEquals(face(0, 0).getTotalPointCount(), predicted.getTotalPointCount());
+        assertFalse(smoother.predict(8, predicted, 30 * FRAME_NANOS));
+    }
+
+    @Test
+    public void smooth_recordsPredictionErrorOfDetectedFrames() {
+        FaceContourSmoother smoother = new FaceContourSmoother();
+        smoother.smooth(1, face(0, 0), 0);
+        assertEquals(0, smoother.getPredictionErrorPoints());
+
+        smoother.smooth(1, face(3, 4), FRAME_NANOS);
+
+        // Nothing known of the speed yet, so the prediction stayed at the first position.
+        assertEquals(face(0, 0).getTotalPointCount(), smoother.getPredictionErrorPoints());
+        assertEquals(5.0, smoother.getMeanPredictionError(), 1e-4);
+    }
+
+    @Test
+    public void smooth_restartsWhenContoursChange() {
+        FaceContourSmoother smoother = new FaceContourSmoother();
+        smoother.smooth(1, face(0, 0), 0);
+        FaceContourGeometry fewerPoints = new FaceContourGeometry();
+        fewerPoints.beginContour(FirebaseVisionFaceContour.FACE);
+        fewerPoints.addPoint(40, 40);
+
+        smoother.smooth(1, fewerPoints, FRAME_NANOS);
+
+        assertEquals(40f, fewerPoints.getX(FirebaseVisionFaceContour.FACE, 0), 0f);
+        assertEquals(0, smoother.getPredictionErrorPoints());
+    }
+
+    @Test
+    public void removeTracksNotSeenSince_dropsFacesThatLeft() {
+        FaceContourSmoother smoother = new FaceContourSmoother();
+        smoother.smooth(1, face(0, 0), 0);
+        smoother.smooth(2, face(0, 0), 0);
+        smoother.smooth(2, face(0, 0), FRAME_NANOS);
+
+        smoother.removeTracksNotSeenSince(FRAME_NANOS);
+
+        assertEquals(1, smoother.getTrackingIds().size());
+        assertTrue(smoother.getTrackingIds().contains(2));
+    }
+
+    // A face outline and lips, offset by (x, y).
+    static FaceContourGeometry face(float x, float y) {
+        FaceContourGeometry geometry = new FaceContourGeometry();
+        geometry.beginContour(FirebaseVisionFaceContour.FACE);
+        for (int i = 0; i < 36; i++) {
+            double angle = 2 * Math.PI * i / 36;
+            geometry.addPoint(x + (float) (60 * Math.cos(angle)), y + (float) (80 * Math.sin(angle)));
+        }
+        int[] lips = {
+            FirebaseVisionFaceContour.UPPER_LIP_TOP,
+            FirebaseVisionFaceContour.UPPER_LIP_BOTTOM,
+            FirebaseVisionFaceContour.LOWER_LIP_TOP,
+            FirebaseVisionFaceContour.LOWER_LIP_BOTTOM
+        };
+        for (int contour = 0; contour < lips.length; contour++) {
+            geometry.beginContour(lips[contour]);
+            for (int i = 0; i < 9; i++) {
+                geometry.addPoint(x - 20 + 5 * i, y + 40 + 3 * contour);
+            }
+        }
+        return geometry;
+    }
+}
@@ -0,0 +1,173 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replays contour sequences through {@link FaceContourSmoother} the way {@link
+ * FaceContourDetectorProcessor} uses it, detecting one frame in n and predicting the others, and
+ * reports for each n the detector invocations saved and how far the drawn contours are from
+ * detecting every frame. Not run as part of the unit tests, run {@link #main} on the JVM.
+ *
+ * <p>Without arguments it replays synthetic sequences: a face template moving along a known path,
+ * with Gaussian jitter on every detected point, for which the error against the true path is
+ * reported as well. Recorded sequences can be passed as files with one frame per line: the
+ * timestamp in nanoseconds followed by the x and y of every contour point, separated by spaces.
+ */
+public class FaceContourSmoothingReplay {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+    private static final int FRAMES = 300;
+    private static final int POINTS = 133;
+    private static final float JITTER = 1.5f;
+    private static final int[] INTERVALS = {1, 2, 3, 4};
+
+    /** Detections of one face, and its true points when known. */
+    private static final class Sequence {
+        final String name;
+        final List<Long> timestamps = new ArrayList<>();
+        final List<float[]> detected = new ArrayList<>();
+        final List<float[]> truth = new ArrayList<>();
+
+        Sequence(String name) {
+            this.name = name;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        List<Sequence> sequences = new ArrayList<>();
+        if (args.length == 0) {
+            sequences.add(synthetic("still", 0f, 0f, 1f));
+            sequences.add(synthetic("pan", 80f, 0f, 4f));
+            sequences.add(synthetic("nod", 0f, 30f, 1.5f));
+            sequences.add(synthetic("fast pan", 80f, 0f, 1.2f));
+        } else {
+            for (String path : args) {
+                sequences.add(read(path));
+            }
+        }
+        for (Sequence sequence : sequences) {
+            for (int interval : INTERVALS) {
+                replay(sequence, interval);
+            }
+        }
+    }
+
+    private static void replay(Sequence sequence, int interval) {
+        FaceContourSmoother smoother = new FaceContourSmoother();
+        FaceContourGeometry shown = new FaceContourGeometry();
+        double detectionError = 0;
+        double truthError = 0;
+        double rawTruthError = 0;
+        int frames = sequence.timestamps.size();
+        int detections = 0;
+        for (int frame = 0; frame < frames; frame++) {
+            long timestamp = sequence.timestamps.get(frame);
+            float[] detected = sequence.detected.get(frame);
+            if (frame % interval == 0) {
+                toGeometry(detected, shown);
+                smoother.smooth(0, shown, timestamp);
+                detections++;
+            } else {
+                smoother.predict(0, shown, timestamp);
+            }
+            detectionError += meanDistance(shown.getPoints(), detected);
+            if (!sequence.truth.isEmpty()) {
+                truthError += meanDistance(shown.getPoints(), sequence.truth.get(frame));
+                rawTruthError += meanDistance(detected, sequence.truth.get(frame));
+            }
+        }
+        String truth = sequence.truth.isEmpty()
+                ? ""
+                : String.format(", to true path %.2f px (raw detections %.2f px)",
+                        truthError / frames, rawTruthError / frames);
+        System.out.printf(
+                "%-9s every %d: %d of %d detector invocations saved, "
+                        + "to full-rate detection %.2f px%s, prediction error %.2f px%n",
+                sequence.name,
+                interval,
+                frames - detections,
+                frames,
+                detectionError / frames,
+                truth,
+                smoother.getMeanPredictionError());
+    }
+
+    private static Sequence synthetic(
+            String name, float amplitudeX, float amplitudeY, float periodSeconds) {
+        Sequence sequence = new Sequence(name);
+        Random random = new Random(name.hashCode());
+        float[] template = new float[POINTS * 2];
+        for (int i = 0; i < POINTS; i++) {
+            double angle = 2 * Math.PI * i / POINTS;
+            template[i * 2] = 240f + (float) (70 * Math.cos(angle) * (1 + 0.2 * Math.sin(5 * angle)));
+            template[i * 2 + 1] = 320f + (float) (90 * Math.sin(angle));
+        }
+        for (int frame = 0; frame < FRAMES; frame++) {
+            long timestamp = frame * FRAME_NANOS;
+            double phase = 2 * Math.PI * timestamp / 1e9 / periodSeconds;
+            float dx = (float) (amplitudeX * Math.sin(phase));
+            float dy = (float) (amplitudeY * Math.sin(phase));
+            float[] truth = new float[POINTS * 2];
+            float[] detected = new float[POINTS * 2];
+            for (int i = 0; i < POINTS; i++) {
+                truth[i * 2] = template[i * 2] + dx;
+                truth[i * 2 + 1] = template[i * 2 + 1] + dy;
+                detected[i * 2] = truth[i * 2] + (float) random.nextGaussian() * JITTER;
+                detected[i * 2 + 1] = truth[i * 2 + 1] + (float) random.nextGaussian() * JITTER;
+            }
+            sequence.timestamps.add(timestamp);
+            sequence.truth.add(truth);
+            sequence.detected.add(detected);
+        }
+        return sequence;
+    }
+
+    private static Sequence read(String path) throws IOException {
+        Sequence sequence = new Sequence(path);
+        BufferedReader reader = new BufferedReader(new FileReader(path));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.trim().split("\\s+");
+                if (fields.length < 3) {
+                    continue;
+                }
+                float[] points = new float[(fields.length - 1) / 2 * 2];
+                for (int i = 0; i < points.length; i++) {
+                    points[i] = Float.parseFloat(fields[i + 1]);
+                }
+                sequence.timestamps.add(Long.parseLong(fields[0]));
+                sequence.detected.add(points);
+            }
+        } finally {
+            reader.close();
+        }
+        return sequence;
+    }
+
+    // The smoother does not care which contour the points belong to.
+    private static void toGeometry(float[] points, FaceContourGeometry geometry) {
+        geometry.reset();
+        geometry.beginContour(FirebaseVisionFaceContour.FACE);
+        for (int i = 0; i < points.length; i += 2) {
+            geometry.addPoint(points[i], points[i + 1]);
+        }
+    }
+
+    private static double meanDistance(float[] a, float[] b) {
+        double sum = 0;
+        for (int i = 0; i < b.length; i += 2) {
+            float dx = a[i] - b[i];
+            float dy = a[i + 1] - b[i + 1];
+            sum += Math.sqrt(dx * dx + dy * dy);
+        }
+        return sum / (b.length / 2);
+    }
+}
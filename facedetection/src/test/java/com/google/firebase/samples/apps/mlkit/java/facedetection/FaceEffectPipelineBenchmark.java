@@ -0,0 +1,348 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+import com.google.firebase.samples.apps.mlkit.common.FrameLease;
+import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
+import com.google.firebase.samples.apps.mlkit.common.FrameProcessingLoop;
+import com.google.firebase.samples.apps.mlkit.common.Nv21FileFrameSource;
+import com.google.firebase.samples.apps.mlkit.common.Nv21FrameFile;
+import com.google.firebase.samples.apps.mlkit.java.DetectionScheduler;
+import com.google.firebase.samples.apps.mlkit.java.DetectionWindowStats;
+import com.google.firebase.samples.apps.mlkit.java.StageTimings;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the lip effect pipeline headless: camera frames replayed by {@link Nv21FileFrameSource}
+ * through {@link FrameProcessingLoop} into the {@link DetectionScheduler} and {@link
+ * FaceContourTracking} that {@link FaceContourDetectorProcessor} runs on the device, with a {@link
+ * ReplayFaceDetector} of synthetic latency as the detector, and every face drawn with {@link
+ * LipMaskRasterizer} into an ARGB frame. So the in-flight window, the circuit breaker, the
+ * detection region, the optical flow and the delivery order are the ones of the app; only the
+ * bitmaps and the overlay are left out. Not run as part of the unit tests, run {@link #main} on
+ * the JVM.
+ *
+ * <p>The replaying detector does not read images, so frames are detected whole and the region
+ * is only told about the faces, without cropping. The frames are a texture with sensor noise that
+ * pans along with the made-up face. The whole image moves, as results are replayed in detection
+ * order rather than frame order, so the optical flow follows the contours wherever a result puts
+ * them and the tracked frames are measured too.
+ *
+ * <p>Arguments, all optional: the detection latency in milliseconds, 45 by default; the detection
+ * interval, 4 by default as in the app; the in-flight window, 2 by default; and a file of recorded
+ * results as read by {@link ReplayFaceDetector#readResults}, otherwise a face moving across the
+ * frame is made up. The 480x360 frames are replayed at 30 and at 60 fps; the report gives the
+ * frames detected and predicted, the latency from frame to result, the time the effect takes per
+ * frame and the counters of the scheduler and the tracking.
+ */
+public class FaceEffectPipelineBenchmark {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 360;
+    private static final int FRAMES = 300;
+    // How far the face, and the frames, pan to either side.
+    private static final int PAN = 120;
+    private static final int LIP_COLOR = 0x46c02040;
+    // The settings of FaceContourDetectorProcessor, which needs Android to load.
+    private static final int DETECTION_INTERVAL = 4;
+    private static final int MAX_DETECTION_WIDTH = 480;
+    private static final int MAX_DETECTION_HEIGHT = 360;
+    private static final int FLOW_THREADS = 2;
+
+    public static void main(String[] args) throws Exception {
+        long latencyNanos = (long) ((args.length > 0 ? Double.parseDouble(args[0]) : 45) * 1e6);
+        int interval = args.length > 1 ? Integer.parseInt(args[1]) : DETECTION_INTERVAL;
+        int window = args.length > 2 ? Integer.parseInt(args[2]) : 2;
+        List<List<DetectedFace>> results = args.length > 3 ? read(args[3]) : syntheticResults();
+
+        File path = File.createTempFile("effect", ".nv21");
+        try {
+            Nv21FrameFile frames = Nv21FrameFile.create(path, WIDTH, HEIGHT, FRAMES);
+            renderFrames(frames);
+            for (float fps : new float[] {30f, 60f}) {
+                run(frames, fps, new ReplayFaceDetector(results), latencyNanos, interval, window);
+            }
+            frames.close();
+        } finally {
+            path.delete();
+        }
+    }
+
+    private static void run(Nv21FrameFile frames, float fps, ReplayFaceDetector detector,
+            long latencyNanos, int interval, int window) throws InterruptedException {
+        detector.setLatency(latencyNanos, latencyNanos / 5);
+        Pipeline pipeline = new Pipeline(detector);
+        final DetectionScheduler<List<DetectedFace>, Void> scheduler =
+                new DetectionScheduler<>(detector, pipeline);
+        scheduler.setImageRequired(false);
+        scheduler.setDetectionInterval(interval);
+        scheduler.setMaxInFlight(window);
+        scheduler.setMaxDetectionSize(MAX_DETECTION_WIDTH, MAX_DETECTION_HEIGHT);
+        scheduler.getDetectionRegion().setEnabled(true);
+        pipeline.start(scheduler);
+        FrameProcessingLoop loop = new FrameProcessingLoop(new FrameProcessingLoop.FrameHandler() {
+            @Override
+            public void handleFrame(FrameLease frame, FrameMetadata metadata) {
+                scheduler.process(frame, metadata);
+            }
+        });
+        Nv21FileFrameSource source = new Nv21FileFrameSource(frames, fps);
+
+        long start = System.nanoTime();
+        loop.start();
+        source.start(loop);
+        source.awaitFinished(1, TimeUnit.MINUTES);
+        while (loop.getFramesDelivered() + loop.getFramesReplaced()
+                < source.getFramesDelivered()) {
+            Thread.sleep(1);
+        }
+        source.stop();
+        loop.stop();
+        awaitIdle(scheduler.getWindowStats(), TimeUnit.SECONDS.toNanos(10));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        scheduler.stop();
+        pipeline.stop();
+
+        StageTimings timings = scheduler.getStageTimings();
+        synchronized (pipeline) {
+            System.out.printf(
+                    "%s: %d frames in %.2f s, %.1f frames/s; detected %d, predicted %d, "
+                            + "replaced %d; detection latency %.1f ms, effect %.2f ms/frame%n",
+                    fps + " fps", source.getFramesDelivered(), seconds,
+                    source.getFramesDelivered() / seconds,
+                    pipeline.detected, pipeline.predicted, loop.getFramesReplaced(),
+                    timings.getMeanMillis(StageTimings.Stage.END_TO_END),
+                    pipeline.effectNanos / 1e6 / Math.max(1, pipeline.detected
+                            + pipeline.predicted));
+        }
+        for (DetectionWindowStats.Bucket bucket : scheduler.getWindowStats().snapshot()) {
+            System.out.println("  window " + bucket);
+        }
+        FaceContourFlow flow = pipeline.tracking.getFlow();
+        System.out.printf(
+                "  skipped %d, failed %d; breaker %s; region crops %d, full scans %d, "
+                        + "faces lost %d; flow tracked %d, lost %d%n",
+                scheduler.getDetectionsSkipped(), pipeline.failed, scheduler.getCircuitBreaker(),
+                scheduler.getDetectionRegion().getCrops(),
+                scheduler.getDetectionRegion().getFullScans(),
+                scheduler.getDetectionRegion().getFacesLost(),
+                flow.getFramesTracked(), flow.getTrackingFailures());
+    }
+
+    // Waits until every detection submitted has completed.
+    private static void awaitIdle(DetectionWindowStats stats, long timeoutNanos)
+            throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (System.nanoTime() < deadline) {
+            long pending = 0;
+            for (DetectionWindowStats.Bucket bucket : stats.snapshot()) {
+                pending += bucket.getSubmitted() - bucket.getDelivered() - bucket.getDiscarded();
+            }
+            if (pending == 0) {
+                return;
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Follows the faces of the scheduled frames like {@link FaceContourDetectorProcessor} and draws
+     * their lips into an ARGB frame, in place of the overlay.
+     */
+    private static final class Pipeline
+            implements DetectionScheduler.Listener<List<DetectedFace>, Void>,
+            FaceContourTracking.FaceSink {
+        private final FaceDetector detector;
+        private final int[] argb = new int[WIDTH * HEIGHT];
+        private final LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+        // The faces of the frame being delivered, reused from frame to frame.
+        private final List<FaceContourGeometry> faces = new ArrayList<>();
+        private int faceCount;
+        private DetectionScheduler<List<DetectedFace>, Void> scheduler;
+        FaceContourTracking tracking;
+        int detected;
+        int predicted;
+        int failed;
+        long effectNanos;
+
+        Pipeline(FaceDetector detector) {
+            this.detector = detector;
+        }
+
+        void start(DetectionScheduler<List<DetectedFace>, Void> scheduler) {
+            this.scheduler = scheduler;
+            tracking = new FaceContourTracking(FLOW_THREADS, scheduler.getDetectionRegion());
+        }
+
+        void stop() {
+            tracking.shutdown();
+        }
+
+        @Override
+        public Void convert(ByteBuffer data, FrameMetadata metadata) {
+            return null;
+        }
+
+        @Override
+        public void discard(Void image) {
+        }
+
+        @Override
+        public void onDetectedFrame(ByteBuffer frameData, FrameMetadata metadata) {
+            tracking.onDetectedFrame(frameData, metadata);
+        }
+
+        @Override
+        public synchronized void onSuccess(
+                Void image, List<DetectedFace> results, FrameMetadata metadata) {
+            detected++;
+            faceCount = 0;
+            tracking.onDetected(results, metadata, this);
+            draw();
+        }
+
+        @Override
+        public synchronized void onPredictedFrame(
+                Void image, ByteBuffer frameData, FrameMetadata metadata) {
+            predicted++;
+            faceCount = 0;
+            if (!tracking.onPredictedFrame(frameData, metadata, this)) {
+                scheduler.requestDetection();
+            }
+            draw();
+        }
+
+        @Override
+        public FaceContourGeometry addFace(int trackingId) {
+            if (faceCount == faces.size()) {
+                faces.add(new FaceContourGeometry());
+            }
+            return faces.get(faceCount++);
+        }
+
+        @Override
+        public synchronized void onFailure(Exception e) {
+            failed++;
+        }
+
+        @Override
+        public boolean isTransientFailure(Exception e) {
+            return detector.isTransientFailure(e);
+        }
+
+        @Override
+        public void onFrameStateReset() {
+            tracking.reset();
+        }
+
+        @Override
+        public void onConversionStopped() {
+        }
+
+        private void draw() {
+            long start = System.nanoTime();
+            for (int i = 0; i < faceCount; i++) {
+                if (rasterizer.rasterize(faces.get(i), WIDTH, HEIGHT)) {
+                    rasterizer.blend(argb, WIDTH, HEIGHT, LIP_COLOR);
+                }
+            }
+            effectNanos += System.nanoTime() - start;
+        }
+    }
+
+    private static List<List<DetectedFace>> read(String path) throws IOException {
+        FileReader in = new FileReader(path);
+        try {
+            return ReplayFaceDetector.readResults(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    // One face panning across the frame and back, with lip contours of the point counts ML Kit
+    // reports.
+    private static List<List<DetectedFace>> syntheticResults() {
+        List<List<DetectedFace>> results = new ArrayList<>();
+        for (int i = 0; i < FRAMES; i++) {
+            float x = WIDTH / 2 + pan(i);
+            float y = 250;
+            float width = 130;
+            float height = 70;
+            DetectedFace.Builder face = new DetectedFace.Builder()
+                    .setTrackingId(1)
+                    .setBounds((int) x - 100, 60, (int) x + 100, 330);
+            float left = x - width / 2;
+            float step = width / 10;
+            face.beginContour(FirebaseVisionFaceContour.UPPER_LIP_TOP);
+            for (int j = 0; j < 11; j++) {
+                face.addContourPoint(left + step * j, y - height * 0.45f * arc(j));
+            }
+            face.beginContour(FirebaseVisionFaceContour.UPPER_LIP_BOTTOM);
+            for (int j = 0; j < 9; j++) {
+                face.addContourPoint(left + step * (j + 1), y - height * 0.08f * arc(j + 1));
+            }
+            face.beginContour(FirebaseVisionFaceContour.LOWER_LIP_TOP);
+            for (int j = 0; j < 9; j++) {
+                face.addContourPoint(left + step * (9 - j), y + height * 0.05f * arc(j + 1));
+            }
+            face.beginContour(FirebaseVisionFaceContour.LOWER_LIP_BOTTOM);
+            for (int j = 0; j < 9; j++) {
+                face.addContourPoint(left + step * (9 - j), y + height * 0.55f * arc(j + 1));
+            }
+            results.add(Collections.singletonList(face.build()));
+        }
+        return results;
+    }
+
+    private static float pan(int frame) {
+        return PAN * (float) Math.sin(2 * Math.PI * frame / FRAMES);
+    }
+
+    // Writes a texture panned as far as the made-up face of each frame, with sensor noise.
+    private static void renderFrames(Nv21FrameFile frames) {
+        int textureWidth = WIDTH + 2 * PAN + 1;
+        float[] texture = new float[textureWidth * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < textureWidth; x++) {
+                texture[y * textureWidth + x] = (float) (128
+                        + 40 * Math.sin(0.21 * x + 0.13 * y)
+                        + 30 * Math.sin(0.13 * y - 0.105 * x + 1)
+                        + 25 * Math.sin(0.273 * x) * Math.cos(0.156 * y));
+            }
+        }
+        Random noise = new Random(11);
+        byte[] nv21 = new byte[frames.getFrameSize()];
+        Arrays.fill(nv21, WIDTH * HEIGHT, nv21.length, (byte) 128);
+        FrameMetadata metadata = new FrameMetadata.Builder()
+                .setWidth(WIDTH)
+                .setHeight(HEIGHT)
+                .build();
+        for (int i = 0; i < FRAMES; i++) {
+            float left = PAN - pan(i);
+            int x0 = (int) left;
+            float fx = left - x0;
+            for (int y = 0; y < HEIGHT; y++) {
+                int row = y * textureWidth + x0;
+                for (int x = 0; x < WIDTH; x++) {
+                    float value = texture[row + x] + fx * (texture[row + x + 1] - texture[row + x])
+                            + (float) noise.nextGaussian() * 2f;
+                    nv21[y * WIDTH + x] = (byte) Math.max(0, Math.min(255, Math.round(value)));
+                }
+            }
+            frames.writeFrame(i, i, metadata, ByteBuffer.wrap(nv21));
+        }
+    }
+
+    private static float arc(int i) {
+        return (float) Math.sin(Math.PI * i / 10);
+    }
+}
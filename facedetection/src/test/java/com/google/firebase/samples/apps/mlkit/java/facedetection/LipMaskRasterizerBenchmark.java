@@ -0,0 +1,75 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+
+/**
+ * Times rasterizing the lip mask of a face close to the camera and blending a colour through it
+ * into a 480x360 ARGB frame. Not run as part of the unit tests, run {@link #main} on the JVM.
+ */
+public class LipMaskRasterizerBenchmark {
+
+    private static final int WIDTH = 480;
+    private static final int HEIGHT = 360;
+    private static final int FRAMES = 20000;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        FaceContourGeometry geometry = lips(240, 250, 130, 70);
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+        int[] frame = new int[WIDTH * HEIGHT];
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            long sink = 0;
+            for (int i = 0; i < FRAMES; i++) {
+                rasterizer.rasterize(geometry, WIDTH, HEIGHT);
+                sink += rasterizer.getMask()[i % rasterizer.getMaskWidth()];
+            }
+            long rasterize = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                rasterizer.blend(frame, WIDTH, HEIGHT, 0x46c02040);
+                sink += frame[250 * WIDTH + 240];
+            }
+            long blend = System.nanoTime() - start;
+
+            System.out.printf(
+                    "round %d: %dx%d mask, rasterize %.1f us/frame, blend %.1f us/frame [%d]%n",
+                    round,
+                    rasterizer.getMaskWidth(),
+                    rasterizer.getMaskHeight(),
+                    rasterize / 1000.0 / FRAMES,
+                    blend / 1000.0 / FRAMES,
+                    sink);
+        }
+    }
+
+    // Lips centred on (x, y), with the point counts ML Kit reports.
+    private static FaceContourGeometry lips(float x, float y, float width, float height) {
+        FaceContourGeometry geometry = new FaceContourGeometry();
+        float left = x - width / 2;
+        float step = width / 10;
+        geometry.beginContour(FirebaseVisionFaceContour.UPPER_LIP_TOP);
+        for (int i = 0; i < 11; i++) {
+            geometry.addPoint(left + step * i, y - height * 0.45f * arc(i));
+        }
+        geometry.beginContour(FirebaseVisionFaceContour.UPPER_LIP_BOTTOM);
+        for (int i = 0; i < 9; i++) {
+            geometry.addPoint(left + step * (i + 1), y - height * 0.08f * arc(i + 1));
+        }
+        geometry.beginContour(FirebaseVisionFaceContour.LOWER_LIP_TOP);
+        for (int i = 0; i < 9; i++) {
+            geometry.addPoint(left + step * (9 - i), y + height * 0.05f * arc(i + 1));
+        }
+        geometry.beginContour(FirebaseVisionFaceContour.LOWER_LIP_BOTTOM);
+        for (int i = 0; i < 9; i++) {
+            geometry.addPoint(left + step * (9 - i), y + height * 0.55f * arc(i + 1));
+        }
+        return geometry;
+    }
+
+    private static float arc(int i) {
+        return (float) Math.sin(Math.PI * i / 10);
+    }
+}
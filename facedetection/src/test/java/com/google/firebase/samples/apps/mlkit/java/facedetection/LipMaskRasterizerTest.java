@@ -0,0 +1,257 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks {@link LipMaskRasterizer} against a golden mask, against point sampling of the polygons
+ * and for allocations.
+ */
+public class LipMaskRasterizerTest {
+
+    // Mask of smallLips() in a 32x20 image, hex coverage per pixel, row by row.
+    private static final int GOLDEN_LEFT = 2;
+    private static final int GOLDEN_TOP = 5;
+    private static final String[] GOLDEN = {
+            "0000000000000000063d7791a7a791773d060000000000000000",
+            "00000000000248adf5fffffffffffffffff5ad48020000000000",
+            "0000000669dfffffffffffffffffffffffffffffdf6906000000",
+            "000364e1fffffffffbeadfd0cfcfd0dfeafbffffffffe1640300",
+            "359ca4836244290f000000000000000000000f29446283a49c35",
+            "55cfc4ab978271605047403c30303c40475060718297abc4cf55",
+            "002ad4ffffffffffffffffffffffffffffffffffffffffd42a00",
+            "0000098efdfffffffffffffffffffffffffffffffffd8e090000",
+            "000000003dd7ffffffffffffffffffffffffffffd73d00000000",
+            "00000000000466e5ffffffffffffffffffffe566040000000000",
+            "000000000000000956aef7fffffffff7ae560900000000000000",
+            "00000000000000000000041f3d3d1f0400000000000000000000"
+    };
+
+    @Test
+    public void rasterize_matchesGoldenMask() {
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+
+        assertTrue(rasterizer.rasterize(smallLips(), 32, 20));
+
+        assertEquals(GOLDEN_LEFT, rasterizer.getMaskLeft());
+        assertEquals(GOLDEN_TOP, rasterizer.getMaskTop());
+        assertEquals(GOLDEN.length, rasterizer.getMaskHeight());
+        assertEquals(GOLDEN[0].length() / 2, rasterizer.getMaskWidth());
+        for (int row = 0; row < GOLDEN.length; row++) {
+            for (int column = 0; column < rasterizer.getMaskWidth(); column++) {
+                int expected = Integer.parseInt(GOLDEN[row].substring(column * 2, column * 2 + 2), 16);
+                assertEquals("pixel " + column + "," + row, expected,
+                        rasterizer.getMask()[row * rasterizer.getMaskWidth() + column] & 0xff);
+            }
+        }
+    }
+
+    @Test
+    public void rasterize_matchesPointSampledCoverage() {
+        FaceContourGeometry geometry = smallLips();
+        float[] upper = new float[geometry.getOutlineCapacity()];
+        float[] lower = new float[geometry.getOutlineCapacity()];
+        int upperCount = geometry.upperLipOutline(upper);
+        int lowerCount = geometry.lowerLipOutline(lower);
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+
+        rasterizer.rasterize(geometry, 32, 20);
+
+        for (int y = 0; y < 20; y++) {
+            for (int x = 0; x < 32; x++) {
+                int reference = sampledCoverage(upper, upperCount, lower, lowerCount, x, y);
+                assertEquals("pixel " + x + "," + y, reference, rasterizer.getCoverage(x, y), 10);
+            }
+        }
+    }
+
+    @Test
+    public void rasterize_alignedSquareIsFullyCovered() {
+        float[] square = {2, 3, 6, 3, 6, 8, 2, 8};
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+
+        rasterizer.rasterize(square, 4, new float[0], 0, 10, 10);
+
+        assertEquals(2, rasterizer.getMaskLeft());
+        assertEquals(3, rasterizer.getMaskTop());
+        assertEquals(4, rasterizer.getMaskWidth());
+        assertEquals(5, rasterizer.getMaskHeight());
+        for (int y = 0; y < 10; y++) {
+            for (int x = 0; x < 10; x++) {
+                boolean inside = x >= 2 && x < 6 && y >= 3 && y < 8;
+                assertEquals(inside ? 255 : 0, rasterizer.getCoverage(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void rasterize_halfPixelEdgesGiveHalfCoverage() {
+        float[] rectangle = {1.5f, 1, 3.5f, 1, 3.5f, 2.5f, 1.5f, 2.5f};
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+
+        rasterizer.rasterize(rectangle, 4, new float[0], 0, 5, 5);
+
+        assertEquals(128, rasterizer.getCoverage(1, 1));
+        assertEquals(255, rasterizer.getCoverage(2, 1));
+        assertEquals(128, rasterizer.getCoverage(3, 1));
+        assertEquals(64, rasterizer.getCoverage(1, 2));
+        assertEquals(128, rasterizer.getCoverage(2, 2));
+    }
+
+    @Test
+    public void rasterize_overlappingPolygonsAreUnitedWhateverTheirDirection() {
+        float[] clockwise = {0, 0, 4, 0, 4, 4, 0, 4};
+        float[] counterClockwise = {2, 0, 2, 4, 6, 4, 6, 0};
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+
+        rasterizer.rasterize(clockwise, 4, counterClockwise, 4, 8, 8);
+
+        for (int x = 0; x < 6; x++) {
+            assertEquals("column " + x, 255, rasterizer.getCoverage(x, 1));
+        }
+        assertEquals(0, rasterizer.getCoverage(6, 1));
+    }
+
+    @Test
+    public void rasterize_clipsToTheImage() {
+        float[] square = {-4, -4, 3, -4, 3, 3, -4, 3};
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+
+        assertTrue(rasterizer.rasterize(square, 4, new float[0], 0, 2, 2));
+
+        assertEquals(0, rasterizer.getMaskLeft());
+        assertEquals(2, rasterizer.getMaskWidth());
+        assertEquals(2, rasterizer.getMaskHeight());
+        assertEquals(255, rasterizer.getCoverage(1, 1));
+        assertFalse(rasterizer.rasterize(square, 4, new float[0], 0, 0, 0));
+    }
+
+    @Test
+    public void rasterize_withoutLipsLeavesEmptyMask() {
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+
+        assertFalse(rasterizer.rasterize(new FaceContourGeometry(), 32, 20));
+        assertEquals(0, rasterizer.getMaskWidth());
+    }
+
+    @Test
+    public void blend_weightsColourByCoverageAndAlpha() {
+        float[] rectangle = {0, 0, 1.5f, 0, 1.5f, 1, 0, 1};
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+        rasterizer.rasterize(rectangle, 4, new float[0], 0, 3, 1);
+        int[] image = {0x80000000, 0xff000000, 0xff102030};
+
+        rasterizer.blend(image, 3, 1, 0xffff8000);
+
+        assertEquals(0x80ff8000, image[0]);
+        assertEquals(0xff804000, image[1]);
+        assertEquals(0xff102030, image[2]);
+
+        rasterizer.blend(image, 3, 1, 0x00ffffff);
+        assertEquals(0x80ff8000, image[0]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void blend_rejectsOtherImageSize() {
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+        rasterizer.rasterize(smallLips(), 32, 20);
+
+        rasterizer.blend(new int[64 * 20], 64, 20, 0xffff0000);
+    }
+
+    @Test
+    public void rasterizeAndBlend_steadyStateDoesNotAllocate() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        FaceContourGeometry geometry = smallLips();
+        LipMaskRasterizer rasterizer = new LipMaskRasterizer();
+        int[] image = new int[32 * 20];
+        for (int i = 0; i < 5000; i++) {
+            rasterizer.rasterize(geometry, 32, 20);
+            rasterizer.blend(image, 32, 20, 0x40c02040);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long first = threads.getThreadAllocatedBytes(threadId);
+        long overhead = threads.getThreadAllocatedBytes(threadId) - first;
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 2000; i++) {
+            rasterizer.rasterize(geometry, 32, 20);
+            rasterizer.blend(image, 32, 20, 0x40c02040);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before - overhead;
+
+        assertEquals(0, allocated);
+    }
+
+    /**
+     * A mouth about 26 by 12 pixels, with its contours ordered like ML Kit's: the upper lip
+     * contours run from left to right, the lower lip ones from right to left.
+     */
+    static FaceContourGeometry smallLips() {
+        FaceContourGeometry geometry = new FaceContourGeometry();
+        geometry.beginContour(FirebaseVisionFaceContour.UPPER_LIP_TOP);
+        for (int i = 0; i < 11; i++) {
+            geometry.addPoint(2 + 2.6f * i, 10 - 4.7f * arc(i, 10));
+        }
+        geometry.beginContour(FirebaseVisionFaceContour.UPPER_LIP_BOTTOM);
+        for (int i = 0; i < 9; i++) {
+            geometry.addPoint(4.6f + 2.6f * i, 10 - 1.2f * arc(i + 1, 10));
+        }
+        geometry.beginContour(FirebaseVisionFaceContour.LOWER_LIP_TOP);
+        for (int i = 0; i < 9; i++) {
+            geometry.addPoint(25.4f - 2.6f * i, 10 + 0.8f * arc(i + 1, 10));
+        }
+        geometry.beginContour(FirebaseVisionFaceContour.LOWER_LIP_BOTTOM);
+        for (int i = 0; i < 9; i++) {
+            geometry.addPoint(25.4f - 2.6f * i, 10 + 6.3f * arc(i + 1, 10));
+        }
+        return geometry;
+    }
+
+    private static float arc(int i, int n) {
+        return (float) Math.sin(Math.PI * i / n);
+    }
+
+    // Coverage of pixel (x, y) from a 64x64 grid of point samples, even-odd per polygon.
+    private static int sampledCoverage(
+            float[] a, int aCount, float[] b, int bCount, int x, int y) {
+        int inside = 0;
+        for (int sy = 0; sy < 64; sy++) {
+            for (int sx = 0; sx < 64; sx++) {
+                float px = x + (sx + 0.5f) / 64;
+                float py = y + (sy + 0.5f) / 64;
+                if (contains(a, aCount, px, py) || contains(b, bCount, px, py)) {
+                    inside++;
+                }
+            }
+        }
+        return Math.round(inside * 255f / (64 * 64));
+    }
+
+    private static boolean contains(float[] polygon, int count, float x, float y) {
+        boolean inside = false;
+        for (int i = 0, j = count - 1; i < count; j = i++) {
+            float xi = polygon[i * 2];
+            float yi = polygon[i * 2 + 1];
+            float xj = polygon[j * 2];
+            float yj = polygon[j * 2 + 1];
+            if ((yi > y) != (yj > y) && x < (xj - xi) * (y - yi) / (yj - yi) + xi) {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+}
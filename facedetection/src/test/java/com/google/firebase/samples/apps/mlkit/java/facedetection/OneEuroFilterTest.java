@@ -0,0 +1,105 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks the smoothing and prediction of {@link OneEuroFilter}. */
+public class OneEuroFilterTest {
+
+    private static final long FRAME_NANOS = 33_333_333L;
+
+    @Test
+    public void filter_takesFirstSampleAsIs() {
+        OneEuroFilter filter = new OneEuroFilter(1f, 0.05f, 1f);
+        float[] sample = {10f, 20f};
+
+        filter.filter(sample, 0, 2, FRAME_NANOS);
+
+        assertEquals(10f, sample[0], 0f);
+        assertEquals(20f, sample[1], 0f);
+        assertEquals(2, filter.size());
+    }
+
+    @Test
+    public void filter_removesMostJitterOfStillPoint() {
+        OneEuroFilter filter = new OneEuroFilter(1f, 0.05f, 1f);
+        Random random = new Random(3);
+        float[] sample = new float[1];
+        double rawSquares = 0;
+        double filteredSquares = 0;
+
+        for (int frame = 0; frame < 300; frame++) {
+            float noise = (float) random.nextGaussian() * 2f;
+            sample[0] = 100f + noise;
+            filter.filter(sample, 0, 1, frame * FRAME_NANOS);
+            if (frame >= 30) {
+                rawSquares += noise * noise;
+                filteredSquares += (sample[0] - 100f) * (sample[0] - 100f);
+            }
+        }
+
+        assertTrue("filtered " + filteredSquares + " raw " + rawSquares,
+                filteredSquares < rawSquares / 4);
+    }
+
+    @Test
+    public void filter_followsFastMotionWithLittleLag() {
+        OneEuroFilter filter = new OneEuroFilter(1f, 0.05f, 1f);
+        float[] sample = new float[1];
+
+        // 300 pixels per second.
+        for (int frame = 0; frame < 60; frame++) {
+            sample[0] = frame * 10f;
+            filter.filter(sample, 0, 1, frame * FRAME_NANOS);
+        }
+
+        assertEquals(590f, sample[0], 10f);
+    }
+
+    @Test
+    public void predict_extrapolatesSpeedUpToLimit() {
+        OneEuroFilter filter = new OneEuroFilter(1f, 0.05f, 1f);
+        float[] sample = new float[1];
+        for (int frame = 0; frame < 60; frame++) {
+            sample[0] = frame * 10f;
+            filter.filter(sample, 0, 1, frame * FRAME_NANOS);
+        }
+        float[] predicted = new float[1];
+        long last = 59 * FRAME_NANOS;
+
+        filter.predict(predicted, 0, last);
+        assertEquals(sample[0], predicted[0], 0f);
+
+        // Where the point really is one frame later.
+        filter.predict(predicted, 0, last + FRAME_NANOS);
+        assertEquals(600f, predicted[0], 3f);
+
+        float oneFrameAhead = predicted[0];
+        filter.predict(predicted, 0, last + 1_000_000_000L);
+        float atLimit = predicted[0];
+        filter.predict(predicted, 0, last + OneEuroFilter.MAX_PREDICTION_NANOS);
+        assertEquals(predicted[0], atLimit, 0f);
+        assertTrue(atLimit > oneFrameAhead);
+    }
+
+    @Test
+    public void filter_restartsWhenSizeChanges() {
+        OneEuroFilter filter = new OneEuroFilter(1f, 0.05f, 1f);
+        filter.filter(new float[] {1f, 2f}, 0, 2, FRAME_NANOS);
+        float[] sample = {50f, 60f, 70f};
+
+        filter.filter(sample, 0, 3, 2 * FRAME_NANOS);
+
+        assertEquals(50f, sample[0], 0f);
+        assertEquals(3, filter.size());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void predict_requiresSample() {
+        new OneEuroFilter(1f, 0.05f, 1f).predict(new float[1], 0, 0);
+    }
+}
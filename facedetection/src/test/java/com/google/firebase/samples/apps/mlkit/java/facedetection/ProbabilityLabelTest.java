@@ -0,0 +1,36 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link ProbabilityLabel} formats like {@code String.format("%.2f")} and only
+ * rebuilds its text when the rounded value changes.
+ */
+public class ProbabilityLabelTest {
+
+    @Test
+    public void get_formatsTwoDecimals() {
+        ProbabilityLabel label = new ProbabilityLabel("happiness: ");
+
+        assertEquals("happiness: 0.87", label.get(0.8712f));
+        assertEquals("happiness: 0.05", label.get(0.049f));
+        assertEquals("happiness: 1.00", label.get(1f));
+        assertEquals("happiness: 0.00", label.get(0f));
+        // The value ML Kit reports when a probability was not computed.
+        assertEquals("happiness: -1.00", label.get(-1f));
+    }
+
+    @Test
+    public void get_reusesTextWhileRoundedValueIsUnchanged() {
+        ProbabilityLabel label = new ProbabilityLabel("left eye: ");
+
+        String first = label.get(0.501f);
+        assertSame(first, label.get(0.4951f));
+        assertSame(first, label.get(0.5049f));
+        assertNotSame(first, label.get(0.51f));
+    }
+}
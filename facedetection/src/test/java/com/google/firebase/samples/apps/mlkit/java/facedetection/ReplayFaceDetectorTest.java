@@ -0,0 +1,229 @@
+package com.google.firebase.samples.apps.mlkit.java.facedetection;
+
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceContour;
+import com.google.firebase.ml.vision.face.FirebaseVisionFaceLandmark;
+import com.google.firebase.samples.apps.mlkit.common.FrameMetadata;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/** Checks the replay, latency and text format of {@link ReplayFaceDetector}. */
+public class ReplayFaceDetectorTest {
+
+    private static final ByteBuffer IMAGE = ByteBuffer.allocate(6);
+
+    @Test
+    public void detect_handsBackResultsInTurnAndStartsOver() throws Exception {
+        List<DetectedFace> first = Collections.singletonList(face(1));
+        List<DetectedFace> second = Arrays.asList(face(2), face(3));
+        ReplayFaceDetector detector = new ReplayFaceDetector(Arrays.asList(first, second));
+        Completions completions = new Completions();
+
+        for (int i = 0; i < 3; i++) {
+            detector.detect(IMAGE, 2, 2, 0, completions);
+        }
+
+        assertSame(first, completions.next());
+        assertSame(second, completions.next());
+        assertSame(first, completions.next());
+        assertEquals(3, detector.getDetections());
+        detector.close();
+    }
+
+    @Test
+    public void detect_completesAfterLatencyOneAtATime() throws Exception {
+        ReplayFaceDetector detector = new ReplayFaceDetector(
+                Collections.singletonList(Collections.<DetectedFace>emptyList()));
+        long latency = TimeUnit.MILLISECONDS.toNanos(40);
+        detector.setLatency(latency, 0);
+        Completions completions = new Completions();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < 3; i++) {
+            detector.detect(new int[4], 2, 2, completions);
+        }
+        // Each detection waits for the one before it.
+        for (int i = 1; i <= 3; i++) {
+            completions.next();
+            assertTrue(System.nanoTime() - start >= i * latency);
+        }
+        detector.close();
+    }
+
+    @Test
+    public void close_dropsDetectionsNotCompleted() throws Exception {
+        ReplayFaceDetector detector = new ReplayFaceDetector(
+                Collections.singletonList(Collections.<DetectedFace>emptyList()));
+        detector.setLatency(TimeUnit.MILLISECONDS.toNanos(20), 0);
+        Completions completions = new Completions();
+
+        detector.detect(IMAGE, 2, 2, 0, completions);
+        detector.close();
+        detector.detect(IMAGE, 2, 2, 0, completions);
+
+        assertNull(completions.results.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void readResults_readsWhatWriteResultsWrote() throws Exception {
+        DetectedFace face =
+                new DetectedFace.Builder()
+                        .setTrackingId(7)
+                        .setBounds(10, 20, 110, 140)
+                        .setHeadEulerAngles(-3.25f, 12.5f)
+                        .setSmilingProbability(0.875f)
+                        .setEyeOpenProbabilities(0.1f, 0.9f)
+                        .setLandmark(FirebaseVisionFaceLandmark.NOSE_BASE, 60.5f, 80.25f)
+                        .setLandmark(FirebaseVisionFaceLandmark.LEFT_EYE, 40f, 50f)
+                        .setContours(LipMaskRasterizerTest.smallLips())
+                        .build();
+        List<List<DetectedFace>> written = new ArrayList<>();
+        written.add(Arrays.asList(face, face(2)));
+        written.add(Collections.<DetectedFace>emptyList());
+        StringWriter out = new StringWriter();
+
+        ReplayFaceDetector.writeResults(written, out);
+        List<List<DetectedFace>> read = ReplayFaceDetector.readResults(
+                new StringReader("# recorded\n\n" + out));
+
+        assertEquals(2, read.size());
+        assertEquals(2, read.get(0).size());
+        assertEquals(0, read.get(1).size());
+        DetectedFace copy = read.get(0).get(0);
+        assertEquals(7, copy.getTrackingId());
+        assertEquals(10, copy.getLeft());
+        assertEquals(20, copy.getTop());
+        assertEquals(110, copy.getRight());
+        assertEquals(140, copy.getBottom());
+        assertEquals(-3.25f, copy.getHeadEulerAngleY(), 0f);
+        assertEquals(12.5f, copy.getHeadEulerAngleZ(), 0f);
+        assertEquals(0.875f, copy.getSmilingProbability(), 0f);
+        assertEquals(0.1f, copy.getLeftEyeOpenProbability(), 0f);
+        assertEquals(0.9f, copy.getRightEyeOpenProbability(), 0f);
+        assertTrue(copy.hasLandmark(FirebaseVisionFaceLandmark.NOSE_BASE));
+        assertEquals(60.5f, copy.getLandmarkX(FirebaseVisionFaceLandmark.NOSE_BASE), 0f);
+        assertEquals(80.25f, copy.getLandmarkY(FirebaseVisionFaceLandmark.NOSE_BASE), 0f);
+        assertEquals(40f, copy.getLandmarkX(FirebaseVisionFaceLandmark.LEFT_EYE), 0f);
+        assertFalse(copy.hasLandmark(FirebaseVisionFaceLandmark.RIGHT_EYE));
+        FaceContourGeometry contours = copy.getContours();
+        assertEquals(face.getContours().getTotalPointCount(), contours.getTotalPointCount());
+        for (int type : FaceContourGeometry.CONTOUR_TYPES) {
+            assertEquals(face.getContours().getPointCount(type), contours.getPointCount(type));
+        }
+        assertEquals(face.getContours().getX(FirebaseVisionFaceContour.LOWER_LIP_BOTTOM, 4),
+                contours.getX(FirebaseVisionFaceContour.LOWER_LIP_BOTTOM, 4), 0f);
+        DetectedFace untracked = read.get(0).get(1);
+        assertEquals(DetectedFace.UNCOMPUTED_PROBABILITY, untracked.getSmilingProbability(), 0f);
+        assertEquals(0, untracked.getContours().getTotalPointCount());
+    }
+
+    @Test
+    public void readResults_rejectsTruncatedLine() {
+        try {
+            ReplayFaceDetector.readResults(new StringReader("1 7 10 20 110\n"));
+            fail();
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("line 1"));
+        }
+    }
+
+    @Test
+    public void faceResultRecorder_keepsFacesInFrameCoordinates() throws Exception {
+        DetectedFace detected = new DetectedFace.Builder()
+                .setTrackingId(1)
+                .setBounds(0, 0, 10, 10)
+                .setLandmark(FirebaseVisionFaceLandmark.NOSE_BASE, 4f, 6f)
+                .beginContour(FirebaseVisionFaceContour.UPPER_LIP_TOP)
+                .addContourPoint(2f, 3f)
+                .build();
+        // A region at (100, 50) of the frame, detected at half its size.
+        FrameMetadata region = new FrameMetadata.Builder()
+                .setWidth(640)
+                .setHeight(480)
+                .setRegion(100, 50)
+                .setDetectionScale(0.5f)
+                .build();
+        FaceResultRecorder recorder = new FaceResultRecorder(2);
+
+        recorder.record(Collections.singletonList(detected), region);
+        recorder.record(Collections.singletonList(face(2)), null);
+        recorder.record(Collections.singletonList(face(3)), null);
+        StringWriter out = new StringWriter();
+        recorder.writeResults(out);
+
+        List<List<DetectedFace>> read =
+                ReplayFaceDetector.readResults(new StringReader(out.toString()));
+        assertEquals(2, read.size());
+        DetectedFace inFrame = read.get(0).get(0);
+        assertEquals(100, inFrame.getLeft());
+        assertEquals(50, inFrame.getTop());
+        assertEquals(120, inFrame.getRight());
+        assertEquals(70, inFrame.getBottom());
+        assertEquals(108f, inFrame.getLandmarkX(FirebaseVisionFaceLandmark.NOSE_BASE), 0f);
+        assertEquals(62f, inFrame.getLandmarkY(FirebaseVisionFaceLandmark.NOSE_BASE), 0f);
+        FaceContourGeometry contours = inFrame.getContours();
+        assertEquals(104f, contours.getX(FirebaseVisionFaceContour.UPPER_LIP_TOP, 0), 0f);
+        assertEquals(56f, contours.getY(FirebaseVisionFaceContour.UPPER_LIP_TOP, 0), 0f);
+        // Still images are kept as detected.
+        assertEquals(10, read.get(1).get(0).getRight());
+        // The detection itself is left alone.
+        assertEquals(10, detected.getRight());
+    }
+
+    @Test
+    public void readsImages_isFalseSoFramesAreDetectedWhole() {
+        List<DetectedFace> faces = Collections.singletonList(face(1));
+        ReplayFaceDetector detector = new ReplayFaceDetector(Collections.singletonList(faces));
+
+        assertFalse(detector.readsImages());
+        detector.close();
+    }
+
+    private static DetectedFace face(int trackingId) {
+        return new DetectedFace.Builder()
+                .setTrackingId(trackingId)
+                .setBounds(0, 0, 10, 10)
+                .build();
+    }
+
+    /** Collects the results of detections as they complete. */
+    private static final class Completions implements FaceDetector.Callback<List<DetectedFace>> {
+        final BlockingQueue<List<DetectedFace>> results = new LinkedBlockingQueue<>();
+
+        @Override
+        public void onSuccess(List<DetectedFace> faces) {
+            results.add(faces);
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            throw new AssertionError(e);
+        }
+
+        List<DetectedFace> next() throws InterruptedException {
+            List<DetectedFace> faces = results.poll(5, TimeUnit.SECONDS);
+            if (faces == null) {
+                throw new AssertionError("Detection did not complete");
+            }
+            return faces;
+        }
+    }
+}